@@ -0,0 +1,460 @@
+package org.lobobrowser.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe cache, bounded by the approximate size of its values, with a
+ * W-TinyLFU replacement policy.
+ * <p>
+ * New entries go into a small LRU window. Entries leaving the window are
+ * admitted into the main space only if they have been used more often than
+ * the entry they would replace, as estimated by a frequency sketch. This
+ * keeps a burst of large, one-off entries from flushing out entries that are
+ * used again and again.
+ * <p>
+ * Lookups do not lock. They are recorded in small lossy buffers which are
+ * replayed against the policy the next time the policy lock is taken. Writes
+ * take the policy lock.
+ */
+public final class TinyLFUCache {
+  private static final double WINDOW_FRACTION = 0.01;
+  private static final double PROTECTED_FRACTION = 0.8;
+  private static final int NUM_READ_BUFFERS = 4;
+
+  // Used to size the frequency sketch.
+  private static final int ASSUMED_AVERAGE_SIZE = 4096;
+
+  private final ConcurrentHashMap<Object, Node> data = new ConcurrentHashMap<>();
+  private final ReentrantLock policyLock = new ReentrantLock();
+  private final ReadBuffer[] readBuffers = new ReadBuffer[NUM_READ_BUFFERS];
+  private final FrequencySketch sketch = new FrequencySketch();
+  private final AccessQueue window = new AccessQueue();
+  private final AccessQueue probation = new AccessQueue();
+  private final AccessQueue protectedQueue = new AccessQueue();
+
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+
+  // Guarded by policyLock.
+  private long maximumSize;
+  private long windowMaximum;
+  private long protectedMaximum;
+  private volatile long currentSize = 0;
+
+  public TinyLFUCache(final long approxMaxSize) {
+    for (int i = 0; i < NUM_READ_BUFFERS; i++) {
+      this.readBuffers[i] = new ReadBuffer();
+    }
+    this.setLimits(approxMaxSize);
+  }
+
+  public Object get(final Object key) {
+    final Node node = this.data.get(key);
+    if (node == null) {
+      this.missCount.increment();
+      return null;
+    }
+    this.hitCount.increment();
+    final ReadBuffer buffer = this.readBuffers[(int) Thread.currentThread().getId() & (NUM_READ_BUFFERS - 1)];
+    if (buffer.offer(node)) {
+      this.tryDrain();
+    }
+    return node.value;
+  }
+
+  public void put(final Object key, final Object value, final int approxSize) {
+    this.policyLock.lock();
+    try {
+      if (approxSize > this.maximumSize) {
+        // Can't be inserted.
+        this.removeImpl(key);
+        return;
+      }
+      this.drainReadBuffers();
+      final Node existing = this.data.get(key);
+      if (existing != null) {
+        existing.value = value;
+        existing.queue.weight += (approxSize - existing.weight);
+        this.currentSize += (approxSize - existing.weight);
+        existing.weight = approxSize;
+        this.onAccess(existing);
+      } else {
+        final Node node = new Node(key, value, approxSize, this.window);
+        this.data.put(key, node);
+        this.sketch.increment(key);
+        this.window.addLast(node);
+        this.window.weight += approxSize;
+        this.currentSize += approxSize;
+      }
+      this.evict();
+    } finally {
+      this.policyLock.unlock();
+    }
+  }
+
+  public Object remove(final Object key) {
+    this.policyLock.lock();
+    try {
+      return this.removeImpl(key);
+    } finally {
+      this.policyLock.unlock();
+    }
+  }
+
+  public long getApproxMaxSize() {
+    this.policyLock.lock();
+    try {
+      return this.maximumSize;
+    } finally {
+      this.policyLock.unlock();
+    }
+  }
+
+  public void setApproxMaxSize(final long approxMaxSize) {
+    this.policyLock.lock();
+    try {
+      this.setLimits(approxMaxSize);
+      this.evict();
+    } finally {
+      this.policyLock.unlock();
+    }
+  }
+
+  public long getApproxSize() {
+    return this.currentSize;
+  }
+
+  public int getNumEntries() {
+    return this.data.size();
+  }
+
+  public long getHitCount() {
+    return this.hitCount.sum();
+  }
+
+  public long getMissCount() {
+    return this.missCount.sum();
+  }
+
+  public long getEvictionCount() {
+    return this.evictionCount.sum();
+  }
+
+  public List<LRUCache.EntryInfo> getEntryInfoList() {
+    final List<LRUCache.EntryInfo> list = new ArrayList<>();
+    for (final Node node : this.data.values()) {
+      final Object value = node.value;
+      final Class<? extends Object> vc = value == null ? null : value.getClass();
+      list.add(new LRUCache.EntryInfo(vc, node.weight));
+    }
+    return list;
+  }
+
+  // The methods below must be called while holding the policy lock.
+
+  private void setLimits(final long approxMaxSize) {
+    this.maximumSize = approxMaxSize;
+    this.windowMaximum = (long) (approxMaxSize * WINDOW_FRACTION);
+    this.protectedMaximum = (long) ((approxMaxSize - this.windowMaximum) * PROTECTED_FRACTION);
+    this.sketch.ensureCapacity(approxMaxSize / ASSUMED_AVERAGE_SIZE);
+  }
+
+  private Object removeImpl(final Object key) {
+    final Node node = this.data.remove(key);
+    if (node == null) {
+      return null;
+    }
+    this.unlink(node);
+    return node.value;
+  }
+
+  private void unlink(final Node node) {
+    final AccessQueue queue = node.queue;
+    queue.remove(node);
+    queue.weight -= node.weight;
+    this.currentSize -= node.weight;
+    node.queue = null;
+  }
+
+  private void onAccess(final Node node) {
+    if (node.queue == null) {
+      // Removed after the read was recorded.
+      return;
+    }
+    this.sketch.increment(node.key);
+    if (node.queue == this.window) {
+      this.window.moveToLast(node);
+    } else if (node.queue == this.probation) {
+      this.probation.remove(node);
+      this.probation.weight -= node.weight;
+      node.queue = this.protectedQueue;
+      this.protectedQueue.addLast(node);
+      this.protectedQueue.weight += node.weight;
+      while ((this.protectedQueue.weight > this.protectedMaximum) && (this.protectedQueue.first != node)) {
+        final Node demoted = this.protectedQueue.first;
+        this.protectedQueue.remove(demoted);
+        this.protectedQueue.weight -= demoted.weight;
+        demoted.queue = this.probation;
+        this.probation.addLast(demoted);
+        this.probation.weight += demoted.weight;
+      }
+    } else {
+      this.protectedQueue.moveToLast(node);
+    }
+  }
+
+  private void evict() {
+    // Entries leaving the window become candidates at the tail of probation.
+    int candidates = 0;
+    while ((this.window.weight > this.windowMaximum) && (this.window.first != null)) {
+      final Node node = this.window.first;
+      this.window.remove(node);
+      this.window.weight -= node.weight;
+      node.queue = this.probation;
+      this.probation.addLast(node);
+      this.probation.weight += node.weight;
+      candidates++;
+    }
+    while (this.currentSize > this.maximumSize) {
+      if ((candidates > 0) && (this.probation.first != this.probation.last)) {
+        final Node candidate = this.probation.last;
+        final Node victim = this.probation.first;
+        if (this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key)) {
+          this.evictNode(victim);
+        } else {
+          this.evictNode(candidate);
+          candidates--;
+        }
+      } else if (this.probation.first != null) {
+        if (this.probation.first == this.probation.last) {
+          candidates = 0;
+        }
+        this.evictNode(this.probation.first);
+      } else if (this.protectedQueue.first != null) {
+        this.evictNode(this.protectedQueue.first);
+      } else if (this.window.first != null) {
+        this.evictNode(this.window.first);
+      } else {
+        throw new IllegalStateException("Cannot evict since the cache is empty.");
+      }
+    }
+  }
+
+  private void evictNode(final Node node) {
+    this.data.remove(node.key, node);
+    this.unlink(node);
+    this.evictionCount.increment();
+  }
+
+  private void tryDrain() {
+    if (this.policyLock.tryLock()) {
+      try {
+        this.drainReadBuffers();
+      } finally {
+        this.policyLock.unlock();
+      }
+    }
+  }
+
+  private void drainReadBuffers() {
+    for (final ReadBuffer buffer : this.readBuffers) {
+      buffer.drainTo(this);
+    }
+  }
+
+  private static final class Node {
+    private final Object key;
+    private volatile Object value;
+    private int weight;
+    private AccessQueue queue;
+    private Node prev;
+    private Node next;
+
+    Node(final Object key, final Object value, final int weight, final AccessQueue queue) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+      this.queue = queue;
+    }
+  }
+
+  /**
+   * A doubly linked list of nodes, least recently used first.
+   */
+  private static final class AccessQueue {
+    private Node first;
+    private Node last;
+    private long weight = 0;
+
+    void addLast(final Node node) {
+      node.prev = this.last;
+      node.next = null;
+      if (this.last == null) {
+        this.first = node;
+      } else {
+        this.last.next = node;
+      }
+      this.last = node;
+    }
+
+    void remove(final Node node) {
+      if (node.prev == null) {
+        this.first = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        this.last = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+    }
+
+    void moveToLast(final Node node) {
+      if (this.last != node) {
+        this.remove(node);
+        this.addLast(node);
+      }
+    }
+  }
+
+  /**
+   * A bounded buffer of recent reads. When it is full, further reads are
+   * simply not recorded.
+   */
+  private static final class ReadBuffer {
+    private static final int SIZE = 16;
+    private static final int MASK = SIZE - 1;
+    private static final int DRAIN_THRESHOLD = SIZE / 2;
+    private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(SIZE);
+    private final AtomicLong writeCounter = new AtomicLong();
+    private volatile long readCounter = 0;
+
+    /**
+     * Returns <code>true</code> if the buffer should be drained.
+     */
+    boolean offer(final Node node) {
+      final long head = this.readCounter;
+      final long tail = this.writeCounter.get();
+      final long size = tail - head;
+      if (size >= SIZE) {
+        return true;
+      }
+      if (this.writeCounter.compareAndSet(tail, tail + 1)) {
+        this.slots.lazySet((int) (tail & MASK), node);
+        return size >= DRAIN_THRESHOLD;
+      }
+      return false;
+    }
+
+    // Called with the policy lock held.
+    void drainTo(final TinyLFUCache cache) {
+      long head = this.readCounter;
+      final long tail = this.writeCounter.get();
+      while (head < tail) {
+        final int index = (int) (head & MASK);
+        final Node node = this.slots.get(index);
+        if (node == null) {
+          // Not published yet.
+          break;
+        }
+        this.slots.lazySet(index, null);
+        cache.onAccess(node);
+        head++;
+      }
+      this.readCounter = head;
+    }
+  }
+
+  /**
+   * A count-min sketch of 4 bit counters, four to a table slot. All counters
+   * are halved periodically, so that the sketch follows changes in
+   * popularity.
+   */
+  private static final class FrequencySketch {
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    void ensureCapacity(final long expectedEntries) {
+      final int capacity = (int) Math.min(Math.max(expectedEntries, 16), 1 << 24);
+      final int tableSize = Integer.highestOneBit(capacity - 1) << 1;
+      if ((this.table != null) && (this.table.length >= tableSize)) {
+        return;
+      }
+      this.table = new long[tableSize];
+      this.tableMask = tableSize - 1;
+      this.sampleSize = 10 * tableSize;
+      this.size = 0;
+    }
+
+    int frequency(final Object key) {
+      final int hash = spread(key.hashCode());
+      final int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        final int index = this.indexOf(hash, i);
+        final int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    void increment(final Object key) {
+      final int hash = spread(key.hashCode());
+      final int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= this.incrementAt(this.indexOf(hash, i), start + i);
+      }
+      if (added && (++this.size == this.sampleSize)) {
+        this.reset();
+      }
+    }
+
+    private boolean incrementAt(final int index, final int counter) {
+      final int offset = counter << 2;
+      final long mask = 0xfL << offset;
+      if ((this.table[index] & mask) != mask) {
+        this.table[index] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private void reset() {
+      int oddCounters = 0;
+      for (int i = 0; i < this.table.length; i++) {
+        oddCounters += Long.bitCount(this.table[i] & ONE_MASK);
+        this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+      }
+      this.size = (this.size >>> 1) - (oddCounters >>> 2);
+    }
+
+    private int indexOf(final int hash, final int depth) {
+      long h = (hash + SEEDS[depth]) * SEEDS[depth];
+      h += h >>> 32;
+      return ((int) h) & this.tableMask;
+    }
+
+    private static int spread(final int x) {
+      int h = ((x >>> 16) ^ x) * 0x45d9f3b;
+      h = ((h >>> 16) ^ h) * 0x45d9f3b;
+      return (h >>> 16) ^ h;
+    }
+  }
+}
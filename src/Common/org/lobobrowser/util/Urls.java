@@ -140,11 +140,37 @@ public class Urls {
     // When there is no cache setting; assume a 60 second cache expiry time, for now.
     // return baseTime + (60 * 1000);
     // ^^ Update: Assume expiry time only if ETag header is present.
-    //            We have not implemented the ETag header yet, but the presence of it is a good indicator that the response could be cached.
+    //            The ETag is sent back as If-None-Match on revalidation, and its presence is a good indicator that the response could be cached.
     final String etag = connection.getHeaderField("Etag");
     return etag == null ? 0 : baseTime + (60 * 1000);
   }
 
+  /**
+   * Gets the number of seconds given to a <code>Cache-Control</code>
+   * directive, such as <code>stale-while-revalidate</code>. Returns -1 if the
+   * directive is not present or has no valid value.
+   */
+  public static long getCacheControlSeconds(final URLConnection connection, final String directive) {
+    final String cacheControl = connection.getHeaderField("Cache-Control");
+    if (cacheControl != null) {
+      final StringTokenizer tok = new StringTokenizer(cacheControl, ",");
+      while (tok.hasMoreTokens()) {
+        final String token = tok.nextToken().trim().toLowerCase();
+        final int eqIdx = token.indexOf('=');
+        if ((eqIdx != -1) && directive.equals(token.substring(0, eqIdx).trim())) {
+          final String value = token.substring(eqIdx + 1).trim();
+          try {
+            final long seconds = Long.parseLong(value);
+            return seconds < 0 ? -1 : seconds;
+          } catch (final NumberFormatException nfe) {
+            logger.warning("getCacheControlSeconds(): Bad Cache-Control " + directive + " value: " + value);
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
   public static List<NameValuePair> getHeaders(final URLConnection connection) {
     // Random access index recommended.
     final List<NameValuePair> headers = new ArrayList<>();
@@ -0,0 +1,236 @@
+package org.lobobrowser.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A growable byte buffer made of fixed size chunks that are taken from, and
+ * given back to, a shared pool. Unlike a <code>ByteArrayOutputStream</code>,
+ * growing the buffer never copies the bytes already written, and readers can
+ * get at the content through {@link #toByteBuffers()}, {@link #update} and
+ * {@link #newInputStream(int)} without copying it either.
+ * <p>
+ * A buffer starts out with one reference. Holders that need the content to
+ * outlive the original owner call {@link #retain()}, and every holder calls
+ * {@link #release()} when done. The chunks go back to the pool when the last
+ * reference is released. A buffer that is never released is simply garbage
+ * collected.
+ * <p>
+ * Reads and writes are synchronized, so that the content written so far can
+ * be read, for example to show the source of a document that is still
+ * loading, while another thread writes. The views returned by
+ * {@link #toByteBuffers()} only cover what had been written when they were
+ * taken.
+ */
+public final class ChunkedBuffer {
+  static final int CHUNK_SIZE = 16 * 1024;
+  private static final int MAX_POOLED_CHUNKS = 256;
+  private static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger numPooled = new AtomicInteger();
+
+  private final ArrayList<byte[]> chunks = new ArrayList<>();
+  private final AtomicInteger references = new AtomicInteger(1);
+  private int size = 0;
+
+  private static byte[] takeChunk() {
+    final byte[] chunk = pool.poll();
+    if (chunk == null) {
+      return new byte[CHUNK_SIZE];
+    }
+    numPooled.decrementAndGet();
+    return chunk;
+  }
+
+  private static void giveChunk(final byte[] chunk) {
+    if (numPooled.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+      pool.offer(chunk);
+    } else {
+      numPooled.decrementAndGet();
+    }
+  }
+
+  public synchronized int size() {
+    return this.size;
+  }
+
+  public boolean isReleased() {
+    return this.references.get() <= 0;
+  }
+
+  private void checkNotReleased() {
+    if (this.isReleased()) {
+      throw new IllegalStateException("Buffer has been released.");
+    }
+  }
+
+  public synchronized void write(final int b) {
+    this.checkNotReleased();
+    final int offset = this.size % CHUNK_SIZE;
+    if (offset == 0) {
+      this.chunks.add(takeChunk());
+    }
+    this.chunks.get(this.chunks.size() - 1)[offset] = (byte) b;
+    this.size++;
+  }
+
+  public synchronized void write(final byte[] buffer, final int offset, final int length) {
+    this.checkNotReleased();
+    int srcOffset = offset;
+    int remaining = length;
+    while (remaining > 0) {
+      final int chunkOffset = this.size % CHUNK_SIZE;
+      if (chunkOffset == 0) {
+        this.chunks.add(takeChunk());
+      }
+      final int n = Math.min(remaining, CHUNK_SIZE - chunkOffset);
+      System.arraycopy(buffer, srcOffset, this.chunks.get(this.chunks.size() - 1), chunkOffset, n);
+      srcOffset += n;
+      remaining -= n;
+      this.size += n;
+    }
+  }
+
+  /**
+   * Copies up to <code>length</code> bytes, starting at <code>position</code>
+   * of this buffer, and returns the number of bytes copied, or -1 if
+   * <code>position</code> is at the end of the buffer.
+   */
+  public synchronized int read(final int position, final byte[] buffer, final int offset, final int length) {
+    this.checkNotReleased();
+    if (position >= this.size) {
+      return -1;
+    }
+    final int total = Math.min(length, this.size - position);
+    int pos = position;
+    int dstOffset = offset;
+    int remaining = total;
+    while (remaining > 0) {
+      final int chunkOffset = pos % CHUNK_SIZE;
+      final int n = Math.min(remaining, CHUNK_SIZE - chunkOffset);
+      System.arraycopy(this.chunks.get(pos / CHUNK_SIZE), chunkOffset, buffer, dstOffset, n);
+      pos += n;
+      dstOffset += n;
+      remaining -= n;
+    }
+    return total;
+  }
+
+  /**
+   * Gets the byte at the given position as an unsigned value.
+   */
+  public synchronized int get(final int position) {
+    this.checkNotReleased();
+    if ((position < 0) || (position >= this.size)) {
+      throw new IndexOutOfBoundsException(String.valueOf(position));
+    }
+    return this.chunks.get(position / CHUNK_SIZE)[position % CHUNK_SIZE] & 0xFF;
+  }
+
+  public synchronized byte[] toByteArray() {
+    final byte[] result = new byte[this.size];
+    this.read(0, result, 0, this.size);
+    return result;
+  }
+
+  /**
+   * Gets read-only views of the chunks, suitable for gather writes. The views
+   * are only valid until the buffer is released.
+   */
+  public synchronized ByteBuffer[] toByteBuffers() {
+    this.checkNotReleased();
+    final int numChunks = this.chunks.size();
+    final ByteBuffer[] buffers = new ByteBuffer[numChunks];
+    for (int i = 0; i < numChunks; i++) {
+      final int length = i == (numChunks - 1) ? this.size - (i * CHUNK_SIZE) : CHUNK_SIZE;
+      buffers[i] = ByteBuffer.wrap(this.chunks.get(i), 0, length).asReadOnlyBuffer();
+    }
+    return buffers;
+  }
+
+  public synchronized void update(final MessageDigest digest) {
+    this.checkNotReleased();
+    int remaining = this.size;
+    for (final byte[] chunk : this.chunks) {
+      final int n = Math.min(remaining, CHUNK_SIZE);
+      digest.update(chunk, 0, n);
+      remaining -= n;
+    }
+  }
+
+  public synchronized void writeTo(final OutputStream out) throws IOException {
+    this.checkNotReleased();
+    int remaining = this.size;
+    for (final byte[] chunk : this.chunks) {
+      final int n = Math.min(remaining, CHUNK_SIZE);
+      out.write(chunk, 0, n);
+      remaining -= n;
+    }
+  }
+
+  /**
+   * Gets a stream over the content from the given position up to the size of
+   * the buffer at the time of reading.
+   */
+  public InputStream newInputStream(final int position) {
+    return new InputStream() {
+      private int readPosition = position;
+
+      @Override
+      public int read() {
+        if (this.readPosition >= size()) {
+          return -1;
+        }
+        return get(this.readPosition++);
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+          return 0;
+        }
+        final int n = ChunkedBuffer.this.read(this.readPosition, b, off, len);
+        if (n > 0) {
+          this.readPosition += n;
+        }
+        return n;
+      }
+
+      @Override
+      public int available() {
+        return Math.max(0, size() - this.readPosition);
+      }
+    };
+  }
+
+  public void retain() {
+    if (this.references.getAndIncrement() <= 0) {
+      this.references.decrementAndGet();
+      throw new IllegalStateException("Buffer has been released.");
+    }
+  }
+
+  /**
+   * Gives up one reference to the buffer. Once no references are left, the
+   * chunks go back to the pool and the content is no longer available.
+   */
+  public void release() {
+    final int refs = this.references.decrementAndGet();
+    if (refs == 0) {
+      synchronized (this) {
+        for (final byte[] chunk : this.chunks) {
+          giveChunk(chunk);
+        }
+        this.chunks.clear();
+        this.size = 0;
+      }
+    } else if (refs < 0) {
+      this.references.incrementAndGet();
+    }
+  }
+}
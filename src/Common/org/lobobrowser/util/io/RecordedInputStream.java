@@ -23,7 +23,6 @@
  */
 package org.lobobrowser.util.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -31,6 +30,9 @@ import java.io.InputStream;
  * Wraps an InputStream and records all of the bytes read. This stream supports
  * mark() and reset().
  * <p>
+ * The bytes are recorded in a pooled {@link ChunkedBuffer}, which should be
+ * released once the recording is no longer needed.
+ * <p>
  * Note: Buffered streams should wrap this class as opposed to the other way
  * around.
  *
@@ -38,13 +40,14 @@ import java.io.InputStream;
  */
 public class RecordedInputStream extends InputStream {
   private final InputStream delegate;
-  private final ByteArrayOutputStream store = new ByteArrayOutputStream();
+  private final ChunkedBuffer store = new ChunkedBuffer();
   private final int maxBufferSize;
   private boolean hasReachedEOF = false;
-  private boolean hasReachedMaxBufferSize = false;
+  // Read by threads that look at the recording while it is being made.
+  private volatile boolean hasReachedMaxBufferSize = false;
   private int markPosition = -1;
   private int readPosition = -1;
-  private byte[] resetBuffer = null;
+  private int resetEnd = -1;
 
   /**
    *
@@ -55,6 +58,18 @@ public class RecordedInputStream extends InputStream {
     this.maxBufferSize = maxBufferSize;
   }
 
+  private boolean isRecording() {
+    return !this.hasReachedMaxBufferSize && !this.store.isReleased();
+  }
+
+  private void recorded() {
+    if (this.store.size() > this.maxBufferSize) {
+      this.hasReachedMaxBufferSize = true;
+      // The recording can no longer be used, so give back its memory.
+      this.store.release();
+    }
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -62,18 +77,16 @@ public class RecordedInputStream extends InputStream {
    */
   @Override
   public int read() throws IOException {
-    if ((this.readPosition != -1) && (this.readPosition < this.resetBuffer.length)) {
-      final int b = this.resetBuffer[this.readPosition];
+    if ((this.readPosition != -1) && (this.readPosition < this.resetEnd)) {
+      final int b = this.store.get(this.readPosition);
       this.readPosition++;
       return b;
     } else {
       final int b = this.delegate.read();
       if (b != -1) {
-        if (!this.hasReachedMaxBufferSize) {
+        if (this.isRecording()) {
           this.store.write(b);
-          if (this.store.size() > this.maxBufferSize) {
-            this.hasReachedMaxBufferSize = true;
-          }
+          this.recorded();
         }
       } else {
         this.hasReachedEOF = true;
@@ -125,12 +138,9 @@ public class RecordedInputStream extends InputStream {
     if (this.hasReachedMaxBufferSize) {
       throw new java.lang.IllegalStateException("Maximum buffer size was already reached.");
     }
-    final int mp = this.markPosition;
-    final byte[] wholeBuffer = this.store.toByteArray();
-    final byte[] resetBuffer = new byte[wholeBuffer.length - mp];
-    System.arraycopy(wholeBuffer, mp, resetBuffer, 0, resetBuffer.length);
-    this.resetBuffer = resetBuffer;
-    this.readPosition = 0;
+    // Replay the recorded bytes in place, without copying them.
+    this.readPosition = this.markPosition;
+    this.resetEnd = this.store.size();
   }
 
   /*
@@ -140,19 +150,17 @@ public class RecordedInputStream extends InputStream {
    */
   @Override
   public int read(final byte[] buffer, final int offset, final int length) throws IOException {
-    if ((this.readPosition != -1) && (this.readPosition < this.resetBuffer.length)) {
-      final int minLength = Math.min(this.resetBuffer.length - this.readPosition, length);
-      System.arraycopy(this.resetBuffer, this.readPosition, buffer, offset, minLength);
+    if ((this.readPosition != -1) && (this.readPosition < this.resetEnd)) {
+      final int minLength = Math.min(this.resetEnd - this.readPosition, length);
+      this.store.read(this.readPosition, buffer, offset, minLength);
       this.readPosition += minLength;
       return minLength;
     } else {
       final int numRead = this.delegate.read(buffer, offset, length);
       if (numRead != -1) {
-        if (!this.hasReachedMaxBufferSize) {
+        if (this.isRecording()) {
           this.store.write(buffer, offset, numRead);
-          if (this.store.size() > this.maxBufferSize) {
-            this.hasReachedMaxBufferSize = true;
-          }
+          this.recorded();
         }
       } else {
         this.hasReachedEOF = true;
@@ -168,22 +176,49 @@ public class RecordedInputStream extends InputStream {
     }
   }
 
-  public byte[] getBytesRead() throws BufferExceededException {
+  /**
+   * Gets the recorded bytes without copying them. The buffer is only valid
+   * until it is released.
+   */
+  public ChunkedBuffer getBuffer() throws BufferExceededException {
     if (this.hasReachedMaxBufferSize) {
       throw new BufferExceededException();
     }
-    return this.store.toByteArray();
+    return this.store;
+  }
+
+  public byte[] getBytesRead() throws BufferExceededException {
+    return this.getBuffer().toByteArray();
   }
 
   public String getString(final String encoding) throws java.io.UnsupportedEncodingException, BufferExceededException {
-    if (this.hasReachedMaxBufferSize) {
-      throw new BufferExceededException();
-    }
-    final byte[] bytes = this.store.toByteArray();
+    final byte[] bytes = this.getBuffer().toByteArray();
     return new String(bytes, encoding);
   }
 
   public boolean hasReachedEOF() {
     return this.hasReachedEOF;
   }
+
+  /**
+   * Keeps the recording available after the current owner releases it. Each
+   * call must be balanced by a call to {@link #release()}, unless the
+   * recording is meant to live as long as the caller.
+   */
+  public void retain() {
+    if (!this.hasReachedMaxBufferSize) {
+      this.store.retain();
+    }
+  }
+
+  /**
+   * Gives up a reference to the recording, returning its memory to the pool
+   * once no references are left. Reading continues to work, but is no longer
+   * recorded.
+   */
+  public void release() {
+    if (!this.hasReachedMaxBufferSize) {
+      this.store.release();
+    }
+  }
 }
@@ -0,0 +1,329 @@
+package org.lobobrowser.html.domimpl;
+
+/**
+ * A known element or attribute name. There is one atom per name, with an id
+ * that can be switched on, and the name in lower and upper case, so that
+ * known names need not be compared or case-folded as strings. Element and
+ * attribute names share the table; <code>title</code>, for instance, is one
+ * atom.
+ *
+ * <p>
+ * Names are looked up ignoring ASCII case, without allocating.
+ */
+public final class Atom {
+  public static final int A = 0;
+  public static final int ABBR = 1;
+  public static final int ACCEPT = 2;
+  public static final int ACCEPT_CHARSET = 3;
+  public static final int ACCESSKEY = 4;
+  public static final int ACTION = 5;
+  public static final int ADDRESS = 6;
+  public static final int ALIGN = 7;
+  public static final int ALT = 8;
+  public static final int ANCHOR = 9;
+  public static final int APPLET = 10;
+  public static final int AREA = 11;
+  public static final int ARTICLE = 12;
+  public static final int ASIDE = 13;
+  public static final int ASYNC = 14;
+  public static final int AUDIO = 15;
+  public static final int AUTOCOMPLETE = 16;
+  public static final int AUTOFOCUS = 17;
+  public static final int B = 18;
+  public static final int BASE = 19;
+  public static final int BASEFONT = 20;
+  public static final int BDI = 21;
+  public static final int BDO = 22;
+  public static final int BGCOLOR = 23;
+  public static final int BIG = 24;
+  public static final int BLOCKQUOTE = 25;
+  public static final int BODY = 26;
+  public static final int BORDER = 27;
+  public static final int BR = 28;
+  public static final int BUTTON = 29;
+  public static final int CANVAS = 30;
+  public static final int CAPTION = 31;
+  public static final int CELLPADDING = 32;
+  public static final int CELLSPACING = 33;
+  public static final int CENTER = 34;
+  public static final int CHARSET = 35;
+  public static final int CHECKED = 36;
+  public static final int CITE = 37;
+  public static final int CLASS = 38;
+  public static final int CODE = 39;
+  public static final int COL = 40;
+  public static final int COLGROUP = 41;
+  public static final int COLOR = 42;
+  public static final int COLS = 43;
+  public static final int COLSPAN = 44;
+  public static final int CONTENT = 45;
+  public static final int COORDS = 46;
+  public static final int CROSSORIGIN = 47;
+  public static final int DATA = 48;
+  public static final int DATALIST = 49;
+  public static final int DD = 50;
+  public static final int DEFER = 51;
+  public static final int DEL = 52;
+  public static final int DETAILS = 53;
+  public static final int DFN = 54;
+  public static final int DIALOG = 55;
+  public static final int DIR = 56;
+  public static final int DISABLED = 57;
+  public static final int DIV = 58;
+  public static final int DL = 59;
+  public static final int DT = 60;
+  public static final int EM = 61;
+  public static final int EMBED = 62;
+  public static final int ENCTYPE = 63;
+  public static final int FACE = 64;
+  public static final int FIELDSET = 65;
+  public static final int FIGCAPTION = 66;
+  public static final int FIGURE = 67;
+  public static final int FONT = 68;
+  public static final int FOOTER = 69;
+  public static final int FOR = 70;
+  public static final int FORM = 71;
+  public static final int FRAME = 72;
+  public static final int FRAMEBORDER = 73;
+  public static final int FRAMESET = 74;
+  public static final int H1 = 75;
+  public static final int H2 = 76;
+  public static final int H3 = 77;
+  public static final int H4 = 78;
+  public static final int H5 = 79;
+  public static final int H6 = 80;
+  public static final int HEAD = 81;
+  public static final int HEADER = 82;
+  public static final int HEADERS = 83;
+  public static final int HEIGHT = 84;
+  public static final int HIDDEN = 85;
+  public static final int HR = 86;
+  public static final int HREF = 87;
+  public static final int HREFLANG = 88;
+  public static final int HTML = 89;
+  public static final int HTTP_EQUIV = 90;
+  public static final int I = 91;
+  public static final int ID = 92;
+  public static final int IFRAME = 93;
+  public static final int IMG = 94;
+  public static final int INPUT = 95;
+  public static final int INS = 96;
+  public static final int INTEGRITY = 97;
+  public static final int KBD = 98;
+  public static final int LABEL = 99;
+  public static final int LANG = 100;
+  public static final int LANGUAGE = 101;
+  public static final int LEGEND = 102;
+  public static final int LI = 103;
+  public static final int LINK = 104;
+  public static final int MAIN = 105;
+  public static final int MAP = 106;
+  public static final int MARGINHEIGHT = 107;
+  public static final int MARGINWIDTH = 108;
+  public static final int MARK = 109;
+  public static final int MAX = 110;
+  public static final int MAXLENGTH = 111;
+  public static final int MEDIA = 112;
+  public static final int MENU = 113;
+  public static final int META = 114;
+  public static final int METER = 115;
+  public static final int METHOD = 116;
+  public static final int MIN = 117;
+  public static final int MULTIPLE = 118;
+  public static final int NAME = 119;
+  public static final int NAV = 120;
+  public static final int NOFRAMES = 121;
+  public static final int NOSCRIPT = 122;
+  public static final int NOWRAP = 123;
+  public static final int OBJECT = 124;
+  public static final int OL = 125;
+  public static final int ONBLUR = 126;
+  public static final int ONCHANGE = 127;
+  public static final int ONCLICK = 128;
+  public static final int ONERROR = 129;
+  public static final int ONFOCUS = 130;
+  public static final int ONKEYDOWN = 131;
+  public static final int ONKEYPRESS = 132;
+  public static final int ONKEYUP = 133;
+  public static final int ONLOAD = 134;
+  public static final int ONMOUSEDOWN = 135;
+  public static final int ONMOUSEMOVE = 136;
+  public static final int ONMOUSEOUT = 137;
+  public static final int ONMOUSEOVER = 138;
+  public static final int ONMOUSEUP = 139;
+  public static final int ONSUBMIT = 140;
+  public static final int ONUNLOAD = 141;
+  public static final int OPTGROUP = 142;
+  public static final int OPTION = 143;
+  public static final int OUTPUT = 144;
+  public static final int P = 145;
+  public static final int PARAM = 146;
+  public static final int PATTERN = 147;
+  public static final int PICTURE = 148;
+  public static final int PLACEHOLDER = 149;
+  public static final int PRE = 150;
+  public static final int PROGRESS = 151;
+  public static final int Q = 152;
+  public static final int READONLY = 153;
+  public static final int REL = 154;
+  public static final int REQUIRED = 155;
+  public static final int ROWS = 156;
+  public static final int ROWSPAN = 157;
+  public static final int RP = 158;
+  public static final int RT = 159;
+  public static final int RUBY = 160;
+  public static final int S = 161;
+  public static final int SAMP = 162;
+  public static final int SCRIPT = 163;
+  public static final int SCROLLING = 164;
+  public static final int SECTION = 165;
+  public static final int SELECT = 166;
+  public static final int SELECTED = 167;
+  public static final int SHAPE = 168;
+  public static final int SIZE = 169;
+  public static final int SMALL = 170;
+  public static final int SOURCE = 171;
+  public static final int SPACER = 172;
+  public static final int SPAN = 173;
+  public static final int SRC = 174;
+  public static final int SRCSET = 175;
+  public static final int START = 176;
+  public static final int STEP = 177;
+  public static final int STRIKE = 178;
+  public static final int STRONG = 179;
+  public static final int STYLE = 180;
+  public static final int SUB = 181;
+  public static final int SUMMARY = 182;
+  public static final int SUP = 183;
+  public static final int SVG = 184;
+  public static final int TABINDEX = 185;
+  public static final int TABLE = 186;
+  public static final int TARGET = 187;
+  public static final int TBODY = 188;
+  public static final int TD = 189;
+  public static final int TEMPLATE = 190;
+  public static final int TEXT = 191;
+  public static final int TEXTAREA = 192;
+  public static final int TFOOT = 193;
+  public static final int TH = 194;
+  public static final int THEAD = 195;
+  public static final int TIME = 196;
+  public static final int TITLE = 197;
+  public static final int TR = 198;
+  public static final int TRACK = 199;
+  public static final int TT = 200;
+  public static final int TYPE = 201;
+  public static final int U = 202;
+  public static final int UL = 203;
+  public static final int USEMAP = 204;
+  public static final int VALIGN = 205;
+  public static final int VALUE = 206;
+  public static final int VAR = 207;
+  public static final int VIDEO = 208;
+  public static final int WBR = 209;
+  public static final int WIDTH = 210;
+  public static final int XMP = 211;
+
+  /** The number of atoms; ids range from zero up to it. */
+  public static final int COUNT = 212;
+
+  /** The id of names that have no atom. */
+  public static final int UNKNOWN = -1;
+
+  private static final String[] NAMES = {
+      "a", "abbr", "accept", "accept-charset", "accesskey", "action", "address", "align", "alt", "anchor",
+      "applet", "area", "article", "aside", "async", "audio", "autocomplete", "autofocus", "b", "base",
+      "basefont", "bdi", "bdo", "bgcolor", "big", "blockquote", "body", "border", "br", "button", "canvas",
+      "caption", "cellpadding", "cellspacing", "center", "charset", "checked", "cite", "class", "code", "col",
+      "colgroup", "color", "cols", "colspan", "content", "coords", "crossorigin", "data", "datalist", "dd",
+      "defer", "del", "details", "dfn", "dialog", "dir", "disabled", "div", "dl", "dt", "em", "embed",
+      "enctype", "face", "fieldset", "figcaption", "figure", "font", "footer", "for", "form", "frame",
+      "frameborder", "frameset", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "headers", "height",
+      "hidden", "hr", "href", "hreflang", "html", "http-equiv", "i", "id", "iframe", "img", "input", "ins",
+      "integrity", "kbd", "label", "lang", "language", "legend", "li", "link", "main", "map", "marginheight",
+      "marginwidth", "mark", "max", "maxlength", "media", "menu", "meta", "meter", "method", "min",
+      "multiple", "name", "nav", "noframes", "noscript", "nowrap", "object", "ol", "onblur", "onchange",
+      "onclick", "onerror", "onfocus", "onkeydown", "onkeypress", "onkeyup", "onload", "onmousedown",
+      "onmousemove", "onmouseout", "onmouseover", "onmouseup", "onsubmit", "onunload", "optgroup", "option",
+      "output", "p", "param", "pattern", "picture", "placeholder", "pre", "progress", "q", "readonly", "rel",
+      "required", "rows", "rowspan", "rp", "rt", "ruby", "s", "samp", "script", "scrolling", "section",
+      "select", "selected", "shape", "size", "small", "source", "spacer", "span", "src", "srcset", "start",
+      "step", "strike", "strong", "style", "sub", "summary", "sup", "svg", "tabindex", "table", "target",
+      "tbody", "td", "template", "text", "textarea", "tfoot", "th", "thead", "time", "title", "tr", "track",
+      "tt", "type", "u", "ul", "usemap", "valign", "value", "var", "video", "wbr", "width", "xmp" };
+
+  private static final Atom[] BY_NAME = new Atom[512];
+
+  static {
+    final Atom[] table = BY_NAME;
+    final int mask = table.length - 1;
+    for (int id = 0; id < COUNT; id++) {
+      final Atom atom = new Atom(id, NAMES[id]);
+      int i = hash(atom.lowerName) & mask;
+      while (table[i] != null) {
+        i = (i + 1) & mask;
+      }
+      table[i] = atom;
+    }
+  }
+
+  public final int id;
+  public final String lowerName;
+  public final String upperName;
+
+  private Atom(final int id, final String lowerName) {
+    this.id = id;
+    this.lowerName = lowerName;
+    this.upperName = lowerName.toUpperCase();
+  }
+
+  /**
+   * Gets the atom for a name, ignoring ASCII case, or <code>null</code> if the
+   * name is not known.
+   */
+  public static Atom forName(final CharSequence name) {
+    final Atom[] table = BY_NAME;
+    final int mask = table.length - 1;
+    int i = hash(name) & mask;
+    Atom atom;
+    while ((atom = table[i]) != null) {
+      if (atom.matches(name)) {
+        return atom;
+      }
+      i = (i + 1) & mask;
+    }
+    return null;
+  }
+
+  private static int hash(final CharSequence name) {
+    int h = 0;
+    final int length = name.length();
+    for (int i = 0; i < length; i++) {
+      h = (31 * h) + toLowerCase(name.charAt(i));
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private boolean matches(final CharSequence name) {
+    final String lowerName = this.lowerName;
+    final int length = lowerName.length();
+    if (name.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (toLowerCase(name.charAt(i)) != lowerName.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static char toLowerCase(final char ch) {
+    return ((ch >= 'A') && (ch <= 'Z')) ? (char) (ch + ('a' - 'A')) : ch;
+  }
+
+  @Override
+  public String toString() {
+    return this.lowerName;
+  }
+}
@@ -23,75 +23,72 @@
  */
 package org.lobobrowser.html.domimpl;
 
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Map;
-
 import org.w3c.dom.DOMException;
 import org.w3c.dom.html.HTMLElement;
 
 class ElementFactory {
-  private final Map<String, HTMLElementBuilder> builders = new HashMap<>(80);
+  // Indexed by atom id.
+  private final HTMLElementBuilder[] builders = new HTMLElementBuilder[Atom.COUNT];
 
   private ElementFactory() {
     // This sets up builders for each known element tag.
-    final Map<String, HTMLElementBuilder> builders = this.builders;
-    builders.put("HTML", new HTMLElementBuilder.Html());
-    builders.put("TITLE", new HTMLElementBuilder.Title());
-    builders.put("BASE", new HTMLElementBuilder.Base());
+    final HTMLElementBuilder[] builders = this.builders;
+    builders[Atom.HTML] = new HTMLElementBuilder.Html();
+    builders[Atom.TITLE] = new HTMLElementBuilder.Title();
+    builders[Atom.BASE] = new HTMLElementBuilder.Base();
 
     final HTMLElementBuilder div = new HTMLElementBuilder.Div();
-    builders.put("DIV", div);
-    builders.put("DL", div);
+    builders[Atom.DIV] = div;
+    builders[Atom.DL] = div;
 
-    builders.put("BODY", new HTMLElementBuilder.Body());
-    builders.put("PRE", new HTMLElementBuilder.Pre());
-    builders.put("P", new HTMLElementBuilder.P());
+    builders[Atom.BODY] = new HTMLElementBuilder.Body();
+    builders[Atom.PRE] = new HTMLElementBuilder.Pre();
+    builders[Atom.P] = new HTMLElementBuilder.P();
 
     final HTMLElementBuilder qb = new HTMLElementBuilder.Quote();
-    builders.put("BLOCKQUOTE", qb);
-    builders.put("Q", qb);
-
-    builders.put("SPAN", new HTMLElementBuilder.Span());
-    builders.put("SCRIPT", new HTMLElementBuilder.Script());
-    builders.put("IMG", new HTMLElementBuilder.Img());
-    builders.put("STYLE", new HTMLElementBuilder.Style());
-    builders.put("LINK", new HTMLElementBuilder.Link());
-    builders.put("A", new HTMLElementBuilder.Anchor());
-    builders.put("ANCHOR", new HTMLElementBuilder.Anchor());
-    builders.put("TABLE", new HTMLElementBuilder.Table());
-    builders.put("TD", new HTMLElementBuilder.Td());
-    builders.put("TH", new HTMLElementBuilder.Th());
-    builders.put("TR", new HTMLElementBuilder.Tr());
-    builders.put("FORM", new HTMLElementBuilder.Form());
-    builders.put("INPUT", new HTMLElementBuilder.Input());
-    builders.put("BUTTON", new HTMLElementBuilder.Button());
-    builders.put("TEXTAREA", new HTMLElementBuilder.Textarea());
-    builders.put("SELECT", new HTMLElementBuilder.Select());
-    builders.put("OPTION", new HTMLElementBuilder.Option());
-    builders.put("FRAMESET", new HTMLElementBuilder.Frameset());
-    builders.put("FRAME", new HTMLElementBuilder.Frame());
-    builders.put("IFRAME", new HTMLElementBuilder.IFrame());
-    builders.put("UL", new HTMLElementBuilder.Ul());
-    builders.put("OL", new HTMLElementBuilder.Ol());
-    builders.put("LI", new HTMLElementBuilder.Li());
-    builders.put("HR", new HTMLElementBuilder.Hr());
-    builders.put("BR", new HTMLElementBuilder.Br());
-    builders.put("OBJECT", new HTMLElementBuilder.HtmlObject());
-    builders.put("APPLET", new HTMLElementBuilder.Applet());
-    builders.put("EMBED", new HTMLElementBuilder.NonStandard());
-    builders.put("FONT", new HTMLElementBuilder.Font());
-    builders.put("BASEFONT", new HTMLElementBuilder.BaseFont());
+    builders[Atom.BLOCKQUOTE] = qb;
+    builders[Atom.Q] = qb;
+
+    builders[Atom.SPAN] = new HTMLElementBuilder.Span();
+    builders[Atom.SCRIPT] = new HTMLElementBuilder.Script();
+    builders[Atom.IMG] = new HTMLElementBuilder.Img();
+    builders[Atom.STYLE] = new HTMLElementBuilder.Style();
+    builders[Atom.LINK] = new HTMLElementBuilder.Link();
+    builders[Atom.A] = new HTMLElementBuilder.Anchor();
+    builders[Atom.ANCHOR] = new HTMLElementBuilder.Anchor();
+    builders[Atom.TABLE] = new HTMLElementBuilder.Table();
+    builders[Atom.TD] = new HTMLElementBuilder.Td();
+    builders[Atom.TH] = new HTMLElementBuilder.Th();
+    builders[Atom.TR] = new HTMLElementBuilder.Tr();
+    builders[Atom.FORM] = new HTMLElementBuilder.Form();
+    builders[Atom.INPUT] = new HTMLElementBuilder.Input();
+    builders[Atom.BUTTON] = new HTMLElementBuilder.Button();
+    builders[Atom.TEXTAREA] = new HTMLElementBuilder.Textarea();
+    builders[Atom.SELECT] = new HTMLElementBuilder.Select();
+    builders[Atom.OPTION] = new HTMLElementBuilder.Option();
+    builders[Atom.FRAMESET] = new HTMLElementBuilder.Frameset();
+    builders[Atom.FRAME] = new HTMLElementBuilder.Frame();
+    builders[Atom.IFRAME] = new HTMLElementBuilder.IFrame();
+    builders[Atom.UL] = new HTMLElementBuilder.Ul();
+    builders[Atom.OL] = new HTMLElementBuilder.Ol();
+    builders[Atom.LI] = new HTMLElementBuilder.Li();
+    builders[Atom.HR] = new HTMLElementBuilder.Hr();
+    builders[Atom.BR] = new HTMLElementBuilder.Br();
+    builders[Atom.OBJECT] = new HTMLElementBuilder.HtmlObject();
+    builders[Atom.APPLET] = new HTMLElementBuilder.Applet();
+    builders[Atom.EMBED] = new HTMLElementBuilder.NonStandard();
+    builders[Atom.FONT] = new HTMLElementBuilder.Font();
+    builders[Atom.BASEFONT] = new HTMLElementBuilder.BaseFont();
 
     final HTMLElementBuilder heading = new HTMLElementBuilder.Heading();
-    builders.put("H1", heading);
-    builders.put("H2", heading);
-    builders.put("H3", heading);
-    builders.put("H4", heading);
-    builders.put("H5", heading);
-    builders.put("H6", heading);
-
-    builders.put("CANVAS", new HTMLElementBuilder.Canvas());
+    builders[Atom.H1] = heading;
+    builders[Atom.H2] = heading;
+    builders[Atom.H3] = heading;
+    builders[Atom.H4] = heading;
+    builders[Atom.H5] = heading;
+    builders[Atom.H6] = heading;
+
+    builders[Atom.CANVAS] = new HTMLElementBuilder.Canvas();
   }
 
   private static ElementFactory instance = new ElementFactory();
@@ -101,9 +98,9 @@ class ElementFactory {
   }
 
   public final HTMLElement createElement(final HTMLDocumentImpl document, final String name) throws DOMException {
-    final String normalName = name.toUpperCase(Locale.ENGLISH);
-    // No need to synchronize; read-only map at this point.
-    final HTMLElementBuilder builder = this.builders.get(normalName);
+    final Atom atom = Atom.forName(name);
+    // No need to synchronize; read-only array at this point.
+    final HTMLElementBuilder builder = atom == null ? null : this.builders[atom.id];
     if (builder == null) {
       // TODO: IE would assume name is html text here?
       // TODO: ^^ Other browsers throw an exception if there are illegal characters in the name.
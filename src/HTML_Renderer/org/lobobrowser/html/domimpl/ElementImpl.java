@@ -48,10 +48,20 @@ import org.w3c.dom.events.EventTarget;
 
 public class ElementImpl extends NodeImpl implements Element, EventTarget {
   private final String name;
+  private final Atom atom;
 
   public ElementImpl(final String name) {
     super();
     this.name = name;
+    this.atom = Atom.forName(name);
+  }
+
+  /**
+   * Gets the id of the atom of the element name, or {@link Atom#UNKNOWN}.
+   */
+  public final int getAtomId() {
+    final Atom atom = this.atom;
+    return atom == null ? Atom.UNKNOWN : atom.id;
   }
 
   protected Map<String, String> attributes;
@@ -211,7 +221,8 @@ public class ElementImpl extends NodeImpl implements Element, EventTarget {
   public String getTagName() {
     // In HTML, tag names are supposed to be returned in upper-case, but in XHTML they are returned in original case
     // as per https://developer.mozilla.org/en-US/docs/Web/API/Element.tagName
-    return this.getNodeName().toUpperCase();
+    final Atom atom = this.atom;
+    return atom == null ? this.getNodeName().toUpperCase() : atom.upperName;
   }
 
   public boolean hasAttribute(final String name) {
@@ -263,7 +274,8 @@ public class ElementImpl extends NodeImpl implements Element, EventTarget {
   }*/
 
   protected final static String normalizeAttributeName(final String name) {
-    return name.toLowerCase();
+    final Atom atom = Atom.forName(name);
+    return atom == null ? name.toLowerCase() : atom.lowerName;
   }
 
   public void setAttribute(final String name, final String value) throws DOMException {
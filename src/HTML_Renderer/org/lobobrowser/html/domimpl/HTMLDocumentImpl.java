@@ -32,6 +32,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -40,6 +41,7 @@ import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -479,6 +481,7 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
         final String systemId = this.documentURI;
         final String publicId = systemId;
         final HtmlParser parser = new HtmlParser(this.ucontext, this, errorHandler, publicId, systemId, isXML(), true);
+        this.startFirstPaintBudget();
         parser.parse(reader);
       } finally {
         if (closeReader) {
@@ -1197,29 +1200,33 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
           final UserAgentContext uac = rcontext.getUserAgentContext();
           final NetworkRequest httpRequest = uac.createHttpRequest();
           final ImageInfo newInfo = new ImageInfo();
+          newInfo.request = httpRequest;
           map.put(urlText, newInfo);
           newInfo.addListener(imageListener);
           httpRequest.addNetworkRequestListener(netEvent -> {
             if (httpRequest.getReadyState() == NetworkRequest.STATE_COMPLETE) {
-              final ImageResponse imageResponse = httpRequest.getResponseImage();
-              final ImageEvent newEvent = new ImageEvent(HTMLDocumentImpl.this, imageResponse);
-              ImageListener[] listeners;
-              synchronized (map) {
-                newInfo.imageEvent = newEvent;
-                newInfo.loaded = true;
-                listeners = newInfo.getListeners();
-                // Must remove from map in the locked block
-                // that got the listeners. Otherwise a new
-                // listener might miss the event??
-                map.remove(urlText);
-              }
-              if (listeners != null) {
-                final int llength = listeners.length;
-                for (int i = 0; i < llength; i++) {
-                  // Call holding no locks
-                  listeners[i].imageLoaded(newEvent);
+              // Decoding happens on a decoder thread, which then notifies
+              // the listeners.
+              httpRequest.getResponseImage(imageResponse -> {
+                final ImageEvent newEvent = new ImageEvent(HTMLDocumentImpl.this, imageResponse);
+                ImageListener[] listeners;
+                synchronized (map) {
+                  newInfo.imageEvent = newEvent;
+                  newInfo.loaded = true;
+                  listeners = newInfo.getListeners();
+                  // Must remove from map in the locked block
+                  // that got the listeners. Otherwise a new
+                  // listener might miss the event??
+                  map.remove(urlText);
                 }
-              }
+                if (listeners != null) {
+                  final int llength = listeners.length;
+                  for (int i = 0; i < llength; i++) {
+                    // Call holding no locks
+                    listeners[i].imageLoaded(newEvent);
+                  }
+                }
+              });
             } else if (httpRequest.getReadyState() == NetworkRequest.STATE_ABORTED) {
               ImageListener[] listeners;
               synchronized (map) {
@@ -1240,6 +1247,20 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
             }
           });
 
+          httpRequest.setPartialImageConsumer((partialResponse, updatedArea) -> {
+            final ImageEvent partialEvent = new ImageEvent(HTMLDocumentImpl.this, partialResponse, updatedArea);
+            ImageListener[] listeners;
+            synchronized (map) {
+              listeners = newInfo.getListeners();
+            }
+            if (listeners != null) {
+              for (final ImageListener listener : listeners) {
+                // Call holding no locks
+                listener.imagePartiallyLoaded(partialEvent);
+              }
+            }
+          });
+
           SecurityUtil.doPrivileged(() -> {
             try {
               httpRequest.open("GET", url);
@@ -1261,6 +1282,86 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
     }
   }
 
+  /**
+   * Moves the fetch of an image that has come into view ahead of the other
+   * images, if it is still waiting to be sent.
+   */
+  void prioritizeImageLoad(final String relativeUri) {
+    final NetworkRequest request;
+    try {
+      final String urlText = this.getFullURL(relativeUri).toExternalForm();
+      synchronized (this.imageInfos) {
+        final ImageInfo info = this.imageInfos.get(urlText);
+        if ((info == null) || info.loaded) {
+          return;
+        }
+        request = info.request;
+      }
+    } catch (final MalformedURLException mfe) {
+      return;
+    }
+    if (request != null) {
+      request.prioritize();
+    }
+  }
+
+  private final Map<HTMLElementImpl, Runnable> deferredLoads = new LinkedHashMap<>();
+
+  /**
+   * Defers a load of an element until the renderer finds the element near the
+   * viewport. A deferred load that is pending for the same element is
+   * replaced.
+   *
+   * @see LazyLoadPolicy
+   */
+  void deferLoad(final HTMLElementImpl element, final Runnable load) {
+    synchronized (this.deferredLoads) {
+      this.deferredLoads.put(element, load);
+    }
+    // Get the renderer to check whether the element is already near the viewport.
+    this.lookInvalidated(element);
+  }
+
+  void cancelDeferredLoad(final HTMLElementImpl element) {
+    synchronized (this.deferredLoads) {
+      this.deferredLoads.remove(element);
+    }
+  }
+
+  boolean isLoadDeferred(final HTMLElementImpl element) {
+    synchronized (this.deferredLoads) {
+      return this.deferredLoads.containsKey(element);
+    }
+  }
+
+  /**
+   * Runs the deferred loads of the elements that are near the viewport. This
+   * is called by the renderer, in the GUI thread.
+   */
+  @HideFromJS
+  public void runDeferredLoads(final Predicate<HTMLElementImpl> isNearViewport) {
+    final List<HTMLElementImpl> elements;
+    synchronized (this.deferredLoads) {
+      if (this.deferredLoads.isEmpty()) {
+        return;
+      }
+      elements = new ArrayList<>(this.deferredLoads.keySet());
+    }
+    final List<Runnable> loads = new ArrayList<>();
+    for (final HTMLElementImpl element : elements) {
+      // Checked holding no locks, since it looks at the render tree.
+      if (isNearViewport.test(element)) {
+        synchronized (this.deferredLoads) {
+          final Runnable load = this.deferredLoads.remove(element);
+          if (load != null) {
+            loads.add(load);
+          }
+        }
+      }
+    }
+    loads.forEach(Runnable::run);
+  }
+
   private Function onloadHandler;
   private final List<Function> onloadHandlers = new ArrayList<>();
 
@@ -1311,6 +1412,7 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
     // Access to this class is synchronized on imageInfos.
     public ImageEvent imageEvent;
     public boolean loaded;
+    public NetworkRequest request;
     private final ArrayList<ImageListener> listeners = new ArrayList<>(1);
 
     void addListener(final ImageListener listener) {
@@ -1363,6 +1465,8 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
   }
 
   private List<Runnable> jobs = new LinkedList<>();
+  // Guards jobs, which is replaced each time the pending jobs are taken.
+  private final Object jobsLock = new Object();
   private final AtomicInteger registeredJobs = new AtomicInteger(0);
   private final AtomicInteger layoutBlockingJobs = new AtomicInteger(0);
   private final Semaphore doneAllJobs = new Semaphore(0);
@@ -1395,7 +1499,7 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
 
   @HideFromJS
   public void addJob(final Runnable job, final boolean layoutBlocker, final int incr) {
-    synchronized (jobs) {
+    synchronized (jobsLock) {
       registeredJobs.addAndGet(incr);
       if (layoutBlocker) {
         layoutBlockingJobs.addAndGet(incr);
@@ -1431,18 +1535,35 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
   }
 
   private void runAllPending() {
+    runAllPending(false);
+  }
+
+  /**
+   * @param lastRun Whether this is the run at the end of parsing, after which
+   *          jobs added by other threads schedule a run of their own. The
+   *          switch is made under the same lock as the check that no jobs are
+   *          left, so that none can be added in between and never run.
+   */
+  private void runAllPending(final boolean lastRun) {
     boolean done = false;
     while (!done && !stopRequested.get()) {
       List<Runnable> jobsCopy;
-      synchronized (jobs) {
+      synchronized (jobsLock) {
         jobsCopy = jobs;
         jobs = new LinkedList<>();
       }
       jobsCopy.forEach(j -> j.run());
-      synchronized (jobs) {
+      synchronized (jobsLock) {
         done = jobs.size() == 0;
+        if (done && lastRun) {
+          modificationsOver.set(true);
+        }
       }
     }
+    if (lastRun && !done) {
+      // Stopped early, but jobs added later are still scheduled.
+      modificationsOver.set(true);
+    }
     doneAllJobs.release();
   }
 
@@ -1510,11 +1631,8 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
   public void markJobsFinished(final int numJobs, final boolean layoutBlocker) {
     final int curr = registeredJobs.addAndGet(-numJobs);
     final int layoutBlockers = layoutBlocker ? layoutBlockingJobs.addAndGet(-numJobs) : layoutBlockingJobs.get();
-    if (layoutBlocked.get()) {
-      if (layoutBlockers == 0) {
-        layoutBlocked.set(false);
-        allInvalidated();
-      }
+    if (layoutBlockers == 0) {
+      unblockLayout();
     }
     if (curr < 0) {
       throw new IllegalStateException("More jobs over than registered!");
@@ -1535,6 +1653,26 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
   private final AtomicBoolean loadOver = new AtomicBoolean(false);
   public final AtomicBoolean layoutBlocked = new AtomicBoolean(true);
 
+  /**
+   * Lets the document be laid out, if it was waiting for style sheets, once
+   * the first-paint budget of {@link RenderingPolicy} runs out. Nodes parsed
+   * until then are laid out together, and later ones at the layout interval.
+   */
+  private void startFirstPaintBudget() {
+    final int budget = RenderingPolicy.getFirstPaintBudget();
+    if ((budget >= 0) && layoutBlocked.get()) {
+      final javax.swing.Timer timer = new javax.swing.Timer(budget, e -> unblockLayout());
+      timer.setRepeats(false);
+      timer.start();
+    }
+  }
+
+  private void unblockLayout() {
+    if (layoutBlocked.compareAndSet(true, false)) {
+      allInvalidated();
+    }
+  }
+
   @HideFromJS
   public void finishModifications() {
     StyleElements.normalizeHTMLTree(this);
@@ -1543,8 +1681,7 @@ public class HTMLDocumentImpl extends NodeImpl implements HTMLDocument, Document
     //       The thread creation can probably be removed as part of GH #140
     new Thread(() -> {
       modificationsStarted.set(true);
-      runAllPending();
-      modificationsOver.set(true);
+      runAllPending(true);
     }).start();
 
     // This is to trigger a check in the no external resource case.
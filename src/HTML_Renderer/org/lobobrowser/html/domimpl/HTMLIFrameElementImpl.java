@@ -35,6 +35,20 @@ public class HTMLIFrameElementImpl extends HTMLAbstractUIElement implements HTML
   private void createJob() {
     synchronized (this) {
       final String src = this.getAttribute("src");
+      final HTMLDocumentImpl document = (HTMLDocumentImpl) this.document;
+      if ((src != null) && LazyLoadPolicy.isLazy(this)) {
+        // The frame is loaded once it comes near the viewport, and until then
+        // it does not hold up the load event.
+        document.deferLoad(this, () -> addLoadJob(src));
+      } else {
+        document.cancelDeferredLoad(this);
+        addLoadJob(src);
+      }
+    }
+  }
+
+  private void addLoadJob(final String src) {
+    synchronized (this) {
       if (src != null) {
         if (!jobCreated) {
           ((HTMLDocumentImpl) document).addJob(() -> loadURLIntoFrame(src), false);
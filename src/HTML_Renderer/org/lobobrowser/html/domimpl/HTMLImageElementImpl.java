@@ -30,6 +30,7 @@ import org.lobobrowser.html.js.Executor;
 import org.lobobrowser.html.js.Window;
 import org.lobobrowser.html.style.ImageRenderState;
 import org.lobobrowser.html.style.RenderState;
+import org.lobobrowser.js.HideFromJS;
 import org.lobobrowser.ua.ImageResponse;
 import org.lobobrowser.ua.ImageResponse.State;
 import org.mozilla.javascript.Function;
@@ -142,6 +143,65 @@ public class HTMLImageElementImpl extends HTMLAbstractUIElement implements HTMLI
     this.setAttribute("src", src);
   }
 
+  /**
+   * Gets the URI of the image to load, which is the <code>src</code>
+   * attribute, or the default candidate of <code>srcset</code> if there is no
+   * <code>src</code>.
+   */
+  private String getImageURI() {
+    final String src = this.getSrc();
+    return src != null ? src : getDefaultSrcsetCandidate(this.getAttribute("srcset"));
+  }
+
+  /**
+   * Gets the URI of the candidate of a <code>srcset</code> attribute meant for
+   * a pixel density of 1, or of the first candidate if there is no such
+   * candidate. Returns <code>null</code> if there are no candidates.
+   */
+  public static String getDefaultSrcsetCandidate(final String srcset) {
+    if (srcset == null) {
+      return null;
+    }
+    final int length = srcset.length();
+    String firstURI = null;
+    int i = 0;
+    while (i < length) {
+      while ((i < length) && (Character.isWhitespace(srcset.charAt(i)) || (srcset.charAt(i) == ','))) {
+        i++;
+      }
+      final int uriStart = i;
+      while ((i < length) && !Character.isWhitespace(srcset.charAt(i))) {
+        i++;
+      }
+      int uriEnd = i;
+      boolean hasDescriptors = true;
+      while ((uriEnd > uriStart) && (srcset.charAt(uriEnd - 1) == ',')) {
+        // A trailing comma ends the candidate.
+        uriEnd--;
+        hasDescriptors = false;
+      }
+      if (uriEnd == uriStart) {
+        continue;
+      }
+      String descriptors = "";
+      if (hasDescriptors) {
+        final int descriptorsStart = i;
+        while ((i < length) && (srcset.charAt(i) != ',')) {
+          i++;
+        }
+        descriptors = srcset.substring(descriptorsStart, i).trim();
+      }
+      final String uri = srcset.substring(uriStart, uriEnd);
+      if ((descriptors.length() == 0) || "1x".equalsIgnoreCase(descriptors)) {
+        return uri;
+      }
+      if (firstURI == null) {
+        firstURI = uri;
+      }
+    }
+    return firstURI;
+  }
+
   public String getUseMap() {
     return this.getAttribute("useMap");
   }
@@ -188,8 +248,8 @@ public class HTMLImageElementImpl extends HTMLAbstractUIElement implements HTMLI
   @Override
   protected void handleAttributeChanged(final String name, final String oldValue, final String newValue) {
     super.handleAttributeChanged(name, oldValue, newValue);
-    if ("src".equals(name)) {
-      ((HTMLDocumentImpl) document).addJob(() -> loadImage(getSrc()), false);
+    if ("src".equals(name) || ("srcset".equals(name) && (getSrc() == null))) {
+      ((HTMLDocumentImpl) document).addJob(() -> loadImage(getImageURI()), false);
     }
   }
 
@@ -213,18 +273,59 @@ public class HTMLImageElementImpl extends HTMLAbstractUIElement implements HTMLI
         this.imageSrc = src;
         this.imageResponse = new ImageResponse();
       }
-      if (src != null) {
-        document.loadImage(src, new LocalImageListener(src));
-      } else {
+      if (src == null) {
+        document.cancelDeferredLoad(this);
+        document.markJobsFinished(1, false);
+      } else if (LazyLoadPolicy.isLazy(this)) {
+        // The image is fetched once it comes near the viewport, and until then
+        // it does not hold up the load event.
+        document.deferLoad(this, () -> document.addJob(() -> fetchImage(src), false));
         document.markJobsFinished(1, false);
+      } else {
+        document.cancelDeferredLoad(this);
+        fetchImage(src);
+      }
+    }
+  }
+
+  private void fetchImage(final String src) {
+    ((HTMLDocumentImpl) this.document).loadImage(src, new LocalImageListener(src));
+  }
+
+  /**
+   * Tells the document that the image is in view, so that its fetch, if still
+   * waiting, goes ahead of the images that are not. This is called by the
+   * renderer when it paints the image before it has arrived.
+   */
+  @HideFromJS
+  public void prioritizeLoad() {
+    final HTMLDocumentImpl document = (HTMLDocumentImpl) this.document;
+    final String src;
+    synchronized (this.listeners) {
+      if (this.imageResponse.state != State.loading) {
+        return;
       }
+      src = this.imageSrc;
+    }
+    if ((document != null) && (src != null)) {
+      document.prioritizeImageLoad(src);
     }
   }
 
+  /**
+   * Tells whether the image is lazy and has not started loading yet, because
+   * it has not been near the viewport.
+   */
+  @HideFromJS
+  public boolean isLoadDeferred() {
+    final HTMLDocumentImpl document = (HTMLDocumentImpl) this.document;
+    return (document != null) && document.isLoadDeferred(this);
+  }
+
   @Override
   public Object setUserData(final String key, final Object data, final UserDataHandler handler) {
     if (org.lobobrowser.html.parser.HtmlParser.MODIFYING_KEY.equals(key) && (data != Boolean.TRUE)) {
-      ((HTMLDocumentImpl) document).addJob(() -> loadImage(getSrc()), false);
+      ((HTMLDocumentImpl) document).addJob(() -> loadImage(getImageURI()), false);
       // this.loadImage(getSrc());
     }
     return super.setUserData(key, data, handler);
@@ -245,7 +346,9 @@ public class HTMLImageElementImpl extends HTMLAbstractUIElement implements HTMLI
       currentImageResponse = this.imageResponse;
       l.add(listener);
     }
-    if (currentImageResponse.state != State.loading) {
+    if (currentImageResponse.state == State.partial) {
+      listener.imagePartiallyLoaded(new ImageEvent(this, currentImageResponse));
+    } else if (currentImageResponse.state != State.loading) {
       // Call listener right away if there's already an
       // image; holding no locks.
       listener.imageLoaded(new ImageEvent(this, currentImageResponse));
@@ -285,6 +388,23 @@ public class HTMLImageElementImpl extends HTMLAbstractUIElement implements HTMLI
     }
   }
 
+  private void dispatchPartialEvent(final String expectedImgSrc, final ImageEvent event) {
+    final ArrayList<ImageListener> l = this.listeners;
+    ImageListener[] listenerArray;
+    synchronized (l) {
+      // The complete image may have been dispatched already.
+      if (!expectedImgSrc.equals(this.imageSrc) || (this.imageResponse.state == State.loaded)) {
+        return;
+      }
+      this.imageResponse = event.imageResponse;
+      listenerArray = l.toArray(ImageListener.EMPTY_ARRAY);
+    }
+    for (final ImageListener listener : listenerArray) {
+      // Inform listener, holding no lock.
+      listener.imagePartiallyLoaded(event);
+    }
+  }
+
   @Override
   protected @NonNull RenderState createRenderState(final RenderState prevRenderState) {
     return new ImageRenderState(prevRenderState, this);
@@ -305,6 +425,11 @@ public class HTMLImageElementImpl extends HTMLAbstractUIElement implements HTMLI
       }
     }
 
+    @Override
+    public void imagePartiallyLoaded(final ImageEvent event) {
+      dispatchPartialEvent(this.expectedImgSrc, event);
+    }
+
     public void imageAborted() {
       if (document instanceof HTMLDocumentImpl) {
         final HTMLDocumentImpl htmlDocumentImpl = (HTMLDocumentImpl) document;
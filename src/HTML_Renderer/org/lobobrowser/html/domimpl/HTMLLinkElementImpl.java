@@ -30,6 +30,8 @@ import org.lobobrowser.html.HtmlRendererContext;
 import org.lobobrowser.html.js.Event;
 import org.lobobrowser.html.js.Window;
 import org.lobobrowser.html.style.CSSUtilities;
+import org.lobobrowser.html.style.StyleSheetLoader;
+import org.lobobrowser.html.style.StyleSheetLoader.Pending;
 import org.lobobrowser.js.HideFromJS;
 import org.lobobrowser.ua.UserAgentContext;
 import org.lobobrowser.util.Urls;
@@ -316,7 +318,7 @@ public class HTMLLinkElementImpl extends HTMLAbstractUIElement implements HTMLLi
     dispatchEvent(domContentLoadedEvent);
   }
 
-  private void processLink() {
+  private void processLink(final Pending<StyleSheet> pendingSheet, final String pendingHref) {
     final HTMLDocumentImpl doc = (HTMLDocumentImpl) this.getOwnerDocument();
     try {
       final UserAgentContext uacontext = this.getUserAgentContext();
@@ -324,7 +326,9 @@ public class HTMLLinkElementImpl extends HTMLAbstractUIElement implements HTMLLi
         try {
           final String href = this.getHref();
           final String integrity = this.getIntegrity();
-          final StyleSheet jSheet = CSSUtilities.jParse(this, href, integrity, doc, doc.getBaseURI(), false);
+          // The sheet fetched in advance is used unless the link changed since.
+          final StyleSheet jSheet = (pendingSheet != null) && href.equals(pendingHref) ? pendingSheet.get()
+              : CSSUtilities.jParse(this, href, integrity, doc, doc.getBaseURI(), false);
           if (this.styleSheet != null) {
             this.styleSheet.setJStyleSheet(jSheet);
           } else {
@@ -355,6 +359,10 @@ public class HTMLLinkElementImpl extends HTMLAbstractUIElement implements HTMLLi
   }
 
   private void processLinkHelper(final boolean defer) {
+    processLinkHelper(defer, null, null);
+  }
+
+  private void processLinkHelper(final boolean defer, final Pending<StyleSheet> pendingSheet, final String pendingHref) {
     // according to firefox, whenever the URL is not well formed, the style sheet has to be null
     // and in all other cases an empty style sheet has to be set till the link resource can be fetched
     // and processed. But however the style sheet is not in ready state till it is processed. This is
@@ -364,10 +372,16 @@ public class HTMLLinkElementImpl extends HTMLAbstractUIElement implements HTMLLi
       if (defer) {
         this.styleSheet = this.getEmptyStyleSheet();
         doc.styleSheetManager.invalidateStyles();
+        // The sheet is fetched and parsed right away, alongside the other
+        // sheets of the document, while the job that applies it keeps its
+        // place in the document order.
+        final String href = this.getHref();
+        final Pending<StyleSheet> sheet = this.getUserAgentContext().isExternalCSSEnabled() ? StyleSheetLoader.load(this, href,
+            this.getIntegrity(), doc, doc.getBaseURI(), false) : null;
         //TODO need to think how to schedule this. refer issue #69
-        doc.addJob(() -> this.processLinkHelper(false), true);
+        doc.addJob(() -> this.processLinkHelper(false, sheet, href), true);
       } else {
-        processLink();
+        processLink(pendingSheet, pendingHref);
       }
     } else {
       this.detachStyleSheet();
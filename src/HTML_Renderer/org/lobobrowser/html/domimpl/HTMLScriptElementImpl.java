@@ -30,6 +30,7 @@ import java.security.cert.Certificate;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -142,13 +143,75 @@ public class HTMLScriptElementImpl extends HTMLElementImpl implements HTMLScript
     dispatchEvent(domContentLoadedEvent);
   }
 
-  protected final void processScript() {
+  private boolean isJavaScript() {
     final String scriptType = getType();
-    if (scriptType != null) {
-      if (Arrays.stream(jsTypes).noneMatch(e -> e.equals(scriptType))) {
-        ((HTMLDocumentImpl) HTMLScriptElementImpl.this.document).markJobsFinished(1, false);
-        return;
+    return (scriptType == null) || Arrays.stream(jsTypes).anyMatch(e -> e.equals(scriptType));
+  }
+
+  /**
+   * Starts fetching the external script of this element, so that it downloads
+   * alongside the other resources of the document rather than when its turn
+   * to run comes. Returns <code>null</code> if there is nothing to fetch.
+   */
+  private ScriptFetch startFetch() {
+    final String src = this.getSrc();
+    final UserAgentContext bcontext = this.getUserAgentContext();
+    final Document docObj = this.document;
+    if ((src == null) || (bcontext == null) || !bcontext.isScriptingEnabled() || !(docObj instanceof HTMLDocumentImpl)
+        || !this.isJavaScript()) {
+      return null;
+    }
+    final URL scriptURL;
+    try {
+      scriptURL = ((HTMLDocumentImpl) docObj).getFullURL(src);
+    } catch (final MalformedURLException mfe) {
+      // Reported when the script is processed.
+      return null;
+    }
+    final ScriptFetch fetch = new ScriptFetch(src, scriptURL, bcontext.createHttpRequest());
+    fetch.request.addNetworkRequestListener(event -> {
+      final int readyState = fetch.request.getReadyState();
+      if ((readyState == NetworkRequest.STATE_COMPLETE) || (readyState == NetworkRequest.STATE_ABORTED)) {
+        fetch.done.complete(null);
+      }
+    });
+    SecurityUtil.doPrivileged(() -> {
+      // Code might have restrictions on accessing
+      // items from elsewhere.
+      try {
+        fetch.request.open("GET", fetch.scriptURI, true, this.getIntegrity());
+        fetch.request.send(null, new Request(scriptURL, RequestKind.JavaScript));
+      } catch (final java.io.IOException thrown) {
+        logger.log(Level.WARNING, "startFetch()", thrown);
+        fetch.done.complete(null);
       }
+      return null;
+    });
+    return fetch;
+  }
+
+  /** An external script being fetched ahead of its execution. */
+  private static final class ScriptFetch {
+    private final String src;
+    private final String scriptURI;
+    private final NetworkRequest request;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private ScriptFetch(final String src, final URL scriptURL, final NetworkRequest request) {
+      this.src = src;
+      this.scriptURI = scriptURL.toExternalForm();
+      this.request = request;
+    }
+  }
+
+  protected final void processScript() {
+    processScript(null);
+  }
+
+  private void processScript(final ScriptFetch startedFetch) {
+    if (!this.isJavaScript()) {
+      ((HTMLDocumentImpl) HTMLScriptElementImpl.this.document).markJobsFinished(1, false);
+      return;
     }
     final UserAgentContext bcontext = this.getUserAgentContext();
     if (bcontext == null) {
@@ -178,35 +241,25 @@ public class HTMLScriptElementImpl extends HTMLElementImpl implements HTMLScript
       } else {
         this.informExternalScriptLoading();
         try {
-          final URL scriptURL = doc.getFullURL(src);
-          scriptURI = scriptURL.toExternalForm();
-          // Perform a synchronous request
-          final NetworkRequest request = bcontext.createHttpRequest();
-          SecurityUtil.doPrivileged(() -> {
-            // Code might have restrictions on accessing
-            // items from elsewhere.
-            try {
-              final String integrity = this.getIntegrity();
-              request.open("GET", scriptURI, false, integrity);
-              request.send(null, new Request(scriptURL, RequestKind.JavaScript));
-            } catch (final java.io.IOException thrown) {
-              logger.log(Level.WARNING, "processScript()", thrown);
-              dispatchEvent("error");
-            }
-            return null;
-          });
-          final int status = request.getStatus();
-          if ((status != 200)) {
-            this.warn("Script at [" + scriptURI + "] failed to load; HTTP status: " + status + ".");
-            dispatchEvent("error");
-            doc.markJobsFinished(1, false);
-            return;
-          }
-          text = request.getResponseText();
-          baseLineNumber = 1;
+          // Checks the URL, which the fetch does not report.
+          doc.getFullURL(src);
         } catch (final MalformedURLException mfe) {
           throw new IllegalArgumentException(mfe);
         }
+        // The script fetched ahead is used unless its source changed since.
+        final ScriptFetch fetch = (startedFetch != null) && src.equals(startedFetch.src) ? startedFetch : this.startFetch();
+        scriptURI = fetch.scriptURI;
+        fetch.done.join();
+        final NetworkRequest request = fetch.request;
+        final int status = request.getStatus();
+        if ((status != 200)) {
+          this.warn("Script at [" + scriptURI + "] failed to load; HTTP status: " + status + ".");
+          dispatchEvent("error");
+          doc.markJobsFinished(1, false);
+          return;
+        }
+        text = request.getResponseText();
+        baseLineNumber = 1;
       }
 
       final Window window = doc.getWindow();
@@ -256,7 +309,18 @@ public class HTMLScriptElementImpl extends HTMLElementImpl implements HTMLScript
   @Override
   protected void handleDocumentAttachmentChanged() {
     if (isAttachedToDocument()) {
-      ((HTMLDocumentImpl) document).addJob(() -> processScript(), false);
+      final HTMLDocumentImpl doc = (HTMLDocumentImpl) document;
+      final ScriptFetch fetch = this.startFetch();
+      if ((fetch != null) && this.hasAttribute("async")) {
+        // Runs as soon as it has been fetched, in no particular order. It goes
+        // back to the document's jobs rather than running where the fetch ended.
+        doc.addJob(() -> fetch.done.thenRun(() -> doc.addJob(() -> processScript(fetch), false, 0)), false);
+      } else if ((fetch != null) && (this.defer || this.hasAttribute("defer"))) {
+        // Runs after the scripts queued so far, which include those of the parser.
+        doc.addJob(() -> doc.addJob(() -> processScript(fetch), false, 0), false);
+      } else {
+        doc.addJob(() -> processScript(fetch), false);
+      }
     } else {
       // TODO What does script element do when detached?
     }
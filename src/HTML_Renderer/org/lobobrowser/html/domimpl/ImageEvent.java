@@ -20,6 +20,7 @@
  */
 package org.lobobrowser.html.domimpl;
 
+import java.awt.Rectangle;
 import java.util.EventObject;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -29,9 +30,20 @@ public class ImageEvent extends EventObject {
   private static final long serialVersionUID = 6412430882522254948L;
   public @NonNull final ImageResponse imageResponse;
 
+  /**
+   * The area of the image that changed, for partial images. It is
+   * <code>null</code> when the whole image should be considered changed.
+   */
+  public final Rectangle updatedArea;
+
   public ImageEvent(final Object source, final @NonNull ImageResponse imageResponse) {
+    this(source, imageResponse, null);
+  }
+
+  public ImageEvent(final Object source, final @NonNull ImageResponse imageResponse, final Rectangle updatedArea) {
     super(source);
     this.imageResponse = imageResponse;
+    this.updatedArea = updatedArea;
   }
 
   @Override
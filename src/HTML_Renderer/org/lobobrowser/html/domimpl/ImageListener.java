@@ -25,5 +25,12 @@ public interface ImageListener extends java.util.EventListener {
 
   public void imageLoaded(ImageEvent event);
 
+  /**
+   * Called as more of a large image is decoded, before
+   * {@link #imageLoaded(ImageEvent)} is called with the complete image.
+   */
+  public default void imagePartiallyLoaded(final ImageEvent event) {
+  }
+
   public void imageAborted();
 }
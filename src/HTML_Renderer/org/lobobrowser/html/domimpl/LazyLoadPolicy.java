@@ -0,0 +1,61 @@
+package org.lobobrowser.html.domimpl;
+
+import org.lobobrowser.util.SecurityUtil;
+
+/**
+ * Decides which images and frames are loaded only once they come near the
+ * viewport. Elements with <code>loading="lazy"</code> always are, and with the
+ * {@link #LAZY_BY_DEFAULT_PROPERTY} set, so are all elements that do not ask
+ * for <code>loading="eager"</code>.
+ */
+public final class LazyLoadPolicy {
+  /**
+   * System property that, when <code>true</code>, makes images and frames
+   * without a <code>loading</code> attribute lazy too.
+   */
+  public static final String LAZY_BY_DEFAULT_PROPERTY = "gngr.lazyload.default";
+
+  /**
+   * System property with the distance in pixels from the viewport at which
+   * lazy images and frames start to load.
+   */
+  public static final String DISTANCE_PROPERTY = "gngr.lazyload.distance";
+
+  private static final int DEFAULT_DISTANCE = 1250;
+
+  private static final boolean lazyByDefault = SecurityUtil.doPrivileged(() -> Boolean.getBoolean(LAZY_BY_DEFAULT_PROPERTY));
+  private static final int distance = SecurityUtil.doPrivileged(() -> Integer.getInteger(DISTANCE_PROPERTY, DEFAULT_DISTANCE));
+
+  private LazyLoadPolicy() {
+  }
+
+  static boolean isLazy(final HTMLElementImpl element) {
+    return isLazy(element.getAttribute("loading"));
+  }
+
+  /**
+   * Tells whether an element with the given <code>loading</code> attribute,
+   * which may be <code>null</code>, is loaded lazily. This lets code that
+   * reads markup without building elements, such as a preload scanner, apply
+   * the same policy.
+   */
+  public static boolean isLazy(final String loading) {
+    if (loading != null) {
+      final String value = loading.trim();
+      if ("lazy".equalsIgnoreCase(value)) {
+        return true;
+      } else if ("eager".equalsIgnoreCase(value)) {
+        return false;
+      }
+    }
+    return lazyByDefault;
+  }
+
+  /**
+   * Gets the distance in pixels from the viewport at which lazy images and
+   * frames start to load.
+   */
+  public static int getDistance() {
+    return distance;
+  }
+}
@@ -0,0 +1,53 @@
+package org.lobobrowser.html.domimpl;
+
+import org.lobobrowser.util.SecurityUtil;
+
+/**
+ * Decides how soon a document that is still loading is first painted, and how
+ * often the nodes parsed since are laid out. Layout waits for the style sheets
+ * that block it only until the {@link #FIRST_PAINT_BUDGET_PROPERTY} runs out;
+ * after that, the document is shown as it is, and restyled as the sheets
+ * arrive.
+ */
+public final class RenderingPolicy {
+  /**
+   * System property with the time in milliseconds, from the start of parsing,
+   * after which a document is laid out even if style sheets are still loading.
+   * A negative value waits for the style sheets however long they take.
+   */
+  public static final String FIRST_PAINT_BUDGET_PROPERTY = "gngr.render.firstpaint";
+
+  /**
+   * System property with the longest time in milliseconds that changes to a
+   * document, such as nodes added by the parser, wait before they are laid
+   * out.
+   */
+  public static final String LAYOUT_INTERVAL_PROPERTY = "gngr.render.interval";
+
+  private static final int DEFAULT_FIRST_PAINT_BUDGET = 1000;
+  private static final int DEFAULT_LAYOUT_INTERVAL = 50;
+
+  private static final int firstPaintBudget = SecurityUtil.doPrivileged(() -> Integer.getInteger(FIRST_PAINT_BUDGET_PROPERTY,
+      DEFAULT_FIRST_PAINT_BUDGET));
+  private static final int layoutInterval = SecurityUtil.doPrivileged(() -> Integer.getInteger(LAYOUT_INTERVAL_PROPERTY,
+      DEFAULT_LAYOUT_INTERVAL));
+
+  private RenderingPolicy() {
+  }
+
+  /**
+   * Gets the time in milliseconds after which layout no longer waits for style
+   * sheets, or a negative value if it always waits.
+   */
+  public static int getFirstPaintBudget() {
+    return firstPaintBudget;
+  }
+
+  /**
+   * Gets the longest time in milliseconds that changes to a document wait
+   * before they are laid out.
+   */
+  public static int getLayoutInterval() {
+    return layoutInterval;
+  }
+}
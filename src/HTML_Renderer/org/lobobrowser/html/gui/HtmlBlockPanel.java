@@ -50,7 +50,9 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -67,6 +69,7 @@ import org.eclipse.jdt.annotation.Nullable;
 import org.lobobrowser.html.HtmlRendererContext;
 import org.lobobrowser.html.domimpl.HTMLDocumentImpl;
 import org.lobobrowser.html.domimpl.HTMLElementImpl;
+import org.lobobrowser.html.domimpl.LazyLoadPolicy;
 import org.lobobrowser.html.domimpl.ModelNode;
 import org.lobobrowser.html.domimpl.NodeImpl;
 import org.lobobrowser.html.domimpl.UINode;
@@ -696,12 +699,39 @@ public class HtmlBlockPanel extends JComponent implements NodeRenderer, Renderab
       if ((start != null) && (end != null) && !start.equals(end)) {
         block.paintSelection(g, false, start, end);
       }
+
+      this.runDeferredLoads();
     }
 
     // For debugging
     // drawGrid(g);
   }
 
+  /**
+   * Starts the loads of lazy images and frames that have come within
+   * {@link LazyLoadPolicy#getDistance()} of the visible area.
+   */
+  private void runDeferredLoads() {
+    final NodeImpl rootNode = this.getRootNode();
+    if (rootNode instanceof HTMLDocumentImpl) {
+      final int distance = LazyLoadPolicy.getDistance();
+      final int minX = -distance;
+      final int minY = -distance;
+      final int maxX = this.getWidth() + distance;
+      final int maxY = this.getHeight() + distance;
+      ((HTMLDocumentImpl) rootNode).runDeferredLoads(element -> {
+        if (element.getUINode() == null) {
+          // Not rendered, as with display: none.
+          return false;
+        }
+        final Rectangle bounds = this.getNodeBounds(element, false);
+        // Compared inclusively, since the content may still have no size.
+        return (bounds != null) && (bounds.x <= maxX) && ((bounds.x + bounds.width) >= minX) && (bounds.y <= maxY)
+            && ((bounds.y + bounds.height) >= minY);
+      });
+    }
+  }
+
   private void drawGrid(final Graphics g) {
       final int GRID_SIZE = 50;
       final int OFFSET_X = 0;
@@ -859,7 +889,12 @@ public class HtmlBlockPanel extends JComponent implements NodeRenderer, Renderab
       // notifications come in batches. Other types
       // of noitifications probably come one by one.
       boolean topLayout = false;
+      boolean allInvalidated = false;
       java.util.ArrayList<RElement> repainters = null;
+      // Nodes loaded by the parser come in batches, and many of them are
+      // usually found under the same element, which need only be invalidated
+      // once.
+      Set<RElement> invalidated = null;
       final int length = notifications.length;
       for (int i = 0; i < length; i++) {
         final DocumentNotification dn = notifications[i];
@@ -868,17 +903,26 @@ public class HtmlBlockPanel extends JComponent implements NodeRenderer, Renderab
         case DocumentNotification.GENERIC:
         case DocumentNotification.SIZE: {
           final NodeImpl node = dn.node;
-          if (node == null) {
+          if (allInvalidated) {
+            // Already done for the whole document.
+          } else if (node == null) {
             // This is all-invalidate (new style sheet)
             if (loggableInfo) {
               logger.info("processDocumentNotifications(): Calling invalidateLayoutDeep().");
             }
             this.rblock.invalidateLayoutDeep();
+            allInvalidated = true;
             // this.rblock.invalidateRenderStyle();
           } else {
             final UINode uiNode = node.findUINode();
             if (uiNode != null) {
               final RElement relement = (RElement) uiNode;
+              if (invalidated == null) {
+                invalidated = Collections.newSetFromMap(new IdentityHashMap<>());
+              }
+              if (!invalidated.add(relement)) {
+                break;
+              }
               relement.invalidateLayoutUpTree();
               relement.invalidateLayoutDeep();
               // if(type == DocumentNotification.GENERIC) {
@@ -41,6 +41,7 @@ import org.lobobrowser.html.domimpl.DocumentNotificationListener;
 import org.lobobrowser.html.domimpl.ElementImpl;
 import org.lobobrowser.html.domimpl.HTMLDocumentImpl;
 import org.lobobrowser.html.domimpl.NodeImpl;
+import org.lobobrowser.html.domimpl.RenderingPolicy;
 import org.lobobrowser.html.parser.DocumentBuilderImpl;
 import org.lobobrowser.html.parser.InputSourceImpl;
 import org.lobobrowser.html.renderer.BoundableRenderable;
@@ -673,20 +674,38 @@ public class HtmlPanel extends JComponent implements FrameContext, DefferedLayou
 
   private final ArrayList<DocumentNotification> notifications = new ArrayList<>(1);
 
+  // When the oldest pending notification was added, and whether processing
+  // has been posted to the GUI thread. Guarded by notifications.
+  private long pendingSince;
+  private boolean processingPosted = false;
+
   private void addNotification(final DocumentNotification notification) {
     // This can be called in a random thread.
     final ArrayList<DocumentNotification> notifs = this.notifications;
+    final boolean post;
     synchronized (notifs) {
+      final long time = System.currentTimeMillis();
+      if (notifs.isEmpty()) {
+        this.pendingSince = time;
+      }
       notifs.add(notification);
+      // While the parser keeps adding nodes, the timer would keep being
+      // restarted, so the nodes are laid out in batches at the layout
+      // interval instead.
+      post = !this.processingPosted
+          && (SwingUtilities.isEventDispatchThread() || ((time - this.pendingSince) >= RenderingPolicy.getLayoutInterval()));
+      if (post) {
+        this.processingPosted = true;
+      }
     }
-    if (SwingUtilities.isEventDispatchThread()) {
-      // In this case we want the notification to be processed
+    if (post) {
+      // In the GUI thread we want the notification to be processed
       // immediately. However, we don't want potential recursions
       // to occur when a Javascript property is set in the GUI thread.
       // Additionally, many property values may be set in one
       // event block.
       SwingUtilities.invokeLater(this.notificationImmediateAction);
-    } else {
+    } else if (!SwingUtilities.isEventDispatchThread()) {
       this.notificationTimer.restart();
     }
   }
@@ -708,6 +727,7 @@ public class HtmlPanel extends JComponent implements FrameContext, DefferedLayou
     final ArrayList<DocumentNotification> notifs = this.notifications;
     DocumentNotification[] notifsArray;
     synchronized (notifs) {
+      this.processingPosted = false;
       final int size = notifs.size();
       if (size == 0) {
         return;
@@ -0,0 +1,161 @@
+package org.lobobrowser.html.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the characters of a document through a large window, for the parser.
+ * Like a <code>LineNumberReader</code>, it turns line terminators into
+ * <code>'\n'</code>, but it takes no lock per character, and it counts lines
+ * only when asked for the line number. Runs of text can be taken from the
+ * window in bulk.
+ *
+ * <p>
+ * The window is filled from the underlying reader, so text written into a
+ * {@link org.lobobrowser.html.io.WritableLineReader} is seen when the window
+ * is next filled. Not thread safe.
+ */
+final class CharScanner {
+  private static final int MIN_WINDOW_SIZE = 4 * 1024;
+  private static final int MAX_WINDOW_SIZE = 64 * 1024;
+
+  private final Reader source;
+  // Starts small, for innerHTML and such, and grows for long documents.
+  private char[] window = new char[MIN_WINDOW_SIZE];
+  private int position = 0;
+  private int limit = 0;
+
+  // Set when the last character read was '\r', so a following '\n' is skipped.
+  private boolean skipLF = false;
+
+  // Lines are counted up to countedPosition in the window.
+  private int lineNumber = 0;
+  private int countedPosition = 0;
+
+  CharScanner(final Reader source) {
+    this.source = source;
+  }
+
+  /**
+   * Reads a character, or returns -1 at the end of the document.
+   */
+  int read() throws IOException {
+    if ((this.position < this.limit) || this.fill()) {
+      return this.window[this.position++];
+    }
+    return -1;
+  }
+
+  /**
+   * Appends the characters up to the given one to the buffer, and consumes
+   * that character too. Returns <code>false</code> if the end of the document
+   * came first.
+   */
+  boolean appendUntil(final char stop, final StringBuilder sb) throws IOException {
+    for (;;) {
+      if ((this.position >= this.limit) && !this.fill()) {
+        return false;
+      }
+      final char[] w = this.window;
+      final int start = this.position;
+      final int end = this.limit;
+      for (int i = start; i < end; i++) {
+        if (w[i] == stop) {
+          sb.append(w, start, i - start);
+          this.position = i + 1;
+          return true;
+        }
+      }
+      sb.append(w, start, end - start);
+      this.position = end;
+    }
+  }
+
+  /**
+   * Consumes the characters up to and including the given one. Returns
+   * <code>false</code> if the end of the document came first.
+   */
+  boolean skipUntil(final char stop) throws IOException {
+    for (;;) {
+      if ((this.position >= this.limit) && !this.fill()) {
+        return false;
+      }
+      final char[] w = this.window;
+      final int end = this.limit;
+      for (int i = this.position; i < end; i++) {
+        if (w[i] == stop) {
+          this.position = i + 1;
+          return true;
+        }
+      }
+      this.position = end;
+    }
+  }
+
+  /**
+   * Gets the number of line terminators read so far.
+   */
+  int getLineNumber() {
+    this.countLines(this.position);
+    return this.lineNumber;
+  }
+
+  private void countLines(final int upTo) {
+    final char[] w = this.window;
+    int lines = this.lineNumber;
+    for (int i = this.countedPosition; i < upTo; i++) {
+      if (w[i] == '\n') {
+        lines++;
+      }
+    }
+    this.lineNumber = lines;
+    this.countedPosition = upTo;
+  }
+
+  private boolean fill() throws IOException {
+    this.countLines(this.limit);
+    if ((this.limit == this.window.length) && (this.window.length < MAX_WINDOW_SIZE)) {
+      this.window = new char[Math.min(this.window.length * 4, MAX_WINDOW_SIZE)];
+    }
+    final char[] w = this.window;
+    int n;
+    do {
+      n = this.source.read(w, 0, w.length);
+      if (n > 0) {
+        n = this.normalizeLines(n);
+      }
+    } while (n == 0);
+    this.position = 0;
+    this.countedPosition = 0;
+    if (n == -1) {
+      this.limit = 0;
+      return false;
+    }
+    this.limit = n;
+    return true;
+  }
+
+  /**
+   * Turns "\r\n" and "\r" in the first <code>n</code> characters of the
+   * window into "\n", and returns the new length.
+   */
+  private int normalizeLines(final int n) {
+    final char[] w = this.window;
+    boolean skip = this.skipLF;
+    int j = 0;
+    for (int i = 0; i < n; i++) {
+      final char ch = w[i];
+      if (ch == '\r') {
+        w[j++] = '\n';
+        skip = true;
+      } else {
+        if (!(skip && (ch == '\n'))) {
+          w[j++] = ch;
+        }
+        skip = false;
+      }
+    }
+    this.skipLF = skip;
+    return j;
+  }
+}
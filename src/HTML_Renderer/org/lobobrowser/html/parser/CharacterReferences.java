@@ -0,0 +1,278 @@
+package org.lobobrowser.html.parser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decodes character references, such as <code>&amp;amp;</code> and
+ * <code>&amp;#x27;</code>, as the HTML specification does. Named references
+ * are matched against a trie of the whole HTML entity table, built once from
+ * <code>entities.txt</code>, taking the longest name that matches.
+ *
+ * <p>
+ * The trie is stored as arrays, with nodes numbered breadth first so that the
+ * children of a node are consecutive. It can be walked a character at a time
+ * with {@link #next(int, char)}.
+ */
+final class CharacterReferences {
+  private static final Logger logger = Logger.getLogger(CharacterReferences.class.getName());
+
+  static final int ROOT = 0;
+
+  // For each node, the character leading to it, its first child, the length
+  // of the name leading to it, and the text of the reference that ends at it,
+  // if any.
+  private static final char[] labels;
+  private static final int[] firstChildren;
+  private static final byte[] depths;
+  private static final String[] values;
+
+  // Replacements for numeric references to the C1 controls, 0x80 to 0x9F.
+  private static final char[] C1_REPLACEMENTS = { '\u20AC', '\u0081', '\u201A', '\u0192', '\u201E', '\u2026', '\u2020', '\u2021',
+      '\u02C6', '\u2030', '\u0160', '\u2039', '\u0152', '\u008D', '\u017D', '\u008F', '\u0090', '\u2018', '\u2019', '\u201C',
+      '\u201D', '\u2022', '\u2013', '\u2014', '\u02DC', '\u2122', '\u0161', '\u203A', '\u0153', '\u009D', '\u017E', '\u0178' };
+
+  static {
+    final BuildNode root = new BuildNode();
+    AccessController.doPrivileged((PrivilegedAction<Object>) () -> {
+      try (final InputStream in = CharacterReferences.class.getResourceAsStream("entities.txt")) {
+        if (in == null) {
+          logger.severe("Character reference table not found.");
+        } else {
+          load(in, root);
+        }
+      } catch (final IOException ioe) {
+        logger.log(Level.SEVERE, "Unable to read character reference table.", ioe);
+      }
+      return null;
+    });
+
+    final List<BuildNode> nodes = new ArrayList<>();
+    final ArrayDeque<BuildNode> queue = new ArrayDeque<>();
+    queue.add(root);
+    while (!queue.isEmpty()) {
+      final BuildNode node = queue.poll();
+      nodes.add(node);
+      queue.addAll(node.children.values());
+    }
+    final int count = nodes.size();
+    labels = new char[count];
+    firstChildren = new int[count + 1];
+    depths = new byte[count];
+    values = new String[count];
+    int nextChild = 1;
+    for (int i = 0; i < count; i++) {
+      final BuildNode node = nodes.get(i);
+      labels[i] = node.label;
+      depths[i] = (byte) node.depth;
+      values[i] = node.value;
+      firstChildren[i] = nextChild;
+      nextChild += node.children.size();
+    }
+    firstChildren[count] = nextChild;
+  }
+
+  private CharacterReferences() {
+  }
+
+  private static final class BuildNode {
+    private char label;
+    private int depth;
+    private String value;
+    private final Map<Character, BuildNode> children = new TreeMap<>();
+  }
+
+  private static void load(final InputStream in, final BuildNode root) throws IOException {
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if ((line.length() == 0) || (line.charAt(0) == '#')) {
+        continue;
+      }
+      final String[] fields = line.split(" ");
+      final StringBuilder value = new StringBuilder(2);
+      for (int i = 1; i < fields.length; i++) {
+        value.appendCodePoint(Integer.parseInt(fields[i], 16));
+      }
+      BuildNode node = root;
+      final String name = fields[0];
+      final int length = name.length();
+      for (int i = 0; i < length; i++) {
+        final char ch = name.charAt(i);
+        BuildNode child = node.children.get(ch);
+        if (child == null) {
+          child = new BuildNode();
+          child.label = ch;
+          child.depth = i + 1;
+          node.children.put(ch, child);
+        }
+        node = child;
+      }
+      node.value = value.toString();
+    }
+  }
+
+  /**
+   * Gets the node reached from the given one by a character, or -1 if no
+   * reference name continues that way.
+   */
+  static int next(final int node, final char ch) {
+    final char[] l = labels;
+    int low = firstChildren[node];
+    int high = firstChildren[node + 1] - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final char label = l[mid];
+      if (label < ch) {
+        low = mid + 1;
+      } else if (label > ch) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the text of the reference whose name ends at the given node, or
+   * <code>null</code> if no name ends there.
+   */
+  static String getValue(final int node) {
+    return values[node];
+  }
+
+  /**
+   * Decodes the character references in the buffer, in place, and returns it.
+   * The decoded text is never longer than the references it replaces.
+   *
+   * @param inAttribute
+   *          Whether the text is an attribute value, where a named reference
+   *          without a semicolon is left alone if a letter, digit or
+   *          <code>=</code> follows it.
+   */
+  static StringBuilder decode(final StringBuilder sb, final boolean inAttribute) {
+    final int length = sb.length();
+    int read = sb.indexOf("&");
+    if (read == -1) {
+      return sb;
+    }
+    int write = read;
+    while (read < length) {
+      final char ch = sb.charAt(read);
+      if ((ch == '&') && ((read + 1) < length)) {
+        if (sb.charAt(read + 1) == '#') {
+          final int end = decodeNumeric(sb, read, write);
+          if (end != -1) {
+            write += Character.isHighSurrogate(sb.charAt(write)) ? 2 : 1;
+            read = end;
+            continue;
+          }
+        } else {
+          final int node = matchNamed(sb, read, inAttribute);
+          if (node != -1) {
+            final String value = getValue(node);
+            final int valueLength = value.length();
+            for (int i = 0; i < valueLength; i++) {
+              sb.setCharAt(write++, value.charAt(i));
+            }
+            read += depths[node] + 1;
+            continue;
+          }
+        }
+      }
+      sb.setCharAt(write++, ch);
+      read++;
+    }
+    sb.setLength(write);
+    return sb;
+  }
+
+  /**
+   * Decodes the numeric reference at <code>start</code>, writes its character
+   * at <code>write</code>, and returns where the reference ends. Returns -1,
+   * writing nothing, if there is no reference.
+   */
+  private static int decodeNumeric(final StringBuilder sb, final int start, final int write) {
+    final int length = sb.length();
+    int i = start + 2;
+    int radix = 10;
+    if ((i < length) && ((sb.charAt(i) == 'x') || (sb.charAt(i) == 'X'))) {
+      radix = 16;
+      i++;
+    }
+    final int digitsStart = i;
+    int codePoint = 0;
+    while (i < length) {
+      final char ch = sb.charAt(i);
+      final int digit = ch < 128 ? Character.digit(ch, radix) : -1;
+      if (digit == -1) {
+        break;
+      }
+      codePoint = Math.min((codePoint * radix) + digit, Character.MAX_CODE_POINT + 1);
+      i++;
+    }
+    if (i == digitsStart) {
+      return -1;
+    }
+    if ((i < length) && (sb.charAt(i) == ';')) {
+      i++;
+    }
+    if ((codePoint == 0) || (codePoint > Character.MAX_CODE_POINT)
+        || ((codePoint >= Character.MIN_SURROGATE) && (codePoint <= Character.MAX_SURROGATE))) {
+      codePoint = 0xFFFD;
+    } else if ((codePoint >= 0x80) && (codePoint <= 0x9F)) {
+      codePoint = C1_REPLACEMENTS[codePoint - 0x80];
+    }
+    if (Character.isBmpCodePoint(codePoint)) {
+      sb.setCharAt(write, (char) codePoint);
+    } else {
+      sb.setCharAt(write, Character.highSurrogate(codePoint));
+      sb.setCharAt(write + 1, Character.lowSurrogate(codePoint));
+    }
+    return i;
+  }
+
+  /**
+   * Gets the node of the longest reference name following the
+   * <code>&amp;</code> at <code>start</code>, or -1 if there is none.
+   */
+  private static int matchNamed(final StringBuilder sb, final int start, final boolean inAttribute) {
+    final int length = sb.length();
+    int node = ROOT;
+    int match = -1;
+    int end = -1;
+    for (int i = start + 1; i < length; i++) {
+      node = next(node, sb.charAt(i));
+      if (node == -1) {
+        break;
+      }
+      if (getValue(node) != null) {
+        match = node;
+        end = i + 1;
+      }
+    }
+    if (match == -1) {
+      return -1;
+    }
+    if (inAttribute && (sb.charAt(end - 1) != ';') && (end < length)) {
+      final char following = sb.charAt(end);
+      if ((following == '=') || ((following < 128) && Character.isLetterOrDigit(following))) {
+        return -1;
+      }
+    }
+    return match;
+  }
+}
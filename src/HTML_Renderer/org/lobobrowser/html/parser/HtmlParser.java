@@ -30,17 +30,16 @@ import java.io.LineNumberReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.lobobrowser.html.domimpl.Atom;
 import org.lobobrowser.html.domimpl.DocumentTypeImpl;
 import org.lobobrowser.html.domimpl.HTMLDocumentImpl;
 import org.lobobrowser.html.io.WritableLineReader;
@@ -73,8 +72,8 @@ public class HtmlParser {
   private Node lastBodyElement = null;
   private boolean needRoot;
 
-  private static final Map<String, Character> ENTITIES = new HashMap<>(256);
-  private static final Map<String, ElementInfo> ELEMENT_INFOS = new HashMap<>(35);
+  // Indexed by atom id.
+  private static final ElementInfo[] ELEMENT_INFOS = new ElementInfo[Atom.COUNT];
 
   /**
    * A node <code>UserData</code> key used to tell nodes that their content may
@@ -85,288 +84,9 @@ public class HtmlParser {
   public static final String MODIFYING_KEY = "cobra.suspend";
 
   static {
-    final Map<String, Character> entities = ENTITIES;
-    entities.put("amp", new Character('&'));
-    entities.put("lt", new Character('<'));
-    entities.put("gt", new Character('>'));
-    entities.put("quot", new Character('"'));
-    entities.put("nbsp", new Character((char) 160));
-
-    entities.put("lsquo", new Character('\u2018'));
-    entities.put("rsquo", new Character('\u2019'));
-
-    entities.put("frasl", new Character((char) 47));
-    entities.put("ndash", new Character((char) 8211));
-    entities.put("mdash", new Character((char) 8212));
-    entities.put("iexcl", new Character((char) 161));
-    entities.put("cent", new Character((char) 162));
-    entities.put("pound", new Character((char) 163));
-    entities.put("curren", new Character((char) 164));
-    entities.put("yen", new Character((char) 165));
-    entities.put("brvbar", new Character((char) 166));
-    entities.put("brkbar", new Character((char) 166));
-    entities.put("sect", new Character((char) 167));
-    entities.put("uml", new Character((char) 168));
-    entities.put("die", new Character((char) 168));
-    entities.put("copy", new Character((char) 169));
-    entities.put("ordf", new Character((char) 170));
-    entities.put("laquo", new Character((char) 171));
-    entities.put("not", new Character((char) 172));
-    entities.put("shy", new Character((char) 173));
-    entities.put("reg", new Character((char) 174));
-    entities.put("macr", new Character((char) 175));
-    entities.put("hibar", new Character((char) 175));
-    entities.put("deg", new Character((char) 176));
-    entities.put("plusmn", new Character((char) 177));
-    entities.put("sup2", new Character((char) 178));
-    entities.put("sup3", new Character((char) 179));
-    entities.put("acute", new Character((char) 180));
-    entities.put("micro", new Character((char) 181));
-    entities.put("para", new Character((char) 182));
-    entities.put("middot", new Character((char) 183));
-    entities.put("cedil", new Character((char) 184));
-    entities.put("sup1", new Character((char) 185));
-    entities.put("ordm", new Character((char) 186));
-    entities.put("raquo", new Character((char) 187));
-    entities.put("frac14", new Character((char) 188));
-    entities.put("frac12", new Character((char) 189));
-    entities.put("frac34", new Character((char) 190));
-    entities.put("iquest", new Character((char) 191));
-    entities.put("Agrave", new Character((char) 192));
-    entities.put("Aacute", new Character((char) 193));
-    entities.put("Acirc", new Character((char) 194));
-    entities.put("Atilde", new Character((char) 195));
-    entities.put("Auml", new Character((char) 196));
-    entities.put("Aring", new Character((char) 197));
-    entities.put("AElig", new Character((char) 198));
-    entities.put("Ccedil", new Character((char) 199));
-    entities.put("Egrave", new Character((char) 200));
-    entities.put("Eacute", new Character((char) 201));
-    entities.put("Ecirc", new Character((char) 202));
-    entities.put("Euml", new Character((char) 203));
-    entities.put("Igrave", new Character((char) 204));
-    entities.put("Iacute", new Character((char) 205));
-    entities.put("Icirc", new Character((char) 206));
-    entities.put("Iuml", new Character((char) 207));
-    entities.put("ETH", new Character((char) 208));
-    entities.put("Ntilde", new Character((char) 209));
-    entities.put("Ograve", new Character((char) 210));
-    entities.put("Oacute", new Character((char) 211));
-    entities.put("Ocirc", new Character((char) 212));
-    entities.put("Otilde", new Character((char) 213));
-    entities.put("Ouml", new Character((char) 214));
-    entities.put("times", new Character((char) 215));
-    entities.put("Oslash", new Character((char) 216));
-    entities.put("Ugrave", new Character((char) 217));
-    entities.put("Uacute", new Character((char) 218));
-    entities.put("Ucirc", new Character((char) 219));
-    entities.put("Uuml", new Character((char) 220));
-    entities.put("Yacute", new Character((char) 221));
-    entities.put("THORN", new Character((char) 222));
-    entities.put("szlig", new Character((char) 223));
-    entities.put("agrave", new Character((char) 224));
-    entities.put("aacute", new Character((char) 225));
-    entities.put("acirc", new Character((char) 226));
-    entities.put("atilde", new Character((char) 227));
-    entities.put("auml", new Character((char) 228));
-    entities.put("aring", new Character((char) 229));
-    entities.put("aelig", new Character((char) 230));
-    entities.put("ccedil", new Character((char) 231));
-    entities.put("egrave", new Character((char) 232));
-    entities.put("eacute", new Character((char) 233));
-    entities.put("ecirc", new Character((char) 234));
-    entities.put("euml", new Character((char) 235));
-    entities.put("igrave", new Character((char) 236));
-    entities.put("iacute", new Character((char) 237));
-    entities.put("icirc", new Character((char) 238));
-    entities.put("iuml", new Character((char) 239));
-    entities.put("eth", new Character((char) 240));
-    entities.put("ntilde", new Character((char) 241));
-    entities.put("ograve", new Character((char) 242));
-    entities.put("oacute", new Character((char) 243));
-    entities.put("ocirc", new Character((char) 244));
-    entities.put("otilde", new Character((char) 245));
-    entities.put("ouml", new Character((char) 246));
-    entities.put("divide", new Character((char) 247));
-    entities.put("oslash", new Character((char) 248));
-    entities.put("ugrave", new Character((char) 249));
-    entities.put("uacute", new Character((char) 250));
-    entities.put("ucirc", new Character((char) 251));
-    entities.put("uuml", new Character((char) 252));
-    entities.put("yacute", new Character((char) 253));
-    entities.put("thorn", new Character((char) 254));
-    entities.put("yuml", new Character((char) 255));
-
-    // symbols from http://de.selfhtml.org/html/referenz/zeichen.htm
-
-    // greek letters
-    entities.put("Alpha", new Character((char) 913));
-    entities.put("Beta", new Character((char) 914));
-    entities.put("Gamma", new Character((char) 915));
-    entities.put("Delta", new Character((char) 916));
-    entities.put("Epsilon", new Character((char) 917));
-    entities.put("Zeta", new Character((char) 918));
-    entities.put("Eta", new Character((char) 919));
-    entities.put("Theta", new Character((char) 920));
-    entities.put("Iota", new Character((char) 921));
-    entities.put("Kappa", new Character((char) 922));
-    entities.put("Lambda", new Character((char) 923));
-    entities.put("Mu", new Character((char) 924));
-    entities.put("Nu", new Character((char) 925));
-    entities.put("Xi", new Character((char) 926));
-    entities.put("Omicron", new Character((char) 927));
-    entities.put("Pi", new Character((char) 928));
-    entities.put("Rho", new Character((char) 929));
-    entities.put("Sigma", new Character((char) 930));
-    entities.put("Sigmaf", new Character((char) 931));
-    entities.put("Tau", new Character((char) 932));
-    entities.put("Upsilon", new Character((char) 933));
-    entities.put("Phi", new Character((char) 934));
-    entities.put("Chi", new Character((char) 935));
-    entities.put("Psi", new Character((char) 936));
-    entities.put("Omega", new Character((char) 937));
-
-    entities.put("alpha", new Character((char) 945));
-    entities.put("beta", new Character((char) 946));
-    entities.put("gamma", new Character((char) 947));
-    entities.put("delta", new Character((char) 948));
-    entities.put("epsilon", new Character((char) 949));
-    entities.put("zeta", new Character((char) 950));
-    entities.put("eta", new Character((char) 951));
-    entities.put("theta", new Character((char) 952));
-    entities.put("iota", new Character((char) 953));
-    entities.put("kappa", new Character((char) 954));
-    entities.put("lambda", new Character((char) 955));
-    entities.put("mu", new Character((char) 956));
-    entities.put("nu", new Character((char) 957));
-    entities.put("xi", new Character((char) 958));
-    entities.put("omicron", new Character((char) 959));
-    entities.put("pi", new Character((char) 960));
-    entities.put("rho", new Character((char) 961));
-    entities.put("sigma", new Character((char) 962));
-    entities.put("sigmaf", new Character((char) 963));
-    entities.put("tau", new Character((char) 964));
-    entities.put("upsilon", new Character((char) 965));
-    entities.put("phi", new Character((char) 966));
-    entities.put("chi", new Character((char) 967));
-    entities.put("psi", new Character((char) 968));
-    entities.put("omega", new Character((char) 969));
-    entities.put("thetasym", new Character((char) 977));
-    entities.put("upsih", new Character((char) 978));
-    entities.put("piv", new Character((char) 982));
-
-    // math symbols
-    entities.put("forall", new Character((char) 8704));
-    entities.put("part", new Character((char) 8706));
-    entities.put("exist", new Character((char) 8707));
-    entities.put("empty", new Character((char) 8709));
-    entities.put("nabla", new Character((char) 8711));
-    entities.put("isin", new Character((char) 8712));
-    entities.put("notin", new Character((char) 8713));
-    entities.put("ni", new Character((char) 8715));
-    entities.put("prod", new Character((char) 8719));
-    entities.put("sum", new Character((char) 8721));
-    entities.put("minus", new Character((char) 8722));
-    entities.put("lowast", new Character((char) 8727));
-    entities.put("radic", new Character((char) 8730));
-    entities.put("prop", new Character((char) 8733));
-    entities.put("infin", new Character((char) 8734));
-    entities.put("ang", new Character((char) 8736));
-    entities.put("and", new Character((char) 8743));
-    entities.put("or", new Character((char) 8744));
-    entities.put("cap", new Character((char) 8745));
-    entities.put("cup", new Character((char) 8746));
-    entities.put("int", new Character((char) 8747));
-    entities.put("there4", new Character((char) 8756));
-    entities.put("sim", new Character((char) 8764));
-    entities.put("cong", new Character((char) 8773));
-    entities.put("asymp", new Character((char) 8776));
-    entities.put("ne", new Character((char) 8800));
-    entities.put("equiv", new Character((char) 8801));
-    entities.put("le", new Character((char) 8804));
-    entities.put("ge", new Character((char) 8805));
-    entities.put("sub", new Character((char) 8834));
-    entities.put("sup", new Character((char) 8835));
-    entities.put("nsub", new Character((char) 8836));
-    entities.put("sube", new Character((char) 8838));
-    entities.put("supe", new Character((char) 8839));
-    entities.put("oplus", new Character((char) 8853));
-    entities.put("otimes", new Character((char) 8855));
-    entities.put("perp", new Character((char) 8869));
-    entities.put("sdot", new Character((char) 8901));
-    entities.put("loz", new Character((char) 9674));
-
-    // technical symbols
-    entities.put("lceil", new Character((char) 8968));
-    entities.put("rceil", new Character((char) 8969));
-    entities.put("lfloor", new Character((char) 8970));
-    entities.put("rfloor", new Character((char) 8971));
-    entities.put("lang", new Character((char) 9001));
-    entities.put("rang", new Character((char) 9002));
-
-    // arrow symbols
-    entities.put("larr", new Character((char) 8592));
-    entities.put("uarr", new Character((char) 8593));
-    entities.put("rarr", new Character((char) 8594));
-    entities.put("darr", new Character((char) 8595));
-    entities.put("harr", new Character((char) 8596));
-    entities.put("crarr", new Character((char) 8629));
-    entities.put("lArr", new Character((char) 8656));
-    entities.put("uArr", new Character((char) 8657));
-    entities.put("rArr", new Character((char) 8658));
-    entities.put("dArr", new Character((char) 8659));
-    entities.put("hArr", new Character((char) 8960));
-
-    // divers symbols
-    entities.put("bull", new Character((char) 8226));
-    entities.put("prime", new Character((char) 8242));
-    entities.put("Prime", new Character((char) 8243));
-    entities.put("oline", new Character((char) 8254));
-    entities.put("weierp", new Character((char) 8472));
-    entities.put("image", new Character((char) 8465));
-    entities.put("real", new Character((char) 8476));
-    entities.put("trade", new Character((char) 8482));
-    entities.put("euro", new Character((char) 8364));
-    entities.put("alefsym", new Character((char) 8501));
-    entities.put("spades", new Character((char) 9824));
-    entities.put("clubs", new Character((char) 9827));
-    entities.put("hearts", new Character((char) 9829));
-    entities.put("diams", new Character((char) 9830));
-
-    // ext lat symbols
-    entities.put("OElig", new Character((char) 338));
-    entities.put("oelig", new Character((char) 339));
-    entities.put("Scaron", new Character((char) 352));
-    entities.put("scaron", new Character((char) 353));
-    entities.put("fnof", new Character((char) 402));
-
-    // interpunction
-    entities.put("ensp", new Character((char) 8194));
-    entities.put("emsp", new Character((char) 8195));
-    entities.put("thinsp", new Character((char) 8201));
-    entities.put("zwnj", new Character((char) 8204));
-    entities.put("zwj", new Character((char) 8205));
-    entities.put("lrm", new Character((char) 8206));
-    entities.put("rlm", new Character((char) 8207));
-
-    entities.put("sbquo", new Character((char) 8218));
-    entities.put("ldquo", new Character((char) 8220));
-    entities.put("rdquo", new Character((char) 8221));
-    entities.put("bdquo", new Character((char) 8222));
-    entities.put("dagger", new Character((char) 8224));
-    entities.put("Dagger", new Character((char) 8225));
-    entities.put("hellip", new Character((char) 8230));
-    entities.put("permil", new Character((char) 8240));
-    entities.put("lsaquo", new Character((char) 8249));
-    entities.put("rsaquo", new Character((char) 8250));
-
-    // diacrit symb
-    entities.put("circ", new Character((char) 710));
-    entities.put("tilde", new Character((char) 732));
-
-    final Map<String, ElementInfo> elementInfos = ELEMENT_INFOS;
-
-    elementInfos.put("NOSCRIPT", new ElementInfo(true, ElementInfo.END_ELEMENT_REQUIRED, null, true));
+    final ElementInfo[] elementInfos = ELEMENT_INFOS;
+
+    elementInfos[Atom.NOSCRIPT] = new ElementInfo(true, ElementInfo.END_ELEMENT_REQUIRED, null, true);
 
     final ElementInfo optionalEndElement = new ElementInfo(true, ElementInfo.END_ELEMENT_OPTIONAL);
     final ElementInfo forbiddenEndElement = new ElementInfo(false, ElementInfo.END_ELEMENT_FORBIDDEN);
@@ -405,35 +125,35 @@ public class HtmlParser {
     // liStopElements.add("UL");
     // liStopElements.add("OL");
 
-    elementInfos.put("SCRIPT", onlyText);
-    elementInfos.put("STYLE", onlyText);
-    elementInfos.put("TEXTAREA", onlyTextDE);
-    elementInfos.put("IMG", forbiddenEndElement);
-    elementInfos.put("META", forbiddenEndElement);
-    elementInfos.put("LINK", forbiddenEndElement);
-    elementInfos.put("BASE", forbiddenEndElement);
-    elementInfos.put("INPUT", forbiddenEndElement);
-    elementInfos.put("FRAME", forbiddenEndElement);
-    elementInfos.put("BR", forbiddenEndElement);
-    elementInfos.put("HR", forbiddenEndElement);
-    elementInfos.put("EMBED", forbiddenEndElement);
-    elementInfos.put("SPACER", forbiddenEndElement);
-
-    elementInfos.put("P", paragraphElement);
-    elementInfos.put("LI", optionalEndElement);
-    elementInfos.put("DT", optionalEndElement);
-    elementInfos.put("DD", optionalEndElement);
-    elementInfos.put("TR", optionalEndElement);
-    elementInfos.put("TH", tableCellElement);
-    elementInfos.put("TD", tableCellElement);
-    elementInfos.put("HEAD", headElement);
-    elementInfos.put("OPTION", optionElement);
+    elementInfos[Atom.SCRIPT] = onlyText;
+    elementInfos[Atom.STYLE] = onlyText;
+    elementInfos[Atom.TEXTAREA] = onlyTextDE;
+    elementInfos[Atom.IMG] = forbiddenEndElement;
+    elementInfos[Atom.META] = forbiddenEndElement;
+    elementInfos[Atom.LINK] = forbiddenEndElement;
+    elementInfos[Atom.BASE] = forbiddenEndElement;
+    elementInfos[Atom.INPUT] = forbiddenEndElement;
+    elementInfos[Atom.FRAME] = forbiddenEndElement;
+    elementInfos[Atom.BR] = forbiddenEndElement;
+    elementInfos[Atom.HR] = forbiddenEndElement;
+    elementInfos[Atom.EMBED] = forbiddenEndElement;
+    elementInfos[Atom.SPACER] = forbiddenEndElement;
+
+    elementInfos[Atom.P] = paragraphElement;
+    elementInfos[Atom.LI] = optionalEndElement;
+    elementInfos[Atom.DT] = optionalEndElement;
+    elementInfos[Atom.DD] = optionalEndElement;
+    elementInfos[Atom.TR] = optionalEndElement;
+    elementInfos[Atom.TH] = tableCellElement;
+    elementInfos[Atom.TD] = tableCellElement;
+    elementInfos[Atom.HEAD] = headElement;
+    elementInfos[Atom.OPTION] = optionElement;
 
     // Note: The specification states anchors have
     // a required end element, but browsers generally behave
     // as if it's optional.
-    elementInfos.put("A", optionalEndElement);
-    elementInfos.put("ANCHOR", optionalEndElement);
+    elementInfos[Atom.A] = optionalEndElement;
+    elementInfos[Atom.ANCHOR] = optionalEndElement;
     // TODO: Keep adding tags here
   }
 
@@ -499,8 +219,41 @@ public class HtmlParser {
     this.needRoot = true;
   }
 
+  private static ElementInfo getElementInfo(final String elementName) {
+    final Atom atom = Atom.forName(elementName);
+    return atom == null ? null : ELEMENT_INFOS[atom.id];
+  }
+
+  /**
+   * Gets the name of a tag as read, using the string of its atom if it is
+   * written in lower or upper case, so that common names are not allocated
+   * again for every tag.
+   */
+  private static String getTagName(final StringBuilder sb) {
+    final Atom atom = Atom.forName(sb);
+    if (atom != null) {
+      if (atom.upperName.contentEquals(sb)) {
+        return atom.upperName;
+      } else if (atom.lowerName.contentEquals(sb)) {
+        return atom.lowerName;
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String getNormalTagName(final String tagName) {
+    final Atom atom = Atom.forName(tagName);
+    return atom == null ? tagName.toUpperCase() : atom.upperName;
+  }
+
+  private static String getAttributeName(final StringBuilder sb) {
+    // Attribute names are made lower case by the element anyway.
+    final Atom atom = Atom.forName(sb);
+    return atom == null ? sb.toString() : atom.lowerName;
+  }
+
   public static boolean isDecodeEntities(final String elementName) {
-    final ElementInfo einfo = ELEMENT_INFOS.get(elementName.toUpperCase());
+    final ElementInfo einfo = getElementInfo(elementName);
     return einfo == null ? true : einfo.decodeEntities;
   }
 
@@ -553,12 +306,11 @@ public class HtmlParser {
    *           Thrown if there are parse errors.
    */
   public void parse(final Reader reader) throws IOException, SAXException {
-    this.parse(new LineNumberReader(reader));
+    this.parse(reader, this.document);
   }
 
   public void parse(final LineNumberReader reader) throws IOException, SAXException {
-    final Document doc = this.document;
-    this.parse(reader, doc);
+    this.parse((Reader) reader, this.document);
   }
 
   /**
@@ -573,7 +325,7 @@ public class HtmlParser {
    * @throws SAXException
    */
   public void parse(final Reader reader, final Node parent) throws IOException, SAXException {
-    this.parse(new LineNumberReader(reader), parent);
+    this.parse(new CharScanner(reader), parent);
   }
 
   /**
@@ -588,7 +340,10 @@ public class HtmlParser {
    * @throws SAXException
    */
   public void parse(final LineNumberReader reader, final Node parent) throws IOException, SAXException {
+    this.parse((Reader) reader, parent);
+  }
 
+  private void parse(final CharScanner reader, final Node parent) throws IOException, SAXException {
     // Note: Parser does not clear document. It could be used incrementally.
     try {
       parent.setUserData(MODIFYING_KEY, Boolean.TRUE, null);
@@ -638,6 +393,7 @@ public class HtmlParser {
   private String normalLastTag = null;
   private boolean justReadTagBegin = false;
   private boolean justReadTagEnd = false;
+  private final StringBuilder textBuffer = new StringBuilder();
 
   /**
    * Only set when readAttribute returns false.
@@ -789,18 +545,18 @@ public class HtmlParser {
    * @throws StopException
    * @throws SAXException
    */
-  private final int parseToken(final Node parent, final LineNumberReader reader, final Set<String> stopTags,
+  private final int parseToken(final Node parent, final CharScanner reader, final Set<String> stopTags,
       final LinkedList<String> ancestors)
       throws IOException, StopException, SAXException {
     final Document doc = this.document;
     final HTMLDocumentImpl htmlDoc = (HTMLDocumentImpl) doc;
-    final StringBuffer textSb = this.readUpToTagBegin(reader);
+    final StringBuilder textSb = this.readUpToTagBegin(reader);
     if (textSb == null) {
       return TOKEN_EOD;
     }
     if (textSb.length() != 0) {
       // int textLine = reader.getLineNumber();
-      final StringBuffer decText = entityDecode(textSb);
+      final StringBuilder decText = CharacterReferences.decode(textSb, false);
       final Node textNode = doc.createTextNode(decText.toString());
       try {
         safeAppendChild(parent, textNode);
@@ -815,13 +571,13 @@ public class HtmlParser {
       if (tag == null) {
         return TOKEN_EOD;
       }
-      String normalTag = htmlDoc.isXML() ? tag : tag.toUpperCase();
+      String normalTag = htmlDoc.isXML() || tag.startsWith("/") ? tag : getNormalTagName(tag);
       try {
         if (tag.startsWith("!")) {
           if ("!--".equals(tag)) {
             // int commentLine = reader.getLineNumber();
-            final StringBuffer comment = this.passEndOfComment(reader);
-            final StringBuffer decText = entityDecode(comment);
+            final StringBuilder comment = this.passEndOfComment(reader);
+            final StringBuilder decText = CharacterReferences.decode(comment, false);
 
             safeAppendChild(parent, doc.createComment(decText.toString()));
 
@@ -844,12 +600,12 @@ public class HtmlParser {
           }
         } else if (tag.startsWith("/")) {
           tag = tag.substring(1);
-          normalTag = normalTag.substring(1);
+          normalTag = htmlDoc.isXML() ? tag : getNormalTagName(tag);
           this.passEndOfTag(reader);
           return TOKEN_END_ELEMENT;
         } else if (tag.startsWith("?")) {
           tag = tag.substring(1);
-          final StringBuffer data = readProcessingInstruction(reader);
+          final StringBuilder data = readProcessingInstruction(reader);
 
           safeAppendChild(parent, doc.createProcessingInstruction(tag, data.toString()));
 
@@ -876,7 +632,7 @@ public class HtmlParser {
             // This is necessary for incremental rendering.
             safeAppendChild(parent, element);
             if (!this.justReadEmptyElement) {
-              ElementInfo einfo = ELEMENT_INFOS.get(localName.toUpperCase());
+              ElementInfo einfo = getElementInfo(localName);
               int endTagType = einfo == null ? ElementInfo.END_ELEMENT_REQUIRED : einfo.endElementType;
               if (endTagType != ElementInfo.END_ELEMENT_FORBIDDEN) {
                 boolean childrenOk = einfo == null ? true : einfo.childElementOk;
@@ -917,7 +673,7 @@ public class HtmlParser {
                         if (normalTag.equalsIgnoreCase(normalLastTag)) {
                           return TOKEN_FULL_ELEMENT;
                         } else {
-                          final ElementInfo closeTagInfo = ELEMENT_INFOS.get(normalLastTag.toUpperCase());
+                          final ElementInfo closeTagInfo = getElementInfo(normalLastTag);
                           if ((closeTagInfo == null) || (closeTagInfo.endElementType != ElementInfo.END_ELEMENT_FORBIDDEN)) {
                             // TODO: Rather inefficient algorithm, but it's
                             // probably executed infrequently?
@@ -942,14 +698,14 @@ public class HtmlParser {
                       // newElement does not have a parent.
                       final Element newElement = se.getElement();
                       tag = newElement.getTagName();
-                      normalTag = tag.toUpperCase();
+                      normalTag = getNormalTagName(tag);
                       // If a subelement throws StopException with
                       // a tag matching the current stop tag, the exception
                       // is rethrown (e.g. <TR><TD>blah<TR><TD>blah)
                       if ((stopTags != null) && stopTags.contains(normalTag)) {
                         throw se;
                       }
-                      einfo = ELEMENT_INFOS.get(normalTag);
+                      einfo = getElementInfo(normalTag);
                       endTagType = einfo == null ? ElementInfo.END_ELEMENT_REQUIRED : einfo.endElementType;
                       childrenOk = einfo == null ? true : einfo.childElementOk;
                       newStopSet = einfo == null ? null : einfo.stopTags;
@@ -1003,31 +759,24 @@ public class HtmlParser {
    * Reads text until the beginning of the next tag. Leaves the reader offset
    * past the opening angle bracket. Returns null only on EOF.
    */
-  private final StringBuffer readUpToTagBegin(final LineNumberReader reader) throws IOException, SAXException {
-    StringBuffer sb = null;
-    int intCh;
-    while ((intCh = reader.read()) != -1) {
-      final char ch = (char) intCh;
-      if (ch == '<') {
-        this.justReadTagBegin = true;
-        this.justReadTagEnd = false;
-        this.justReadEmptyElement = false;
-        if (sb == null) {
-          sb = new StringBuffer(0);
-        }
-        return sb;
-      }
-      if (sb == null) {
-        sb = new StringBuffer();
-      }
-      sb.append(ch);
+  private final StringBuilder readUpToTagBegin(final CharScanner reader) throws IOException, SAXException {
+    // The text is turned into a node before the next token is read, so the
+    // buffer can be reused.
+    final StringBuilder sb = this.textBuffer;
+    sb.setLength(0);
+    if (reader.appendUntil('<', sb)) {
+      this.justReadTagBegin = true;
+      this.justReadTagEnd = false;
+      this.justReadEmptyElement = false;
+      return sb;
     }
     this.justReadTagBegin = false;
     this.justReadTagEnd = false;
     this.justReadEmptyElement = false;
-    return sb;
+    return sb.length() == 0 ? null : sb;
   }
 
+
   /**
    * Assumes that the content is completely made up of text, and parses until an
    * ending tag is found.
@@ -1038,12 +787,12 @@ public class HtmlParser {
    * @return
    * @throws IOException
    */
-  private final int parseForEndTag(Node parent, final LineNumberReader reader, final String tagName, final boolean addTextNode,
+  private final int parseForEndTag(Node parent, final CharScanner reader, final String tagName, final boolean addTextNode,
       final boolean decodeEntities)
       throws IOException, SAXException {
     final Document doc = this.document;
     int intCh;
-    StringBuffer sb = new StringBuffer();
+    StringBuilder sb = new StringBuilder();
     while ((intCh = reader.read()) != -1) {
       char ch = (char) intCh;
       if (ch == '<') {
@@ -1051,7 +800,7 @@ public class HtmlParser {
         if (intCh != -1) {
           ch = (char) intCh;
           if (ch == '/') {
-            final StringBuffer tempBuffer = new StringBuffer();
+            final StringBuilder tempBuffer = new StringBuilder();
             INNER: while ((intCh = reader.read()) != -1) {
               ch = (char) intCh;
               if (ch == '>') {
@@ -1063,7 +812,7 @@ public class HtmlParser {
                   this.normalLastTag = thisTag;
                   if (addTextNode) {
                     if (decodeEntities) {
-                      sb = entityDecode(sb);
+                      sb = CharacterReferences.decode(sb, false);
                     }
                     final String text = sb.toString();
                     if (text.length() != 0) {
@@ -1107,7 +856,7 @@ public class HtmlParser {
     this.justReadEmptyElement = false;
     if (addTextNode) {
       if (decodeEntities) {
-        sb = entityDecode(sb);
+        sb = CharacterReferences.decode(sb, false);
       }
       final String text = sb.toString();
       if (text.length() != 0) {
@@ -1118,7 +867,7 @@ public class HtmlParser {
     return HtmlParser.TOKEN_EOD;
   }
 
-  private static void readCData(LineNumberReader reader, StringBuffer sb) throws IOException {
+  private static void readCData(final CharScanner reader, StringBuilder sb) throws IOException {
 
     int next = reader.read();
 
@@ -1145,7 +894,7 @@ public class HtmlParser {
   }
 
   // Tries to read at most n characters.
-  private static String readN(final LineNumberReader reader, final int n) {
+  private static String readN(final CharScanner reader, final int n) {
     char[] chars = new char[n];
     int i = 0;
     while(i < n) {
@@ -1176,8 +925,8 @@ public class HtmlParser {
    * @param reader
    * @return
    */
-  private final String readTag(final Node parent, final LineNumberReader reader) throws IOException {
-    final StringBuffer sb = new StringBuffer();
+  private final String readTag(final Node parent, final CharScanner reader) throws IOException {
+    final StringBuilder sb = new StringBuilder();
     int chInt;
     chInt = reader.read();
     if (chInt != -1) {
@@ -1218,7 +967,7 @@ public class HtmlParser {
             cont = false;
           }
         } else if (ch == '<') {
-          final StringBuffer ltText = new StringBuffer(3);
+          final StringBuilder ltText = new StringBuilder(3);
           ltText.append('<');
           while ((chInt = reader.read()) == '<') {
             ltText.append('<');
@@ -1238,7 +987,7 @@ public class HtmlParser {
             continue LOOP;
           }
         } else if (Character.isWhitespace(ch)) {
-          final StringBuffer ltText = new StringBuffer();
+          final StringBuilder ltText = new StringBuilder();
           ltText.append('<');
           ltText.append(ch);
           while ((chInt = reader.read()) != -1) {
@@ -1275,7 +1024,7 @@ public class HtmlParser {
             this.justReadTagEnd = true;
             this.justReadTagBegin = false;
             this.justReadEmptyElement = lastCharSlash;
-            final String tag = sb.toString();
+            final String tag = getTagName(sb);
             return tag;
           } else if (ch == '/') {
             lastCharSlash = true;
@@ -1299,15 +1048,15 @@ public class HtmlParser {
       this.justReadTagBegin = false;
       this.justReadEmptyElement = false;
     }
-    final String tag = sb.toString();
+    final String tag = getTagName(sb);
     return tag;
   }
 
-  private final StringBuffer passEndOfComment(final LineNumberReader reader) throws IOException {
+  private final StringBuilder passEndOfComment(final CharScanner reader) throws IOException {
     if (this.justReadTagEnd) {
-      return new StringBuffer(0);
+      return new StringBuilder(0);
     }
-    final StringBuffer sb = new StringBuffer();
+    final StringBuilder sb = new StringBuilder();
     OUTER: for (;;) {
       int chInt = reader.read();
       if (chInt == -1) {
@@ -1322,7 +1071,7 @@ public class HtmlParser {
         }
         ch = (char) chInt;
         if (ch == '-') {
-          StringBuffer extra = null;
+          StringBuilder extra = null;
           INNER: for (;;) {
             chInt = reader.read();
             if (chInt == -1) {
@@ -1339,13 +1088,13 @@ public class HtmlParser {
             } else if (ch == '-') {
               // Allow any number of dashes at the end
               if (extra == null) {
-                extra = new StringBuffer();
+                extra = new StringBuilder();
                 extra.append("--");
               }
               extra.append("-");
             } else if (Character.isWhitespace(ch)) {
               if (extra == null) {
-                extra = new StringBuffer();
+                extra = new StringBuilder();
                 extra.append("--");
               }
               extra.append(ch);
@@ -1372,7 +1121,7 @@ public class HtmlParser {
     return sb;
   }
 
-  private final String parseEndOfTag(final Reader reader) throws IOException {
+  private final String parseEndOfTag(final CharScanner reader) throws IOException {
     if (this.justReadTagEnd) {
       return "";
     }
@@ -1399,32 +1148,21 @@ public class HtmlParser {
     return result.toString();
   }
 
-  private final void passEndOfTag(final Reader reader) throws IOException {
+  private final void passEndOfTag(final CharScanner reader) throws IOException {
     if (this.justReadTagEnd) {
       return;
     }
-    boolean readSomething = false;
-    for (;;) {
-      final int chInt = reader.read();
-      if (chInt == -1) {
-        break;
-      }
-      readSomething = true;
-      final char ch = (char) chInt;
-      if (ch == '>') {
-        this.justReadTagEnd = true;
-        this.justReadTagBegin = false;
-        return;
-      }
-    }
-    if (readSomething) {
+    if (reader.skipUntil('>')) {
+      this.justReadTagEnd = true;
       this.justReadTagBegin = false;
-      this.justReadTagEnd = false;
+      return;
     }
+    this.justReadTagBegin = false;
+    this.justReadTagEnd = false;
   }
 
-  private final StringBuffer readProcessingInstruction(final LineNumberReader reader) throws IOException {
-    final StringBuffer pidata = new StringBuffer();
+  private final StringBuilder readProcessingInstruction(final CharScanner reader) throws IOException {
+    final StringBuilder pidata = new StringBuilder();
     if (this.justReadTagEnd) {
       return pidata;
     }
@@ -1437,7 +1175,7 @@ public class HtmlParser {
     return pidata;
   }
 
-  private final boolean readAttribute(final LineNumberReader reader, final Element element) throws IOException, SAXException {
+  private final boolean readAttribute(final CharScanner reader, final Element element) throws IOException, SAXException {
     if (this.justReadTagEnd) {
       return false;
     }
@@ -1445,14 +1183,14 @@ public class HtmlParser {
     // Read attribute name up to '=' character.
     // May read several attribute names without explicit values.
 
-    StringBuffer attributeName = null;
+    StringBuilder attributeName = null;
     boolean blankFound = false;
     boolean lastCharSlash = false;
     for (;;) {
       final int chInt = reader.read();
       if (chInt == -1) {
         if ((attributeName != null) && (attributeName.length() != 0)) {
-          final String attributeNameStr = attributeName.toString();
+          final String attributeNameStr = getAttributeName(attributeName);
           element.setAttribute(attributeNameStr, attributeNameStr);
           attributeName.setLength(0);
         }
@@ -1468,7 +1206,7 @@ public class HtmlParser {
         break;
       } else if (ch == '>') {
         if ((attributeName != null) && (attributeName.length() != 0)) {
-          final String attributeNameStr = attributeName.toString();
+          final String attributeNameStr = getAttributeName(attributeName);
           element.setAttribute(attributeNameStr, attributeNameStr);
         }
         this.justReadTagBegin = false;
@@ -1486,19 +1224,19 @@ public class HtmlParser {
         if (blankFound) {
           blankFound = false;
           if ((attributeName != null) && (attributeName.length() != 0)) {
-            final String attributeNameStr = attributeName.toString();
+            final String attributeNameStr = getAttributeName(attributeName);
             element.setAttribute(attributeNameStr, attributeNameStr);
             attributeName.setLength(0);
           }
         }
         if (attributeName == null) {
-          attributeName = new StringBuffer(6);
+          attributeName = new StringBuilder(6);
         }
         attributeName.append(ch);
       }
     }
     // Read blanks up to open quote or first non-blank.
-    StringBuffer attributeValue = null;
+    StringBuilder attributeValue = null;
     int openQuote = -1;
     for (;;) {
       final int chInt = reader.read();
@@ -1508,7 +1246,7 @@ public class HtmlParser {
       final char ch = (char) chInt;
       if (ch == '>') {
         if ((attributeName != null) && (attributeName.length() != 0)) {
-          final String attributeNameStr = attributeName.toString();
+          final String attributeNameStr = getAttributeName(attributeName);
           element.setAttribute(attributeNameStr, attributeNameStr);
         }
         this.justReadTagBegin = false;
@@ -1526,7 +1264,7 @@ public class HtmlParser {
           openQuote = '\'';
         } else {
           openQuote = -1;
-          attributeValue = new StringBuffer(6);
+          attributeValue = new StringBuilder(6);
           if (lastCharSlash) {
             attributeValue.append('/');
           }
@@ -1548,14 +1286,14 @@ public class HtmlParser {
       if ((openQuote != -1) && (ch == openQuote)) {
         lastCharSlash = false;
         if (attributeName != null) {
-          final String attributeNameStr = attributeName.toString();
+          final String attributeNameStr = getAttributeName(attributeName);
           if (attributeValue == null) {
             // Quotes are closed. There's a distinction
             // between blank values and null in HTML, as
             // processed by major browsers.
             element.setAttribute(attributeNameStr, "");
           } else {
-            final StringBuffer actualAttributeValue = entityDecode(attributeValue);
+            final StringBuilder actualAttributeValue = CharacterReferences.decode(attributeValue, true);
             element.setAttribute(attributeNameStr, actualAttributeValue.toString());
           }
         }
@@ -1564,11 +1302,11 @@ public class HtmlParser {
         return true;
       } else if ((openQuote == -1) && (ch == '>')) {
         if (attributeName != null) {
-          final String attributeNameStr = attributeName.toString();
+          final String attributeNameStr = getAttributeName(attributeName);
           if (attributeValue == null) {
             element.setAttribute(attributeNameStr, null);
           } else {
-            final StringBuffer actualAttributeValue = entityDecode(attributeValue);
+            final StringBuilder actualAttributeValue = CharacterReferences.decode(attributeValue, true);
             element.setAttribute(attributeNameStr, actualAttributeValue.toString());
           }
         }
@@ -1579,11 +1317,11 @@ public class HtmlParser {
       } else if ((openQuote == -1) && Character.isWhitespace(ch)) {
         lastCharSlash = false;
         if (attributeName != null) {
-          final String attributeNameStr = attributeName.toString();
+          final String attributeNameStr = getAttributeName(attributeName);
           if (attributeValue == null) {
             element.setAttribute(attributeNameStr, null);
           } else {
-            final StringBuffer actualAttributeValue = entityDecode(attributeValue);
+            final StringBuilder actualAttributeValue = CharacterReferences.decode(attributeValue, true);
             element.setAttribute(attributeNameStr, actualAttributeValue.toString());
           }
         }
@@ -1592,7 +1330,7 @@ public class HtmlParser {
         return true;
       } else {
         if (attributeValue == null) {
-          attributeValue = new StringBuffer(6);
+          attributeValue = new StringBuilder(6);
         }
         if (lastCharSlash) {
           attributeValue.append('/');
@@ -1604,79 +1342,14 @@ public class HtmlParser {
     this.justReadTagBegin = false;
     this.justReadTagEnd = false;
     if (attributeName != null) {
-      final String attributeNameStr = attributeName.toString();
+      final String attributeNameStr = getAttributeName(attributeName);
       if (attributeValue == null) {
         element.setAttribute(attributeNameStr, null);
       } else {
-        final StringBuffer actualAttributeValue = entityDecode(attributeValue);
+        final StringBuilder actualAttributeValue = CharacterReferences.decode(attributeValue, true);
         element.setAttribute(attributeNameStr, actualAttributeValue.toString());
       }
     }
     return false;
   }
-
-  private final static StringBuffer entityDecode(final StringBuffer rawText) throws org.xml.sax.SAXException {
-    int startIdx = 0;
-    StringBuffer sb = null;
-    for (;;) {
-      final int ampIdx = rawText.indexOf("&", startIdx);
-      if (ampIdx == -1) {
-        if (sb == null) {
-          return rawText;
-        } else {
-          sb.append(rawText.substring(startIdx));
-          return sb;
-        }
-      }
-      if (sb == null) {
-        sb = new StringBuffer();
-      }
-      sb.append(rawText.substring(startIdx, ampIdx));
-      final int colonIdx = rawText.indexOf(";", ampIdx);
-      if (colonIdx == -1) {
-        sb.append('&');
-        startIdx = ampIdx + 1;
-        continue;
-      }
-      final String spec = rawText.substring(ampIdx + 1, colonIdx);
-      if (spec.startsWith("#")) {
-        final String number = spec.substring(1).toLowerCase();
-        int decimal;
-        try {
-          if (number.startsWith("x")) {
-            decimal = Integer.parseInt(number.substring(1), 16);
-          } else {
-            decimal = Integer.parseInt(number);
-          }
-        } catch (final NumberFormatException nfe) {
-          logger.log(Level.WARNING, "entityDecode()", nfe);
-          decimal = 0;
-        }
-        sb.append((char) decimal);
-      } else {
-        final int chInt = getEntityChar(spec);
-        if (chInt == -1) {
-          sb.append('&');
-          sb.append(spec);
-          sb.append(';');
-        } else {
-          sb.append((char) chInt);
-        }
-      }
-      startIdx = colonIdx + 1;
-    }
-  }
-
-  private final static int getEntityChar(final String spec) {
-    // TODO: Declared entities
-    Character c = ENTITIES.get(spec);
-    if (c == null) {
-      final String specTL = spec.toLowerCase();
-      c = ENTITIES.get(specTL);
-      if (c == null) {
-        return -1;
-      }
-    }
-    return c.charValue();
-  }
 }
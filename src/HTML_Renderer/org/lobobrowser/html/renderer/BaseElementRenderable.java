@@ -25,10 +25,13 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.TexturePaint;
+import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.net.URL;
 import java.util.Collection;
@@ -49,7 +52,6 @@ import org.lobobrowser.html.style.HtmlInsets;
 import org.lobobrowser.html.style.HtmlValues;
 import org.lobobrowser.html.style.JStyleProperties;
 import org.lobobrowser.html.style.RenderState;
-import org.lobobrowser.ua.ImageResponse;
 import org.lobobrowser.ua.ImageResponse.State;
 import org.lobobrowser.ua.NetworkRequest;
 import org.lobobrowser.ua.UserAgentContext;
@@ -82,7 +84,13 @@ abstract class BaseElementRenderable extends BaseRCollection implements RElement
    */
   protected Color backgroundColor;
   protected volatile Image backgroundImage;
+  // The size to paint the background image at, if it differs from the size of the image.
+  private volatile Dimension backgroundImageSize;
   protected volatile boolean backgroundImageError = false;
+  // Paints repeated background images with a single fill. Made again when the
+  // image, its size or its position changes.
+  private TexturePaint backgroundTexture;
+  private Image backgroundTextureImage;
   protected int zIndex;
   protected Color borderTopColor;
   protected Color borderLeftColor;
@@ -387,6 +395,7 @@ abstract class BaseElementRenderable extends BaseRCollection implements RElement
     this.backgroundImage = null;
     this.backgroundImageError = false;
     this.lastBackgroundImageUri = null;
+    this.clearBackgroundTexture();
     this.overflowX = RenderState.OVERFLOW_VISIBLE;
     this.overflowY = RenderState.OVERFLOW_VISIBLE;
 
@@ -449,6 +458,7 @@ abstract class BaseElementRenderable extends BaseRCollection implements RElement
       this.backgroundImage = null;
       this.backgroundImageError = false;
       this.lastBackgroundImageUri = null;
+      this.clearBackgroundTexture();
     } else if (!backgroundImageUri.equals(this.lastBackgroundImageUri)) {
       this.lastBackgroundImageUri = backgroundImageUri;
       this.loadBackgroundImage(backgroundImageUri);
@@ -585,24 +595,27 @@ abstract class BaseElementRenderable extends BaseRCollection implements RElement
         if (readyState == NetworkRequest.STATE_COMPLETE) {
           final int status = request.getStatus();
           if ((status == 200) || (status == 0)) {
-            final ImageResponse imgResp = request.getResponseImage();
-            if (imgResp.state == State.loaded) {
-              assert(imgResp.img != null);
-              final @NonNull Image img = imgResp.img;
-              BaseElementRenderable.this.backgroundImage = img;
-              backgroundImageError = false;
-              // Cause observer to be called
-              final int w = img.getWidth(BaseElementRenderable.this);
-              final int h = img.getHeight(BaseElementRenderable.this);
-              // Maybe image already done...
-              if ((w != -1) && (h != -1)) {
-                SwingUtilities.invokeLater(() -> {
-                  BaseElementRenderable.this.repaint();
-                });
+            request.getResponseImage(imgResp -> {
+              if (imgResp.state == State.loaded) {
+                assert(imgResp.img != null);
+                final @NonNull Image img = imgResp.img;
+                BaseElementRenderable.this.backgroundImageSize = imgResp.isSubsampled() ? new Dimension(imgResp.getWidth(null),
+                    imgResp.getHeight(null)) : null;
+                BaseElementRenderable.this.backgroundImage = img;
+                backgroundImageError = false;
+                // Cause observer to be called
+                final int w = img.getWidth(BaseElementRenderable.this);
+                final int h = img.getHeight(BaseElementRenderable.this);
+                // Maybe image already done...
+                if ((w != -1) && (h != -1)) {
+                  SwingUtilities.invokeLater(() -> {
+                    BaseElementRenderable.this.repaint();
+                  });
+                }
+              } else {
+                backgroundImageError = true;
               }
-            } else {
-              backgroundImageError = true;
-            }
+            });
           } else {
             backgroundImageError = true;
           }
@@ -677,9 +690,6 @@ abstract class BaseElementRenderable extends BaseRCollection implements RElement
 
   protected void prePaintBackground(final java.awt.Graphics g, final int totalWidth, final int totalHeight, final int startX, final int startY, final ModelNode node,
       final RenderState rs, final Insets borderInsets) {
-    // TODO: Check if we can use TexturePaint to draw repeated background images
-    // See example: http://www.informit.com/articles/article.aspx?p=26349&seqNum=4
-
     // Using clientG (clipped below) beyond this point.
     final Graphics clientG = g.create(startX, startY, totalWidth, totalHeight);
     try {
@@ -698,8 +708,9 @@ abstract class BaseElementRenderable extends BaseRCollection implements RElement
         if (image != null) {
           bkgBounds = clientG.getClipBounds();
 
-          final int w = image.getWidth(this);
-          final int h = image.getHeight(this);
+          final Dimension imageSize = this.backgroundImageSize;
+          final int w = imageSize == null ? image.getWidth(this) : imageSize.width;
+          final int h = imageSize == null ? image.getHeight(this) : imageSize.height;
           if ((w != -1) && (h != -1)) {
             final int imageY = getImageY(totalHeight, binfo, h);
             final int imageX = getImageX(totalWidth, binfo, w);
@@ -708,39 +719,58 @@ abstract class BaseElementRenderable extends BaseRCollection implements RElement
             final int baseX = (bleft % w) + ((bkgBounds.x / w) * w) - (w - (imageX%w));
             final int baseY = (btop % h) + ((bkgBounds.y / h) * h) - (h - (imageY%h));
 
-            switch (binfo == null ? BackgroundInfo.BR_REPEAT : binfo.backgroundRepeat) {
-            case BackgroundInfo.BR_NO_REPEAT: {
-              clientG.drawImage(image, bleft + imageX, btop + imageY, w, h, this);
-              break;
-            }
-            case BackgroundInfo.BR_REPEAT_X: {
-              // Modulate starting x.
-              final int topX = bkgBounds.x + bkgBounds.width;
-              for (int x = baseX; x < topX; x += w) {
-                clientG.drawImage(image, x, btop + imageY, w, h, this);
+            final int repeat = binfo == null ? BackgroundInfo.BR_REPEAT : binfo.backgroundRepeat;
+            final TexturePaint texture = repeat == BackgroundInfo.BR_NO_REPEAT ? null : this.getBackgroundTexture(image,
+                new Rectangle(bleft + imageX, btop + imageY, w, h));
+            if (texture != null) {
+              final Graphics2D g2 = (Graphics2D) clientG;
+              g2.setPaint(texture);
+              switch (repeat) {
+              case BackgroundInfo.BR_REPEAT_X:
+                g2.fillRect(bkgBounds.x, btop + imageY, bkgBounds.width, h);
+                break;
+              case BackgroundInfo.BR_REPEAT_Y:
+                g2.fillRect(bleft + imageX, bkgBounds.y, w, bkgBounds.height);
+                break;
+              default:
+                g2.fillRect(bkgBounds.x, bkgBounds.y, bkgBounds.width, bkgBounds.height);
+                break;
               }
-              break;
-            }
-            case BackgroundInfo.BR_REPEAT_Y: {
-              // Modulate starting y.
-              final int topY = bkgBounds.y + bkgBounds.height;
-              for (int y = baseY; y < topY; y += h) {
-                clientG.drawImage(image, bleft + imageX, y, w, h, this);
+            } else {
+              switch (repeat) {
+              case BackgroundInfo.BR_NO_REPEAT: {
+                clientG.drawImage(image, bleft + imageX, btop + imageY, w, h, this);
+                break;
               }
-              break;
-            }
-            default: {
-              // Modulate starting x and y.
-              final int topX = bkgBounds.x + bkgBounds.width;
-              final int topY = bkgBounds.y + bkgBounds.height;
-              // Replacing this:
-              for (int x = baseX; x < topX; x += w) {
+              case BackgroundInfo.BR_REPEAT_X: {
+                // Modulate starting x.
+                final int topX = bkgBounds.x + bkgBounds.width;
+                for (int x = baseX; x < topX; x += w) {
+                  clientG.drawImage(image, x, btop + imageY, w, h, this);
+                }
+                break;
+              }
+              case BackgroundInfo.BR_REPEAT_Y: {
+                // Modulate starting y.
+                final int topY = bkgBounds.y + bkgBounds.height;
                 for (int y = baseY; y < topY; y += h) {
-                  clientG.drawImage(image, x, y, w, h, this);
+                  clientG.drawImage(image, bleft + imageX, y, w, h, this);
                 }
+                break;
+              }
+              default: {
+                // Modulate starting x and y.
+                final int topX = bkgBounds.x + bkgBounds.width;
+                final int topY = bkgBounds.y + bkgBounds.height;
+                // Replacing this:
+                for (int x = baseX; x < topX; x += w) {
+                  for (int y = baseY; y < topY; y += h) {
+                    clientG.drawImage(image, x, y, w, h, this);
+                  }
+                }
+                break;
+              }
               }
-              break;
-            }
             }
           }
         }
@@ -750,6 +780,30 @@ abstract class BaseElementRenderable extends BaseRCollection implements RElement
     }
   }
 
+  /**
+   * Gets a paint that tiles the background image from the given anchor, or
+   * <code>null</code> if the image has to be drawn tile by tile. Toolkit
+   * images are, since they may be animated.
+   */
+  private TexturePaint getBackgroundTexture(final Image image, final Rectangle anchor) {
+    if (!(image instanceof BufferedImage) || (anchor.width <= 0) || (anchor.height <= 0)) {
+      return null;
+    }
+    final TexturePaint texture = this.backgroundTexture;
+    if ((texture != null) && (this.backgroundTextureImage == image) && texture.getAnchorRect().equals(anchor)) {
+      return texture;
+    }
+    final TexturePaint newTexture = new TexturePaint((BufferedImage) image, anchor);
+    this.backgroundTexture = newTexture;
+    this.backgroundTextureImage = image;
+    return newTexture;
+  }
+
+  private void clearBackgroundTexture() {
+    this.backgroundTexture = null;
+    this.backgroundTextureImage = null;
+  }
+
   protected void prePaintBorder(final java.awt.Graphics g, final int totalWidth, final int totalHeight, final int startX, final int startY, final Insets borderInsets) {
     if (borderInsets != null) {
       final int btop = borderInsets.top;
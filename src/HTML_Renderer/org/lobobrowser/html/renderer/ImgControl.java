@@ -28,13 +28,13 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 
 import javax.swing.SwingUtilities;
 
-import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 import org.lobobrowser.html.domimpl.HTMLElementImpl;
 import org.lobobrowser.html.domimpl.HTMLImageElementImpl;
@@ -42,6 +42,7 @@ import org.lobobrowser.html.domimpl.ImageEvent;
 import org.lobobrowser.html.domimpl.ImageListener;
 import org.lobobrowser.html.style.HtmlValues;
 import org.lobobrowser.ua.ImageResponse;
+import org.lobobrowser.ua.ImageResponse.State;
 
 import cz.vutbr.web.css.CSSProperty.VerticalAlign;
 
@@ -73,15 +74,38 @@ class ImgControl extends BaseControl implements ImageListener {
       final int imgWidth = image.getWidth(this);
       final int imgHeight = image.getHeight(this);
       if (width < imgWidth || height < imgHeight) {
-        // down-sampling needs better handling
-        final Image scaledImg = getScaledInstance(image, width, height, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g.drawImage(scaledImg, insets.left, insets.top, width, height, this);
+        if ((width <= 0) || (height <= 0)) {
+          return;
+        }
+        if ((image instanceof BufferedImage) && (imageResponse.state == State.partial)) {
+          // A partial image keeps changing, so a scaled copy would go stale.
+          g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+          g.drawImage(image, insets.left, insets.top, width, height, this);
+        } else if (image instanceof BufferedImage) {
+          final BufferedImage scaledImg = ScaledImageCache.getInstance().get((BufferedImage) image, width, height,
+              RenderingHints.VALUE_INTERPOLATION_BICUBIC, this::repaint);
+          if (scaledImg != null) {
+            g.drawImage(scaledImg, insets.left, insets.top, this);
+          } else {
+            // Until the scaled copy is ready, a quick single-step scaling will do.
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, insets.left, insets.top, width, height, this);
+          }
+        } else {
+          // Toolkit images may be animated, so they are scaled for every frame.
+          final Image scaledImg = ScaledImageCache.scale(image, width, height, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+          g.drawImage(scaledImg, insets.left, insets.top, width, height, this);
+        }
       } else {
         g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
         g.drawImage(image, insets.left, insets.top, width, height, this);
       }
     } else {
       // TODO: show alt text
+      if (imageResponse.state == State.loading) {
+        // Painted, so in view; its fetch should not wait behind other images.
+        ((HTMLImageElementImpl) this.controlElement).prioritizeLoad();
+      }
     }
   }
 
@@ -122,41 +146,56 @@ class ImgControl extends BaseControl implements ImageListener {
   public Dimension createPreferredSize(int dw, int dh) {
     final ImageResponse imageResponseLocal = this.imageResponse;
     if (!imageResponseLocal.isDecoded()) {
-      return new Dimension(dw == -1 ? 0 : dw, dh == -1 ? 0 : dh);
+      // Until the image arrives, its size attributes hold its place, so that
+      // the layout does not jump when it does.
+      final HTMLElementImpl element = this.controlElement;
+      final int aw = dw == -1 ? getSizeAttribute(element, "width") : dw;
+      final int ah = dh == -1 ? getSizeAttribute(element, "height") : dh;
+      return new Dimension(aw, ah);
     }
 
-    assert(imageResponseLocal.img != null);
-    final @NonNull Image img = imageResponseLocal.img;
-
+    // The layout size, which can be larger than a subsampled image.
     if (dw == -1) {
       if (dh != -1) {
-        final int iw = HtmlValues.scaleToDevicePixels(img.getWidth(this));
-        final int ih = HtmlValues.scaleToDevicePixels(img.getHeight(this));
+        final int iw = HtmlValues.scaleToDevicePixels(imageResponseLocal.getWidth(this));
+        final int ih = HtmlValues.scaleToDevicePixels(imageResponseLocal.getHeight(this));
         if (ih == 0) {
           dw = iw;
         } else {
           dw = (dh * iw) / ih;
         }
       } else {
-        dw = HtmlValues.scaleToDevicePixels(img.getWidth(this));
+        dw = HtmlValues.scaleToDevicePixels(imageResponseLocal.getWidth(this));
       }
     }
     if (dh == -1) {
       if (dw != -1) {
-        final int iw = HtmlValues.scaleToDevicePixels(img.getWidth(this));
-        final int ih = HtmlValues.scaleToDevicePixels(img.getHeight(this));
+        final int iw = HtmlValues.scaleToDevicePixels(imageResponseLocal.getWidth(this));
+        final int ih = HtmlValues.scaleToDevicePixels(imageResponseLocal.getHeight(this));
         if (iw == 0) {
           dh = ih == -1 ? 0 : ih;
         } else {
           dh = (dw * ih) / iw;
         }
       } else {
-        dh = HtmlValues.scaleToDevicePixels(img.getHeight(this));
+        dh = HtmlValues.scaleToDevicePixels(imageResponseLocal.getHeight(this));
       }
     }
     return new Dimension(dw, dh);
   }
 
+  private static int getSizeAttribute(final HTMLElementImpl element, final String name) {
+    final String value = element.getAttribute(name);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Math.max(0, HtmlValues.scaleToDevicePixels(Integer.parseInt(value.trim())));
+    } catch (final NumberFormatException nfe) {
+      return 0;
+    }
+  }
+
   private final boolean checkPreferredSizeChange() {
     final Dimension newPs = this.createPreferredSize(this.declaredWidth, this.declaredHeight);
     final Dimension ps = this.preferredSize;
@@ -224,62 +263,58 @@ class ImgControl extends BaseControl implements ImageListener {
     }
   }
 
-  public void imageAborted() {
-    // do nothing
-  }
-
   @Override
-  public String toString() {
-    return "ImgControl[src=" + this.lastSrc + "]";
+  public void imagePartiallyLoaded(final ImageEvent event) {
+    this.imageResponse = event.imageResponse;
+    final Rectangle updatedArea = event.updatedArea;
+    SwingUtilities.invokeLater(() -> {
+      if (checkPreferredSizeChange()) {
+        ruicontrol.preferredSizeInvalidated();
+      } else if (updatedArea == null) {
+        repaint();
+      } else {
+        repaintImageArea(updatedArea);
+      }
+    });
   }
 
-  // https://today.java.net/pub/a/today/2007/04/03/perils-of-image-getscaledinstance.html
-
-  // Adapted from: https://today.java.net/pub/a/today/2007/04/03/perils-of-image-getscaledinstance.html
   /**
-   * Convenience method that returns a scaled instance of the provided {@code BufferedImage}.
-   *
-   * @param img the original image to be scaled
-   * @param targetWidth the desired width of the scaled instance, in pixels
-   * @param targetHeight the desired height of the scaled instance, in pixels
-   * @param hint one of the rendering hints that corresponds to {@code RenderingHints.KEY_INTERPOLATION}
-   * @return a scaled version of the original {@code BufferedImage}
+   * Repaints the part of this control that shows the given area of the image.
    */
-  private Image getScaledInstance(final Image img, final int targetWidth, final int targetHeight, final Object hint) {
-    final int type = BufferedImage.TYPE_INT_ARGB;
-    Image ret = img;
-    int w = img.getWidth(this);
-    int h = img.getHeight(this);
-
-    while (w != targetWidth || h != targetHeight) {
-      if (w > targetWidth) {
-        w /= 2;
-      }
-      if (w < targetWidth) {
-        w = targetWidth;
-      }
-
-      if (h > targetHeight) {
-        h /= 2;
-      }
-      if (h < targetHeight) {
-        h = targetHeight;
-      }
-
-      BufferedImage tmp = new BufferedImage(w, h, type);
-      Graphics2D g2 = tmp.createGraphics();
-      g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, hint);
-      g2.drawImage(ret, 0, 0, w, h, null);
-      g2.dispose();
-
-      ret = tmp;
+  private void repaintImageArea(final Rectangle area) {
+    final Image image = this.imageResponse.img;
+    if (image == null) {
+      return;
+    }
+    final int imgWidth = image.getWidth(this);
+    final int imgHeight = image.getHeight(this);
+    if ((imgWidth <= 0) || (imgHeight <= 0)) {
+      return;
     }
+    final Dimension size = this.getSize();
+    final Insets insets = this.getInsets();
+    final int width = size.width - insets.left - insets.right;
+    final int height = size.height - insets.top - insets.bottom;
+    // One more pixel on each side, for interpolation with neighbouring pixels.
+    final int x1 = (insets.left + ((area.x * width) / imgWidth)) - 1;
+    final int y1 = (insets.top + ((area.y * height) / imgHeight)) - 1;
+    final int x2 = insets.left + ((((area.x + area.width) * width) + imgWidth - 1) / imgWidth) + 1;
+    final int y2 = insets.top + ((((area.y + area.height) * height) + imgHeight - 1) / imgHeight) + 1;
+    this.repaint(x1, y1, x2 - x1, y2 - y1);
+  }
+
+  public void imageAborted() {
+    // do nothing
+  }
 
-    return ret;
+  @Override
+  public String toString() {
+    return "ImgControl[src=" + this.lastSrc + "]";
   }
 
   @Override
   public boolean isReadyToPaint() {
-    return imageResponse.isReadyToPaint();
+    // A lazy image that is away from the viewport is not waited for.
+    return imageResponse.isReadyToPaint() || ((HTMLImageElementImpl) this.controlElement).isLoadDeferred();
   }
 }
@@ -31,7 +31,6 @@ import java.awt.image.ImageObserver;
 
 import javax.swing.SwingUtilities;
 
-import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 import org.lobobrowser.html.domimpl.HTMLBaseInputElement;
 import org.lobobrowser.html.domimpl.HTMLElementImpl;
@@ -138,14 +137,11 @@ class InputImageControl extends BaseInputControl implements ImageListener {
       return new Dimension(dw == -1 ? 0 : dw, dh == -1 ? 0 : dh);
     }
 
-    assert (imgResponse.img != null);
-    final @NonNull Image img = imgResponse.img;
-
     if (dw == -1) {
-      dw = HtmlValues.scaleToDevicePixels(img.getWidth(this));
+      dw = HtmlValues.scaleToDevicePixels(imgResponse.getWidth(this));
     }
     if (dh == -1) {
-      dh = HtmlValues.scaleToDevicePixels(img.getHeight(this));
+      dh = HtmlValues.scaleToDevicePixels(imgResponse.getHeight(this));
     }
     return new Dimension(dw, dh);
   }
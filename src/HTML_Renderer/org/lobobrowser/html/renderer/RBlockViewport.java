@@ -30,11 +30,9 @@ import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -45,6 +43,7 @@ import org.eclipse.jdt.annotation.NonNull;
 import org.lobobrowser.html.BrowserFrame;
 import org.lobobrowser.html.HtmlObject;
 import org.lobobrowser.html.HtmlRendererContext;
+import org.lobobrowser.html.domimpl.Atom;
 import org.lobobrowser.html.domimpl.DocumentFragmentImpl;
 import org.lobobrowser.html.domimpl.HTMLBaseInputElement;
 import org.lobobrowser.html.domimpl.HTMLCanvasElementImpl;
@@ -132,32 +131,33 @@ public class RBlockViewport extends BaseRCollection {
   private boolean firstElementProcessed = false;
   private boolean lastElementBeingProcessed = false;
 
-  private static final Map<String, MarkupLayout> elementLayout = new HashMap<>(70);
+  // Indexed by atom id.
+  private static final MarkupLayout[] elementLayout = new MarkupLayout[Atom.COUNT];
   private static final MarkupLayout commonLayout = new CommonLayout();
 
   static {
-    final Map<String, MarkupLayout> el = elementLayout;
-    el.put("BR", new BrLayout());
-    el.put("NOSCRIPT", new NoScriptLayout());
+    final MarkupLayout[] el = elementLayout;
+    el[Atom.BR] = new BrLayout();
+    el[Atom.NOSCRIPT] = new NoScriptLayout();
     final NopLayout nop = new NopLayout();
-    el.put("SCRIPT", nop);
-    el.put("HEAD", nop);
-    el.put("TITLE", nop);
-    el.put("META", nop);
-    el.put("STYLE", nop);
-    el.put("LINK", nop);
-    el.put("IMG", new ImgLayout());
-    el.put("INPUT", new InputLayout2());
-    el.put("TEXTAREA", new TextAreaLayout2());
-    el.put("SELECT", new SelectLayout());
-    el.put("HR", new HrLayout());
+    el[Atom.SCRIPT] = nop;
+    el[Atom.HEAD] = nop;
+    el[Atom.TITLE] = nop;
+    el[Atom.META] = nop;
+    el[Atom.STYLE] = nop;
+    el[Atom.LINK] = nop;
+    el[Atom.IMG] = new ImgLayout();
+    el[Atom.INPUT] = new InputLayout2();
+    el[Atom.TEXTAREA] = new TextAreaLayout2();
+    el[Atom.SELECT] = new SelectLayout();
+    el[Atom.HR] = new HrLayout();
     final ObjectLayout ol = new ObjectLayout(false, true);
-    el.put("OBJECT", new ObjectLayout(true, true));
-    el.put("APPLET", ol);
-    el.put("EMBED", ol);
-    el.put("IFRAME", new IFrameLayout());
+    el[Atom.OBJECT] = new ObjectLayout(true, true);
+    el[Atom.APPLET] = ol;
+    el[Atom.EMBED] = ol;
+    el[Atom.IFRAME] = new IFrameLayout();
 
-    el.put("CANVAS", new CanvasLayout());
+    el[Atom.CANVAS] = new CanvasLayout();
   }
 
   /**
@@ -577,8 +577,8 @@ public class RBlockViewport extends BaseRCollection {
           // Note that scanning for node bounds (anchor location)
           // depends on there being a style changer for inline elements.
           this.currentLine.addStyleChanger(new RStyleChanger(child));
-          final String nodeName = child.getNodeName().toUpperCase();
-          MarkupLayout ml = elementLayout.get(nodeName);
+          final int atomId = ((HTMLElementImpl) child).getAtomId();
+          MarkupLayout ml = atomId == Atom.UNKNOWN ? null : elementLayout[atomId];
           if (ml == null) {
             ml = commonLayout;
           }
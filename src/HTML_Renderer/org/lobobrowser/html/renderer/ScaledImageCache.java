@@ -0,0 +1,222 @@
+package org.lobobrowser.html.renderer;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.lobobrowser.util.SimpleThreadPool;
+import org.lobobrowser.util.SimpleThreadPoolTask;
+
+/**
+ * Keeps downscaled copies of images, so that an image shown smaller than its
+ * natural size is scaled once rather than on every paint. Copies are made on a
+ * worker thread, and the least recently used ones are dropped once they exceed
+ * a memory budget shared by all documents. A copy is also dropped when its
+ * source image is garbage collected.
+ */
+final class ScaledImageCache {
+  private static final Logger logger = Logger.getLogger(ScaledImageCache.class.getName());
+  private static final long MAX_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 16, 64L * 1024 * 1024);
+  private static final ScaledImageCache instance = new ScaledImageCache();
+
+  private final LinkedHashMap<VariantKey, BufferedImage> variants = new LinkedHashMap<>(64, 0.75f, true);
+  private final Map<VariantKey, List<Runnable>> pending = new HashMap<>();
+  private final ReferenceQueue<Image> collectedSources = new ReferenceQueue<>();
+  private final SimpleThreadPool threadPool = new SimpleThreadPool("ImageScalerPool", 0, 2, 60 * 1000);
+  private long bytes = 0;
+
+  static ScaledImageCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Gets a copy of the source image scaled to the given size. If there is none
+   * yet, one is made on a worker thread, this method returns
+   * <code>null</code>, and <code>onReady</code> is run from the worker thread
+   * once the copy is available.
+   */
+  BufferedImage get(final BufferedImage source, final int width, final int height, final Object hint, final Runnable onReady) {
+    final VariantKey key;
+    synchronized (this) {
+      this.expungeCollected();
+      final VariantKey lookupKey = new VariantKey(source, width, height, hint, null);
+      final BufferedImage variant = this.variants.get(lookupKey);
+      if (variant != null) {
+        return variant;
+      }
+      final List<Runnable> waiting = this.pending.get(lookupKey);
+      if (waiting != null) {
+        waiting.add(onReady);
+        return null;
+      }
+      final List<Runnable> newWaiting = new ArrayList<>(1);
+      newWaiting.add(onReady);
+      // Only stored keys are registered, so that collected sources can be expunged.
+      key = new VariantKey(source, width, height, hint, this.collectedSources);
+      this.pending.put(key, newWaiting);
+    }
+    this.threadPool.schedule(new ScaleTask(key, source));
+    return null;
+  }
+
+  private void scaled(final VariantKey key, final BufferedImage variant) {
+    final List<Runnable> waiting;
+    synchronized (this) {
+      waiting = this.pending.remove(key);
+      final long size = (long) variant.getWidth() * variant.getHeight() * 4;
+      if (size <= MAX_BYTES) {
+        final BufferedImage old = this.variants.put(key, variant);
+        if (old != null) {
+          this.bytes -= (long) old.getWidth() * old.getHeight() * 4;
+        }
+        this.bytes += size;
+        final Iterator<BufferedImage> i = this.variants.values().iterator();
+        while ((this.bytes > MAX_BYTES) && i.hasNext()) {
+          final BufferedImage evicted = i.next();
+          this.bytes -= (long) evicted.getWidth() * evicted.getHeight() * 4;
+          i.remove();
+        }
+      }
+    }
+    if (waiting != null) {
+      for (final Runnable r : waiting) {
+        r.run();
+      }
+    }
+  }
+
+  private void expungeCollected() {
+    Reference<? extends Image> ref;
+    while ((ref = this.collectedSources.poll()) != null) {
+      final BufferedImage variant = this.variants.remove(ref);
+      if (variant != null) {
+        this.bytes -= (long) variant.getWidth() * variant.getHeight() * 4;
+      }
+    }
+  }
+
+  // Adapted from: https://today.java.net/pub/a/today/2007/04/03/perils-of-image-getscaledinstance.html
+  /**
+   * Scales an image by halving its size in steps, which looks better than
+   * scaling it in one go.
+   *
+   * @param img the original image to be scaled
+   * @param targetWidth the desired width of the scaled instance, in pixels
+   * @param targetHeight the desired height of the scaled instance, in pixels
+   * @param hint one of the rendering hints that corresponds to {@code RenderingHints.KEY_INTERPOLATION}
+   * @return a scaled version of the original image
+   */
+  static Image scale(final Image img, final int targetWidth, final int targetHeight, final Object hint) {
+    final boolean opaque = (img instanceof BufferedImage) && (((BufferedImage) img).getTransparency() == Transparency.OPAQUE);
+    final int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+    Image ret = img;
+    int w = img.getWidth(null);
+    int h = img.getHeight(null);
+
+    while ((w != targetWidth) || (h != targetHeight)) {
+      if (w > targetWidth) {
+        w /= 2;
+      }
+      if (w < targetWidth) {
+        w = targetWidth;
+      }
+
+      if (h > targetHeight) {
+        h /= 2;
+      }
+      if (h < targetHeight) {
+        h = targetHeight;
+      }
+
+      final BufferedImage tmp = new BufferedImage(w, h, type);
+      final Graphics2D g2 = tmp.createGraphics();
+      g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, hint);
+      g2.drawImage(ret, 0, 0, w, h, null);
+      g2.dispose();
+
+      ret = tmp;
+    }
+
+    return ret;
+  }
+
+  private final class ScaleTask implements SimpleThreadPoolTask {
+    private final VariantKey key;
+    private final BufferedImage source;
+
+    ScaleTask(final VariantKey key, final BufferedImage source) {
+      this.key = key;
+      this.source = source;
+    }
+
+    public void run() {
+      try {
+        final Image scaledImg = scale(this.source, this.key.width, this.key.height, this.key.hint);
+        // The source is returned as is when it already has the requested size.
+        scaled(this.key, scaledImg instanceof BufferedImage ? (BufferedImage) scaledImg : this.source);
+      } catch (final RuntimeException | OutOfMemoryError e) {
+        logger.log(Level.WARNING, "run(): Unable to scale image.", e);
+        synchronized (ScaledImageCache.this) {
+          pending.remove(this.key);
+        }
+      }
+    }
+
+    public void cancel() {
+      // Scaling is short, so it is not interrupted.
+    }
+
+    @Override
+    public String toString() {
+      return "ScaleTask[" + this.key.width + "x" + this.key.height + "]";
+    }
+  }
+
+  /** Refers to the source image weakly, and compares it by identity. */
+  private static final class VariantKey extends WeakReference<Image> {
+    private final int width;
+    private final int height;
+    private final Object hint;
+    private final int hash;
+
+    VariantKey(final Image source, final int width, final int height, final Object hint, final ReferenceQueue<Image> queue) {
+      super(source, queue);
+      this.width = width;
+      this.height = height;
+      this.hint = hint;
+      this.hash = (((System.identityHashCode(source) * 31) + width) * 31) + height;
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof VariantKey)) {
+        return false;
+      }
+      final VariantKey key = (VariantKey) other;
+      final Image source = this.get();
+      return (source != null) && (source == key.get()) && (this.width == key.width) && (this.height == key.height)
+          && this.hint.equals(key.hint);
+    }
+  }
+}
@@ -26,13 +26,20 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.lobobrowser.html.domimpl.HTMLDocumentImpl;
@@ -151,7 +158,9 @@ public class CSSUtilities {
     try {
       final URL base = new URL(cssURI);
       CSSFactory.setAutoImportMedia(new MediaSpec("screen"));
-      return CSSParserFactory.getInstance().parse(processedText, new SafeNetworkProcessor(bcontext), "utf-8", SourceType.EMBEDDED, base);
+      final SafeNetworkProcessor networkProcessor = new SafeNetworkProcessor(bcontext);
+      networkProcessor.prefetchImports(base, processedText);
+      return CSSParserFactory.getInstance().parse(processedText, networkProcessor, "utf-8", SourceType.EMBEDDED, base);
     } catch (IOException | CSSException e) {
       logger.log(Level.SEVERE, "Unable to parse CSS. URI=[" + cssURI + "].", e);
       return getEmptyStyleSheet();
@@ -159,25 +168,73 @@ public class CSSUtilities {
   }
 
   public static class SafeNetworkProcessor implements NetworkProcessor {
+    private static final Pattern IMPORT_PATTERN = Pattern.compile(
+        "@import\\s*(?:url\\(\\s*)?(?:\"([^\"]*)\"|'([^']*)'|([^\\s'\")]+))\\s*\\)?([^;]*);", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_PREFETCHES = 32;
+
     final UserAgentContext bcontext;
+    private final Map<String, StyleSheetLoader.Pending<byte[]>> prefetches = new ConcurrentHashMap<>();
 
     public SafeNetworkProcessor(final UserAgentContext bcontext) {
       this.bcontext = bcontext;
     }
 
+    /**
+     * Starts fetching the style sheets imported by the given text, and the ones
+     * they import in turn, so that the parser finds them already loaded rather
+     * than fetching them one at a time. Imports for other media than the
+     * screen are left alone.
+     */
+    void prefetchImports(final URL base, final String text) {
+      if (this.bcontext == null) {
+        return;
+      }
+      final Matcher matcher = IMPORT_PATTERN.matcher(text);
+      while (matcher.find() && (this.prefetches.size() < MAX_PREFETCHES)) {
+        final String media = matcher.group(4).trim().toLowerCase();
+        if ((media.length() != 0) && !media.contains("screen") && !media.contains("all")) {
+          continue;
+        }
+        final String spec = matcher.group(1) != null ? matcher.group(1) : (matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+        try {
+          final URL url = Urls.createURL(base, spec);
+          this.prefetches.computeIfAbsent(url.toExternalForm(), k -> StyleSheetLoader.schedule(() -> {
+            final byte[] bytes = this.fetchBytes(url);
+            this.prefetchImports(url, new String(bytes, StandardCharsets.UTF_8));
+            return bytes;
+          }));
+        } catch (final MalformedURLException mfe) {
+          // The parser reports it.
+        }
+      }
+    }
+
     @Override
     public InputStream fetch(final @NonNull URL url) throws IOException {
+      final StyleSheetLoader.Pending<byte[]> prefetch = this.prefetches.get(url.toExternalForm());
+      if (prefetch != null) {
+        return new ByteArrayInputStream(prefetch.get());
+      }
+      // The parser reads the response in place.
+      return this.fetch(url, NetworkRequest::getResponseStream);
+    }
+
+    private byte[] fetchBytes(final @NonNull URL url) throws IOException {
+      return this.fetch(url, NetworkRequest::getResponseBytes);
+    }
+
+    private <T> T fetch(final @NonNull URL url, final Function<NetworkRequest, T> body) throws IOException {
       try {
-        return AccessController.doPrivileged((PrivilegedExceptionAction<InputStream>) () -> {
+        return AccessController.doPrivileged((PrivilegedExceptionAction<T>) () -> {
           final NetworkRequest request = bcontext.createHttpRequest();
           request.open("GET", url, false);
           request.send(null, new Request(url, RequestKind.CSS));
-          final byte[] responseBytes = request.getResponseBytes();
-          if (responseBytes == null) {
+          final T response = body.apply(request);
+          if (response == null) {
             // This can happen when a request is denied by the request manager.
             throw new IOException("Empty response");
           } else {
-            return new ByteArrayInputStream(responseBytes);
+            return response;
           }
         });
       } catch (final PrivilegedActionException e) {
@@ -2,6 +2,8 @@ package org.lobobrowser.html.style;
 
 import java.util.Vector;
 
+import org.lobobrowser.html.domimpl.Atom;
+import org.lobobrowser.html.domimpl.ElementImpl;
 import org.lobobrowser.html.domimpl.HTMLElementImpl;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -22,17 +24,23 @@ public class StyleElements {
       final HTMLElementImpl el = (HTMLElementImpl) n;
       //Analyze HTML attributes
       String attrs = "";
-      final String tagName = el.getTagName();
-      if ("TABLE".equalsIgnoreCase(tagName)) {
+      switch (el.getAtomId()) {
+      case Atom.TABLE:
         //setting table and cell borders
         attrs = getTableElementStyle(el, attrs);
-      } else if ("FONT".equalsIgnoreCase(tagName)) {
+        break;
+      case Atom.FONT:
         //Text properties
         attrs = getFontElementStyle(el, attrs);
-      } else if ("CANVAS".equalsIgnoreCase(tagName)) {
+        break;
+      case Atom.CANVAS:
         attrs = getCanvasElementStyle(el, attrs);
-      } else if ("IMG".equalsIgnoreCase(tagName)) {
+        break;
+      case Atom.IMG:
         attrs = getElementDimensionStyle(el, attrs);
+        break;
+      default:
+        break;
       }
 
       if (attrs.length() > 0) {
@@ -227,16 +235,25 @@ public class StyleElements {
     Node cell = cellroot;
 
     if (n.getNodeType() == Node.ELEMENT_NODE) {
-      final String tag = n.getNodeName().toLowerCase();
-      if (tag.equals("table")) {
+      switch (((ElementImpl) n).getAtomId()) {
+      case Atom.TABLE:
         if (cell != null) { //do not enter nested tables
           return;
         }
-      } else if (tag.equals("tbody") || tag.equals("thead") || tag.equals("tfoot")
-          || tag.equals("tr") || tag.equals("col") || tag.equals("colgroup")) {
-      } else if (tag.equals("td") || tag.equals("th") || tag.equals("caption")) {
+        break;
+      case Atom.TBODY:
+      case Atom.THEAD:
+      case Atom.TFOOT:
+      case Atom.TR:
+      case Atom.COL:
+      case Atom.COLGROUP:
+        break;
+      case Atom.TD:
+      case Atom.TH:
+      case Atom.CAPTION:
         cell = n;
-      } else { //other elements
+        break;
+      default: //other elements
         if (cell == null) {
           nodes.add(n);
           return;
@@ -0,0 +1,99 @@
+package org.lobobrowser.html.style;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.lobobrowser.html.domimpl.HTMLDocumentImpl;
+import org.lobobrowser.util.SimpleThreadPool;
+import org.lobobrowser.util.SimpleThreadPoolTask;
+
+import cz.vutbr.web.css.StyleSheet;
+
+/**
+ * Fetches and parses style sheets on worker threads, so that the style sheets
+ * of a document, and the sheets they import, are loaded concurrently rather
+ * than one after another. The results are still applied in document order, by
+ * whoever waits for them.
+ */
+public final class StyleSheetLoader {
+  private static final SimpleThreadPool threadPool = new SimpleThreadPool("StyleSheetLoaderPool", 0, 6, 60 * 1000);
+
+  private StyleSheetLoader() {
+  }
+
+  /**
+   * Starts fetching and parsing an external style sheet, as
+   * {@link CSSUtilities#jParse(org.w3c.dom.Node, String, String, HTMLDocumentImpl, String, boolean)}
+   * does.
+   */
+  public static Pending<StyleSheet> load(final org.w3c.dom.Node ownerNode, final String href, final String integrity,
+      final HTMLDocumentImpl doc, final String baseUri, final boolean considerDoubleSlashComments) {
+    return schedule(() -> CSSUtilities.jParse(ownerNode, href, integrity, doc, baseUri, considerDoubleSlashComments));
+  }
+
+  static <T> Pending<T> schedule(final Loader<T> loader) {
+    final Pending<T> pending = new Pending<>(loader);
+    threadPool.schedule(pending);
+    return pending;
+  }
+
+  @FunctionalInterface
+  interface Loader<T> {
+    T load() throws IOException;
+  }
+
+  /**
+   * The result of a load. A thread that asks for it before a worker has
+   * started the load runs it itself, so that loads waiting on other loads can
+   * not exhaust the workers.
+   */
+  public static final class Pending<T> implements SimpleThreadPoolTask {
+    private final Loader<T> loader;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    private Pending(final Loader<T> loader) {
+      this.loader = loader;
+    }
+
+    public void run() {
+      if (this.started.compareAndSet(false, true)) {
+        try {
+          this.result.complete(this.loader.load());
+        } catch (final IOException | RuntimeException e) {
+          this.result.completeExceptionally(e);
+        } catch (final Error e) {
+          // Waiting threads must not be left hanging.
+          this.result.completeExceptionally(e);
+          throw e;
+        }
+      }
+    }
+
+    public void cancel() {
+      // Loads are not interrupted; their results are just not used.
+    }
+
+    /** Waits for the result, loading it in this thread if no worker has begun. */
+    public T get() throws IOException {
+      this.run();
+      try {
+        return this.result.get();
+      } catch (final InterruptedException ie) {
+        throw new InterruptedIOException();
+      } catch (final ExecutionException ee) {
+        final Throwable cause = ee.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else {
+          throw (Error) cause;
+        }
+      }
+    }
+  }
+}
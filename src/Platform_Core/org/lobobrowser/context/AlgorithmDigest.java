@@ -1,15 +1,21 @@
 package org.lobobrowser.context;
 
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import org.lobobrowser.util.io.ChunkedBuffer;
+
 final class AlgorithmDigest implements Comparable<AlgorithmDigest> {
+  private static final Logger logger = Logger.getLogger(AlgorithmDigest.class.getName());
 
   private final String algorithm;
   private final String digest;
@@ -23,16 +29,70 @@ final class AlgorithmDigest implements Comparable<AlgorithmDigest> {
     this.strength = strength;
   }
 
-  public static boolean validate(final byte[] input, final String integrity) {
-    final List<AlgorithmDigest> algDigests = parseMetadata(integrity);
-    if (algDigests == null) {
+  public static boolean validate(final ChunkedBuffer input, final String integrity) {
+    final Verifier verifier = newVerifier(integrity);
+    if (verifier == null) {
       return true;
     }
-    final boolean matchFound = algDigests.stream().anyMatch((algDigest) -> {
-      final String encodedResult = algDigest.getHash(input);
-      return encodedResult.equals(algDigest.digest);
-    });
-    return matchFound;
+    verifier.update(input);
+    return verifier.isValid();
+  }
+
+  /**
+   * Creates a verifier for the given integrity metadata, or returns
+   * <code>null</code> if there is nothing to verify.
+   */
+  public static Verifier newVerifier(final String integrity) {
+    final List<AlgorithmDigest> algDigests = parseMetadata(integrity);
+    return algDigests == null ? null : new Verifier(algDigests);
+  }
+
+  /**
+   * Hashes a response as its bytes arrive, with every algorithm that the
+   * metadata calls for at once, so that the result is known as soon as the
+   * last byte is in.
+   */
+  static final class Verifier {
+    private final List<AlgorithmDigest> algDigests;
+    private final Map<String, MessageDigest> messageDigests = new HashMap<>();
+    private Map<String, String> results = null;
+
+    private Verifier(final List<AlgorithmDigest> algDigests) {
+      this.algDigests = algDigests;
+      for (final AlgorithmDigest algDigest : algDigests) {
+        final String alg = algDigest.algorithm;
+        if (!this.messageDigests.containsKey(alg)) {
+          try {
+            this.messageDigests.put(alg, MessageDigest.getInstance(alg.substring(0, 3) + "-" + alg.substring(3)));
+          } catch (final NoSuchAlgorithmException e) {
+            // Digests of this algorithm do not match.
+            logger.log(Level.WARNING, "Verifier(): Unsupported algorithm: " + alg, e);
+          }
+        }
+      }
+    }
+
+    void update(final byte[] bytes, final int offset, final int length) {
+      for (final MessageDigest md : this.messageDigests.values()) {
+        md.update(bytes, offset, length);
+      }
+    }
+
+    void update(final ChunkedBuffer input) {
+      for (final MessageDigest md : this.messageDigests.values()) {
+        input.update(md);
+      }
+    }
+
+    /** Completes the hashes, and tells whether any of them matches. */
+    boolean isValid() {
+      if (this.results == null) {
+        final Map<String, String> newResults = new HashMap<>();
+        this.messageDigests.forEach((alg, md) -> newResults.put(alg, Base64.getEncoder().encodeToString(md.digest())));
+        this.results = newResults;
+      }
+      return this.algDigests.stream().anyMatch((algDigest) -> algDigest.digest.equals(this.results.get(algDigest.algorithm)));
+    }
   }
 
   public static List<AlgorithmDigest> parseMetadata(final String integrity) {
@@ -79,19 +139,6 @@ final class AlgorithmDigest implements Comparable<AlgorithmDigest> {
     return result;
   }
 
-  public String getHash(final byte[] input) {
-    final String alg = algorithm.substring(0, 3) + "-" + algorithm.substring(3);
-    try {
-      final MessageDigest md = MessageDigest.getInstance(alg); // returns an object that implements alg
-      md.update(input); // updates digest using input array of bytes
-      final byte[] digestedBytes = md.digest(); // completes hash, returns array of bytes
-      return Base64.getEncoder().encodeToString(digestedBytes); // converts array of bytes into base64-encoded string
-    } catch (final Exception e) {
-      System.out.println("Exception: " + e.getMessage());
-    }
-    return null;
-  }
-
   private static Map<String, Integer> createMap() {
     final Map<String, Integer> stren = new HashMap<String, Integer>();
     stren.put("sha256", 1);
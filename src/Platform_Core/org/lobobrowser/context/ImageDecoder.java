@@ -0,0 +1,319 @@
+package org.lobobrowser.context;
+
+import java.awt.DisplayMode;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.lobobrowser.ua.ImageResponse;
+import org.lobobrowser.ua.ImageResponse.State;
+import org.lobobrowser.util.SimpleThreadPool;
+import org.lobobrowser.util.SimpleThreadPoolTask;
+
+/**
+ * Decodes response images on a small pool of worker threads and keeps the
+ * results in a memory cache that is shared by all documents. Entries are keyed
+ * by URL and a checksum of the content, and the least recently used ones are
+ * dropped once the decoded pixels exceed a byte budget.
+ */
+final class ImageDecoder {
+  private static final Logger logger = Logger.getLogger(ImageDecoder.class.getName());
+  private static final long MAX_CACHE_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 8, 128L * 1024 * 1024);
+  private static final ImageDecoder instance = new ImageDecoder();
+
+  /**
+   * Images with more pixels than this are decoded at a lower resolution. It is
+   * enough to fill the largest screen twice over in each direction.
+   */
+  private static final long MAX_DECODED_PIXELS = 4 * getMaxScreenPixels();
+
+  private final SimpleThreadPool threadPool;
+  private final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<>(64, 0.75f, true);
+  private final Map<String, CompletableFuture<@NonNull ImageResponse>> decoding = new HashMap<>();
+  private long cacheBytes = 0;
+
+  private ImageDecoder() {
+    final int maxThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    this.threadPool = new SimpleThreadPool("ImageDecoderPool", 0, maxThreads, 60 * 1000);
+  }
+
+  static ImageDecoder getInstance() {
+    return instance;
+  }
+
+  /**
+   * Gets a key for the given image content. It is cheaper to compute than the
+   * decoded image, and can be kept by the response it was computed from.
+   */
+  static String getKey(final URL url, final byte[] bytes) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return url.toExternalForm() + "#" + bytes.length + ":" + Long.toHexString(crc.getValue());
+  }
+
+  /**
+   * Gets the decoded image for the given key, decoding the bytes if the image
+   * is neither cached nor already being decoded. The bytes are only fetched in
+   * that case, and on a decoder thread. The returned future is completed on a
+   * decoder thread, or immediately if the image was cached.
+   */
+  CompletableFuture<@NonNull ImageResponse> decode(final String key, final Supplier<byte[]> bytes) {
+    final CompletableFuture<@NonNull ImageResponse> future;
+    synchronized (this) {
+      final CacheEntry entry = this.cache.get(key);
+      if (entry != null) {
+        return CompletableFuture.completedFuture(entry.response);
+      }
+      final CompletableFuture<@NonNull ImageResponse> pending = this.decoding.get(key);
+      if (pending != null) {
+        return pending;
+      }
+      future = new CompletableFuture<>();
+      this.decoding.put(key, future);
+    }
+    this.threadPool.schedule(new DecodeTask(key, bytes, future));
+    return future;
+  }
+
+  /**
+   * Gets the decoded image for the given key, like
+   * {@link #decode(String, Supplier)}, but first waits for the image that was
+   * being decoded progressively, and only decodes the bytes again if that
+   * failed.
+   */
+  CompletableFuture<@NonNull ImageResponse> decode(final String key, final Supplier<byte[]> bytes,
+      final CompletableFuture<@NonNull ImageResponse> progressiveResult) {
+    final CompletableFuture<@NonNull ImageResponse> future;
+    synchronized (this) {
+      final CacheEntry entry = this.cache.get(key);
+      if (entry != null) {
+        return CompletableFuture.completedFuture(entry.response);
+      }
+      final CompletableFuture<@NonNull ImageResponse> pending = this.decoding.get(key);
+      if (pending != null) {
+        return pending;
+      }
+      future = new CompletableFuture<>();
+      this.decoding.put(key, future);
+    }
+    progressiveResult.thenAccept(response -> {
+      if (response.state == State.loaded) {
+        decoded(key, response, future);
+      } else {
+        this.threadPool.schedule(new DecodeTask(key, bytes, future));
+      }
+    });
+    return future;
+  }
+
+  private void decoded(final String key, final @NonNull ImageResponse response, final CompletableFuture<@NonNull ImageResponse> future) {
+    synchronized (this) {
+      this.decoding.remove(key);
+      if ((response.state == State.loaded) && (response.img != null)) {
+        final long size = estimateSize(response.img);
+        if (size <= MAX_CACHE_BYTES) {
+          final CacheEntry old = this.cache.put(key, new CacheEntry(response, size));
+          if (old != null) {
+            this.cacheBytes -= old.size;
+          }
+          this.cacheBytes += size;
+          final Iterator<CacheEntry> i = this.cache.values().iterator();
+          while ((this.cacheBytes > MAX_CACHE_BYTES) && i.hasNext()) {
+            this.cacheBytes -= i.next().size;
+            i.remove();
+          }
+        }
+      }
+    }
+    future.complete(response);
+  }
+
+  private static long estimateSize(final Image img) {
+    final int width = img.getWidth(null);
+    final int height = img.getHeight(null);
+    return (width < 0) || (height < 0) ? 0 : (long) width * height * 4;
+  }
+
+  private static ImageResponse decodeImpl(final byte[] bytes) {
+    // The toolkit handles animated GIFs, and formats ImageIO does not know.
+    if (!isGIF(bytes)) {
+      try (
+          final ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes))) {
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (readers.hasNext()) {
+          final ImageReader reader = readers.next();
+          try {
+            reader.setInput(in, true, true);
+            final int width = reader.getWidth(0);
+            final int height = reader.getHeight(0);
+            final int subsampling = getSubsampling(width, height);
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            final BufferedImage image = toCompatibleImage(reader.read(0, param));
+            return subsampling == 1 ? new ImageResponse(State.loaded, image) : new ImageResponse(State.loaded, image, width, height);
+          } finally {
+            reader.dispose();
+          }
+        }
+      } catch (final IOException | RuntimeException e) {
+        logger.log(Level.FINE, "decodeImpl(): ImageIO was unable to decode image.", e);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the factor by which an image of the given size is subsampled when
+   * decoding, so that it fits within the pixel budget.
+   */
+  static int getSubsampling(final int width, final int height) {
+    int subsampling = 1;
+    while ((((long) ((width + subsampling) - 1) / subsampling) * (((height + subsampling) - 1) / subsampling)) > MAX_DECODED_PIXELS) {
+      subsampling++;
+    }
+    return subsampling;
+  }
+
+  private static long getMaxScreenPixels() {
+    long maxPixels = 1920L * 1080;
+    if (!GraphicsEnvironment.isHeadless()) {
+      for (final GraphicsDevice device : GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices()) {
+        final DisplayMode mode = device.getDisplayMode();
+        maxPixels = Math.max(maxPixels, (long) mode.getWidth() * mode.getHeight());
+      }
+    }
+    return maxPixels;
+  }
+
+  private static boolean isGIF(final byte[] bytes) {
+    return (bytes.length >= 4) && (bytes[0] == 'G') && (bytes[1] == 'I') && (bytes[2] == 'F') && (bytes[3] == '8');
+  }
+
+  /**
+   * Converts an image to the format of the screen, if there is one, so that
+   * painting it does not need a conversion each time.
+   */
+  static BufferedImage toCompatibleImage(final BufferedImage image) {
+    if (GraphicsEnvironment.isHeadless()) {
+      return image;
+    }
+    final GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+    if (image.getColorModel().equals(gc.getColorModel())) {
+      return image;
+    }
+    final BufferedImage compatible = gc.createCompatibleImage(image.getWidth(), image.getHeight(), image.getTransparency());
+    final Graphics2D g = compatible.createGraphics();
+    try {
+      g.drawImage(image, 0, 0, null);
+    } finally {
+      g.dispose();
+    }
+    return compatible;
+  }
+
+  private final class DecodeTask implements SimpleThreadPoolTask {
+    private final String key;
+    private final Supplier<byte[]> bytes;
+    private final CompletableFuture<@NonNull ImageResponse> future;
+
+    DecodeTask(final String key, final Supplier<byte[]> bytes, final CompletableFuture<@NonNull ImageResponse> future) {
+      this.key = key;
+      this.bytes = bytes;
+      this.future = future;
+    }
+
+    public void run() {
+      try {
+        final byte[] bytes = this.bytes.get();
+        if (bytes == null) {
+          decoded(this.key, new ImageResponse(State.error, null), this.future);
+          return;
+        }
+        final ImageResponse response = AccessController.doPrivileged((PrivilegedAction<ImageResponse>) () -> decodeImpl(bytes));
+        if (response != null) {
+          decoded(this.key, response, this.future);
+        } else {
+          this.decodeWithToolkit(bytes);
+        }
+      } catch (final RuntimeException | OutOfMemoryError e) {
+        logger.log(Level.WARNING, "run(): Unable to decode image: " + this.key, e);
+        decoded(this.key, new ImageResponse(State.error, null), this.future);
+      }
+    }
+
+    /**
+     * Completes the future from the toolkit's image observer once the first
+     * frame is available, without holding a decoder thread meanwhile.
+     */
+    private void decodeWithToolkit(final byte[] bytes) {
+      final Toolkit toolkit = Toolkit.getDefaultToolkit();
+      final Image img = toolkit.createImage(bytes);
+      final ImageObserver observer = new ImageObserver() {
+        private boolean done = false;
+
+        public synchronized boolean imageUpdate(final Image image, final int infoflags, final int x, final int y, final int width,
+            final int height) {
+          if (this.done) {
+            return false;
+          }
+          if ((infoflags & (ImageObserver.ERROR | ImageObserver.ABORT)) != 0) {
+            this.done = true;
+            decoded(key, new ImageResponse(State.error, null), future);
+          } else if ((infoflags & (ImageObserver.ALLBITS | ImageObserver.FRAMEBITS)) != 0) {
+            this.done = true;
+            decoded(key, new ImageResponse(State.loaded, img), future);
+          }
+          return !this.done;
+        }
+      };
+      if (toolkit.prepareImage(img, -1, -1, observer)) {
+        observer.imageUpdate(img, ImageObserver.ALLBITS, 0, 0, -1, -1);
+      }
+    }
+
+    public void cancel() {
+      // Decoding is short and shared, so it is not interrupted.
+    }
+
+    @Override
+    public String toString() {
+      return "DecodeTask[" + this.key + "]";
+    }
+  }
+
+  private static final class CacheEntry {
+    final @NonNull ImageResponse response;
+    final long size;
+
+    CacheEntry(final @NonNull ImageResponse response, final long size) {
+      this.response = response;
+      this.size = size;
+    }
+  }
+}
@@ -23,14 +23,11 @@
  */
 package org.lobobrowser.context;
 
-import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.ImageObserver;
-import java.io.ByteArrayOutputStream;
+import java.awt.Rectangle;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.lang.ref.WeakReference;
 import java.net.URL;
 import java.util.EventObject;
 import java.util.HashMap;
@@ -38,6 +35,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,6 +49,7 @@ import org.lobobrowser.clientlet.ClientletException;
 import org.lobobrowser.clientlet.ClientletResponse;
 import org.lobobrowser.request.RequestEngine;
 import org.lobobrowser.request.RequestHandler;
+import org.lobobrowser.request.RequestPriority;
 import org.lobobrowser.request.SimpleRequestHandler;
 import org.lobobrowser.ua.ImageResponse;
 import org.lobobrowser.ua.ImageResponse.State;
@@ -61,10 +61,13 @@ import org.lobobrowser.ua.ProgressType;
 import org.lobobrowser.ua.RequestType;
 import org.lobobrowser.ua.UserAgentContext;
 import org.lobobrowser.ua.UserAgentContext.Request;
+import org.lobobrowser.ua.UserAgentContext.RequestKind;
 import org.lobobrowser.util.EventDispatch;
 import org.lobobrowser.util.GenericEventListener;
-import org.lobobrowser.util.Threads;
 import org.lobobrowser.util.Urls;
+import org.lobobrowser.util.io.BufferExceededException;
+import org.lobobrowser.util.io.ChunkedBuffer;
+import org.lobobrowser.util.io.RecordedInputStream;
 import org.w3c.dom.Document;
 
 public class NetworkRequestImpl implements NetworkRequest {
@@ -102,7 +105,23 @@ public class NetworkRequestImpl implements NetworkRequest {
     if (lr == null) {
       return new ImageResponse();
     } else {
-      return lr.getResponseImage();
+      return lr.decodeImage().join();
+    }
+  }
+
+  private volatile BiConsumer<@NonNull ImageResponse, Rectangle> partialImageConsumer;
+
+  @Override
+  public void setPartialImageConsumer(final BiConsumer<@NonNull ImageResponse, Rectangle> consumer) {
+    this.partialImageConsumer = consumer;
+  }
+
+  public void getResponseImage(final Consumer<@NonNull ImageResponse> consumer) {
+    final LocalResponse lr = this.localResponse;
+    if (lr == null) {
+      consumer.accept(new ImageResponse());
+    } else {
+      lr.decodeImage().thenAccept(consumer);
     }
   }
 
@@ -116,6 +135,12 @@ public class NetworkRequestImpl implements NetworkRequest {
     return lr == null ? null : lr.getResponseBytes();
   }
 
+  @Override
+  public InputStream getResponseStream() {
+    final LocalResponse lr = this.localResponse;
+    return lr == null ? null : lr.getResponseStream();
+  }
+
   public int getStatus() {
     try {
       final LocalResponse lr = this.localResponse;
@@ -146,6 +171,19 @@ public class NetworkRequestImpl implements NetworkRequest {
     }
   }
 
+  /**
+   * Marks the request as aborted once its handler has been cancelled by the
+   * engine, unless it has already finished. The handler is not cancelled
+   * again.
+   */
+  private void handlerCancelled() {
+    final int state = this.readyState;
+    if ((state != NetworkRequest.STATE_COMPLETE) && (state != NetworkRequest.STATE_ABORTED)) {
+      this.readyState = NetworkRequest.STATE_ABORTED;
+      this.READY_STATE_CHANGE.fireEvent(new NetworkRequestEvent(this, this.readyState));
+    }
+  }
+
   public String getAllResponseHeaders(final List<String> excludedHeadersLowerCase) {
     final LocalResponse lr = this.localResponse;
     return lr == null ? null : lr.getAllResponseHeaders(excludedHeadersLowerCase);
@@ -181,6 +219,7 @@ public class NetworkRequestImpl implements NetworkRequest {
   private String requestMethod;
   private URL requestURL;
   private String integrity;
+  private boolean speculative = false;
 
   // private String requestUserName;
   // private String requestPassword;
@@ -201,11 +240,12 @@ public class NetworkRequestImpl implements NetworkRequest {
       try {
         final Map<String, String> requestedHeadersCopy = new HashMap<>(requestedHeaders);
         final RequestHandler rhandler = new LocalRequestHandler(requestURLLocal, this.requestMethod, content, uaContext,
-            requestedHeadersCopy);
+            requestedHeadersCopy, requestType.kind, this.speculative);
         this.currentRequestHandler = rhandler;
         try {
           // TODO: Username and password support
           if (this.isAsynchronous) {
+            this.scheduledRequestHandler = rhandler;
             RequestEngine.getInstance().scheduleRequest(rhandler);
           } else {
             RequestEngine.getInstance().inlineRequest(rhandler);
@@ -221,6 +261,21 @@ public class NetworkRequestImpl implements NetworkRequest {
     }
   }
 
+  private volatile RequestHandler scheduledRequestHandler;
+
+  @Override
+  public void prioritize() {
+    final RequestHandler rh = this.scheduledRequestHandler;
+    if (rh != null) {
+      RequestEngine.getInstance().reprioritizeRequest(rh, RequestPriority.forVisible(RequestPriority.forHandler(rh)));
+    }
+  }
+
+  @Override
+  public void setSpeculative() {
+    this.speculative = true;
+  }
+
   public void addNetworkRequestListener(final NetworkRequestListener listener) {
     this.READY_STATE_CHANGE.addListener(new GenericEventListener() {
       public void processEvent(final EventObject event) {
@@ -247,25 +302,30 @@ public class NetworkRequestImpl implements NetworkRequest {
           // It can be of a different type.
           final CacheableResponse cr = (CacheableResponse) cachedResponse;
           this.changeReadyState(NetworkRequest.STATE_LOADING);
-          this.localResponse = cr.newLocalResponse(response);
+          this.setLocalResponse(cr.newLocalResponse(response));
           this.changeReadyState(NetworkRequest.STATE_LOADED);
           this.changeReadyState(NetworkRequest.STATE_INTERACTIVE);
-          final boolean valid = integrityCheck(cr.getResponseBytes());
+          final boolean valid = integrityCheck(cr.buffer);
           if (valid==false) {
-            this.localResponse = null;
+            this.setLocalResponse(null);
           }
           consumer.accept(valid);
           this.changeReadyState(NetworkRequest.STATE_COMPLETE);
           return;
         }
       }
+      final LocalResponse newResponse = new LocalResponse(response);
       try {
         this.changeReadyState(NetworkRequest.STATE_LOADING);
-        final LocalResponse newResponse = new LocalResponse(response);
-        this.localResponse = newResponse;
+        this.setLocalResponse(newResponse);
         this.changeReadyState(NetworkRequest.STATE_LOADED);
         final int cl = response.getContentLength();
         final InputStream in = response.getInputStream();
+        if (in instanceof RecordedInputStream) {
+          // The body is recorded for the cache anyway, so the recording is
+          // kept instead of a copy.
+          newResponse.shareRecording((RecordedInputStream) in);
+        }
         final int bufferSize = cl == -1 ? 8192 : Math.min(cl, 8192);
         final byte[] buffer = new byte[bufferSize];
         int numRead;
@@ -276,6 +336,9 @@ public class NetworkRequestImpl implements NetworkRequest {
         if (threadContext != null) {
           prevProgress = threadContext.getProgressEvent();
         }
+        ProgressiveImageDecoder progressiveDecoder = null;
+        // The body is hashed as it arrives, rather than once it is complete.
+        final AlgorithmDigest.Verifier verifier = AlgorithmDigest.newVerifier(this.integrity);
         try {
           long lastProgress = 0;
           while ((numRead = in.read(buffer)) != -1) {
@@ -294,24 +357,37 @@ public class NetworkRequestImpl implements NetworkRequest {
               }
             }
             newResponse.writeBytes(buffer, 0, numRead);
-
+            if (verifier != null) {
+              verifier.update(buffer, 0, numRead);
+            }
 
             if (firstTime) {
               firstTime = false;
+              final BiConsumer<@NonNull ImageResponse, Rectangle> partialConsumer = this.partialImageConsumer;
+              // Partial images are not shown for responses that still have to pass an integrity check.
+              if ((partialConsumer != null) && (this.integrity == null) && ((cl == -1) || (cl >= ProgressiveImageDecoder.MIN_LENGTH))) {
+                progressiveDecoder = ProgressiveImageDecoder.start(buffer, numRead, partialConsumer);
+                newResponse.setProgressiveDecoder(progressiveDecoder);
+              }
               this.changeReadyState(NetworkRequest.STATE_INTERACTIVE);
             }
+            if (progressiveDecoder != null) {
+              progressiveDecoder.write(buffer, 0, numRead);
+            }
           }
         } finally {
+          if (progressiveDecoder != null) {
+            progressiveDecoder.close();
+          }
           if (threadContext != null) {
             threadContext.setProgressEvent(prevProgress);
           }
         }
 
-        // here goes integrity
-        final boolean valid = integrityCheck(newResponse.getBuffer().toByteArray());
+        final boolean valid = (verifier == null) || verifier.isValid();
 
         if (valid == false) {
-          this.localResponse = null;
+          this.setLocalResponse(null);
         }
         consumer.accept(valid);
 
@@ -327,7 +403,7 @@ public class NetworkRequestImpl implements NetworkRequest {
         this.changeReadyState(NetworkRequest.STATE_COMPLETE);
       } catch (final IOException ioe) {
         logger.log(Level.WARNING, "setResponse()", ioe);
-        this.localResponse = null;
+        this.setLocalResponse(null);
         this.changeReadyState(NetworkRequest.STATE_COMPLETE);
       }
     };
@@ -339,19 +415,52 @@ public class NetworkRequestImpl implements NetworkRequest {
     }
   }
 
-  private boolean integrityCheck(byte[] response) {
+  /**
+   * Replaces the current response, releasing the body of the previous one if
+   * no cache entry shares it.
+   */
+  private void setLocalResponse(final LocalResponse newResponse) {
+    final LocalResponse oldResponse = this.localResponse;
+    this.localResponse = newResponse;
+    if ((oldResponse != null) && (oldResponse != newResponse)) {
+      oldResponse.release();
+    }
+  }
+
+  private boolean integrityCheck(final ChunkedBuffer response) {
     return AlgorithmDigest.validate(response, integrity);
   }
 
   private class LocalRequestHandler extends SimpleRequestHandler {
     private final String method;
     private final Map<String, String> requestedHeadersCopy;
+    private final RequestKind kind;
+    private final boolean speculative;
 
     public LocalRequestHandler(final @NonNull URL url, final String method, final String altPostData, final UserAgentContext uaContext,
-        final Map<String, String> requestedHeaders) {
+        final Map<String, String> requestedHeaders, final RequestKind kind, final boolean speculative) {
       super(url, method, altPostData, RequestType.ELEMENT, uaContext);
       this.method = method;
       this.requestedHeadersCopy = requestedHeaders;
+      this.kind = kind;
+      this.speculative = speculative;
+    }
+
+    @Override
+    public Optional<RequestKind> getRequestKind() {
+      return Optional.ofNullable(this.kind);
+    }
+
+    @Override
+    public boolean isSpeculative() {
+      return this.speculative;
+    }
+
+    @Override
+    public void cancel() {
+      super.cancel();
+      // A cancelled request, or one dropped from the queue, gets no response.
+      NetworkRequestImpl.this.handlerCancelled();
     }
 
     @Override
@@ -396,20 +505,25 @@ public class NetworkRequestImpl implements NetworkRequest {
 
     @Override
     public Optional<Map<String, String>> getRequestedHeaders() {
-      return Optional.of(requestedHeadersCopy);
+      // No headers lets the engine share the fetch with identical requests.
+      return requestedHeadersCopy.isEmpty() ? Optional.empty() : Optional.of(requestedHeadersCopy);
     }
 
   }
 
   private static class CacheableResponse {
-    private WeakReference<Image> imageRef;
-    private java.io.ByteArrayOutputStream buffer;
+    // The decoded image itself is kept by the shared image cache, which
+    // accounts for its size.
+    private volatile String imageKey;
+    // Set while the image is decoded as it arrives, until the complete image is asked for.
+    private volatile ProgressiveImageDecoder progressiveDecoder;
+    private volatile ChunkedBuffer buffer;
     private Document document;
     private String textContent;
     private boolean complete;
 
     public int getEstimatedSize() {
-      final ByteArrayOutputStream out = this.buffer;
+      final ChunkedBuffer out = this.buffer;
       final int factor = 3;
       // Note that when this is called, no one has
       // necessarily called getResponseText().
@@ -420,38 +534,26 @@ public class NetworkRequestImpl implements NetworkRequest {
       return new LocalResponse(response, this);
     }
 
-    public @NonNull ImageResponse getResponseImage() {
-      // A hard reference to the image is not a good idea here.
-      // Images will retain their observers, and it's also
-      // hard to estimate their actual size.
-      final WeakReference<Image> imageRef = this.imageRef;
-      Image img = imageRef == null ? null : imageRef.get();
-      if (this.complete) {
-        if (img == null) {
-          final byte[] bytes = this.getResponseBytes();
-            img = Toolkit.getDefaultToolkit().createImage(bytes);
-            Toolkit.getDefaultToolkit().prepareImage(img, -1, -1, null);
-            int checkedFlags = Toolkit.getDefaultToolkit().checkImage(img, -1, -1, null);
-            while (!isImgDone(checkedFlags)) {
-              checkedFlags = Toolkit.getDefaultToolkit().checkImage(img, -1, -1, null);
-              Threads.sleep(33);
-            }
-            if ((checkedFlags & ImageObserver.ERROR) != 0) {
-              return new ImageResponse(State.error, null);
-            } else {
-              this.imageRef = new WeakReference<>(img);
-              return new ImageResponse(State.loaded, img);
-            }
-        } else {
-          return new ImageResponse(State.loaded, img);
+    public CompletableFuture<@NonNull ImageResponse> decodeImage(final URL url) {
+      if (!this.complete) {
+        return CompletableFuture.completedFuture(new ImageResponse());
+      }
+      String key = this.imageKey;
+      if (key == null) {
+        final byte[] bytes = this.getResponseBytes();
+        if (bytes == null) {
+          return CompletableFuture.completedFuture(new ImageResponse(State.error, null));
         }
-      } else {
-        return new ImageResponse();
+        key = ImageDecoder.getKey(url, bytes);
+        this.imageKey = key;
+        final ProgressiveImageDecoder progressive = this.progressiveDecoder;
+        if (progressive != null) {
+          this.progressiveDecoder = null;
+          return ImageDecoder.getInstance().decode(key, () -> bytes, progressive.getResult());
+        }
+        return ImageDecoder.getInstance().decode(key, () -> bytes);
       }
-    }
-
-    private static boolean isImgDone(final int checkedFlags) {
-      return ((checkedFlags & ImageObserver.ERROR) != 0) || ((checkedFlags & (ImageObserver.WIDTH | ImageObserver.HEIGHT)) != 0);
+      return ImageDecoder.getInstance().decode(key, this::getResponseBytes);
     }
 
     public String getResponseText(final String charset) {
@@ -481,10 +583,46 @@ public class NetworkRequestImpl implements NetworkRequest {
      * @return Returns the responseBytes.
      */
     public byte[] getResponseBytes() {
-      final ByteArrayOutputStream out = this.buffer;
+      final ChunkedBuffer out = this.buffer;
       return out == null ? null : out.toByteArray();
     }
 
+    /**
+     * Gets a stream over the response body that reads it in place. The body
+     * is kept until the stream is closed.
+     */
+    public InputStream getResponseStream() {
+      final ChunkedBuffer out = this.buffer;
+      if (out == null) {
+        return null;
+      }
+      try {
+        out.retain();
+      } catch (final IllegalStateException ise) {
+        // Released while the response was being dropped.
+        return null;
+      }
+      return new FilterInputStream(out.newInputStream(0)) {
+        private boolean closed = false;
+
+        @Override
+        public void close() {
+          if (!this.closed) {
+            this.closed = true;
+            out.release();
+          }
+        }
+      };
+    }
+
+    private void release() {
+      final ChunkedBuffer out = this.buffer;
+      if (out != null) {
+        this.buffer = null;
+        out.release();
+      }
+    }
+
     public Document getResponseXML() {
       Document doc = this.document;
       // TODO: GH #138
@@ -511,6 +649,10 @@ public class NetworkRequestImpl implements NetworkRequest {
   private static class LocalResponse {
     private final ClientletResponse cresponse;
     private final CacheableResponse cacheable;
+    // Whether the body is shared with the cache, in which case it is never
+    // released here.
+    private boolean shared;
+    private int bytesWritten = 0;
 
     // Caching fields:
     private Map<String, String> headers;
@@ -524,11 +666,37 @@ public class NetworkRequestImpl implements NetworkRequest {
     public LocalResponse(final ClientletResponse response) {
       this.cresponse = response;
       this.cacheable = new CacheableResponse();
+      this.shared = false;
     }
 
     public LocalResponse(final ClientletResponse response, final CacheableResponse cacheable) {
       this.cresponse = response;
       this.cacheable = cacheable;
+      this.shared = true;
+    }
+
+    /**
+     * Uses the recording of the response stream as the body, instead of
+     * copying what is read into a buffer of its own.
+     */
+    public void shareRecording(final RecordedInputStream in) {
+      try {
+        final ChunkedBuffer recording = in.getBuffer();
+        recording.retain();
+        this.cacheable.buffer = recording;
+        this.shared = true;
+      } catch (final BufferExceededException | IllegalStateException e) {
+        // Too large to have been recorded, so the body is copied.
+      }
+    }
+
+    /**
+     * Releases the body, unless it has been handed to the cache.
+     */
+    public void release() {
+      if (!this.shared) {
+        this.cacheable.release();
+      }
     }
 
     public CacheableResponse getCacheableResponse() {
@@ -540,15 +708,25 @@ public class NetworkRequestImpl implements NetworkRequest {
     }
 
     public void writeBytes(final byte[] bytes, final int offset, final int length) throws java.io.IOException {
-      ByteArrayOutputStream out = this.cacheable.buffer;
+      ChunkedBuffer out = this.cacheable.buffer;
       if (out == null) {
-        out = new ByteArrayOutputStream();
+        out = new ChunkedBuffer();
         this.cacheable.buffer = out;
       }
-      out.write(bytes, offset, length);
+      this.bytesWritten += length;
+      if (this.shared) {
+        // The recording stops once it reaches its size limit, and the rest of
+        // the body is written here.
+        final int missing = Math.min(this.bytesWritten - out.size(), length);
+        if (missing > 0) {
+          out.write(bytes, (offset + length) - missing, missing);
+        }
+      } else {
+        out.write(bytes, offset, length);
+      }
     }
 
-    private ByteArrayOutputStream getBuffer() {
+    private ChunkedBuffer getBuffer() {
       return this.cacheable.buffer;
     }
 
@@ -556,6 +734,10 @@ public class NetworkRequestImpl implements NetworkRequest {
       this.cacheable.complete = complete;
     }
 
+    public void setProgressiveDecoder(final ProgressiveImageDecoder decoder) {
+      this.cacheable.progressiveDecoder = decoder;
+    }
+
     public Map<String, String> getHeaders() {
       Map<String, String> h = this.headers;
       if (h == null) {
@@ -633,15 +815,17 @@ public class NetworkRequestImpl implements NetworkRequest {
       return this.cacheable.getResponseXML();
     }
 
-    public @NonNull ImageResponse getResponseImage() {
-      return this.cacheable.getResponseImage();
+    public CompletableFuture<@NonNull ImageResponse> decodeImage() {
+      return this.cacheable.decodeImage(this.cresponse.getResponseURL());
     }
 
     public byte[] getResponseBytes() {
-      // TODO: OPTIMIZATION: When the response comes from the RAM cache,
-      // there's no need to build a custom buffer here.
       return this.cacheable.getResponseBytes();
     }
+
+    public InputStream getResponseStream() {
+      return this.cacheable.getResponseStream();
+    }
   }
 
   private final Map<String, String> requestedHeaders = new HashMap<>();
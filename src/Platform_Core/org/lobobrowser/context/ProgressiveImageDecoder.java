@@ -0,0 +1,281 @@
+package org.lobobrowser.context;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.lobobrowser.ua.ImageResponse;
+import org.lobobrowser.ua.ImageResponse.State;
+import org.lobobrowser.util.SimpleThreadPool;
+import org.lobobrowser.util.SimpleThreadPoolTask;
+
+/**
+ * Decodes a JPEG or PNG image while its bytes are still arriving, and reports
+ * the decoded area as it grows, so that large images can be painted before
+ * they are complete. The bytes are fed in by the thread reading the response,
+ * and decoded on a worker thread that waits for them.
+ */
+final class ProgressiveImageDecoder {
+  private static final Logger logger = Logger.getLogger(ProgressiveImageDecoder.class.getName());
+
+  /** Responses smaller than this are decoded once they are complete. */
+  static final int MIN_LENGTH = 64 * 1024;
+
+  /** The minimum time between partial updates, except at the end of a pass. */
+  private static final long UPDATE_INTERVAL_MILLIS = 100;
+
+  private static final SimpleThreadPool threadPool = new SimpleThreadPool("ProgressiveImageDecoderPool", 0, 4, 60 * 1000);
+
+  private final String formatName;
+  private final BiConsumer<@NonNull ImageResponse, Rectangle> partialConsumer;
+  private final CompletableFuture<@NonNull ImageResponse> result = new CompletableFuture<>();
+  private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+  private boolean closed = false;
+
+  private ProgressiveImageDecoder(final String formatName, final BiConsumer<@NonNull ImageResponse, Rectangle> partialConsumer) {
+    this.formatName = formatName;
+    this.partialConsumer = partialConsumer;
+  }
+
+  /**
+   * Starts decoding an image, if the first bytes of the response show a format
+   * that can be decoded progressively. Returns <code>null</code> otherwise.
+   */
+  static ProgressiveImageDecoder start(final byte[] firstBytes, final int length,
+      final BiConsumer<@NonNull ImageResponse, Rectangle> partialConsumer) {
+    final String formatName = getFormatName(firstBytes, length);
+    if (formatName == null) {
+      return null;
+    }
+    final ProgressiveImageDecoder decoder = new ProgressiveImageDecoder(formatName, partialConsumer);
+    threadPool.schedule(decoder.new DecodeTask());
+    return decoder;
+  }
+
+  private static String getFormatName(final byte[] b, final int length) {
+    if ((length >= 3) && ((b[0] & 0xff) == 0xff) && ((b[1] & 0xff) == 0xd8) && ((b[2] & 0xff) == 0xff)) {
+      return "jpeg";
+    } else if ((length >= 4) && ((b[0] & 0xff) == 0x89) && (b[1] == 'P') && (b[2] == 'N') && (b[3] == 'G')) {
+      return "png";
+    } else {
+      return null;
+    }
+  }
+
+  /** Feeds more bytes of the response. */
+  void write(final byte[] bytes, final int offset, final int length) {
+    final byte[] chunk = new byte[length];
+    System.arraycopy(bytes, offset, chunk, 0, length);
+    synchronized (this.chunks) {
+      if (!this.closed) {
+        this.chunks.add(chunk);
+        this.chunks.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Marks the end of the response. If the response was cut short, the image
+   * fails to decode.
+   */
+  void close() {
+    synchronized (this.chunks) {
+      this.closed = true;
+      this.chunks.notifyAll();
+    }
+  }
+
+  /**
+   * Gets the complete image. It has the state <code>error</code> if it could
+   * not be decoded progressively, in which case it should be decoded again
+   * from the complete response.
+   */
+  CompletableFuture<@NonNull ImageResponse> getResult() {
+    return this.result;
+  }
+
+  private ImageResponse decode() throws IOException {
+    final Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(this.formatName);
+    if (!readers.hasNext()) {
+      return new ImageResponse(State.error, null);
+    }
+    final ImageReader reader = readers.next();
+    try {
+      reader.setInput(new MemoryCacheImageInputStream(new FeedInputStream()), true, true);
+      final int width = reader.getWidth(0);
+      final int height = reader.getHeight(0);
+      final Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+      if (!types.hasNext()) {
+        return new ImageResponse(State.error, null);
+      }
+      final int subsampling = ImageDecoder.getSubsampling(width, height);
+      // Decoding into an image we hold lets partial results be painted.
+      final BufferedImage image = types.next().createBufferedImage(((width + subsampling) - 1) / subsampling,
+          ((height + subsampling) - 1) / subsampling);
+      final ImageReadParam param = reader.getDefaultReadParam();
+      param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+      param.setDestination(image);
+      reader.addIIOReadUpdateListener(new UpdateListener(image, width, height));
+      reader.read(0, param);
+      return new ImageResponse(State.loaded, ImageDecoder.toCompatibleImage(image), width, height);
+    } finally {
+      reader.dispose();
+    }
+  }
+
+  private final class DecodeTask implements SimpleThreadPoolTask {
+    public void run() {
+      ImageResponse response;
+      try {
+        response = AccessController.doPrivileged((PrivilegedAction<ImageResponse>) () -> {
+          try {
+            return decode();
+          } catch (final IIOException iioe) {
+            // Also the case when the response is cut short.
+            logger.log(Level.FINE, "run(): Unable to decode image progressively.", iioe);
+            return new ImageResponse(State.error, null);
+          } catch (final IOException ioe) {
+            logger.log(Level.WARNING, "run(): Unable to decode image progressively.", ioe);
+            return new ImageResponse(State.error, null);
+          }
+        });
+      } catch (final RuntimeException | OutOfMemoryError e) {
+        logger.log(Level.WARNING, "run(): Unable to decode image progressively.", e);
+        response = new ImageResponse(State.error, null);
+      }
+      // Any bytes still to come are not needed.
+      synchronized (chunks) {
+        closed = true;
+        chunks.clear();
+      }
+      result.complete(response);
+    }
+
+    public void cancel() {
+      close();
+    }
+
+    @Override
+    public String toString() {
+      return "ProgressiveImageDecoder.DecodeTask[" + formatName + "]";
+    }
+  }
+
+  /** Collects updated areas and passes them on at most every update interval. */
+  private final class UpdateListener implements IIOReadUpdateListener {
+    private final @NonNull ImageResponse partialResponse;
+    private Rectangle updatedArea = null;
+    private long lastUpdateTime = System.currentTimeMillis();
+
+    UpdateListener(final BufferedImage image, final int width, final int height) {
+      this.partialResponse = new ImageResponse(State.partial, image, width, height);
+    }
+
+    public void imageUpdate(final ImageReader source, final BufferedImage theImage, final int minX, final int minY, final int width,
+        final int height, final int periodX, final int periodY, final int[] bands) {
+      final Rectangle area = new Rectangle(minX, minY, width, height);
+      this.updatedArea = this.updatedArea == null ? area : this.updatedArea.union(area);
+      final long time = System.currentTimeMillis();
+      if ((time - this.lastUpdateTime) >= UPDATE_INTERVAL_MILLIS) {
+        this.lastUpdateTime = time;
+        this.flush();
+      }
+    }
+
+    public void passComplete(final ImageReader source, final BufferedImage theImage) {
+      this.flush();
+    }
+
+    private void flush() {
+      final Rectangle area = this.updatedArea;
+      if (area != null) {
+        this.updatedArea = null;
+        partialConsumer.accept(this.partialResponse, area);
+      }
+    }
+
+    public void passStarted(final ImageReader source, final BufferedImage theImage, final int pass, final int minPass, final int maxPass,
+        final int minX, final int minY, final int periodX, final int periodY, final int[] bands) {
+      // Updates are reported as they are decoded.
+    }
+
+    public void thumbnailPassStarted(final ImageReader source, final BufferedImage theThumbnail, final int pass, final int minPass,
+        final int maxPass, final int minX, final int minY, final int periodX, final int periodY, final int[] bands) {
+      // Thumbnails are not used.
+    }
+
+    public void thumbnailUpdate(final ImageReader source, final BufferedImage theThumbnail, final int minX, final int minY,
+        final int width, final int height, final int periodX, final int periodY, final int[] bands) {
+      // Thumbnails are not used.
+    }
+
+    public void thumbnailPassComplete(final ImageReader source, final BufferedImage theThumbnail) {
+      // Thumbnails are not used.
+    }
+  }
+
+  /** Reads the fed bytes, waiting for more until the response is closed. */
+  private final class FeedInputStream extends InputStream {
+    private byte[] current = null;
+    private int position = 0;
+
+    private boolean fill() throws IOException {
+      if ((this.current != null) && (this.position < this.current.length)) {
+        return true;
+      }
+      synchronized (chunks) {
+        while (chunks.isEmpty()) {
+          if (closed) {
+            return false;
+          }
+          try {
+            chunks.wait();
+          } catch (final InterruptedException ie) {
+            throw new InterruptedIOException();
+          }
+        }
+        this.current = chunks.poll();
+        this.position = 0;
+        return true;
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      return this.fill() ? this.current[this.position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!this.fill()) {
+        return -1;
+      }
+      final int n = Math.min(len, this.current.length - this.position);
+      System.arraycopy(this.current, this.position, b, off, n);
+      this.position += n;
+      return n;
+    }
+  }
+}
@@ -62,10 +62,16 @@ import org.lobobrowser.gui.DefaultWindowFactory;
 import org.lobobrowser.gui.FramePanel;
 import org.lobobrowser.main.TrustManager.SSLInfo;
 import org.lobobrowser.request.AuthenticatorImpl;
+import org.lobobrowser.request.CookieStore;
 import org.lobobrowser.request.DomainValidation;
 import org.lobobrowser.request.NOPCookieHandlerImpl;
+import org.lobobrowser.request.NetworkArchive;
+import org.lobobrowser.request.RecordingStreamHandlerFactory;
+import org.lobobrowser.request.ReplayStreamHandlerFactory;
+import org.lobobrowser.request.TimingEventListener;
 import org.lobobrowser.security.LocalSecurityManager;
 import org.lobobrowser.security.LocalSecurityPolicy;
+import org.lobobrowser.store.CacheManager;
 import org.lobobrowser.store.StorageManager;
 import org.lobobrowser.ua.NavigatorFrame;
 import org.lobobrowser.util.GenericEventListener;
@@ -130,6 +136,13 @@ public class PlatformInit {
   /**
    * Initializes the global URLStreamHandlerFactory.
    * <p>
+   * HTTP exchanges are recorded into a {@link NetworkArchive} when the
+   * <code>gngr.network.record</code> system property is set, and served from
+   * one instead of the network when <code>gngr.network.replay</code> is set.
+   * A replayed session starts with an empty cache and no cookies, both kept in
+   * memory, so that what the browser stored earlier does not change which
+   * requests are made.
+   * <p>
    * This method is invoked by {@link #init(boolean, boolean)}.
    */
   public static void initProtocols(final SSLInfo sslInfo) {
@@ -141,18 +154,54 @@ public class PlatformInit {
     protocolList.add(Protocol.HTTP_1_1);
     protocolList.add(Protocol.HTTP_2);
 
+    final String replayPath = System.getProperty(NetworkArchive.REPLAY_PROPERTY);
+    if (replayPath != null) {
+      // Added first so that HTTP(S) URLs are never handed to OkHttp.
+      factory.addFactory(createReplayFactory(new File(replayPath)));
+      CacheManager.useMemoryStore();
+      CookieStore.getInstance().useMemoryOnly();
+    }
+
     final Builder builder = new OkHttpClient.Builder()
       .connectTimeout(100, TimeUnit.SECONDS)
       .sslSocketFactory(sslInfo.socketFactory, sslInfo.trustManager)
       .protocols(protocolList)
       .followRedirects(false)
-      .followSslRedirects(false);
+      .followSslRedirects(false)
+      .eventListenerFactory(TimingEventListener.FACTORY);
     final OkHttpClient okHttpClient = builder.build();
 
-    factory.addFactory(new OkUrlFactory(okHttpClient));
+    final OkUrlFactory okUrlFactory = new OkUrlFactory(okHttpClient);
+    final String recordPath = System.getProperty(NetworkArchive.RECORD_PROPERTY);
+    if (recordPath != null) {
+      try {
+        recordingFactory = new RecordingStreamHandlerFactory(okUrlFactory, new File(recordPath));
+        factory.addFactory(recordingFactory);
+      } catch (final IOException ioe) {
+        throw new IllegalStateException("Unable to create network archive: " + recordPath, ioe);
+      }
+    } else {
+      factory.addFactory(okUrlFactory);
+    }
     factory.addFactory(new LocalStreamHandlerFactory());
   }
 
+  private static @Nullable RecordingStreamHandlerFactory recordingFactory = null;
+
+  private static ReplayStreamHandlerFactory createReplayFactory(final File archiveFile) {
+    final NetworkArchive archive;
+    try {
+      archive = NetworkArchive.read(archiveFile);
+    } catch (final IOException ioe) {
+      // Falling back to the network would defeat the purpose of replaying.
+      throw new IllegalStateException("Unable to read network archive: " + archiveFile, ioe);
+    }
+    final String latencyText = System.getProperty(NetworkArchive.LATENCY_PROPERTY, "0");
+    final long latencyMillis = "recorded".equals(latencyText) ? -1 : Long.parseLong(latencyText);
+    final long bytesPerSecond = Long.parseLong(System.getProperty(NetworkArchive.BANDWIDTH_PROPERTY, "0"));
+    return new ReplayStreamHandlerFactory(archive, latencyMillis, bytesPerSecond);
+  }
+
   /**
    * Initializes the HTTP authenticator and the cookie handler. This is
    * essential for the browser to work properly.
@@ -470,6 +519,10 @@ public class PlatformInit {
     AccessController.doPrivileged((PrivilegedAction<Object>) () -> {
       try {
         ReuseManager.getInstance().shutdown();
+        CookieStore.getInstance().flush();
+        if (recordingFactory != null) {
+          recordingFactory.close();
+        }
         StorageManager.getInstance().shutdown();
       } catch (final Exception err) {
         err.printStackTrace(System.err);
@@ -29,6 +29,8 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +41,12 @@ import org.lobobrowser.util.Urls;
 public class CacheInfo {
   private static final Logger logger = Logger.getLogger(CacheInfo.class.getName());
   static final String HEADER_REQUEST_TIME = "X-Request-Time";
+  /**
+   * Prefix of the headers that record the request headers named by the
+   * <code>Vary</code> header of a cached response.
+   */
+  static final String HEADER_VARIED_PREFIX = "X-Varied-";
+  private static final String[] NO_NAMES = new String[0];
   private final URL url;
 
   private final MemoryCacheEntry memoryEntry;
@@ -135,6 +143,98 @@ public class CacheInfo {
     }
   }
 
+  /**
+   * Gets the time until which the cached document may still be used after it
+   * has expired, given the number of seconds allowed by a
+   * <code>Cache-Control</code> directive such as
+   * <code>stale-while-revalidate</code> or <code>stale-if-error</code>. Returns
+   * zero if the document may not be used once expired.
+   */
+  public final long getStaleDeadline(final Long expires, final String directive) {
+    if ((expires == null) || (expires.longValue() == 0)) {
+      // Must always be revalidated.
+      return 0;
+    }
+    final long seconds = Urls.getCacheControlSeconds(this.getURLConnection(), directive);
+    return seconds < 0 ? 0 : expires.longValue() + (seconds * 1000);
+  }
+
+  /**
+   * Gets the entity tag of the cached document, which can be used to
+   * revalidate it with <code>If-None-Match</code>.
+   */
+  public final String getETag() {
+    return this.getURLConnection().getHeaderField("ETag");
+  }
+
+  /**
+   * Gets the names of the request headers that select the variant of the
+   * cached document.
+   */
+  public final String[] getVaryHeaderNames() {
+    return getVaryHeaderNames(this.getURLConnection());
+  }
+
+  /**
+   * Whether the cached document is the variant that a request with the given
+   * headers would get.
+   *
+   * @param requestHeaders Gets the value the request sends for a lower case
+   *          header name, or <code>null</code> if it sends none.
+   */
+  public final boolean matchesVariant(final String[] varyNames, final Function<String, String> requestHeaders) {
+    final URLConnection connection = this.getURLConnection();
+    for (final String name : varyNames) {
+      if ("*".equals(name)) {
+        return false;
+      }
+      final String storedValue = connection.getHeaderField(HEADER_VARIED_PREFIX + name);
+      final String requestValue = requestHeaders.apply(name);
+      if (!normalizeVariedValue(storedValue).equals(normalizeVariedValue(requestValue))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the lower case names listed in the <code>Vary</code> header of a
+   * response.
+   */
+  static String[] getVaryHeaderNames(final URLConnection responseConnection) {
+    final String vary = responseConnection.getHeaderField("Vary");
+    if ((vary == null) || (vary.trim().length() == 0)) {
+      return NO_NAMES;
+    }
+    final String[] names = vary.split(",");
+    int count = 0;
+    for (final String name : names) {
+      final String trimmed = name.trim();
+      if (trimmed.length() != 0) {
+        names[count++] = trimmed.toLowerCase();
+      }
+    }
+    return count == names.length ? names : Arrays.copyOf(names, count);
+  }
+
+  /**
+   * Gets the value of a header that was sent with the request of the given
+   * connection, or <code>null</code> if it was not sent or is no longer
+   * available.
+   */
+  static String getRequestHeader(final URLConnection requestConnection, final String name) {
+    try {
+      return requestConnection.getRequestProperty(name);
+    } catch (final IllegalStateException ise) {
+      // Some implementations drop request headers once connected.
+      return null;
+    }
+  }
+
+  private static String normalizeVariedValue(final String value) {
+    return value == null ? "" : value.trim();
+  }
+
   public long getRequestTime() {
     final MemoryCacheEntry entry = this.memoryEntry;
     if (entry != null) {
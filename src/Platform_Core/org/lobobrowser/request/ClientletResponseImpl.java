@@ -47,6 +47,7 @@ import org.lobobrowser.util.MonitoredInputStream;
 import org.lobobrowser.util.Strings;
 import org.lobobrowser.util.Urls;
 import org.lobobrowser.util.io.BufferExceededException;
+import org.lobobrowser.util.io.ChunkedBuffer;
 import org.lobobrowser.util.io.IORoutines;
 import org.lobobrowser.util.io.RecordedInputStream;
 
@@ -266,7 +267,11 @@ public class ClientletResponseImpl implements ClientletResponse {
     }
   }
 
-  public byte[] getStoredContent() {
+  /**
+   * Gets the recorded content without copying it. The buffer is only valid
+   * until {@link #release()} is called.
+   */
+  public ChunkedBuffer getStoredContent() {
     // Should call ensureReachedEOF() which will also ensure
     // inputStream is not null.
     final InputStream in = this.inputStream;
@@ -274,7 +279,7 @@ public class ClientletResponseImpl implements ClientletResponse {
       final RecordedInputStream rin = (RecordedInputStream) in;
       if (rin.hasReachedEOF()) {
         try {
-          return rin.getBytesRead();
+          return rin.getBuffer();
         } catch (final BufferExceededException bee) {
           logger.warning("getStoredContent(): Recorded stream buffer size exceeded.");
           return null;
@@ -284,6 +289,17 @@ public class ClientletResponseImpl implements ClientletResponse {
     return null;
   }
 
+  /**
+   * Returns the recorded content to the buffer pool, unless a clientlet has
+   * retained it.
+   */
+  public void release() {
+    final InputStream in = this.inputStream;
+    if (in instanceof RecordedInputStream) {
+      ((RecordedInputStream) in).release();
+    }
+  }
+
   private String getDefaultCharset() {
     final URL url = this.getResponseURL();
     if (Urls.isLocalFile(url)) {
@@ -51,27 +51,9 @@ public class CookieHandlerImpl extends CookieHandler {
   @Override
   public Map<String, List<String>> get(final URI uri, final Map<String, List<String>> requestHeaders) throws IOException {
     final Map<String, List<String>> resultHeaders = new java.util.HashMap<>(2);
-    final java.util.Collection<Cookie> cookies = this.cookieStore.getCookies(uri.getScheme(), uri.getHost(), uri.getPath());
-    if (cookies != null) {
-      StringBuffer cookieHeaderValue = null;
-      for (final Cookie cookie : cookies) {
-        // We should not decode values. Servers expect to receive what they set the values to.
-        final String cookieName = cookie.getName();
-        final String cookieValue = cookie.getValue();
-        final String assignment = cookieName + "=" + cookieValue;
-        // if(logger.isLoggable(Level.INFO)) {
-        // logger.info("get(): found cookie: [" + assignment + "]; uri=" + uri);
-        // }
-        if (cookieHeaderValue == null) {
-          cookieHeaderValue = new StringBuffer();
-        } else {
-          cookieHeaderValue.append("; ");
-        }
-        cookieHeaderValue.append(assignment);
-      }
-      if (cookieHeaderValue != null) {
-        resultHeaders.put("Cookie", java.util.Collections.singletonList(cookieHeaderValue.toString()));
-      }
+    final String cookieHeaderValue = this.cookieStore.getCookieHeader(uri.getScheme(), uri.getHost(), uri.getPath());
+    if (cookieHeaderValue != null) {
+      resultHeaders.put("Cookie", java.util.Collections.singletonList(cookieHeaderValue));
     }
     if (logger.isLoggable(Level.FINE)) {
       logger.info("get(): ---- Cookie headers for uri=[" + uri + "].");
@@ -23,41 +23,80 @@
  */
 package org.lobobrowser.request;
 
-import java.io.IOException;
 import java.net.URI;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.javatuples.Pair;
 import org.jooq.DSLContext;
+import org.jooq.Query;
 import org.jooq.Result;
 import org.lobobrowser.main.PlatformInit;
-import org.lobobrowser.store.RestrictedStore;
+import org.lobobrowser.security.StoreHostPermission;
 import org.lobobrowser.store.StorageManager;
+import org.lobobrowser.util.TinyLFUCache;
 
 import info.gngr.db.tables.Cookies;
 import info.gngr.db.tables.records.CookiesRecord;
 
 /**
+ * Keeps all cookies in memory, grouped by registrable domain, then by the
+ * domain they were set for. Persistent cookies are loaded from the database
+ * once, and changes to them are written back in batches by a background
+ * thread.
+ * <p>
+ * Lookups do not lock. The <code>Cookie</code> header computed for a host is
+ * cached until the cookies change, so that repeated requests to the same host
+ * reuse the same header string.
+ *
  * @author J. H. S.
  */
 public class CookieStore {
-  private static final String COOKIE_PATH_PREFIX = ".W$Cookies/";
-  private static final String COOKIE_PATH_PATTERN = "\\.W\\$Cookies/.*";
   private static final CookieStore instance = new CookieStore();
 
   private static final Logger logger = Logger.getLogger(CookieStore.class.getName());
 
-  private final Map<String, Map<Pair<String, String>, CookieValue>> transientMapByHost = new HashMap<>();
+  /** Time given to further changes to accumulate before they are written. */
+  private static final long WRITE_DELAY_MILLIS = 2000;
+
+  /** Number of hosts whose site key and header are cached. */
+  private static final int MAX_CACHED_HOSTS = 1024;
+
+  private static final DomainCookies[] NO_DOMAINS = new DomainCookies[0];
+  private static final CookieValue[] NO_COOKIES = new CookieValue[0];
+
+  private static final ThreadLocal<ArrayList<CookieValue>> selectionBuffer = ThreadLocal.withInitial(ArrayList::new);
+  private static final ThreadLocal<StringBuilder> headerBuffer = ThreadLocal.withInitial(StringBuilder::new);
+
+  /** Keyed by registrable domain. Only modified while holding this store's lock. */
+  private final Map<String, SiteCookies> sites = new ConcurrentHashMap<>();
+  // Keyed by host name. Bounded, since a long session sees many hosts.
+  private final TinyLFUCache siteKeysByHost = new TinyLFUCache(MAX_CACHED_HOSTS);
+  private final TinyLFUCache headersByHost = new TinyLFUCache(MAX_CACHED_HOSTS);
+
+  /** Persistent cookies ordered by expiration time. */
+  private final PriorityQueue<Expiration> expirations = new PriorityQueue<>();
+  private volatile long nextExpiration = Long.MAX_VALUE;
+
+  /** Incremented whenever a cookie is added or removed. */
+  private volatile long generation = 0;
+  private volatile boolean loaded = false;
+  private volatile boolean memoryOnly = false;
+
+  private final Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+  private final Object flushLock = new Object();
+  private Thread writerThread;
 
   private CookieStore() {
   }
@@ -93,32 +132,31 @@ public class CookieStore {
   }
 
   private void saveCookie(final CookieDetails cookieDetails) {
-    final String name = cookieDetails.name;
-    final String domain = cookieDetails.getEffectiveDomain();
-    final String domainTL = domain.toLowerCase();
-    final Optional<java.util.Date> expiresOpt = cookieDetails.getExpiresDate();
+    final String domainTL = cookieDetails.getEffectiveDomain().toLowerCase();
     if (logger.isLoggable(Level.INFO)) {
       logger.info("saveCookie(): " + cookieDetails);
     }
-    final Optional<Long> expiresLongOpt = expiresOpt.map(e -> e.getTime());
-    final CookieValue cookieValue = new CookieValue(cookieDetails.name, cookieDetails.value, cookieDetails.getEffectivePath(),
-        expiresLongOpt, cookieDetails.secure, cookieDetails.httpOnly, getMonotonicTime());
+    final Optional<Long> expiresLongOpt = cookieDetails.getExpiresDate().map(e -> e.getTime());
+    this.ensureLoaded();
     synchronized (this) {
-      // Always save a transient cookie. It acts as a cache.
-      Map<Pair<String, String>, CookieValue> hostMap = this.transientMapByHost.get(domainTL);
-      if (hostMap == null) {
-        hostMap = new HashMap<>(2);
-        this.transientMapByHost.put(domainTL, hostMap);
+      final CookieValue cookieValue = new CookieValue(cookieDetails.name, cookieDetails.value, cookieDetails.getEffectivePath(),
+          expiresLongOpt, cookieDetails.secure, cookieDetails.httpOnly, getMonotonicTime());
+      if (cookieValue.isExpired()) {
+        // Servers delete cookies by setting them again with an expiration in the past.
+        final CookieValue previous = this.removeCookie(domainTL, cookieValue.getName(), cookieValue.getPath(), null);
+        if ((previous != null) && previous.getExpires().isPresent()) {
+          this.scheduleDelete(domainTL, previous.getName(), previous.getPath());
+        }
+      } else {
+        final CookieValue previous = this.putCookie(domainTL, cookieValue);
+        if (expiresLongOpt.isPresent()) {
+          this.addExpiration(domainTL, cookieValue);
+          this.scheduleMerge(domainTL, cookieValue);
+        } else if ((previous != null) && previous.getExpires().isPresent()) {
+          // A persistent cookie was replaced by a session cookie.
+          this.scheduleDelete(domainTL, previous.getName(), previous.getPath());
+        }
       }
-      hostMap.put(new Pair<>(cookieDetails.name, cookieDetails.getEffectivePath()), cookieValue);
-    }
-    if (expiresLongOpt.isPresent()) {
-      final DSLContext userDB = StorageManager.getInstance().getDB();
-      userDB
-          .mergeInto(Cookies.COOKIES)
-          .values(domainTL, name, cookieValue.getValue(), cookieValue.getPath(), true, true, cookieValue.getCreationTime(),
-              cookieValue.getExpires().orElse(null))
-          .execute();
     }
   }
 
@@ -141,17 +179,6 @@ public class CookieStore {
     }
   }
 
-  private static String getPathFromCookieName(final String cookieName) {
-    return COOKIE_PATH_PREFIX + cookieName;
-  }
-
-  private static String getCookieNameFromPath(final String path) {
-    if (!path.startsWith(COOKIE_PATH_PREFIX)) {
-      throw new IllegalArgumentException("Invalid path: " + path);
-    }
-    return path.substring(COOKIE_PATH_PREFIX.length());
-  }
-
   /* Path-match algorithm as per section 5.4.1 of RFC 6264. */
   private static boolean pathMatch(final String cookiePath, final String requestPath) {
     if (cookiePath.equals(requestPath)) {
@@ -163,111 +190,279 @@ public class CookieStore {
     }
   }
 
+  /* Domain-match algorithm as per section 5.1.3 of RFC 6265. */
+  private static boolean domainMatch(final String domain, final String hostName) {
+    if (hostName.equals(domain)) {
+      return true;
+    }
+    final int prefixLength = hostName.length() - domain.length();
+    return (prefixLength > 0) && hostName.endsWith(domain) && (hostName.charAt(prefixLength - 1) == '.');
+  }
+
   /**
-   * Gets cookies belonging exactly to the host name given, not to a broader
-   * domain.
+   * Keeps cookies in memory only, starting with none, so that the session
+   * neither reads nor changes the cookies in the database. This is used when
+   * replaying a network archive. To be called before cookies are first used.
    */
-  private List<CookieValue> getCookiesStrict(final String protocol, final String hostName, String path) {
-    final String hostNameTL = hostName.toLowerCase();
-    if ((path == null) || (path.length() == 0)) {
-      path = "/"; // TODO: Confirm that this is correct. Issue #14 in browserTesting
+  public void useMemoryOnly() {
+    synchronized (this) {
+      this.memoryOnly = true;
+      this.loaded = true;
     }
-    final boolean secureProtocol = "https".equalsIgnoreCase(protocol);
-    final boolean liflag = logger.isLoggable(Level.INFO);
-    // final Set<String> transientCookieNames = new HashSet<>();
-    final Set<Pair<String, String>> transientCookieNames = new HashSet<>();
-    final List<CookieValue> selectedCookies = new LinkedList<>();
+  }
+
+  private void ensureLoaded() {
+    if (!this.loaded) {
+      synchronized (this) {
+        if (!this.loaded) {
+          AccessController.doPrivileged((PrivilegedAction<Object>) () -> {
+            this.load();
+            return null;
+          });
+          this.loaded = true;
+        }
+      }
+    }
+  }
+
+  private void load() {
+    try {
+      final DSLContext userDB = StorageManager.getInstance().getDB();
+      final Result<CookiesRecord> cookieResult = userDB.selectFrom(Cookies.COOKIES).fetch();
+      for (final CookiesRecord cookiesRecord : cookieResult) {
+        final String domainTL = cookiesRecord.getHostname();
+        final CookieValue cookieValue = new CookieValue(
+            cookiesRecord.getName(),
+            cookiesRecord.getValue(),
+            cookiesRecord.getPath(),
+            Optional.ofNullable(cookiesRecord.getExpirationtime()),
+            Boolean.TRUE.equals(cookiesRecord.getSecure()), Boolean.TRUE.equals(cookiesRecord.getHttponly()),
+            cookiesRecord.getCreationtime() == null ? 0 : cookiesRecord.getCreationtime()
+            );
+        if (cookieValue.isExpired() || !cookieValue.getExpires().isPresent()) {
+          this.scheduleDelete(domainTL, cookieValue.getName(), cookieValue.getPath());
+        } else {
+          this.putCookie(domainTL, cookieValue);
+          this.addExpiration(domainTL, cookieValue);
+        }
+      }
+      if (logger.isLoggable(Level.INFO)) {
+        logger.info("load(): Loaded " + cookieResult.size() + " cookies.");
+      }
+    } catch (final RuntimeException re) {
+      logger.log(Level.SEVERE, "load(): Unable to load cookies.", re);
+    }
+  }
+
+  /**
+   * Adds a cookie, replacing the one with the same domain, name and path, which
+   * is returned. Must be called while holding the lock of this store.
+   */
+  private CookieValue putCookie(final String domainTL, final CookieValue cookieValue) {
+    final String siteKey = this.getSiteKey(domainTL);
+    SiteCookies site = this.sites.get(siteKey);
+    if (site == null) {
+      site = new SiteCookies();
+      this.sites.put(siteKey, site);
+    }
+    DomainCookies domainCookies = site.find(domainTL);
+    if (domainCookies == null) {
+      domainCookies = new DomainCookies(domainTL);
+      final DomainCookies[] oldDomains = site.domains;
+      final DomainCookies[] newDomains = Arrays.copyOf(oldDomains, oldDomains.length + 1);
+      newDomains[oldDomains.length] = domainCookies;
+      site.domains = newDomains;
+    }
+    final CookieValue[] oldCookies = domainCookies.cookies;
+    final int index = indexOf(oldCookies, cookieValue.getName(), cookieValue.getPath());
+    final CookieValue[] newCookies;
+    final CookieValue previous;
+    if (index == -1) {
+      previous = null;
+      newCookies = Arrays.copyOf(oldCookies, oldCookies.length + 1);
+      newCookies[oldCookies.length] = cookieValue;
+    } else {
+      previous = oldCookies[index];
+      newCookies = oldCookies.clone();
+      newCookies[index] = cookieValue;
+    }
+    Arrays.sort(newCookies);
+    domainCookies.cookies = newCookies;
+    this.generation++;
+    return previous;
+  }
+
+  /**
+   * Removes the cookie with the given domain, name and path, and returns it. If
+   * <code>expected</code> is not <code>null</code>, the cookie is only removed
+   * if it is that same instance. Must be called while holding the lock of this
+   * store.
+   */
+  private CookieValue removeCookie(final String domainTL, final String name, final String path, final CookieValue expected) {
+    final String siteKey = this.getSiteKey(domainTL);
+    final SiteCookies site = this.sites.get(siteKey);
+    if (site == null) {
+      return null;
+    }
+    final DomainCookies domainCookies = site.find(domainTL);
+    if (domainCookies == null) {
+      return null;
+    }
+    final CookieValue[] oldCookies = domainCookies.cookies;
+    final int index = indexOf(oldCookies, name, path);
+    if ((index == -1) || ((expected != null) && (oldCookies[index] != expected))) {
+      return null;
+    }
+    final CookieValue removed = oldCookies[index];
+    if (oldCookies.length == 1) {
+      final DomainCookies[] oldDomains = site.domains;
+      if (oldDomains.length == 1) {
+        this.sites.remove(siteKey);
+        site.domains = NO_DOMAINS;
+      } else {
+        final DomainCookies[] newDomains = new DomainCookies[oldDomains.length - 1];
+        int j = 0;
+        for (final DomainCookies dc : oldDomains) {
+          if (dc != domainCookies) {
+            newDomains[j++] = dc;
+          }
+        }
+        site.domains = newDomains;
+      }
+      domainCookies.cookies = NO_COOKIES;
+    } else {
+      final CookieValue[] newCookies = new CookieValue[oldCookies.length - 1];
+      System.arraycopy(oldCookies, 0, newCookies, 0, index);
+      System.arraycopy(oldCookies, index + 1, newCookies, index, newCookies.length - index);
+      domainCookies.cookies = newCookies;
+    }
+    this.generation++;
+    return removed;
+  }
+
+  private static int indexOf(final CookieValue[] cookies, final String name, final String path) {
+    for (int i = 0; i < cookies.length; i++) {
+      final CookieValue cookie = cookies[i];
+      if (cookie.getName().equals(name) && cookie.getPath().equals(path)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private String getSiteKey(final String hostNameTL) {
+    final String siteKey = (String) this.siteKeysByHost.get(hostNameTL);
+    if (siteKey != null) {
+      return siteKey;
+    }
+    final String newKey = DomainValidation.getRegistrableDomain(hostNameTL);
+    this.siteKeysByHost.put(hostNameTL, newKey, 1);
+    return newKey;
+  }
+
+  private void addExpiration(final String domainTL, final CookieValue cookieValue) {
+    final Expiration expiration = new Expiration(domainTL, cookieValue);
+    synchronized (this.expirations) {
+      this.expirations.add(expiration);
+      this.nextExpiration = this.expirations.peek().time;
+    }
+  }
+
+  /**
+   * Removes cookies whose expiration time has passed. Cookies that were
+   * replaced after their expiration was queued are left alone.
+   */
+  private void purgeExpired(final long now) {
     synchronized (this) {
-      final Map<Pair<String, String>, CookieValue> hostMap = this.transientMapByHost.get(hostNameTL);
-      if (hostMap != null) {
-        final Iterator<Map.Entry<Pair<String, String>, CookieValue>> i = hostMap.entrySet().iterator();
-        while (i.hasNext()) {
-          final Map.Entry<Pair<String, String>, CookieValue> entry = i.next();
-          final CookieValue cookieValue = entry.getValue();
-          if (cookieValue.isExpired()) {
-            if (liflag) {
-              logger.info("getCookiesStrict(): Cookie " + entry.getKey() + " from " + hostNameTL + " expired: " + cookieValue.getExpires());
-            }
-          } else {
-            if (pathMatch(cookieValue.getPath(), path)) {
-              if (cookieValue.checkSecure(secureProtocol)) {
-                final Pair<String, String> cookieNameAndPath = entry.getKey();
-                // transientCookieNames.add(new Pair<>(cookieName, cookieValue.getPath()));
-                transientCookieNames.add(cookieNameAndPath);
-                selectedCookies.add(cookieValue);
-              }
-            } else {
-              if (liflag) {
-                logger.info("getCookiesStrict(): Skipping cookie " + cookieValue + " since it does not match path " + path);
-              }
-            }
+      synchronized (this.expirations) {
+        Expiration expiration;
+        while (((expiration = this.expirations.peek()) != null) && (expiration.time <= now)) {
+          this.expirations.poll();
+          final CookieValue cookie = expiration.cookie;
+          if (this.removeCookie(expiration.domain, cookie.getName(), cookie.getPath(), cookie) != null) {
+            this.scheduleDelete(expiration.domain, cookie.getName(), cookie.getPath());
           }
         }
+        this.nextExpiration = expiration == null ? Long.MAX_VALUE : expiration.time;
       }
     }
+  }
+
+  /**
+   * Gets the value of the <code>Cookie</code> header to send with a request,
+   * or <code>null</code> if there are no cookies for it.
+   */
+  public String getCookieHeader(final String protocol, final String hostName, final String path) {
+    checkHostPermission(hostName);
+    this.ensureLoaded();
+    if (System.currentTimeMillis() >= this.nextExpiration) {
+      this.purgeExpired(System.currentTimeMillis());
+    }
+    final String hostNameTL = hostName.toLowerCase();
+    final String effectivePath = (path == null) || (path.length() == 0) ? "/" : path;
+    final boolean secureProtocol = "https".equalsIgnoreCase(protocol);
+    final long currentGeneration = this.generation;
+    final CachedHeader cached = (CachedHeader) this.headersByHost.get(hostNameTL);
+    if ((cached != null) && cached.matches(currentGeneration, secureProtocol, effectivePath)) {
+      return cached.header;
+    }
+    final ArrayList<CookieValue> selectedCookies = selectionBuffer.get();
     try {
-      final RestrictedStore store = StorageManager.getInstance().getRestrictedStore(hostNameTL, false);
-      if (store != null) {
-        final DSLContext userDB = StorageManager.getInstance().getDB();
-        final Result<CookiesRecord> cookieResult = userDB.selectFrom(Cookies.COOKIES)
-            .where(Cookies.COOKIES.HOSTNAME.eq(hostNameTL))
-            .fetch();
-
-        if (cookieResult.isNotEmpty()) {
-          final CookiesRecord cookiesRecord = cookieResult.get(0);
-          final String cookieName = cookiesRecord.getName();
-          final CookieValue cookieValue = new CookieValue(
-              cookiesRecord.getName(),
-              cookiesRecord.getValue(),
-              cookiesRecord.getPath(),
-              Optional.ofNullable(cookiesRecord.getExpirationtime()),
-              cookiesRecord.getSecure(), cookiesRecord.getHttponly(),
-              cookiesRecord.getCreationtime()
-              );
-          if (!transientCookieNames.contains(new Pair<>(cookieName, cookieValue.getPath()))) {
-            if (cookieValue.isExpired()) {
-              if (logger.isLoggable(Level.INFO)) {
-                logger.info("getCookiesStrict(): Cookie " + cookieName + " from " + hostName + " expired: " + cookieValue.getExpires());
-              }
-              cookiesRecord.delete();
-            } else {
-              if (pathMatch(cookieValue.getPath(), path)) {
-                // Found one that is not in main memory. Cache it.
-                synchronized (this) {
-                  Map<Pair<String, String>, CookieValue> hostMap = this.transientMapByHost.get(hostName);
-                  if (hostMap == null) {
-                    hostMap = new HashMap<>();
-                    this.transientMapByHost.put(hostName, hostMap);
-                  }
-                  hostMap.put(new Pair<>(cookieName, cookieValue.getPath()), cookieValue);
-                }
-                if (cookieValue.checkSecure(secureProtocol)) {
-                  // Now add cookie to the collection.
-                  selectedCookies.add(cookieValue);
-                }
-              } else {
-                if (logger.isLoggable(Level.INFO)) {
-                  logger.info("getCookiesStrict(): Skipping cookie " + cookieValue + " since it does not match path " + path);
-                }
-              }
-            }
+      final boolean pathIndependent = this.selectCookies(hostNameTL, effectivePath, secureProtocol, selectedCookies);
+      String header = null;
+      if (!selectedCookies.isEmpty()) {
+        selectedCookies.sort(null);
+        final StringBuilder buffer = headerBuffer.get();
+        buffer.setLength(0);
+        for (final CookieValue cookieValue : selectedCookies) {
+          // We should not encode values. Servers expect to receive what they set the values to.
+          if (buffer.length() != 0) {
+            buffer.append("; ");
           }
+          buffer.append(cookieValue.getName()).append('=').append(cookieValue.getValue());
         }
+        header = buffer.toString();
       }
-    } catch (final IOException ioe) {
-      logger.log(Level.SEVERE, "getCookiesStrict()", ioe);
+      this.headersByHost.put(hostNameTL, new CachedHeader(currentGeneration, secureProtocol, effectivePath, pathIndependent, header), 1);
+      return header;
+    } finally {
+      selectedCookies.clear();
     }
+  }
 
-    return selectedCookies;
+  /**
+   * Adds the cookies that should be sent to the given host and path. Returns
+   * <code>true</code> if the selection does not depend on the path, because
+   * all cookies of the host are set for the root path.
+   */
+  private boolean selectCookies(final String hostNameTL, final String path, final boolean secureProtocol,
+      final Collection<CookieValue> selectedCookies) {
+    boolean pathIndependent = true;
+    final SiteCookies site = this.sites.get(this.getSiteKey(hostNameTL));
+    if (site != null) {
+      for (final DomainCookies domainCookies : site.domains) {
+        if (domainMatch(domainCookies.domain, hostNameTL)) {
+          for (final CookieValue cookieValue : domainCookies.cookies) {
+            final String cookiePath = cookieValue.getPath();
+            if (!"/".equals(cookiePath)) {
+              pathIndependent = false;
+            }
+            if (pathMatch(cookiePath, path) && cookieValue.checkSecure(secureProtocol) && !cookieValue.isExpired()) {
+              selectedCookies.add(cookieValue);
+            }
+          }
+        }
+      }
+    }
+    return pathIndependent;
   }
 
   public Collection<Cookie> getCookies(final String protocol, final String hostName, final String path) {
-    // Security provided by RestrictedStore.
-    final Collection<String> possibleDomains = DomainValidation.getPossibleDomains(hostName);
-    final List<CookieValue> allCookies = new LinkedList<>();
-    for (final String domain : possibleDomains) {
-      allCookies.addAll(this.getCookiesStrict(protocol, domain, path));
-    }
+    checkHostPermission(hostName);
+    this.ensureLoaded();
+    final String effectivePath = (path == null) || (path.length() == 0) ? "/" : path;
+    final List<CookieValue> allCookies = new ArrayList<>();
+    this.selectCookies(hostName.toLowerCase(), effectivePath, "https".equalsIgnoreCase(protocol), allCookies);
     allCookies.sort(null);
     final List<Cookie> cookies = new LinkedList<>();
     for (final CookieValue cookieValue : allCookies) {
@@ -278,4 +473,182 @@ public class CookieStore {
     }
     return cookies;
   }
+
+  /**
+   * Cookies of a host are read only by callers that may access the store of
+   * that host, as when they were read through its <code>RestrictedStore</code>.
+   */
+  private static void checkHostPermission(final String hostName) {
+    final SecurityManager sm = System.getSecurityManager();
+    if (sm != null) {
+      sm.checkPermission(StoreHostPermission.forHost(hostName.toLowerCase()));
+    }
+  }
+
+  private void scheduleMerge(final String domainTL, final CookieValue cookieValue) {
+    this.scheduleWrite(new PendingWrite(domainTL, cookieValue.getName(), cookieValue.getPath(), cookieValue));
+  }
+
+  private void scheduleDelete(final String domainTL, final String name, final String path) {
+    this.scheduleWrite(new PendingWrite(domainTL, name, path, null));
+  }
+
+  private void scheduleWrite(final PendingWrite write) {
+    if (this.memoryOnly) {
+      return;
+    }
+    synchronized (this.pendingWrites) {
+      // Only the last change to a cookie needs to be written, but it should go
+      // after changes to other cookies.
+      this.pendingWrites.remove(write.key);
+      this.pendingWrites.put(write.key, write);
+      if (this.writerThread == null) {
+        final Thread thread = new Thread(this::runWriter, "CookieWriter");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        this.writerThread = thread;
+        thread.start();
+      }
+      this.pendingWrites.notify();
+    }
+  }
+
+  private void runWriter() {
+    for (;;) {
+      try {
+        synchronized (this.pendingWrites) {
+          while (this.pendingWrites.isEmpty()) {
+            this.pendingWrites.wait();
+          }
+        }
+        Thread.sleep(WRITE_DELAY_MILLIS);
+        this.flush();
+      } catch (final InterruptedException ie) {
+        return;
+      } catch (final RuntimeException re) {
+        logger.log(Level.SEVERE, "runWriter()", re);
+      }
+    }
+  }
+
+  /**
+   * Writes pending changes to persistent cookies to the database. This is
+   * done in the background, but should also be called before the database is
+   * shut down.
+   */
+  public void flush() {
+    synchronized (this.flushLock) {
+      final List<PendingWrite> writes;
+      synchronized (this.pendingWrites) {
+        if (this.pendingWrites.isEmpty()) {
+          return;
+        }
+        writes = new ArrayList<>(this.pendingWrites.values());
+        this.pendingWrites.clear();
+      }
+      try {
+        final DSLContext userDB = StorageManager.getInstance().getDB();
+        final List<Query> queries = new ArrayList<>(writes.size());
+        for (final PendingWrite write : writes) {
+          final CookieValue cookieValue = write.cookieValue;
+          if (cookieValue == null) {
+            queries.add(userDB
+                .delete(Cookies.COOKIES)
+                .where(Cookies.COOKIES.HOSTNAME.eq(write.domain))
+                .and(Cookies.COOKIES.NAME.eq(write.name))
+                .and(Cookies.COOKIES.PATH.eq(write.path)));
+          } else {
+            queries.add(userDB
+                .mergeInto(Cookies.COOKIES)
+                .values(write.domain, write.name, cookieValue.getValue(), write.path, cookieValue.isSecure(), cookieValue.isHttpOnly(),
+                    cookieValue.getCreationTime(), cookieValue.getExpires().orElse(null)));
+          }
+        }
+        userDB.batch(queries).execute();
+        if (logger.isLoggable(Level.INFO)) {
+          logger.info("flush(): Wrote " + queries.size() + " cookie changes.");
+        }
+      } catch (final RuntimeException re) {
+        logger.log(Level.SEVERE, "flush(): Unable to write cookies.", re);
+      }
+    }
+  }
+
+  /** Cookies of all the domains under one registrable domain. */
+  private static final class SiteCookies {
+    volatile DomainCookies[] domains = NO_DOMAINS;
+
+    DomainCookies find(final String domainTL) {
+      for (final DomainCookies domainCookies : this.domains) {
+        if (domainCookies.domain.equals(domainTL)) {
+          return domainCookies;
+        }
+      }
+      return null;
+    }
+  }
+
+  /** Cookies set for one domain, kept sorted in the order they are sent. */
+  private static final class DomainCookies {
+    final String domain;
+    volatile CookieValue[] cookies = NO_COOKIES;
+
+    DomainCookies(final String domain) {
+      this.domain = domain;
+    }
+  }
+
+  private static final class CachedHeader {
+    final long generation;
+    final boolean secure;
+    final String path;
+    final boolean pathIndependent;
+    final String header;
+
+    CachedHeader(final long generation, final boolean secure, final String path, final boolean pathIndependent, final String header) {
+      this.generation = generation;
+      this.secure = secure;
+      this.path = path;
+      this.pathIndependent = pathIndependent;
+      this.header = header;
+    }
+
+    boolean matches(final long currentGeneration, final boolean secureProtocol, final String requestPath) {
+      return (this.generation == currentGeneration) && (this.secure == secureProtocol)
+          && (this.pathIndependent || this.path.equals(requestPath));
+    }
+  }
+
+  private static final class Expiration implements Comparable<Expiration> {
+    final long time;
+    final String domain;
+    final CookieValue cookie;
+
+    Expiration(final String domain, final CookieValue cookie) {
+      this.time = cookie.getExpires().get();
+      this.domain = domain;
+      this.cookie = cookie;
+    }
+
+    public int compareTo(final Expiration other) {
+      return Long.compare(this.time, other.time);
+    }
+  }
+
+  private static final class PendingWrite {
+    final String key;
+    final String domain;
+    final String name;
+    final String path;
+    /** The cookie to merge, or <code>null</code> if it should be deleted. */
+    final CookieValue cookieValue;
+
+    PendingWrite(final String domain, final String name, final String path, final CookieValue cookieValue) {
+      this.key = domain + '\t' + name + '\t' + path;
+      this.domain = domain;
+      this.name = name;
+      this.path = path;
+      this.cookieValue = cookieValue;
+    }
+  }
 }
@@ -86,6 +86,14 @@ public class CookieValue implements Comparable<CookieValue> {
     return !secure || secureProtocol;
   }
 
+  public boolean isSecure() {
+    return secure;
+  }
+
+  public boolean isHttpOnly() {
+    return httpOnly;
+  }
+
   /**
    * Orders cookies by these rules (section 5.4, point 2 of RFC 6265) - cookies
    * with longer paths are smaller - if path lengths are same, cookies with
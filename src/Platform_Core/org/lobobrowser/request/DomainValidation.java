@@ -63,6 +63,20 @@ public final class DomainValidation {
     return suffixList.isPublicSuffix(domain);
   }
 
+  /**
+   * Returns the registrable domain (public suffix plus one label) of the given
+   * host name, or the host name itself if it has none, as is the case for IP
+   * addresses and single label names.
+   */
+  public static String getRegistrableDomain(final String hostName) {
+    try {
+      final String registrable = suffixList.getRegistrableDomain(hostName);
+      return registrable == null ? hostName : registrable.toLowerCase();
+    } catch (final RuntimeException re) {
+      return hostName;
+    }
+  }
+
   /**
    * Returns a collection of domains that are acceptable for cookies originating
    * from the given hostname
@@ -0,0 +1,258 @@
+package org.lobobrowser.request;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A file of recorded HTTP exchanges, used to replay page loads without a
+ * network. Exchanges are appended as they complete, so an archive stays
+ * readable even if the browser is not shut down cleanly, losing at most the
+ * exchange that was being written.
+ *
+ * @see RecordingStreamHandlerFactory
+ * @see ReplayStreamHandlerFactory
+ */
+public final class NetworkArchive {
+  /** System property with the path of an archive to record into. */
+  public static final String RECORD_PROPERTY = "gngr.network.record";
+
+  /** System property with the path of an archive to serve requests from. */
+  public static final String REPLAY_PROPERTY = "gngr.network.replay";
+
+  /**
+   * System property with the latency added to each replayed response, either
+   * in milliseconds or <code>recorded</code> to use the time the response took
+   * to arrive when it was recorded. With <code>recorded</code>, a body is also
+   * delivered over the time it took to arrive, unless a bandwidth is given.
+   */
+  public static final String LATENCY_PROPERTY = "gngr.network.latency";
+
+  /** System property with the bandwidth of replayed responses in bytes per second. */
+  public static final String BANDWIDTH_PROPERTY = "gngr.network.bandwidth";
+
+  private static final int MAGIC = 0x676e4132;
+
+  /** Request headers that make a request conditional on a cached copy. */
+  private static final String[] CONDITIONAL_HEADERS = { "If-None-Match", "If-Modified-Since", "If-Match", "If-Unmodified-Since",
+      "If-Range" };
+
+  private final Map<String, List<Exchange>> exchangesByKey;
+  // Only the exchanges whose requests were not conditional.
+  private final Map<String, List<Exchange>> unconditionalExchangesByKey;
+  private final Map<String, Integer> servedCounts = new HashMap<>();
+
+  private NetworkArchive(final Map<String, List<Exchange>> exchangesByKey, final Map<String, List<Exchange>> unconditionalExchangesByKey) {
+    this.exchangesByKey = exchangesByKey;
+    this.unconditionalExchangesByKey = unconditionalExchangesByKey;
+  }
+
+  public static NetworkArchive read(final File file) throws IOException {
+    final Map<String, List<Exchange>> exchangesByKey = new HashMap<>();
+    final Map<String, List<Exchange>> unconditionalExchangesByKey = new HashMap<>();
+    try (
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a network archive: " + file);
+      }
+      for (;;) {
+        final Exchange exchange;
+        try {
+          exchange = Exchange.readFrom(readString(in), in);
+        } catch (final EOFException eof) {
+          // Either the end of the archive, or an exchange that was cut short
+          // when the browser did not shut down cleanly. Only that one is lost.
+          break;
+        }
+        final String key = getKey(exchange.method, exchange.url);
+        exchangesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(exchange);
+        if (!isConditional(exchange.requestHeaders)) {
+          unconditionalExchangesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(exchange);
+        }
+      }
+    }
+    return new NetworkArchive(exchangesByKey, unconditionalExchangesByKey);
+  }
+
+  /**
+   * Tells whether the given request headers ask for a response only if a
+   * cached copy is out of date.
+   */
+  static boolean isConditional(final List<String[]> requestHeaders) {
+    for (final String[] header : requestHeaders) {
+      for (final String name : CONDITIONAL_HEADERS) {
+        if (name.equalsIgnoreCase(header[0])) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static String getKey(final String method, final String url) {
+    return method + " " + url;
+  }
+
+  /**
+   * Gets the next recorded exchange for a request. Repeated requests for the
+   * same URL get the recorded responses in the order they were recorded, and
+   * then the last one again.
+   * <p>
+   * A request that is not conditional only gets responses to requests that
+   * were not conditional either, since it has no cached copy that a
+   * <code>304</code> response could refer to. A conditional request may get
+   * any response.
+   */
+  synchronized Optional<Exchange> nextExchange(final String method, final String url, final boolean conditional) {
+    final String key = getKey(method, url);
+    final List<Exchange> exchanges = (conditional ? this.exchangesByKey : this.unconditionalExchangesByKey).get(key);
+    if (exchanges == null) {
+      return Optional.empty();
+    }
+    final String countKey = (conditional ? "C " : "U ") + key;
+    final int served = this.servedCounts.getOrDefault(countKey, 0);
+    this.servedCounts.put(countKey, served + 1);
+    return Optional.of(exchanges.get(Math.min(served, exchanges.size() - 1)));
+  }
+
+  /**
+   * Writes a string that may be <code>null</code> and of any length, as its
+   * length in UTF-8 bytes followed by the bytes. Unlike
+   * {@link DataOutputStream#writeUTF(String)}, this is not limited to 64 KB,
+   * which long URLs and headers can exceed.
+   */
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length == -1) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Appends exchanges to an archive file. */
+  static final class Writer {
+    private final OutputStream out;
+
+    Writer(final File file) throws IOException {
+      this.out = new BufferedOutputStream(new FileOutputStream(file));
+      new DataOutputStream(this.out).writeInt(MAGIC);
+      this.out.flush();
+    }
+
+    void write(final Exchange exchange) throws IOException {
+      // Serialize first so that a failure does not leave a partial entry.
+      final ByteArrayOutputStream buffer = new ByteArrayOutputStream(exchange.body.length + 1024);
+      exchange.writeTo(new DataOutputStream(buffer));
+      synchronized (this) {
+        buffer.writeTo(this.out);
+        this.out.flush();
+      }
+    }
+
+    synchronized void close() throws IOException {
+      this.out.close();
+    }
+  }
+
+  /** A recorded request and its response. */
+  static final class Exchange {
+    final String method;
+    final String url;
+    final List<String[]> requestHeaders;
+    final int responseCode;
+    /** The reason phrase of the status line, or <code>null</code> if there was none. */
+    final String responseMessage;
+    final List<String[]> responseHeaders;
+    final byte[] body;
+
+    /** Time from sending the request to receiving the response headers. */
+    final long headersMillis;
+
+    /** Time from receiving the response headers to the end of the body. */
+    final long bodyMillis;
+
+    Exchange(final String method, final String url, final List<String[]> requestHeaders, final int responseCode,
+        final String responseMessage, final List<String[]> responseHeaders, final byte[] body, final long headersMillis,
+        final long bodyMillis) {
+      this.method = method;
+      this.url = url;
+      this.requestHeaders = requestHeaders;
+      this.responseCode = responseCode;
+      this.responseMessage = responseMessage;
+      this.responseHeaders = responseHeaders;
+      this.body = body;
+      this.headersMillis = headersMillis;
+      this.bodyMillis = bodyMillis;
+    }
+
+    private void writeTo(final DataOutputStream out) throws IOException {
+      writeString(out, this.method);
+      writeString(out, this.url);
+      writeHeaders(out, this.requestHeaders);
+      out.writeInt(this.responseCode);
+      writeString(out, this.responseMessage);
+      writeHeaders(out, this.responseHeaders);
+      out.writeLong(this.headersMillis);
+      out.writeLong(this.bodyMillis);
+      out.writeInt(this.body.length);
+      out.write(this.body);
+    }
+
+    private static Exchange readFrom(final String method, final DataInputStream in) throws IOException {
+      final String url = readString(in);
+      final List<String[]> requestHeaders = readHeaders(in);
+      final int responseCode = in.readInt();
+      final String responseMessage = readString(in);
+      final List<String[]> responseHeaders = readHeaders(in);
+      final long headersMillis = in.readLong();
+      final long bodyMillis = in.readLong();
+      final byte[] body = new byte[in.readInt()];
+      in.readFully(body);
+      return new Exchange(method, url, requestHeaders, responseCode, responseMessage, responseHeaders, body, headersMillis, bodyMillis);
+    }
+
+    private static void writeHeaders(final DataOutputStream out, final List<String[]> headers) throws IOException {
+      out.writeInt(headers.size());
+      for (final String[] header : headers) {
+        writeString(out, header[0]);
+        writeString(out, header[1]);
+      }
+    }
+
+    private static List<String[]> readHeaders(final DataInputStream in) throws IOException {
+      final int size = in.readInt();
+      final List<String[]> headers = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        headers.add(new String[] { readString(in), readString(in) });
+      }
+      return Collections.unmodifiableList(headers);
+    }
+  }
+}
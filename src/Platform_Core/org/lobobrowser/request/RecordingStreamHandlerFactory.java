@@ -0,0 +1,490 @@
+package org.lobobrowser.request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.URLStreamHandlerFactory;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Records the HTTP exchanges of the connections made by another factory into a
+ * {@link NetworkArchive}. A response body is recorded as it is read; if the
+ * reader closes it early, the rest is read so that the archive holds the whole
+ * body.
+ */
+public final class RecordingStreamHandlerFactory implements URLStreamHandlerFactory {
+  private static final Logger logger = Logger.getLogger(RecordingStreamHandlerFactory.class.getName());
+  private final URLStreamHandlerFactory delegate;
+  private final NetworkArchive.Writer writer;
+
+  public RecordingStreamHandlerFactory(final URLStreamHandlerFactory delegate, final File archiveFile) throws IOException {
+    this.delegate = delegate;
+    this.writer = new NetworkArchive.Writer(archiveFile);
+  }
+
+  public URLStreamHandler createURLStreamHandler(final String protocol) {
+    if ("http".equals(protocol) || "https".equals(protocol)) {
+      final URLStreamHandler delegateHandler = this.delegate.createURLStreamHandler(protocol);
+      return delegateHandler == null ? null : new Handler(delegateHandler, "https".equals(protocol) ? 443 : 80);
+    } else {
+      return null;
+    }
+  }
+
+  public void close() throws IOException {
+    this.writer.close();
+  }
+
+  private class Handler extends URLStreamHandler {
+    private final URLStreamHandler delegateHandler;
+    private final int defaultPort;
+
+    Handler(final URLStreamHandler delegateHandler, final int defaultPort) {
+      this.delegateHandler = delegateHandler;
+      this.defaultPort = defaultPort;
+    }
+
+    @Override
+    protected URLConnection openConnection(final URL u) throws IOException {
+      return new RecordingURLConnection((HttpURLConnection) new URL(null, u.toExternalForm(), this.delegateHandler).openConnection());
+    }
+
+    @Override
+    protected URLConnection openConnection(final URL u, final Proxy p) throws IOException {
+      return new RecordingURLConnection((HttpURLConnection) new URL(null, u.toExternalForm(), this.delegateHandler).openConnection(p));
+    }
+
+    @Override
+    protected int getDefaultPort() {
+      return this.defaultPort;
+    }
+  }
+
+  /**
+   * Forwards to the real connection. It is an HTTPS connection even for HTTP
+   * URLs so that HTTPS settings reach the real connection when there is one.
+   */
+  private class RecordingURLConnection extends HttpsURLConnection {
+    private final HttpURLConnection connection;
+    private List<String[]> requestHeaders;
+    private long startNanos;
+    private long headersNanos;
+    private boolean recorded = false;
+    private RecordingInputStream body;
+
+    RecordingURLConnection(final HttpURLConnection connection) {
+      super(connection.getURL());
+      this.connection = connection;
+    }
+
+    private void started() {
+      if (this.requestHeaders == null) {
+        this.startNanos = System.nanoTime();
+        final List<String[]> headers = new ArrayList<>();
+        this.connection.getRequestProperties().forEach((name, values) -> {
+          for (final String value : values) {
+            headers.add(new String[] { name, value });
+          }
+        });
+        this.requestHeaders = headers;
+      }
+    }
+
+    private void responded() throws IOException {
+      this.started();
+      if (this.headersNanos == 0) {
+        final int responseCode = this.connection.getResponseCode();
+        this.headersNanos = System.nanoTime();
+        if ("HEAD".equals(this.connection.getRequestMethod()) || (responseCode < HTTP_OK) || (responseCode == HTTP_NO_CONTENT)
+            || ((responseCode >= HTTP_MULT_CHOICE) && (responseCode < HTTP_BAD_REQUEST))) {
+          // There is no body to wait for.
+          this.record(new byte[0]);
+        }
+      }
+    }
+
+    private synchronized void record(final byte[] bytes) {
+      if (this.recorded) {
+        return;
+      }
+      this.recorded = true;
+      try {
+        final List<String[]> responseHeaders = new ArrayList<>();
+        for (int i = 1;; i++) {
+          final String name = this.connection.getHeaderFieldKey(i);
+          final String value = this.connection.getHeaderField(i);
+          if (value == null) {
+            break;
+          } else if (name != null) {
+            responseHeaders.add(new String[] { name, value });
+          }
+        }
+        writer.write(new NetworkArchive.Exchange(this.connection.getRequestMethod(), this.url.toExternalForm(), this.requestHeaders,
+            this.connection.getResponseCode(), this.connection.getResponseMessage(), responseHeaders, bytes,
+            TimeUnit.NANOSECONDS.toMillis(this.headersNanos - this.startNanos),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.headersNanos)));
+      } catch (final IOException ioe) {
+        logger.log(Level.WARNING, "record(): Unable to record " + this.url, ioe);
+      }
+    }
+
+    private synchronized InputStream recordBody(final InputStream in) {
+      if ((in == null) || this.recorded) {
+        return in;
+      }
+      if (this.body == null) {
+        this.body = new RecordingInputStream(in, this);
+      }
+      return this.body;
+    }
+
+    @Override
+    public void connect() throws IOException {
+      this.started();
+      this.connection.connect();
+    }
+
+    @Override
+    public void disconnect() {
+      if ((this.headersNanos != 0) && !this.recorded) {
+        // Record a body nobody asked for as well.
+        try {
+          final InputStream in = this.body != null ? this.body
+              : this.recordBody(this.connection.getResponseCode() >= HTTP_BAD_REQUEST ? this.connection.getErrorStream()
+                  : this.connection.getInputStream());
+          if (in != null) {
+            // Closing reads the rest of the body.
+            in.close();
+          }
+        } catch (final IOException ioe) {
+          logger.log(Level.WARNING, "disconnect(): Unable to finish reading " + this.url, ioe);
+        }
+      }
+      this.connection.disconnect();
+    }
+
+    @Override
+    public boolean usingProxy() {
+      return this.connection.usingProxy();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      this.started();
+      return this.connection.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      this.responded();
+      return this.recordBody(this.connection.getInputStream());
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      try {
+        this.responded();
+      } catch (final IOException ioe) {
+        return null;
+      }
+      return this.recordBody(this.connection.getErrorStream());
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+      this.responded();
+      return this.connection.getResponseCode();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+      this.responded();
+      return this.connection.getResponseMessage();
+    }
+
+    @Override
+    public String getHeaderField(final String name) {
+      this.started();
+      return this.connection.getHeaderField(name);
+    }
+
+    @Override
+    public String getHeaderField(final int n) {
+      this.started();
+      return this.connection.getHeaderField(n);
+    }
+
+    @Override
+    public String getHeaderFieldKey(final int n) {
+      this.started();
+      return this.connection.getHeaderFieldKey(n);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+      this.started();
+      return this.connection.getHeaderFields();
+    }
+
+    @Override
+    public String getRequestMethod() {
+      return this.connection.getRequestMethod();
+    }
+
+    @Override
+    public void setRequestMethod(final String method) throws java.net.ProtocolException {
+      this.connection.setRequestMethod(method);
+    }
+
+    @Override
+    public void setRequestProperty(final String key, final String value) {
+      this.connection.setRequestProperty(key, value);
+    }
+
+    @Override
+    public void addRequestProperty(final String key, final String value) {
+      this.connection.addRequestProperty(key, value);
+    }
+
+    @Override
+    public String getRequestProperty(final String key) {
+      return this.connection.getRequestProperty(key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+      return this.connection.getRequestProperties();
+    }
+
+    @Override
+    public void setDoInput(final boolean doinput) {
+      this.connection.setDoInput(doinput);
+    }
+
+    @Override
+    public boolean getDoInput() {
+      return this.connection.getDoInput();
+    }
+
+    @Override
+    public void setDoOutput(final boolean dooutput) {
+      this.connection.setDoOutput(dooutput);
+    }
+
+    @Override
+    public boolean getDoOutput() {
+      return this.connection.getDoOutput();
+    }
+
+    @Override
+    public void setUseCaches(final boolean usecaches) {
+      this.connection.setUseCaches(usecaches);
+    }
+
+    @Override
+    public boolean getUseCaches() {
+      return this.connection.getUseCaches();
+    }
+
+    @Override
+    public void setIfModifiedSince(final long ifmodifiedsince) {
+      this.connection.setIfModifiedSince(ifmodifiedsince);
+    }
+
+    @Override
+    public long getIfModifiedSince() {
+      return this.connection.getIfModifiedSince();
+    }
+
+    @Override
+    public void setConnectTimeout(final int timeout) {
+      this.connection.setConnectTimeout(timeout);
+    }
+
+    @Override
+    public int getConnectTimeout() {
+      return this.connection.getConnectTimeout();
+    }
+
+    @Override
+    public void setReadTimeout(final int timeout) {
+      this.connection.setReadTimeout(timeout);
+    }
+
+    @Override
+    public int getReadTimeout() {
+      return this.connection.getReadTimeout();
+    }
+
+    @Override
+    public void setInstanceFollowRedirects(final boolean followRedirects) {
+      this.connection.setInstanceFollowRedirects(followRedirects);
+    }
+
+    @Override
+    public boolean getInstanceFollowRedirects() {
+      return this.connection.getInstanceFollowRedirects();
+    }
+
+    @Override
+    public void setAllowUserInteraction(final boolean allowuserinteraction) {
+      this.connection.setAllowUserInteraction(allowuserinteraction);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(final int contentLength) {
+      this.connection.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(final long contentLength) {
+      this.connection.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setChunkedStreamingMode(final int chunklen) {
+      this.connection.setChunkedStreamingMode(chunklen);
+    }
+
+    private HttpsURLConnection getSecureConnection() {
+      return this.connection instanceof HttpsURLConnection ? (HttpsURLConnection) this.connection : null;
+    }
+
+    @Override
+    public String getCipherSuite() {
+      final HttpsURLConnection secure = this.getSecureConnection();
+      return secure == null ? null : secure.getCipherSuite();
+    }
+
+    @Override
+    public Certificate[] getLocalCertificates() {
+      final HttpsURLConnection secure = this.getSecureConnection();
+      return secure == null ? null : secure.getLocalCertificates();
+    }
+
+    @Override
+    public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+      final HttpsURLConnection secure = this.getSecureConnection();
+      if (secure == null) {
+        throw new SSLPeerUnverifiedException("Not an HTTPS connection");
+      }
+      return secure.getServerCertificates();
+    }
+
+    @Override
+    public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+      final HttpsURLConnection secure = this.getSecureConnection();
+      if (secure == null) {
+        throw new SSLPeerUnverifiedException("Not an HTTPS connection");
+      }
+      return secure.getPeerPrincipal();
+    }
+
+    @Override
+    public void setHostnameVerifier(final HostnameVerifier v) {
+      final HttpsURLConnection secure = this.getSecureConnection();
+      if (secure != null) {
+        secure.setHostnameVerifier(v);
+      }
+    }
+
+    @Override
+    public void setSSLSocketFactory(final SSLSocketFactory sf) {
+      final HttpsURLConnection secure = this.getSecureConnection();
+      if (secure != null) {
+        secure.setSSLSocketFactory(sf);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Recording:" + this.connection;
+    }
+  }
+
+  private static final class RecordingInputStream extends FilterInputStream {
+    private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private final RecordingURLConnection connection;
+    private boolean finished = false;
+
+    RecordingInputStream(final InputStream in, final RecordingURLConnection connection) {
+      super(in);
+      this.connection = connection;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+      if (b == -1) {
+        this.finish();
+      } else {
+        this.copy.write(b);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      final int n = super.read(b, off, len);
+      if (n == -1) {
+        this.finish();
+      } else {
+        this.copy.write(b, off, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      final byte[] b = new byte[(int) Math.min(n, 8192)];
+      final int read = this.read(b, 0, b.length);
+      return read == -1 ? 0 : read;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (!this.finished) {
+          final byte[] b = new byte[8192];
+          while (this.read(b, 0, b.length) != -1) {
+            // Read the rest so that the whole body is recorded.
+          }
+        }
+      } finally {
+        super.close();
+      }
+    }
+
+    private void finish() {
+      if (!this.finished) {
+        this.finished = true;
+        this.connection.record(this.copy.toByteArray());
+      }
+    }
+  }
+}
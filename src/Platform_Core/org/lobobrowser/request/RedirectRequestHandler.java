@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 import javax.net.ssl.HostnameVerifier;
@@ -38,6 +39,7 @@ import org.lobobrowser.clientlet.ClientletResponse;
 import org.lobobrowser.ua.ProgressType;
 import org.lobobrowser.ua.RequestType;
 import org.lobobrowser.ua.UserAgentContext;
+import org.lobobrowser.ua.UserAgentContext.RequestKind;
 
 /**
  * @author J. H. S.
@@ -114,6 +116,11 @@ public class RedirectRequestHandler implements RequestHandler {
     return this.origHandler.getRequest();
   }
 
+  @Override
+  public Optional<RequestKind> getRequestKind() {
+    return this.origHandler.getRequestKind();
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -0,0 +1,271 @@
+package org.lobobrowser.request;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.URLStreamHandlerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Serves <code>http</code> and <code>https</code> URLs from a
+ * {@link NetworkArchive} instead of the network. Requests that are not in the
+ * archive fail.
+ */
+public final class ReplayStreamHandlerFactory implements URLStreamHandlerFactory {
+  private final NetworkArchive archive;
+  private final long latencyMillis;
+  private final long bytesPerSecond;
+
+  /**
+   * @param latencyMillis The latency added to each response, or -1 to use the
+   *          latency of the response when it was recorded. In that case a body
+   *          is also delivered over the time it took to arrive, unless a
+   *          bandwidth is given.
+   * @param bytesPerSecond The bandwidth of response bodies, or 0 for no limit.
+   */
+  public ReplayStreamHandlerFactory(final NetworkArchive archive, final long latencyMillis, final long bytesPerSecond) {
+    this.archive = archive;
+    this.latencyMillis = latencyMillis;
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  public URLStreamHandler createURLStreamHandler(final String protocol) {
+    if ("http".equals(protocol) || "https".equals(protocol)) {
+      return new Handler("https".equals(protocol) ? 443 : 80);
+    } else {
+      return null;
+    }
+  }
+
+  private class Handler extends URLStreamHandler {
+    private final int defaultPort;
+
+    Handler(final int defaultPort) {
+      this.defaultPort = defaultPort;
+    }
+
+    @Override
+    protected URLConnection openConnection(final URL u) throws IOException {
+      return new ReplayURLConnection(u);
+    }
+
+    @Override
+    protected URLConnection openConnection(final URL u, final Proxy p) throws IOException {
+      return this.openConnection(u);
+    }
+
+    @Override
+    protected int getDefaultPort() {
+      return this.defaultPort;
+    }
+  }
+
+  private class ReplayURLConnection extends HttpURLConnection {
+    private NetworkArchive.Exchange exchange;
+
+    ReplayURLConnection(final URL url) {
+      super(url);
+    }
+
+    @Override
+    public void connect() throws IOException {
+      if (this.connected) {
+        return;
+      }
+      final String urlText = this.url.toExternalForm();
+      final boolean conditional = (this.ifModifiedSince != 0) || NetworkArchive.isConditional(this.getRequestHeaders());
+      final NetworkArchive.Exchange exchange = archive.nextExchange(this.method, urlText, conditional)
+          .orElseThrow(() -> new IOException("Not in network archive: " + this.method + " " + urlText));
+      sleep(latencyMillis == -1 ? exchange.headersMillis : latencyMillis);
+      this.exchange = exchange;
+      this.connected = true;
+    }
+
+    private List<String[]> getRequestHeaders() {
+      final List<String[]> headers = new ArrayList<>();
+      this.getRequestProperties().forEach((name, values) -> {
+        for (final String value : values) {
+          headers.add(new String[] { name, value });
+        }
+      });
+      return headers;
+    }
+
+    @Override
+    public void disconnect() {
+      // Nothing to release.
+    }
+
+    @Override
+    public boolean usingProxy() {
+      return false;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      // The request body is not part of the recorded exchange.
+      return new ByteArrayOutputStream();
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+      this.connect();
+      return this.exchange.responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+      this.connect();
+      return this.exchange.responseMessage;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      this.connect();
+      if (this.exchange.responseCode >= HTTP_BAD_REQUEST) {
+        throw new FileNotFoundException(this.url.toExternalForm());
+      }
+      return this.openBody();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      if ((this.exchange == null) || (this.exchange.responseCode < HTTP_BAD_REQUEST)) {
+        return null;
+      }
+      return this.openBody();
+    }
+
+    private InputStream openBody() {
+      final InputStream in = new ByteArrayInputStream(this.exchange.body);
+      final long rate = bytesPerSecond > 0 ? bytesPerSecond : latencyMillis == -1 ? getRecordedRate(this.exchange) : 0;
+      return rate > 0 ? new ThrottledInputStream(in, rate) : in;
+    }
+
+    private List<String[]> getHeaders() {
+      try {
+        this.connect();
+        return this.exchange.responseHeaders;
+      } catch (final IOException ioe) {
+        return Collections.emptyList();
+      }
+    }
+
+    @Override
+    public String getHeaderField(final String name) {
+      if (name == null) {
+        return this.getHeaderField(0);
+      }
+      String value = null;
+      for (final String[] header : this.getHeaders()) {
+        if (header[0].equalsIgnoreCase(name)) {
+          value = header[1];
+        }
+      }
+      return value;
+    }
+
+    @Override
+    public String getHeaderFieldKey(final int n) {
+      // As with other HTTP connections, field zero is the status line.
+      final List<String[]> headers = this.getHeaders();
+      return (n <= 0) || (n > headers.size()) ? null : headers.get(n - 1)[0];
+    }
+
+    @Override
+    public String getHeaderField(final int n) {
+      final List<String[]> headers = this.getHeaders();
+      if (n == 0) {
+        if (this.exchange == null) {
+          return null;
+        }
+        final String message = this.exchange.responseMessage;
+        return "HTTP/1.1 " + this.exchange.responseCode + (message == null ? "" : " " + message);
+      }
+      return (n < 0) || (n > headers.size()) ? null : headers.get(n - 1)[1];
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+      final Map<String, List<String>> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      for (final String[] header : this.getHeaders()) {
+        fields.computeIfAbsent(header[0], k -> new ArrayList<>()).add(header[1]);
+      }
+      return Collections.unmodifiableMap(fields);
+    }
+  }
+
+  /**
+   * Gets the rate at which the body of an exchange arrived when it was
+   * recorded, or 0 if it arrived at once.
+   */
+  private static long getRecordedRate(final NetworkArchive.Exchange exchange) {
+    if ((exchange.bodyMillis <= 0) || (exchange.body.length == 0)) {
+      return 0;
+    }
+    return Math.max(1, (exchange.body.length * 1000L) / exchange.bodyMillis);
+  }
+
+  private static void sleep(final long millis) throws InterruptedIOException {
+    if (millis > 0) {
+      try {
+        Thread.sleep(millis);
+      } catch (final InterruptedException ie) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  /** Delivers bytes no faster than a given rate. */
+  private static final class ThrottledInputStream extends FilterInputStream {
+    private final long bytesPerSecond;
+    private final int maxChunk;
+    private final long startNanos = System.nanoTime();
+    private long bytesRead = 0;
+
+    ThrottledInputStream(final InputStream in, final long bytesPerSecond) {
+      super(in);
+      this.bytesPerSecond = bytesPerSecond;
+      // Deliver about ten chunks a second so reading looks continuous.
+      this.maxChunk = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytesPerSecond / 10));
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] b = new byte[1];
+      return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      final int n = super.read(b, off, Math.min(len, this.maxChunk));
+      if (n > 0) {
+        this.bytesRead += n;
+        final long dueMillis = (this.bytesRead * 1000) / this.bytesPerSecond;
+        sleep(dueMillis - ((System.nanoTime() - this.startNanos) / 1000000));
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      final byte[] b = new byte[(int) Math.min(n, 8192)];
+      final int read = this.read(b, 0, b.length);
+      return read == -1 ? 0 : read;
+    }
+  }
+}
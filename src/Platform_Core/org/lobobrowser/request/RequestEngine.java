@@ -34,28 +34,38 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.Proxy;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
+import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 
 import org.eclipse.jdt.annotation.NonNull;
@@ -66,6 +76,7 @@ import org.lobobrowser.clientlet.ClientletResponse;
 import org.lobobrowser.clientlet.Header;
 import org.lobobrowser.main.ExtensionManager;
 import org.lobobrowser.main.PlatformInit;
+import org.lobobrowser.request.RequestTiming.Phase;
 import org.lobobrowser.settings.BooleanSettings;
 import org.lobobrowser.settings.CacheSettings;
 import org.lobobrowser.settings.ConnectionSettings;
@@ -81,10 +92,11 @@ import org.lobobrowser.ua.UserAgentContext.RequestKind;
 import org.lobobrowser.util.BoxedObject;
 import org.lobobrowser.util.ID;
 import org.lobobrowser.util.NameValuePair;
-import org.lobobrowser.util.SimpleThreadPool;
 import org.lobobrowser.util.SimpleThreadPoolTask;
 import org.lobobrowser.util.Strings;
+import org.lobobrowser.util.TinyLFUCache;
 import org.lobobrowser.util.Urls;
+import org.lobobrowser.util.io.ChunkedBuffer;
 import org.lobobrowser.util.io.Files;
 import org.lobobrowser.util.io.IORoutines;
 
@@ -92,18 +104,29 @@ public final class RequestEngine {
   private static final int MAX_REDIRECT_COUNT = 30;
   private static final Logger logger = Logger.getLogger(RequestEngine.class.getName());
   private static final boolean loggerInfo = logger.isLoggable(Level.INFO);
+  private static final long MAX_COALESCING_WAIT_MILLIS = 30 * 1000;
+  private static final int MAX_SPECULATIVE_RESPONSES_SIZE = 4 * 1024 * 1024;
+  private static final long MAX_SPECULATIVE_RESPONSE_AGE_MILLIS = 60 * 1000;
 
-  private final SimpleThreadPool threadPool;
+  private final RequestScheduler scheduler;
   private final Collection<RequestInfo> processingRequests = new HashSet<>();
   private final CookieStore cookieStore = CookieStore.getInstance();
   private final CacheSettings cacheSettings;
   private final BooleanSettings booleanSettings;
   private final ConnectionSettings connectionSettings;
+  private final Map<String, InFlightFetch> inFlightFetches = new ConcurrentHashMap<>();
+  private final Set<String> revalidatingUrls = ConcurrentHashMap.newKeySet();
+  // Responses to speculative requests that could not be cached, until an
+  // identical request takes them.
+  private final TinyLFUCache speculativeResponses = new TinyLFUCache(MAX_SPECULATIVE_RESPONSES_SIZE);
+  private final Collection<RequestTimingListener> timingListeners = new CopyOnWriteArrayList<>();
+  private final Deque<RequestTiming> recentTimings = new ArrayDeque<>();
 
   private RequestEngine() {
     // Use few threads to avoid excessive parallelism. Note that
-    // downloads are not handled by this thread pool.
-    this.threadPool = new SimpleThreadPool("RequestEngineThreadPool", 3, 5, 60 * 1000);
+    // downloads are not handled by this thread pool. A single host
+    // can not take up all the threads.
+    this.scheduler = new RequestScheduler("RequestEngineThreadPool", 3, 6, 4, 60 * 1000);
 
     // Security: Private fields that require privileged access to get
     // initialized.
@@ -118,6 +141,42 @@ public final class RequestEngine {
     return instance;
   }
 
+  private static final int MAX_RECENT_TIMINGS = 500;
+
+  public void addRequestTimingListener(final RequestTimingListener listener) {
+    this.timingListeners.add(listener);
+  }
+
+  public void removeRequestTimingListener(final RequestTimingListener listener) {
+    this.timingListeners.remove(listener);
+  }
+
+  /**
+   * Gets the timings of the most recently finished requests, oldest first.
+   */
+  public List<RequestTiming> getRecentTimings() {
+    synchronized (this.recentTimings) {
+      return new ArrayList<>(this.recentTimings);
+    }
+  }
+
+  private void requestFinished(final RequestTiming timing) {
+    timing.mark(Phase.DONE);
+    synchronized (this.recentTimings) {
+      if (this.recentTimings.size() >= MAX_RECENT_TIMINGS) {
+        this.recentTimings.removeFirst();
+      }
+      this.recentTimings.addLast(timing);
+    }
+    for (final RequestTimingListener listener : this.timingListeners) {
+      try {
+        listener.requestFinished(timing);
+      } catch (final RuntimeException re) {
+        logger.log(Level.WARNING, "requestFinished(): Timing listener failed.", re);
+      }
+    }
+  }
+
   public String getCookie(final java.net.URL url) {
     final Collection<Cookie> cookies = this.cookieStore.getCookies(url.getProtocol(), url.getHost(), url.getPath());
     final StringBuffer cookieText = new StringBuffer();
@@ -140,14 +199,33 @@ public final class RequestEngine {
   }
 
   public void cancelAllRequests() {
-    this.threadPool.cancelAll();
+    this.scheduler.cancelAll();
   }
 
   public void cancelRequest(final RequestHandler rhToDelete) {
-    this.threadPool.cancel(new RequestHandlerTask(rhToDelete));
+    this.scheduler.cancel(rhToDelete);
     this.cancelRequestIfRunning(rhToDelete);
   }
 
+  /**
+   * Changes the priority of a scheduled request, if it is still waiting. For
+   * example, an image that has been scrolled into view can be moved ahead of
+   * other images.
+   *
+   * @return <code>false</code> if the request is no longer waiting.
+   */
+  public boolean reprioritizeRequest(final RequestHandler handler, final RequestPriority priority) {
+    return this.scheduler.reprioritize(handler, priority);
+  }
+
+  /**
+   * Gets the current queue depth and the wait times so far, for each
+   * {@link RequestPriority}.
+   */
+  public List<RequestScheduler.QueueStats> getQueueStats() {
+    return this.scheduler.getQueueStats();
+  }
+
   public void cancelRequestIfRunning(final RequestHandler rhToDelete) {
     rhToDelete.cancel();
     final List<RequestInfo> handlersToCancel = new ArrayList<>();
@@ -172,7 +250,7 @@ public final class RequestEngine {
     // a security manager.
     final SecurityManager sm = System.getSecurityManager();
     final AccessControlContext context = sm == null ? null : AccessController.getContext();
-    this.threadPool.schedule(new RequestHandlerTask(handler, context));
+    this.scheduler.schedule(new RequestHandlerTask(handler, context), handler, RequestPriority.forHandler(handler));
   }
 
   private static final String NORMAL_FORM_ENCODING = "application/x-www-form-urlencoded";
@@ -307,16 +385,19 @@ public final class RequestEngine {
     }
   }
 
+  private static final String ACCEPT_ENCODING = "gzip, deflate";
+  // The following two headers are for GH #174
+  private static final String ACCEPT = "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8";
+  private static final String ACCEPT_LANGUAGE = "en-US,en;q=0.5";
+
   private static void addRequestProperties(final URLConnection connection, final ClientletRequest request, final CacheInfo cacheInfo,
       final String requestMethod,
       final URL lastRequestURL, final RequestHandler rhandler) throws ProtocolException {
     final UserAgent userAgent = request.getUserAgent();
     connection.addRequestProperty("User-Agent", userAgent.toString());
-    connection.addRequestProperty("Accept-Encoding", "gzip, deflate");
-
-    // The following two headers are for GH #174
-    connection.addRequestProperty("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
-    connection.addRequestProperty("Accept-Language", "en-US,en;q=0.5");
+    connection.addRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+    connection.addRequestProperty("Accept", ACCEPT);
+    connection.addRequestProperty("Accept-Language", ACCEPT_LANGUAGE);
 
     // TODO: Harshad: Commenting out X-Java-Version. Check if required.
     // connection.addRequestProperty("X-Java-Version", userAgent.getJavaVersion());
@@ -328,13 +409,15 @@ public final class RequestEngine {
     //
     // connection.addRequestProperty("X-Session-ID",
     // userAgent.getSessionID(connection.getURL()));
-    final String referrer = request.getReferrer();
+    final String referrer = getReferrer(request, rhandler);
     if (referrer != null) {
-      if (rhandler.getContext().isRequestPermitted(new Request(request.getRequestURL(), RequestKind.Referrer))) {
-        connection.addRequestProperty("Referer", referrer);
-      }
+      connection.addRequestProperty("Referer", referrer);
     }
     if (cacheInfo != null) {
+      final String etag = cacheInfo.getETag();
+      if (etag != null) {
+        connection.addRequestProperty("If-None-Match", etag);
+      }
       final String date = cacheInfo.getDateAsText();
       if (date != null) {
         connection.addRequestProperty("If-Modified-Since", date);
@@ -357,6 +440,58 @@ public final class RequestEngine {
     }
   }
 
+  private static String getReferrer(final ClientletRequest request, final RequestHandler rhandler) {
+    final String referrer = request.getReferrer();
+    if ((referrer != null) && rhandler.getContext().isRequestPermitted(new Request(request.getRequestURL(), RequestKind.Referrer))) {
+      return referrer;
+    }
+    return null;
+  }
+
+  /**
+   * Gets the value of a request header that the request would send, without
+   * building a connection for it. Only the headers named by the
+   * <code>Vary</code> header of a cached response are asked for, so a
+   * permission is only checked if a cached response varies on its header.
+   *
+   * @param name The lower case name of the header.
+   */
+  private String getRequestHeader(final String name, final ClientletRequest request, final URL connectionUrl,
+      final RequestHandler rhandler) {
+    final Optional<Map<String, String>> requestedHeaders = rhandler.getRequestedHeaders();
+    if (requestedHeaders.isPresent()) {
+      for (final Map.Entry<String, String> entry : requestedHeaders.get().entrySet()) {
+        if (name.equalsIgnoreCase(entry.getKey())) {
+          return entry.getValue();
+        }
+      }
+    }
+    switch (name) {
+    case "user-agent":
+      return request.getUserAgent().toString();
+    case "accept-encoding":
+      return ACCEPT_ENCODING;
+    case "accept":
+      return ACCEPT;
+    case "accept-language":
+      return ACCEPT_LANGUAGE;
+    case "referer":
+      return getReferrer(request, rhandler);
+    case "cookie":
+      return this.getCookieHeader(connectionUrl, rhandler);
+    default:
+      final Header[] headers = request.getExtraHeaders();
+      if (headers != null) {
+        for (final Header header : headers) {
+          if (header.getName().startsWith("X-") && name.equalsIgnoreCase(header.getName())) {
+            return header.getValue();
+          }
+        }
+      }
+      return null;
+    }
+  }
+
   private static CacheInfo getCacheInfo(final RequestHandler rhandler, final URL url, final boolean isGet) throws Exception {
     final RequestType requestType = rhandler.getRequestType();
 
@@ -390,42 +525,66 @@ public final class RequestEngine {
     }
   }
 
-  private static void cache(final RequestHandler rhandler, final java.net.URL url, final URLConnection connection, final byte[] content,
+  /**
+   * @return Whether the document was stored in the cache.
+   */
+  private static boolean cache(final RequestHandler rhandler, final java.net.URL url, final URLConnection connection,
+      final URLConnection requestConnection, final ChunkedBuffer content,
       final java.io.Serializable altPersistentObject, final Object altObject, final int approxAltObjectSize) {
-    AccessController.doPrivileged(new PrivilegedAction<Object>() {
+    return AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
       // Reason: Caller might not have permission to access the
       // file system. Yet, caching should be allowed.
-      public Object run() {
+      public Boolean run() {
         try {
           final long currentTime = System.currentTimeMillis();
-          logInfo("cache(): url=" + url + ",content.length=" + content.length + ",currentTime=" + currentTime);
+          logInfo("cache(): url=" + url + ",content.length=" + content.size() + ",currentTime=" + currentTime);
           final Long expiration = Urls.getExpiration(connection, currentTime);
-          if ((expiration != null) && (expiration > 0)) {
-            storeCacheEntry(url, connection, content, altPersistentObject, altObject, approxAltObjectSize, currentTime, expiration);
+          final String[] varyNames = CacheInfo.getVaryHeaderNames(connection);
+          if (Arrays.asList(varyNames).contains("*")) {
+            logInfo("cache(): Not caching response that varies with anything: " + url);
+          } else if ((expiration != null) && (expiration > 0)) {
+            storeCacheEntry(url, connection, requestConnection, varyNames, content, altPersistentObject, altObject, approxAltObjectSize,
+                currentTime, expiration);
+            return true;
           }
         } catch (final Exception err) {
           logger.log(Level.WARNING, "cache()", err);
         }
-        return null;
+        return false;
       }
 
     });
   }
 
-  private static void storeCacheEntry(final java.net.URL url, final URLConnection connection, final byte[] content,
+  private static void storeCacheEntry(final java.net.URL url, final URLConnection connection, final URLConnection requestConnection,
+      final String[] varyNames, final ChunkedBuffer content,
       final java.io.Serializable altPersistentObject, final Object altObject, final int approxAltObjectSize, final long currentTime,
       final Long expiration) throws UnsupportedEncodingException, IOException {
+    final int contentLength = content.size();
     int actualApproxObjectSize = 0;
     if (altObject != null) {
-      if (approxAltObjectSize < content.length) {
-        actualApproxObjectSize = content.length;
+      if (approxAltObjectSize < contentLength) {
+        actualApproxObjectSize = contentLength;
       } else {
         actualApproxObjectSize = approxAltObjectSize;
       }
     }
+    // Record the request headers that selected this variant, so that lookups
+    // can tell whether a later request would get the same one.
+    final List<NameValuePair> variedHeaders = new ArrayList<>(varyNames.length);
+    for (final String name : varyNames) {
+      final String value = CacheInfo.getRequestHeader(requestConnection, name);
+      if (value != null) {
+        variedHeaders.add(new NameValuePair(CacheInfo.HEADER_VARIED_PREFIX + name, value));
+      }
+    }
     final List<NameValuePair> headers = Urls.getHeaders(connection);
-    final MemoryCacheEntry memEntry = new MemoryCacheEntry(content, headers, expiration, altObject, actualApproxObjectSize);
-    final int approxMemEntrySize = content.length + (altObject == null ? 0 : approxAltObjectSize);
+    // A revalidated entry carries the varied headers of its previous request.
+    headers.removeIf(h -> isVariedHeader(h.name));
+    headers.addAll(variedHeaders);
+    // The memory entry outlives the response buffer, so it needs its own copy.
+    final MemoryCacheEntry memEntry = new MemoryCacheEntry(content.toByteArray(), headers, expiration, altObject, actualApproxObjectSize);
+    final int approxMemEntrySize = contentLength + (altObject == null ? 0 : approxAltObjectSize);
     final CacheManager cm = CacheManager.getInstance();
     cm.putTransient(url, memEntry, approxMemEntrySize);
     try (
@@ -446,7 +605,7 @@ public final class RequestEngine {
         if (headerValue == null) {
           break;
         }
-        if (CacheInfo.HEADER_REQUEST_TIME.equalsIgnoreCase(headerKey)) {
+        if (CacheInfo.HEADER_REQUEST_TIME.equalsIgnoreCase(headerKey) || isVariedHeader(headerKey)) {
           continue;
         }
 
@@ -466,15 +625,22 @@ public final class RequestEngine {
         out.write(headerBytes);
       }
       if (!hadContentLength) {
-        final byte[] headerBytes = ("Content-Length: " + content.length + "\r\n").getBytes("ISO-8859-1");
+        final byte[] headerBytes = ("Content-Length: " + contentLength + "\r\n").getBytes("ISO-8859-1");
         out.write(headerBytes);
       }
+      for (final NameValuePair variedHeader : variedHeaders) {
+        out.write((variedHeader.name + ": " + variedHeader.value + "\r\n").getBytes("ISO-8859-1"));
+      }
       final byte[] rtHeaderBytes = (CacheInfo.HEADER_REQUEST_TIME + ": " + currentTime + "\r\n").getBytes("ISO-8859-1");
       out.write(rtHeaderBytes);
       out.write(IORoutines.LINE_BREAK_BYTES);
-      out.write(content);
+      // The body chunks are written straight from the response buffer.
+      final ByteBuffer[] bodyBuffers = content.toByteBuffers();
+      final ByteBuffer[] buffers = new ByteBuffer[bodyBuffers.length + 1];
+      buffers[0] = ByteBuffer.wrap(out.toByteArray());
+      System.arraycopy(bodyBuffers, 0, buffers, 1, bodyBuffers.length);
       try {
-        CacheManager.putPersistent(url, out.toByteArray(), false);
+        CacheManager.putPersistent(url, buffers, false);
       } catch (final IOException err) {
         logger.log(Level.WARNING, "cache(): Unable to cache response content.", err);
       }
@@ -498,6 +664,10 @@ public final class RequestEngine {
     }
   }
 
+  private static boolean isVariedHeader(final String headerKey) {
+    return (headerKey != null) && headerKey.regionMatches(true, 0, CacheInfo.HEADER_VARIED_PREFIX, 0, CacheInfo.HEADER_VARIED_PREFIX.length());
+  }
+
   private static boolean mayBeCached(final HttpURLConnection connection) {
     final String cacheControl = connection.getHeaderField("Cache-Control");
     if (cacheControl != null) {
@@ -524,7 +694,7 @@ public final class RequestEngine {
 
   public void inlineRequest(final RequestHandler rhandler) {
     // Security checked by low-level APIs in this case.
-    this.processHandler(rhandler, 0, false);
+    this.processHandler(rhandler, 0, false, null, null);
   }
 
   public byte[] loadBytes(final String urlOrPath, final UserAgentContext uaContext) throws Exception {
@@ -601,7 +771,7 @@ public final class RequestEngine {
 
   private URLConnection getURLConnection(final URL connectionUrl, final ClientletRequest request, final String protocol,
       final String method,
-      final RequestHandler rhandler, final CacheInfo cacheInfo) throws IOException {
+      final RequestHandler rhandler, final CacheInfo cacheInfo, final InFlightFetch inFlight) throws IOException {
     URLConnection connection;
     if (cacheInfo != null) {
       final RequestType requestType = rhandler.getRequestType();
@@ -635,6 +805,11 @@ public final class RequestEngine {
               }
             }
             return cacheInfo.getURLConnection();
+          } else if (!(rhandler instanceof RevalidationRequestHandler)
+              && (cacheInfo.getStaleDeadline(expires, "stale-while-revalidate") > System.currentTimeMillis())) {
+            logInfo("getURLConnection(): STALE-WHILE-REVALIDATE: " + connectionUrl + ". Expired on " + new Date(expires) + ".");
+            this.scheduleRevalidation(connectionUrl, rhandler, inFlight);
+            return cacheInfo.getURLConnection();
           } else {
             if (loggerInfo) {
               logger.info("getURLConnection(): EXPIRED: " + connectionUrl + ". Expired on " + new Date(expires) + ".");
@@ -701,6 +876,114 @@ public final class RequestEngine {
     return connection;
   }
 
+  /**
+   * Whether identical requests that run at the same time may share a single
+   * fetch. Only plain GETs that could be answered from the cache qualify.
+   */
+  private static boolean mayCoalesce(final RequestHandler rhandler, final String protocol, final boolean isGet) {
+    if (!isGet || !("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol))) {
+      return false;
+    }
+    final RequestType requestType = rhandler.getRequestType();
+    return isOKToRetrieveFromCache(requestType) && (requestType != RequestType.ADDRESS_BAR)
+        && !rhandler.getRequestedHeaders().isPresent();
+  }
+
+  /**
+   * If an identical request is already being fetched, arranges for this
+   * request to be served from the cache entry it leaves behind. Otherwise this
+   * request becomes the one that others wait for.
+   * <p>
+   * A scheduled request passes a <code>resume</code> action, which is run once
+   * the fetch is over, so that it does not hold a worker while it waits. An
+   * inline request passes <code>null</code> and waits in its own thread,
+   * bounded by {@link #MAX_COALESCING_WAIT_MILLIS}.
+   *
+   * @return The fetch that the caller must release, {@link #FOLLOWING} if the
+   *         request will be resumed later, or <code>null</code> if the caller
+   *         should go ahead without leading a fetch.
+   */
+  private InFlightFetch joinInFlightFetch(final URL connectionUrl, final Runnable resume) {
+    final String key = connectionUrl.toExternalForm();
+    final InFlightFetch newFetch = new InFlightFetch(key);
+    final InFlightFetch existing = this.inFlightFetches.putIfAbsent(key, newFetch);
+    if (existing == null) {
+      return newFetch;
+    }
+    if (existing.leaderThread == Thread.currentThread()) {
+      // A nested request for the same URL would otherwise wait for itself.
+      return null;
+    }
+    if (resume != null) {
+      logInfo("joinInFlightFetch(): FOLLOWING: " + key);
+      existing.done.thenRun(resume);
+      return FOLLOWING;
+    }
+    logInfo("joinInFlightFetch(): WAITING: " + key);
+    try {
+      existing.done.get(MAX_COALESCING_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (final TimeoutException te) {
+      logInfo("joinInFlightFetch(): Gave up waiting for " + key);
+    } catch (final InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } catch (final ExecutionException ee) {
+      // Not expected; the future is only ever completed normally.
+    }
+    return null;
+  }
+
+  private void releaseInFlightFetch(final InFlightFetch fetch) {
+    if (fetch != null) {
+      this.inFlightFetches.remove(fetch.key, fetch);
+      fetch.done.complete(null);
+    }
+  }
+
+  /**
+   * Schedules a conditional request in the background that refreshes the
+   * cache entry of a document that was served stale, unless some other
+   * request is already fetching it. The fetch led by the request that was
+   * served stale does not count.
+   */
+  private void scheduleRevalidation(final URL connectionUrl, final RequestHandler rhandler, final InFlightFetch ownFetch) {
+    final String key = connectionUrl.toExternalForm();
+    final InFlightFetch current = this.inFlightFetches.get(key);
+    if (((current == null) || (current == ownFetch)) && this.revalidatingUrls.add(key)) {
+      this.scheduleRequest(new RevalidationRequestHandler(connectionUrl, rhandler));
+    }
+  }
+
+  /**
+   * Whether the cached document may be used when the server can not be reached
+   * or responds with a server error, as allowed by
+   * <code>stale-if-error</code>.
+   */
+  private static boolean isUsableOnError(final CacheInfo cacheInfo) {
+    return (cacheInfo != null) && (cacheInfo.getStaleDeadline(cacheInfo.getExpires(), "stale-if-error") > System.currentTimeMillis());
+  }
+
+  /**
+   * Drops the cache entry if it holds a different variant of the document
+   * than this request would get, as selected by the request headers named in
+   * the <code>Vary</code> header of the cached response.
+   */
+  private CacheInfo matchVariant(final CacheInfo cacheInfo, final URL connectionUrl, final ClientletRequest request,
+      final RequestHandler rhandler) {
+    if (cacheInfo == null) {
+      return null;
+    }
+    final String[] varyNames = cacheInfo.getVaryHeaderNames();
+    if (varyNames.length == 0) {
+      return cacheInfo;
+    }
+    if (cacheInfo.matchesVariant(varyNames, name -> this.getRequestHeader(name, request, connectionUrl, rhandler))) {
+      return cacheInfo;
+    }
+    logInfo("matchVariant(): OTHER-VARIANT: " + connectionUrl);
+    cacheInfo.dispose();
+    return null;
+  }
+
   private static boolean isOKToRetrieveFromCache(final RequestType requestType) {
     return (requestType != RequestType.SOFT_RELOAD) && (requestType !=
         RequestType.HARD_RELOAD) && (requestType != RequestType.DOWNLOAD);
@@ -736,12 +1019,20 @@ public final class RequestEngine {
     }
   }
 
-  private void processHandler(final RequestHandler rhandler, final int recursionLevel, final boolean trackRequestInfo) {
+  /**
+   * @param resume
+   *          Runs the request again later, if it has to wait for an identical
+   *          request. If <code>null</code>, the request waits in this thread.
+   */
+  private void processHandler(final RequestHandler rhandler, final int recursionLevel, final boolean trackRequestInfo,
+      final RequestTiming queuedTiming, final Runnable resume) {
     // Method must be private.
     final URL baseURL = rhandler.getLatestRequestURL();
     RequestInfo rinfo = null;
     ClientletResponseImpl response = null;
+    boolean following = false;
     final String method = rhandler.getLatestRequestMethod().toUpperCase();
+    final RequestTiming timing = queuedTiming != null ? queuedTiming : new RequestTiming(baseURL, method, rhandler.getRequestKind());
     try {
       final ClientletRequest request = rhandler.getRequest();
       // TODO: Hack: instanceof below
@@ -750,9 +1041,38 @@ public final class RequestEngine {
       final URL url = makeCompleteURL(baseURL, pinfo, isGet);
       final String protocol = url.getProtocol();
       final URL connectionUrl = makeConnectionURL(url, protocol);
-      final CacheInfo cacheInfo = getCacheInfo(rhandler, connectionUrl, isGet);
+      final boolean mayCoalesce = mayCoalesce(rhandler, protocol, isGet);
+      final InFlightFetch inFlight = mayCoalesce ? this.joinInFlightFetch(connectionUrl, resume) : null;
+      if (inFlight == FOLLOWING) {
+        following = true;
+        return;
+      }
+      final boolean isSpeculative = rhandler.isSpeculative();
+      timing.mark(Phase.CACHE_LOOKUP_START);
+      final CacheInfo speculativeInfo = mayCoalesce && !isSpeculative ? this.takeSpeculativeResponse(connectionUrl) : null;
+      final CacheInfo cacheInfo = speculativeInfo != null ? speculativeInfo : this.matchVariant(getCacheInfo(rhandler, connectionUrl, isGet),
+          connectionUrl, request, rhandler);
+      timing.mark(Phase.CACHE_LOOKUP_END);
+      final RequestTiming previousTiming = TimingEventListener.attach(timing);
       try {
-        URLConnection connection = this.getURLConnection(connectionUrl, request, protocol, method, rhandler, cacheInfo);
+        URLConnection connection;
+        try {
+          if (speculativeInfo != null) {
+            logInfo("run(): FROM-SPECULATIVE: " + connectionUrl);
+            connection = speculativeInfo.getURLConnection();
+          } else {
+            connection = this.getURLConnection(connectionUrl, request, protocol, method, rhandler, cacheInfo, inFlight);
+          }
+        } finally {
+          // Only a request that has written a body has created its OkHttp
+          // call by now. Others create it when the response is asked for.
+          TimingEventListener.detach(previousTiming);
+        }
+        final URLConnection requestConnection = connection;
+        if ((inFlight != null) && (cacheInfo != null) && cacheInfo.isCacheConnection(connection)) {
+          // Served from cache. Requests waiting for this one can be too.
+          this.releaseInFlightFetch(inFlight);
+        }
 
         // This causes exceptions sometimes (when the connection is already open)
         // dumpRequestInfo(connection);
@@ -773,16 +1093,41 @@ public final class RequestEngine {
           boolean isContentCached = (cacheInfo != null) && cacheInfo.isCacheConnection(connection);
 
           boolean isCacheable = false;
+          boolean isFetched = false;
           if ((connection instanceof HttpURLConnection) && !isContentCached) {
             final HttpURLConnection hconnection = (HttpURLConnection) connection;
             hconnection.setInstanceFollowRedirects(false);
-            final int responseCode = hconnection.getResponseCode();
+            int responseCode;
+            boolean failed = false;
+            TimingEventListener.attach(timing);
+            try {
+              responseCode = hconnection.getResponseCode();
+            } catch (final IOException ioe) {
+              if (!isUsableOnError(cacheInfo)) {
+                throw ioe;
+              }
+              logInfo("run(): Connection failed for url=" + connectionUrl, ioe);
+              responseCode = -1;
+              failed = true;
+            } finally {
+              TimingEventListener.detach(previousTiming);
+            }
+            timing.setResponseCode(responseCode);
             logInfo("run(): ResponseCode=" + responseCode + " for url=" + connectionUrl);
             // dumpResponseInfo(connection);
-            handleCookies(connectionUrl, hconnection, rhandler);
+            if (!failed) {
+              handleCookies(connectionUrl, hconnection, rhandler);
+            }
 
-            if (responseCode == HttpURLConnection.HTTP_OK) {
+            if ((failed || (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR)) && isUsableOnError(cacheInfo)) {
+              logInfo("run(): STALE-IF-ERROR: " + connectionUrl);
+              hconnection.disconnect();
+              isContentCached = true;
+              connection = cacheInfo.getURLConnection();
+              rinfo.setConnection(connection);
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
               logInfo("run(): FROM-HTTP: " + connectionUrl);
+              isFetched = true;
               if (mayBeCached(hconnection)) {
                 isCacheable = true;
               } else {
@@ -790,6 +1135,10 @@ public final class RequestEngine {
                 if (cacheInfo != null) {
                   cacheInfo.delete();
                 }
+                if (!isSpeculative) {
+                  // Nothing will be left behind for identical requests.
+                  this.releaseInFlightFetch(inFlight);
+                }
               }
               // responseIn = connection.getInputStream();
               // rinfo.setConnection(connection, responseIn);
@@ -815,11 +1164,13 @@ public final class RequestEngine {
                 || (responseCode == HttpURLConnection.HTTP_SEE_OTHER)) {
               logInfo("run(): REDIRECTING: ResponseCode=" + responseCode + " for url=" + url);
               final RequestHandler newHandler = new RedirectRequestHandler(rhandler, hconnection);
+              this.releaseInFlightFetch(inFlight);
               Thread.yield();
               if (recursionLevel > MAX_REDIRECT_COUNT) {
                 throw new ClientletException("Exceeded redirect recursion limit.");
               }
-              this.processHandler(newHandler, recursionLevel + 1, trackRequestInfo);
+              this.processHandler(newHandler, recursionLevel + 1, trackRequestInfo, null,
+                  resume == null ? null : () -> this.scheduleRequest(newHandler));
               return;
             }
           } else {
@@ -845,16 +1196,29 @@ public final class RequestEngine {
           final ClientletResponseImpl resp = response;
           final URLConnection con = connection;
           final boolean isCache = isCacheable;
+          final boolean mayHold = isSpeculative && isFetched;
+          timing.setFromCache(isContentCached);
+          timing.mark(Phase.HANDED_TO_CLIENTLET);
           rhandler.processResponse(response, (valid) -> {
+            boolean cached = false;
             if(valid)
               try {
-                updateCache(rhandler, resp, connectionUrl, cacheInfo , con, isCache);
+                cached = updateCache(rhandler, resp, connectionUrl, cacheInfo , con, requestConnection, isCache);
               } catch (IOException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
               }
+            if (valid && mayHold && !cached) {
+              this.holdSpeculativeResponse(connectionUrl, resp, con);
+            }
+            // Identical requests waiting for this one can now be served from cache.
+            this.releaseInFlightFetch(inFlight);
           });
         } finally {
+          if (response != null) {
+            // The recorded content has been cached by now.
+            response.release();
+          }
           if (trackRequestInfo) {
             synchronized (this.processingRequests) {
               this.processingRequests.remove(rinfo);
@@ -880,6 +1244,7 @@ public final class RequestEngine {
           // This is necessary so that the file stream doesn't stay open potentially.
           cacheInfo.dispose();
         }
+        this.releaseInFlightFetch(inFlight);
       }
     } catch (final CancelClientletException cce) {
       logInfo("run(): Clientlet cancelled: " + baseURL, cce);
@@ -898,7 +1263,10 @@ public final class RequestEngine {
         }
       }
     } finally {
-      rhandler.handleProgress(ProgressType.DONE, baseURL, method, 0, 0);
+      if (!following) {
+        rhandler.handleProgress(ProgressType.DONE, baseURL, method, 0, 0);
+        this.requestFinished(timing);
+      }
     }
   }
 
@@ -913,35 +1281,22 @@ public final class RequestEngine {
   }
 
   private void addCookiesToRequest(final URLConnection connection, final RequestHandler rhandler) {
-    try {
-      final String protocol = connection.getURL().getProtocol();
-      if ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
-        final URL url = connection.getURL();
-        final URI uri = url.toURI();
-        // TODO: optimization #1: list is not required if we directly call our CookieHandler implementation
-        // TODO: optimization #2: even if we use the CookieHandler interface, we can avoid the joining of List entries, since our impl always returns a single element list
-        final Map<String, List<String>> cookieHeaders = cookieHandler.get(uri, null);
-        if (!cookieHeaders.isEmpty()) {
-          if (rhandler.getContext().isRequestPermitted(new Request(url, RequestKind.Cookie))) {
-            addCookieHeaderToRequest(connection, cookieHeaders, "Cookie");
-          }
-        }
-      }
-    } catch (IOException | URISyntaxException e) {
-      logger.warning("Couldn't add cookies for : " + connection.getURL());
-      logger.warning("  .. reason: " + e.getMessage());
-      // TODO: These exceptions should be either not captured, or failure should be
-      // propagated to caller by return value.
+    final String cookieHeader = this.getCookieHeader(connection.getURL(), rhandler);
+    if (cookieHeader != null) {
+      connection.addRequestProperty("Cookie", cookieHeader);
     }
   }
 
-  private static void addCookieHeaderToRequest(final URLConnection connection, final Map<String, List<String>> cookieHeaders,
-      final String cookieKey) {
-    final List<String> cookieValue = cookieHeaders.get(cookieKey);
-    if (cookieValue != null) {
-      final String cookieValueStr = cookieValue.stream().collect(Collectors.joining(";"));
-      connection.addRequestProperty(cookieKey, cookieValueStr);
+  private String getCookieHeader(final URL url, final RequestHandler rhandler) {
+    final String protocol = url.getProtocol();
+    if ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
+      // The store caches the header per host, so this does not allocate when cookies haven't changed.
+      final String cookieHeader = this.cookieStore.getCookieHeader(protocol, url.getHost(), url.getPath());
+      if ((cookieHeader != null) && rhandler.getContext().isRequestPermitted(new Request(url, RequestKind.Cookie))) {
+        return cookieHeader;
+      }
     }
+    return null;
   }
 
   private void handleCookies(final URL url, final HttpURLConnection hconnection, final RequestHandler rhandler) throws URISyntaxException,
@@ -957,19 +1312,22 @@ public final class RequestEngine {
     }
   }
 
-  private static void updateCache(final RequestHandler rhandler, final ClientletResponseImpl response, final URL connectionUrl,
+  /**
+   * @return Whether the response was stored in the cache.
+   */
+  private static boolean updateCache(final RequestHandler rhandler, final ClientletResponseImpl response, final URL connectionUrl,
       final CacheInfo cacheInfo,
-      final URLConnection connection, final boolean isCacheable) throws IOException {
+      final URLConnection connection, final URLConnection requestConnection, final boolean isCacheable) throws IOException {
     if (isCacheable) {
       // Make sure stream reaches EOF so we don't get null stored content.
       response.ensureReachedEOF();
 
-      final byte[] content = response.getStoredContent();
+      final ChunkedBuffer content = response.getStoredContent();
       if (content != null) {
         final Serializable persObject = response.getNewPersistentCachedObject();
         final Object altObject = response.getNewTransientCachedObject();
         final int altObjectSize = response.getNewTransientObjectSize();
-        cache(rhandler, connectionUrl, connection, content, persObject, altObject, altObjectSize);
+        return cache(rhandler, connectionUrl, connection, requestConnection, content, persObject, altObject, altObjectSize);
       } else {
         logger.warning("processHandler(): Cacheable response not available: " + connectionUrl);
       }
@@ -987,6 +1345,38 @@ public final class RequestEngine {
         return null;
       });
     }
+    return false;
+  }
+
+  /**
+   * Keeps the response to a speculative request that was not cached, so that
+   * the identical request that is expected to follow can take it.
+   */
+  private void holdSpeculativeResponse(final URL connectionUrl, final ClientletResponseImpl response, final URLConnection connection) {
+    try {
+      response.ensureReachedEOF();
+    } catch (final IOException ioe) {
+      logInfo("holdSpeculativeResponse(): Unable to read " + connectionUrl, ioe);
+      return;
+    }
+    final ChunkedBuffer content = response.getStoredContent();
+    if (content != null) {
+      // The response buffer is released once the request is over.
+      final MemoryCacheEntry entry = new MemoryCacheEntry(content.toByteArray(), Urls.getHeaders(connection), null, null, 0);
+      this.speculativeResponses.put(connectionUrl.toExternalForm(), entry, content.size());
+    }
+  }
+
+  /**
+   * Takes the held response to a speculative request for the given URL, if
+   * there is one that is recent enough. Each response is only used once.
+   */
+  private CacheInfo takeSpeculativeResponse(final URL connectionUrl) {
+    final MemoryCacheEntry entry = (MemoryCacheEntry) this.speculativeResponses.remove(connectionUrl.toExternalForm());
+    if ((entry == null) || ((System.currentTimeMillis() - entry.requestTime) > MAX_SPECULATIVE_RESPONSE_AGE_MILLIS)) {
+      return null;
+    }
+    return new CacheInfo(entry, null, connectionUrl);
   }
 
   private static URL makeConnectionURL(final URL url, final String protocol) throws MalformedURLException {
@@ -1054,26 +1444,83 @@ public final class RequestEngine {
     }
   }
 
+  // Returned by joinInFlightFetch() when the request will be resumed later.
+  private static final InFlightFetch FOLLOWING = new InFlightFetch("");
+
+  private static final class InFlightFetch {
+    private final String key;
+    private final Thread leaderThread = Thread.currentThread();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    InFlightFetch(final String key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * Refreshes the cache entry of a document that was served stale while
+   * <code>stale-while-revalidate</code> allowed it. The response itself is
+   * only stored in the cache.
+   */
+  private final class RevalidationRequestHandler extends SimpleRequestHandler {
+    private final RequestHandler origHandler;
+
+    RevalidationRequestHandler(final @NonNull URL url, final RequestHandler origHandler) {
+      super(url, RequestType.ELEMENT, origHandler.getContext());
+      this.origHandler = origHandler;
+    }
+
+    @Override
+    public HostnameVerifier getHostnameVerifier() {
+      return this.origHandler.getHostnameVerifier();
+    }
+
+    @Override
+    public Optional<RequestKind> getRequestKind() {
+      return this.origHandler.getRequestKind();
+    }
+
+    @Override
+    public void handleProgress(final ProgressType progressType, final @NonNull URL url, final String method, final int value,
+        final int max) {
+      if (progressType == ProgressType.DONE) {
+        revalidatingUrls.remove(this.getLatestRequestURL().toExternalForm());
+      }
+    }
+
+    @Override
+    public boolean handleException(final ClientletResponse response, final Throwable exception, final RequestType requestType)
+        throws ClientletException {
+      logInfo("handleException(): Revalidation failed: " + this.getLatestRequestURL(), exception);
+      return true;
+    }
+
+    public void processResponse(final ClientletResponse response, final Consumer<Boolean> consumer) throws ClientletException,
+        IOException {
+      consumer.accept(true);
+    }
+  }
+
   private class RequestHandlerTask implements SimpleThreadPoolTask {
     private final RequestHandler handler;
 
     private final AccessControlContext accessContext;
 
+    private final RequestTiming timing;
+
     private RequestHandlerTask(final RequestHandler handler, final AccessControlContext accessContext) {
       this.handler = handler;
       this.accessContext = accessContext;
-    }
-
-    private RequestHandlerTask(final RequestHandler handler) {
-      this.handler = handler;
-      this.accessContext = null;
+      this.timing = new RequestTiming(handler.getLatestRequestURL(), handler.getLatestRequestMethod().toUpperCase(),
+          handler.getRequestKind());
     }
 
     public void run() {
+      this.timing.mark(Phase.DEQUEUED);
       final SecurityManager sm = System.getSecurityManager();
       if ((sm != null) && (this.accessContext != null)) {
         final PrivilegedAction<Object> action = () -> {
-          processHandler(handler, 0, true);
+          processHandler(handler, 0, true, timing, this::resume);
           return null;
         };
         // This way we ensure scheduled requests have the same
@@ -1081,10 +1528,15 @@ public final class RequestEngine {
         // to file and host name checks.
         AccessController.doPrivileged(action, this.accessContext);
       } else {
-        processHandler(this.handler, 0, true);
+        processHandler(this.handler, 0, true, this.timing, this::resume);
       }
     }
 
+    // Queues the request again, once the identical request it joined is over.
+    private void resume() {
+      scheduler.schedule(this, this.handler, RequestPriority.forHandler(this.handler));
+    }
+
     public void cancel() {
       cancelRequestIfRunning(this.handler);
     }
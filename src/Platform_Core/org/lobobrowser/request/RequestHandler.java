@@ -35,6 +35,7 @@ import org.lobobrowser.clientlet.ClientletResponse;
 import org.lobobrowser.ua.ProgressType;
 import org.lobobrowser.ua.RequestType;
 import org.lobobrowser.ua.UserAgentContext;
+import org.lobobrowser.ua.UserAgentContext.RequestKind;
 
 public interface RequestHandler {
   public ClientletRequest getRequest();
@@ -76,4 +77,21 @@ public interface RequestHandler {
   default public Optional<Map<String, String>> getRequestedHeaders() {
     return Optional.empty();
   }
+
+  /**
+   * Gets the kind of resource being requested, if known. It is used to
+   * prioritize scheduled requests.
+   */
+  default public Optional<RequestKind> getRequestKind() {
+    return Optional.empty();
+  }
+
+  /**
+   * Whether the request is a guess at a resource that a document is going to
+   * ask for. The response is held for an identical request, even if it can't
+   * be cached.
+   */
+  default public boolean isSpeculative() {
+    return false;
+  }
 }
@@ -0,0 +1,72 @@
+package org.lobobrowser.request;
+
+import java.util.Optional;
+
+import org.lobobrowser.ua.RequestType;
+import org.lobobrowser.ua.UserAgentContext.RequestKind;
+
+/**
+ * Scheduling priority of a request waiting in the {@link RequestScheduler}.
+ * Lower ordinals are dispatched first.
+ */
+public enum RequestPriority {
+  /** Top level documents and frames. */
+  DOCUMENT,
+
+  /** Style sheets, which block layout. */
+  STYLESHEET,
+
+  /** Scripts, which block parsing. */
+  SCRIPT,
+
+  /** XHR and any other element request. */
+  XHR,
+
+  /** Images that are in view, ahead of the others. */
+  VISIBLE_IMAGE,
+
+  /** Images, which block neither parsing nor layout. */
+  IMAGE;
+
+  private static final RequestPriority[] VALUES = RequestPriority.values();
+
+  public static RequestPriority forOrdinal(final int o) {
+    return VALUES[o];
+  }
+
+  public static int numPriorities() {
+    return VALUES.length;
+  }
+
+  public static RequestPriority forKind(final RequestKind kind) {
+    switch (kind) {
+    case Frame:
+      return DOCUMENT;
+    case CSS:
+      return STYLESHEET;
+    case JavaScript:
+      return SCRIPT;
+    case Image:
+      return IMAGE;
+    default:
+      return XHR;
+    }
+  }
+
+  /**
+   * Gets the priority of a request whose resource has come into view, which
+   * moves images ahead of the images that are not in view.
+   */
+  public static RequestPriority forVisible(final RequestPriority priority) {
+    return priority == IMAGE ? VISIBLE_IMAGE : priority;
+  }
+
+  public static RequestPriority forHandler(final RequestHandler handler) {
+    final Optional<RequestKind> kindOpt = handler.getRequestKind();
+    if (kindOpt.isPresent()) {
+      return forKind(kindOpt.get());
+    } else {
+      return handler.getRequestType() == RequestType.ELEMENT ? XHR : DOCUMENT;
+    }
+  }
+}
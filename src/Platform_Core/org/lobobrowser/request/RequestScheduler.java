@@ -0,0 +1,356 @@
+package org.lobobrowser.request;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.lobobrowser.ua.UserAgentContext;
+import org.lobobrowser.util.SimpleThreadPoolTask;
+
+/**
+ * A thread pool for network requests.
+ * <p>
+ * Waiting requests are dispatched in order of their {@link RequestPriority}.
+ * Within a priority, the frames and windows (identified by their
+ * {@link UserAgentContext}) that have requests waiting are served round-robin,
+ * so that one busy frame can not starve the others. The number of requests
+ * running against a single host is capped, so that one slow host can not hold
+ * on to every thread of the pool.
+ */
+public final class RequestScheduler {
+  private static final Logger logger = Logger.getLogger(RequestScheduler.class.getName());
+  private static final Object NO_OWNER = new Object();
+
+  private final String name;
+  private final int minThreads;
+  private final int maxThreads;
+  private final int maxPerHost;
+  private final int idleAliveMillis;
+  private final Object monitor = new Object();
+  private final Lane[] lanes = new Lane[RequestPriority.numPriorities()];
+  private final Map<RequestHandler, ScheduledRequest> waiting = new HashMap<>();
+  private final Set<ScheduledRequest> running = new HashSet<>();
+  private final Map<String, Integer> runningPerHost = new HashMap<>();
+
+  private int numThreads = 0;
+  private int numIdleThreads = 0;
+  private int threadNumber = 0;
+
+  RequestScheduler(final String name, final int minShrinkToThreads, final int maxThreads, final int maxPerHost,
+      final int idleAliveMillis) {
+    this.name = name;
+    this.minThreads = minShrinkToThreads;
+    this.maxThreads = maxThreads;
+    this.maxPerHost = maxPerHost;
+    this.idleAliveMillis = idleAliveMillis;
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new Lane();
+    }
+  }
+
+  void schedule(final SimpleThreadPoolTask task, final RequestHandler handler, final RequestPriority priority) {
+    if (task == null) {
+      throw new IllegalArgumentException("null task");
+    }
+    final ScheduledRequest sr = new ScheduledRequest(task, handler, priority);
+    synchronized (this.monitor) {
+      this.lanes[priority.ordinal()].add(sr);
+      this.waiting.put(handler, sr);
+      if (this.numIdleThreads == 0) {
+        this.addThreadImpl();
+      }
+      // Idle threads may be waiting only because their hosts are busy.
+      this.monitor.notifyAll();
+    }
+  }
+
+  /**
+   * Moves a waiting request to a different priority.
+   *
+   * @return <code>false</code> if the request is no longer waiting.
+   */
+  boolean reprioritize(final RequestHandler handler, final RequestPriority priority) {
+    synchronized (this.monitor) {
+      final ScheduledRequest sr = this.waiting.get(handler);
+      if (sr == null) {
+        return false;
+      }
+      if (sr.priority != priority) {
+        this.lanes[sr.priority.ordinal()].remove(sr);
+        sr.priority = priority;
+        this.lanes[priority.ordinal()].add(sr);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Removes a waiting request. Requests that are already running are not
+   * affected.
+   *
+   * @return <code>false</code> if the request was not waiting.
+   */
+  boolean cancel(final RequestHandler handler) {
+    synchronized (this.monitor) {
+      final ScheduledRequest sr = this.waiting.remove(handler);
+      if (sr == null) {
+        return false;
+      }
+      this.lanes[sr.priority.ordinal()].remove(sr);
+      return true;
+    }
+  }
+
+  /**
+   * Cancels all waiting requests and any currently running request. Waiting
+   * requests are cancelled as well as dropped, so that their handlers learn
+   * that they will not run.
+   */
+  void cancelAll() {
+    final List<ScheduledRequest> toCancel;
+    synchronized (this.monitor) {
+      for (final Lane lane : this.lanes) {
+        lane.clear();
+      }
+      toCancel = new ArrayList<>(this.running);
+      toCancel.addAll(this.waiting.values());
+      this.waiting.clear();
+    }
+    for (final ScheduledRequest sr : toCancel) {
+      sr.task.cancel();
+    }
+  }
+
+  List<QueueStats> getQueueStats() {
+    final List<QueueStats> stats = new ArrayList<>(this.lanes.length);
+    synchronized (this.monitor) {
+      for (int i = 0; i < this.lanes.length; i++) {
+        final Lane lane = this.lanes[i];
+        stats.add(new QueueStats(RequestPriority.forOrdinal(i), lane.size, lane.dispatched, lane.totalWaitMillis, lane.maxWaitMillis));
+      }
+    }
+    return stats;
+  }
+
+  private void addThreadImpl() {
+    if (this.numThreads < this.maxThreads) {
+      final Thread t = new Thread(new Worker(), this.name + this.threadNumber++);
+      t.setDaemon(true);
+      t.start();
+      this.numThreads++;
+    }
+  }
+
+  private boolean hasHostCapacity(final ScheduledRequest sr) {
+    if (sr.host.length() == 0) {
+      return true;
+    }
+    final Integer count = this.runningPerHost.get(sr.host);
+    return (count == null) || (count < this.maxPerHost);
+  }
+
+  // Must be called with the monitor held.
+  private ScheduledRequest dispatchNext() {
+    final long currentTime = System.currentTimeMillis();
+    for (final Lane lane : this.lanes) {
+      final ScheduledRequest sr = lane.poll(this);
+      if (sr != null) {
+        this.waiting.remove(sr.handler, sr);
+        this.running.add(sr);
+        this.runningPerHost.merge(sr.host, 1, Integer::sum);
+        lane.recordWait(currentTime - sr.queuedTime);
+        return sr;
+      }
+    }
+    return null;
+  }
+
+  // Must be called with the monitor held.
+  private void finished(final ScheduledRequest sr) {
+    this.running.remove(sr);
+    this.runningPerHost.computeIfPresent(sr.host, (host, count) -> count <= 1 ? null : count - 1);
+    // A request for the same host may be waiting for this slot.
+    this.monitor.notifyAll();
+  }
+
+  /**
+   * A snapshot of the queue of one {@link RequestPriority}.
+   */
+  public static final class QueueStats {
+    public final RequestPriority priority;
+    /** Number of requests currently waiting. */
+    public final int queued;
+    /** Number of requests dispatched so far. */
+    public final long dispatched;
+    public final long totalWaitMillis;
+    public final long maxWaitMillis;
+
+    QueueStats(final RequestPriority priority, final int queued, final long dispatched, final long totalWaitMillis,
+        final long maxWaitMillis) {
+      this.priority = priority;
+      this.queued = queued;
+      this.dispatched = dispatched;
+      this.totalWaitMillis = totalWaitMillis;
+      this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getAverageWaitMillis() {
+      return this.dispatched == 0 ? 0 : this.totalWaitMillis / this.dispatched;
+    }
+
+    @Override
+    public String toString() {
+      return "QueueStats[" + priority + ": queued=" + queued + ",dispatched=" + dispatched + ",avgWait=" + getAverageWaitMillis()
+          + "ms,maxWait=" + maxWaitMillis + "ms]";
+    }
+  }
+
+  private static final class ScheduledRequest {
+    private final SimpleThreadPoolTask task;
+    private final RequestHandler handler;
+    private final Object owner;
+    private final String host;
+    private final long queuedTime = System.currentTimeMillis();
+    private RequestPriority priority;
+
+    ScheduledRequest(final SimpleThreadPoolTask task, final RequestHandler handler, final RequestPriority priority) {
+      this.task = task;
+      this.handler = handler;
+      final UserAgentContext context = handler.getContext();
+      this.owner = context == null ? NO_OWNER : context;
+      final String hostName = handler.getLatestRequestURL().getHost();
+      this.host = hostName == null ? "" : hostName.toLowerCase();
+      this.priority = priority;
+    }
+  }
+
+  /**
+   * Requests of one priority, queued per owner. Owners are kept in the order
+   * they were last served in.
+   */
+  private static final class Lane {
+    private final LinkedHashMap<Object, ArrayDeque<ScheduledRequest>> queuesByOwner = new LinkedHashMap<>();
+    private int size = 0;
+    private long dispatched = 0;
+    private long totalWaitMillis = 0;
+    private long maxWaitMillis = 0;
+
+    void add(final ScheduledRequest sr) {
+      this.queuesByOwner.computeIfAbsent(sr.owner, k -> new ArrayDeque<>()).add(sr);
+      this.size++;
+    }
+
+    void remove(final ScheduledRequest sr) {
+      final ArrayDeque<ScheduledRequest> queue = this.queuesByOwner.get(sr.owner);
+      if ((queue != null) && queue.remove(sr)) {
+        this.size--;
+        if (queue.isEmpty()) {
+          this.queuesByOwner.remove(sr.owner);
+        }
+      }
+    }
+
+    void clear() {
+      this.queuesByOwner.clear();
+      this.size = 0;
+    }
+
+    /**
+     * Takes the first request, of the least recently served owner, whose host
+     * has capacity left.
+     */
+    ScheduledRequest poll(final RequestScheduler scheduler) {
+      final Iterator<Map.Entry<Object, ArrayDeque<ScheduledRequest>>> i = this.queuesByOwner.entrySet().iterator();
+      while (i.hasNext()) {
+        final Map.Entry<Object, ArrayDeque<ScheduledRequest>> entry = i.next();
+        final ArrayDeque<ScheduledRequest> queue = entry.getValue();
+        final Iterator<ScheduledRequest> qi = queue.iterator();
+        while (qi.hasNext()) {
+          final ScheduledRequest sr = qi.next();
+          if (scheduler.hasHostCapacity(sr)) {
+            qi.remove();
+            this.size--;
+            // Move the owner to the back of the line.
+            i.remove();
+            if (!queue.isEmpty()) {
+              this.queuesByOwner.put(entry.getKey(), queue);
+            }
+            return sr;
+          }
+        }
+      }
+      return null;
+    }
+
+    void recordWait(final long waitMillis) {
+      this.dispatched++;
+      this.totalWaitMillis += waitMillis;
+      if (waitMillis > this.maxWaitMillis) {
+        this.maxWaitMillis = waitMillis;
+      }
+    }
+  }
+
+  private class Worker implements Runnable {
+    public void run() {
+      final Object monitor = RequestScheduler.this.monitor;
+      ScheduledRequest sr = null;
+      for (;;) {
+        try {
+          synchronized (monitor) {
+            if (sr != null) {
+              finished(sr);
+              sr = null;
+            }
+            numIdleThreads++;
+            try {
+              long waitBase = System.currentTimeMillis();
+              while ((sr = dispatchNext()) == null) {
+                final long maxWait = idleAliveMillis - (System.currentTimeMillis() - waitBase);
+                if (maxWait <= 0) {
+                  if (numThreads > minThreads) {
+                    // Should be only way to exit thread.
+                    numThreads--;
+                    return;
+                  } else {
+                    waitBase = System.currentTimeMillis();
+                    continue;
+                  }
+                }
+                monitor.wait(maxWait);
+              }
+            } finally {
+              numIdleThreads--;
+            }
+          }
+          final Thread currentThread = Thread.currentThread();
+          final String baseName = currentThread.getName();
+          try {
+            try {
+              currentThread.setName(baseName + ":" + sr.task.toString());
+            } catch (final Exception thrown) {
+              logger.log(Level.WARNING, "run(): Unable to set task name.", thrown);
+            }
+            try {
+              sr.task.run();
+            } catch (final Exception thrown) {
+              logger.log(Level.SEVERE, "run(): Error in task: " + sr.task + ".", thrown);
+            }
+          } finally {
+            currentThread.setName(baseName);
+          }
+        } catch (final Exception thrown) {
+          logger.log(Level.SEVERE, "run(): Error in request scheduler: " + RequestScheduler.this.name + ".", thrown);
+        }
+      }
+    }
+  }
+}
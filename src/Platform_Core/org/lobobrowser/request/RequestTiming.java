@@ -0,0 +1,149 @@
+package org.lobobrowser.request;
+
+import java.net.URL;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.lobobrowser.ua.UserAgentContext.RequestKind;
+
+/**
+ * Timestamps of the steps a request goes through in the {@link RequestEngine}.
+ * Network steps are recorded for HTTP requests made through OkHttp. Steps that
+ * did not happen, such as connecting when a pooled connection was reused, are
+ * not recorded.
+ */
+public final class RequestTiming {
+  public enum Phase {
+    /** Handed to the engine. */
+    QUEUED,
+
+    /** Taken off the queue by a request thread. */
+    DEQUEUED,
+
+    CACHE_LOOKUP_START,
+
+    CACHE_LOOKUP_END,
+
+    DNS_START,
+
+    DNS_END,
+
+    CONNECT_START,
+
+    TLS_START,
+
+    TLS_END,
+
+    CONNECT_END,
+
+    /** The request headers, and the body if any, have been written. */
+    REQUEST_SENT,
+
+    /** The response headers started arriving. */
+    FIRST_BYTE,
+
+    /** The response body has been read to its end. */
+    LAST_BYTE,
+
+    /** The response was given to the request handler. */
+    HANDED_TO_CLIENTLET,
+
+    /** The request handler is done with the response. */
+    DONE
+  }
+
+  private final URL url;
+  private final String method;
+  private final Optional<RequestKind> kind;
+  private final long startTime = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+  private volatile int responseCode = -1;
+  private volatile boolean fromCache = false;
+  private volatile boolean connectionReused = false;
+
+  RequestTiming(final URL url, final String method, final Optional<RequestKind> kind) {
+    this.url = url;
+    this.method = method;
+    this.kind = kind;
+    this.mark(Phase.QUEUED);
+  }
+
+  void mark(final Phase phase) {
+    // Keep the time since the start, with zero meaning not recorded.
+    this.phaseNanos.set(phase.ordinal(), Math.max(1, System.nanoTime() - this.startNanos));
+  }
+
+  void setResponseCode(final int responseCode) {
+    this.responseCode = responseCode;
+  }
+
+  void setFromCache(final boolean fromCache) {
+    this.fromCache = fromCache;
+  }
+
+  void setConnectionReused(final boolean connectionReused) {
+    this.connectionReused = connectionReused;
+  }
+
+  public URL getURL() {
+    return this.url;
+  }
+
+  public String getMethod() {
+    return this.method;
+  }
+
+  public Optional<RequestKind> getKind() {
+    return this.kind;
+  }
+
+  /** Gets the wall clock time, in milliseconds, when the request was queued. */
+  public long getStartTime() {
+    return this.startTime;
+  }
+
+  /**
+   * Gets the time of a phase in nanoseconds since the request was queued, or -1
+   * if the phase was not recorded.
+   */
+  public long getNanos(final Phase phase) {
+    final long nanos = this.phaseNanos.get(phase.ordinal());
+    return nanos == 0 ? -1 : nanos;
+  }
+
+  /**
+   * Gets the time between two phases in milliseconds, or -1 if either phase
+   * was not recorded.
+   */
+  public double getMillisBetween(final Phase from, final Phase to) {
+    final long fromNanos = this.getNanos(from);
+    final long toNanos = this.getNanos(to);
+    return (fromNanos == -1) || (toNanos == -1) ? -1 : (toNanos - fromNanos) / 1e6;
+  }
+
+  /** Gets the HTTP response code, or -1 if there was none. */
+  public int getResponseCode() {
+    return this.responseCode;
+  }
+
+  public boolean isFromCache() {
+    return this.fromCache;
+  }
+
+  public boolean isConnectionReused() {
+    return this.connectionReused;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("RequestTiming[").append(this.method).append(' ').append(this.url);
+    for (final Phase phase : Phase.values()) {
+      final long nanos = this.getNanos(phase);
+      if (nanos != -1) {
+        sb.append(',').append(phase).append('=').append(nanos / 1000000).append("ms");
+      }
+    }
+    return sb.append(']').toString();
+  }
+}
@@ -0,0 +1,14 @@
+package org.lobobrowser.request;
+
+/**
+ * Gets the timing of each request handled by the {@link RequestEngine}.
+ *
+ * @see RequestEngine#addRequestTimingListener(RequestTimingListener)
+ */
+public interface RequestTimingListener {
+  /**
+   * Called from the request thread once the request handler is done with the
+   * response, or the request has failed. It should return quickly.
+   */
+  public void requestFinished(RequestTiming timing);
+}
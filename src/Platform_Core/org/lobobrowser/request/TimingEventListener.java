@@ -0,0 +1,118 @@
+package org.lobobrowser.request;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import org.lobobrowser.request.RequestTiming.Phase;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Records the network steps of OkHttp calls in the {@link RequestTiming} of the
+ * request that made them. The URL connection creates its call lazily, on the
+ * request thread, when the request body or the response is first asked for.
+ * The timing has to be attached around those points. The events themselves
+ * may arrive on other threads.
+ */
+public final class TimingEventListener extends EventListener {
+  private static final ThreadLocal<RequestTiming> currentTiming = new ThreadLocal<>();
+
+  public static final EventListener.Factory FACTORY = call -> {
+    final RequestTiming timing = currentTiming.get();
+    return timing == null ? EventListener.NONE : new TimingEventListener(timing);
+  };
+
+  private final RequestTiming timing;
+
+  private TimingEventListener(final RequestTiming timing) {
+    this.timing = timing;
+  }
+
+  /**
+   * Makes calls created by the current thread record into the given timing.
+   *
+   * @return The previously attached timing, to be given to {@link #detach}.
+   */
+  static RequestTiming attach(final RequestTiming timing) {
+    final RequestTiming previous = currentTiming.get();
+    currentTiming.set(timing);
+    return previous;
+  }
+
+  static void detach(final RequestTiming previous) {
+    if (previous == null) {
+      currentTiming.remove();
+    } else {
+      currentTiming.set(previous);
+    }
+  }
+
+  @Override
+  public void dnsStart(final Call call, final String domainName) {
+    this.timing.mark(Phase.DNS_START);
+  }
+
+  @Override
+  public void dnsEnd(final Call call, final String domainName, final List<InetAddress> inetAddressList) {
+    this.timing.mark(Phase.DNS_END);
+  }
+
+  @Override
+  public void connectStart(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy) {
+    this.timing.mark(Phase.CONNECT_START);
+  }
+
+  @Override
+  public void secureConnectStart(final Call call) {
+    this.timing.mark(Phase.TLS_START);
+  }
+
+  @Override
+  public void secureConnectEnd(final Call call, final Handshake handshake) {
+    this.timing.mark(Phase.TLS_END);
+  }
+
+  @Override
+  public void connectEnd(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy, final Protocol protocol) {
+    this.timing.mark(Phase.CONNECT_END);
+  }
+
+  @Override
+  public void connectFailed(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy, final Protocol protocol,
+      final IOException ioe) {
+    this.timing.mark(Phase.CONNECT_END);
+  }
+
+  @Override
+  public void connectionAcquired(final Call call, final Connection connection) {
+    this.timing.setConnectionReused(this.timing.getNanos(Phase.CONNECT_START) == -1);
+  }
+
+  @Override
+  public void requestHeadersEnd(final Call call, final Request request) {
+    this.timing.mark(Phase.REQUEST_SENT);
+  }
+
+  @Override
+  public void requestBodyEnd(final Call call, final long byteCount) {
+    this.timing.mark(Phase.REQUEST_SENT);
+  }
+
+  @Override
+  public void responseHeadersStart(final Call call) {
+    this.timing.mark(Phase.FIRST_BYTE);
+  }
+
+  @Override
+  public void responseBodyEnd(final Call call, final long byteCount) {
+    this.timing.mark(Phase.LAST_BYTE);
+  }
+}
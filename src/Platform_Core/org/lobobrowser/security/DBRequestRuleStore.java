@@ -2,7 +2,9 @@ package org.lobobrowser.security;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.javatuples.Pair;
 import org.jooq.Condition;
@@ -18,6 +20,9 @@ import info.gngr.db.tables.records.PermissionsRecord;
 
 public class DBRequestRuleStore implements RequestRuleStore {
   private final DSLContext userDB;
+
+  /** Permission masks of all stored rules, keyed by frame host and request host. */
+  private final Map<Pair<String, String>, Integer> masks = new ConcurrentHashMap<>();
   private static final Permission[] defaultPermissions = new Permission[RequestKind.numKinds()];
   static {
     for (int i = 0; i < defaultPermissions.length; i++) {
@@ -35,6 +40,12 @@ public class DBRequestRuleStore implements RequestRuleStore {
   public DBRequestRuleStore() {
     final StorageManager storageManager = StorageManager.getInstance();
     userDB = storageManager.getDB();
+    AccessController.doPrivileged((PrivilegedAction<Object>) () -> {
+      userDB.selectFrom(Permissions.PERMISSIONS).fetch().forEach(record -> {
+        masks.put(Pair.with(record.getFramehost(), record.getRequesthost()), record.getPermissions());
+      });
+      return null;
+    });
     if (!userDB.fetchOne(Globals.GLOBALS).getPermissionsinitialized()) {
       HelperPrivate.initStore(this);
       userDB.fetchOne(Globals.GLOBALS).setPermissionsinitialized(true);
@@ -46,17 +57,11 @@ public class DBRequestRuleStore implements RequestRuleStore {
   }
 
   public Pair<Permission, Permission[]> getPermissions(final String frameHostPattern, final String requestHost) {
-    final Result<PermissionsRecord> permissionRecords = AccessController.doPrivileged((PrivilegedAction<Result<PermissionsRecord>>) () -> {
-      return userDB.fetch(Permissions.PERMISSIONS, matchHostsCondition(frameHostPattern, requestHost));
-    });
-
-    if (permissionRecords.isEmpty()) {
+    final Integer existingPermissions = masks.get(Pair.with(frameHostPattern, requestHost));
+    if (existingPermissions == null) {
       return defaultPermissionPair;
     } else {
-      final PermissionsRecord existingRecord = permissionRecords.get(0);
-      final Integer existingPermissions = existingRecord.getPermissions();
-      final Pair<Permission, Permission[]> permissions = decodeBitMask(existingPermissions);
-      return permissions;
+      return decodeBitMask(existingPermissions);
     }
   }
 
@@ -71,7 +76,7 @@ public class DBRequestRuleStore implements RequestRuleStore {
 
   private static final int BITS_PER_KIND = 2;
 
-  private static Permission decodeBits(final Integer existingPermissions, final int i) {
+  static Permission decodeBits(final int existingPermissions, final int i) {
     final int permissionBits = (existingPermissions >> (i * BITS_PER_KIND)) & 0x3;
     if (permissionBits < 2) {
       return Permission.Undecided;
@@ -92,16 +97,18 @@ public class DBRequestRuleStore implements RequestRuleStore {
       final PermissionsRecord newPermissionRecord = new PermissionsRecord(frameHost, requestHost, permissionMask);
       newPermissionRecord.attach(userDB.configuration());
       newPermissionRecord.store();
+      masks.put(Pair.with(frameHost, requestHost), permissionMask);
     } else {
       final PermissionsRecord existingRecord = permissionRecords.get(0);
       final Integer existingPermissions = existingRecord.getPermissions();
       final int newPermissions = (existingPermissions & makeBitBlockMask(kindOpt)) | permissionMask;
       existingRecord.setPermissions(newPermissions);
       existingRecord.store();
+      masks.put(Pair.with(frameHost, requestHost), newPermissions);
     }
   }
 
-  private static Integer makeBitSetMask(final Optional<RequestKind> kindOpt, final Permission permission) {
+  static Integer makeBitSetMask(final Optional<RequestKind> kindOpt, final Permission permission) {
     if (permission.isDecided()) {
       final Integer bitPos = kindOpt.map(k -> k.ordinal() + 1).orElse(0) * BITS_PER_KIND;
       final int bitset = permission == Permission.Allow ? 0x3 : 0x2;
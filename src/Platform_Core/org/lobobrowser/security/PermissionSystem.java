@@ -7,11 +7,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.javatuples.Pair;
+import org.lobobrowser.security.PermissionSystem.PermissionBoard.PermissionRow;
 import org.lobobrowser.ua.UserAgentContext.Request;
 import org.lobobrowser.ua.UserAgentContext.RequestKind;
 
@@ -50,6 +52,13 @@ public class PermissionSystem {
   private final RequestRuleStore store;
   final String frameHost;
 
+  /**
+   * Effective permissions of each request host, packed two bits per kind the
+   * same way as in {@link DBRequestRuleStore}. Cleared whenever a permission is
+   * changed.
+   */
+  private final Map<String, Integer> decisions = new ConcurrentHashMap<>();
+
   public PermissionSystem(final String frameHost, final RequestRuleStore store) {
     this.frameHost = frameHost;
     this.store = store;
@@ -64,7 +73,7 @@ public class PermissionSystem {
   public boolean isRequestPermitted(final Request request) {
     final String protocol = request.url.getProtocol();
     if ("http".equals(protocol) || "https".equals(protocol) || "data".equals(protocol)) {
-      return getLastBoard().isRequestPermitted(request);
+      return isAllowed(getDecisionMask(request), request.kind);
     } else if ("about".equals(protocol)) {
       return request.url.toString().equals("about:blank");
     } else {
@@ -75,7 +84,31 @@ public class PermissionSystem {
   }
 
   public boolean isUnsecuredHTTPPermitted(final Request request) {
-    return getLastBoard().isUnsecuredHTTPPermitted(request);
+    return isAllowed(getDecisionMask(request), RequestKind.UnsecuredHTTP);
+  }
+
+  private int getDecisionMask(final Request request) {
+    final String requestHost = request.url.getHost().toLowerCase();
+    final Integer mask = decisions.get(requestHost);
+    if (mask != null) {
+      return mask;
+    }
+    return computeDecisionMask(requestHost);
+  }
+
+  private synchronized int computeDecisionMask(final String requestHost) {
+    final PermissionRow row = getLastBoard().getRow(requestHost);
+    int mask = 0;
+    for (int i = 0; i < RequestKind.numKinds(); i++) {
+      final Optional<RequestKind> kindOpt = Optional.of(RequestKind.forOrdinal(i));
+      mask |= DBRequestRuleStore.makeBitSetMask(kindOpt, row.getRequestCell(i).getEffectivePermission().permission);
+    }
+    decisions.put(requestHost, mask);
+    return mask;
+  }
+
+  private static boolean isAllowed(final int decisionMask, final RequestKind kind) {
+    return DBRequestRuleStore.decodeBits(decisionMask, kind.ordinal() + 1) == Permission.Allow;
   }
 
   public List<PermissionBoard> getBoards() {
@@ -123,7 +156,7 @@ public class PermissionSystem {
       this.hostPattern = hostPattern;
     }
 
-    public PermissionRow getRow(final String requestHost) {
+    public synchronized PermissionRow getRow(final String requestHost) {
       final PermissionRow row = requestHostMap.get(requestHost);
       if (row == null) {
         final Optional<PermissionRow> fallbackRow = fallbackBoardOpt.map(b -> b.getRow(requestHost));
@@ -312,7 +345,10 @@ public class PermissionSystem {
         }
 
         public void setPermission(final Permission permission) {
-          myPermission = permission;
+          synchronized (PermissionSystem.this) {
+            myPermission = permission;
+            decisions.clear();
+          }
           store.storePermissions(hostPattern, requestHost, kindOpt, permission);
         }
 
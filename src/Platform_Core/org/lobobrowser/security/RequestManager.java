@@ -12,13 +12,15 @@ import java.awt.event.WindowListener;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import javax.swing.JButton;
@@ -48,37 +50,44 @@ public final class RequestManager {
   }
 
   private static class RequestCounters {
-    private final int counters[] = new int[UserAgentContext.RequestKind.values().length];
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(UserAgentContext.RequestKind.values().length);
 
     void updateCounts(final RequestKind kind) {
-      counters[kind.ordinal()]++;
+      counters.incrementAndGet(kind.ordinal());
+    }
+
+    int getCount(final int ordinal) {
+      return counters.get(ordinal);
     }
 
     @Override
     public String toString() {
       return Arrays.stream(RequestKind.values())
-          .map(kind -> String.format(" %2d", counters[kind.ordinal()])).reduce((e, a) -> e + a)
+          .map(kind -> String.format(" %2d", counters.get(kind.ordinal()))).reduce((e, a) -> e + a)
           .orElse("");
     }
   }
 
-  private Map<String, RequestCounters> hostToCounterMap = new HashMap<>();
-  private Optional<PermissionSystem> permissionSystemOpt = Optional.empty();
+  private volatile Map<String, RequestCounters> hostToCounterMap = new ConcurrentHashMap<>();
+  private volatile Optional<PermissionSystem> permissionSystemOpt = Optional.empty();
 
-  private synchronized void updateCounter(final Request request) {
+  private void updateCounter(final Request request) {
     final String host = request.url.getHost().toLowerCase();
     updateCounter(host, request.kind);
   }
 
-  private synchronized void updateCounter(final String host, final RequestKind kind) {
-    ensureHostInCounter(host);
-    hostToCounterMap.get(host).updateCounts(kind);
+  private void updateCounter(final String host, final RequestKind kind) {
+    getCounters(hostToCounterMap, host).updateCounts(kind);
   }
 
-  private void ensureHostInCounter(final String host) {
-    if (!hostToCounterMap.containsKey(host)) {
-      hostToCounterMap.put(host, new RequestCounters());
+  private static RequestCounters getCounters(final Map<String, RequestCounters> counterMap, final String host) {
+    final RequestCounters counters = counterMap.get(host);
+    if (counters != null) {
+      return counters;
     }
+    final RequestCounters newCounters = new RequestCounters();
+    final RequestCounters existingCounters = counterMap.putIfAbsent(host, newCounters);
+    return existingCounters == null ? newCounters : existingCounters;
   }
 
   private Optional<NavigationEntry> getFrameNavigationEntry() {
@@ -114,11 +123,13 @@ public final class RequestManager {
 
     final Request finalRequest = rewriteRequest(request);
 
-    if (permissionSystemOpt.isPresent()) {
-      final Boolean permitted = permissionSystemOpt.map(p -> p.isRequestPermitted(finalRequest)).orElse(false);
+    final Optional<PermissionSystem> systemOpt = permissionSystemOpt;
+    if (systemOpt.isPresent()) {
+      final PermissionSystem system = systemOpt.get();
+      final boolean permitted = system.isRequestPermitted(finalRequest);
       updateCounter(finalRequest);
       if (permitted) {
-        final boolean httpPermitted = permissionSystemOpt.get().isUnsecuredHTTPPermitted(finalRequest);
+        final boolean httpPermitted = system.isUnsecuredHTTPPermitted(finalRequest);
         String protocolTest = request.url.getProtocol();
         String frameProtocol = getFrameURL().get().getProtocol();
 
@@ -149,7 +160,7 @@ public final class RequestManager {
   }
 
   @SuppressWarnings("unused")
-  private synchronized void dumpCounters() {
+  private void dumpCounters() {
     // Headers
     System.out.print(String.format("%30s  ", ""));
     getRequestKindNames().forEach(kindName -> System.out.print(" " + kindName.substring(0, 2)));
@@ -166,10 +177,11 @@ public final class RequestManager {
   }
 
   public synchronized void reset(final URL frameUrl) {
-    hostToCounterMap = new HashMap<>();
+    final Map<String, RequestCounters> newCounterMap = new ConcurrentHashMap<>();
     final String frameHostOrig = frameUrl.getHost();
     final String frameHost = frameHostOrig == null ? "" : frameHostOrig.toLowerCase();
-    ensureHostInCounter(frameHost);
+    getCounters(newCounterMap, frameHost);
+    hostToCounterMap = newCounterMap;
     setupPermissionSystem(frameHost);
   }
 
@@ -180,13 +192,14 @@ public final class RequestManager {
     dlg.setVisible(true);
   }
 
-  private synchronized String[][] getRequestData() {
+  private String[][] getRequestData() {
     // hostToCounterMap.keySet().stream().forEach(System.out::println);
 
     return hostToCounterMap.entrySet().stream().map(entry -> {
       final List<String> rowElements = new LinkedList<>();
       rowElements.add(entry.getKey());
-      Arrays.stream(entry.getValue().counters).forEach(c -> rowElements.add(Integer.toString(c)));
+      final RequestCounters counters = entry.getValue();
+      IntStream.range(0, RequestKind.numKinds()).forEach(i -> rowElements.add(Integer.toString(counters.getCount(i))));
 
       return rowElements.toArray(new String[0]);
     }).toArray(String[][]::new);
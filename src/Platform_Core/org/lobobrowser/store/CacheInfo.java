@@ -26,11 +26,22 @@ public class CacheInfo {
   public final long approximateSize;
   public final int numEntries;
   public final java.util.List<?> entryInfoList;
+  public final long hitCount;
+  public final long missCount;
+  public final long evictionCount;
 
   public CacheInfo(final long approximateSize, final int numEntries, final List<?> entryInfoList) {
+    this(approximateSize, numEntries, entryInfoList, 0, 0, 0);
+  }
+
+  public CacheInfo(final long approximateSize, final int numEntries, final List<?> entryInfoList, final long hitCount,
+      final long missCount, final long evictionCount) {
     super();
     this.approximateSize = approximateSize;
     this.numEntries = numEntries;
     this.entryInfoList = entryInfoList;
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
   }
 }
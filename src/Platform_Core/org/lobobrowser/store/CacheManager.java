@@ -24,20 +24,17 @@
 package org.lobobrowser.store;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.lobobrowser.security.GenericLocalPermission;
-import org.lobobrowser.util.LRUCache;
-import org.lobobrowser.util.Strings;
+import org.lobobrowser.util.TinyLFUCache;
 import org.lobobrowser.util.Urls;
-import org.lobobrowser.util.io.IORoutines;
 
 /**
  * @author J. H. S.
@@ -46,10 +43,15 @@ public final class CacheManager implements Runnable {
   private static final Logger logger = Logger.getLogger(CacheManager.class.getName());
   private static final int AFTER_SWEEP_SLEEP = 5 * 60 * 1000;
   private static final int INITIAL_SLEEP = 30 * 1000;
-  private static final int DELETE_TOLERANCE = 60 * 1000;
   private static final long MAX_CACHE_SIZE = 100000000;
+  private static final int MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+  private static final String SEGMENTS_DIR = "segments";
+  private static final long MAX_MEMORY_STORE_SIZE = 64 * 1024 * 1024;
 
-  private final LRUCache transientCache = new LRUCache(1000000);
+  // Takes the place of the store on disk when set.
+  private static volatile TinyLFUCache memoryStore = null;
+
+  private final TinyLFUCache transientCache = new TinyLFUCache(1000000);
 
   /**
    *
@@ -81,136 +83,133 @@ public final class CacheManager implements Runnable {
 
   public void putTransient(final URL url, final Object value, final int approxSize) {
     final String key = Urls.getNoRefForm(url);
-    synchronized (this.transientCache) {
-      this.transientCache.put(key, value, approxSize);
-    }
+    this.transientCache.put(key, value, approxSize);
   }
 
   public Object getTransient(final URL url) {
     final String key = Urls.getNoRefForm(url);
-    synchronized (this.transientCache) {
-      return this.transientCache.get(key);
-    }
+    return this.transientCache.get(key);
   }
 
   public void removeTransient(final URL url) {
     final String key = Urls.getNoRefForm(url);
-    synchronized (this.transientCache) {
-      this.transientCache.remove(key);
-    }
+    this.transientCache.remove(key);
   }
 
   public void setMaxTransientCacheSize(final int approxMaxSize) {
-    synchronized (this.transientCache) {
-      this.transientCache.setApproxMaxSize(approxMaxSize);
-    }
+    this.transientCache.setApproxMaxSize(approxMaxSize);
   }
 
   public int getMaxTransientCacheSize() {
-    synchronized (this.transientCache) {
-      return this.transientCache.getApproxMaxSize();
-    }
+    return (int) this.transientCache.getApproxMaxSize();
   }
 
   public CacheInfo getTransientCacheInfo() {
-    long approxSize;
-    int numEntries;
-    List<?> entryInfo;
-    synchronized (this.transientCache) {
-      approxSize = this.transientCache.getApproxSize();
-      numEntries = this.transientCache.getNumEntries();
-      entryInfo = this.transientCache.getEntryInfoList();
-    }
-    return new CacheInfo(approxSize, numEntries, entryInfo);
+    final TinyLFUCache cache = this.transientCache;
+    final List<?> entryInfo = cache.getEntryInfoList();
+    return new CacheInfo(cache.getApproxSize(), cache.getNumEntries(), entryInfo, cache.getHitCount(), cache.getMissCount(),
+        cache.getEvictionCount());
   }
 
-  public static void putPersistent(final URL url, final byte[] rawContent, final boolean isDecoration) throws IOException {
-    final File cacheFile = getCacheFile(url, isDecoration);
-    synchronized (getLock(cacheFile)) {
-      final File parent = cacheFile.getParentFile();
-      if ((parent != null) && !parent.exists()) {
-        parent.mkdirs();
-      }
-      final FileOutputStream fout = new FileOutputStream(cacheFile);
-      try {
-        fout.write(rawContent);
-      } finally {
-        fout.close();
-      }
+  /**
+   * Keeps what would go to the cache on disk in memory instead, starting
+   * empty, so that the session neither reads nor changes the cache on disk.
+   * This is used when replaying a network archive, where stored responses
+   * would otherwise stand in for the recorded ones. To be called before the
+   * cache is first used.
+   */
+  public static void useMemoryStore() {
+    final SecurityManager sm = System.getSecurityManager();
+    if (sm != null) {
+      sm.checkPermission(GenericLocalPermission.EXT_GENERIC);
     }
+    memoryStore = new TinyLFUCache(MAX_MEMORY_STORE_SIZE);
   }
 
-  public static byte[] getPersistent(final URL url, final boolean isDecoration) throws IOException {
-    // We don't return an InputStream because further synchronization
-    // would be needed to prevent concurrent writes into the file.
-    final File cacheFile = getCacheFile(url, isDecoration);
-    synchronized (getLock(cacheFile)) {
-      cacheFile.setLastModified(System.currentTimeMillis());
+  private static final class StoreHolder {
+    private static final SegmentedCacheStore store = openStore();
+
+    private static SegmentedCacheStore openStore() {
+      final File cacheRoot = StorageManager.getInstance().getCacheRoot();
       try {
-        return IORoutines.load(cacheFile);
-      } catch (final java.io.FileNotFoundException fnf) {
-        return null;
+        return new SegmentedCacheStore(new File(cacheRoot, SEGMENTS_DIR), getMaxCacheSize(), MAX_SEGMENT_SIZE);
+      } catch (final IOException ioe) {
+        throw new IllegalStateException("Unable to open cache store in " + cacheRoot, ioe);
       }
     }
   }
 
-  public static boolean removePersistent(final URL url, final boolean isDecoration) throws IOException {
-    final File cacheFile = getCacheFile(url, isDecoration);
-    synchronized (getLock(cacheFile)) {
-      return cacheFile.delete();
+  private static String getPersistentKey(final URL url, final boolean isDecoration) {
+    // Use the no-ref form, because query string matters in caching.
+    return SegmentedCacheStore.getKey(Urls.getNoRefForm(url), isDecoration);
+  }
+
+  public static void putPersistent(final URL url, final byte[] rawContent, final boolean isDecoration) throws IOException {
+    final TinyLFUCache memory = memoryStore;
+    if (memory != null) {
+      memory.put(getPersistentKey(url, isDecoration), rawContent, rawContent.length);
+      return;
     }
+    StoreHolder.store.put(getPersistentKey(url, isDecoration), rawContent);
   }
 
-  public static JarFile getJarFile(final URL url) throws java.io.IOException {
-    final File cacheFile = getCacheFile(url, false);
-    synchronized (getLock(cacheFile)) {
-      if (!cacheFile.exists()) {
-        if (Urls.isLocalFile(url)) {
-          return new JarFile(url.getFile());
-        }
-        throw new java.io.FileNotFoundException("JAR file cannot be obtained for a URL that is not cached locally: " + url + ".");
+  /**
+   * Stores content that is given in parts, such as headers followed by the
+   * chunks of a response buffer, without copying the parts together.
+   */
+  public static void putPersistent(final URL url, final ByteBuffer[] rawContent, final boolean isDecoration) throws IOException {
+    if (memoryStore != null) {
+      int length = 0;
+      for (final ByteBuffer part : rawContent) {
+        length += part.remaining();
       }
-      cacheFile.setLastModified(System.currentTimeMillis());
-      return new JarFile(cacheFile);
+      final ByteBuffer joined = ByteBuffer.allocate(length);
+      for (final ByteBuffer part : rawContent) {
+        joined.put(part.duplicate());
+      }
+      putPersistent(url, joined.array(), isDecoration);
+      return;
     }
+    StoreHolder.store.put(getPersistentKey(url, isDecoration), rawContent);
   }
 
-  private static File getCacheFile(final URL url, final boolean isDecoration) throws IOException {
-    // Use file, not path, because query string matters in caching.
-    final String urlFile = url.getFile();
-    final String urlText = Urls.getNoRefForm(url);
-    final int lastSlashIdx = urlFile.lastIndexOf('/');
-    String simpleName = lastSlashIdx == -1 ? urlFile : urlFile.substring(lastSlashIdx + 1);
-    if (simpleName.length() > 16) {
-      simpleName = simpleName.substring(0, 16);
+  public static byte[] getPersistent(final URL url, final boolean isDecoration) throws IOException {
+    final TinyLFUCache memory = memoryStore;
+    if (memory != null) {
+      return (byte[]) memory.get(getPersistentKey(url, isDecoration));
     }
-    final String normalizedName = Strings.getJavaIdentifier(simpleName);
-    final String hash = Strings.getMD5(urlText);
-    String fileName = normalizedName + "_" + hash;
-    if (isDecoration) {
-      fileName += ".decor";
+    return StoreHolder.store.get(getPersistentKey(url, isDecoration));
+  }
+
+  public static boolean removePersistent(final URL url, final boolean isDecoration) throws IOException {
+    final TinyLFUCache memory = memoryStore;
+    if (memory != null) {
+      return memory.remove(getPersistentKey(url, isDecoration)) != null;
     }
-    // TODO: Use lowercase hostname (for case-insensitive match)
-    return StorageManager.getInstance().getContentCacheFile(url.getHost(), fileName);
+    return StoreHolder.store.remove(getPersistentKey(url, isDecoration));
   }
 
-  private static Object getLock(final File file) throws IOException {
-    return ("cm:" + file.getCanonicalPath()).intern();
+  public static JarFile getJarFile(final URL url) throws java.io.IOException {
+    final byte[] content = getPersistent(url, false);
+    if (content == null) {
+      if (Urls.isLocalFile(url)) {
+        return new JarFile(url.getFile());
+      }
+      throw new java.io.FileNotFoundException("JAR file cannot be obtained for a URL that is not cached locally: " + url + ".");
+    }
+    return TempFileManager.getInstance().createJarFile(content);
   }
 
   /**
-   * Touches the cache file corresponding to the given URL and returns
-   * <code>true</code> if the file exists.
+   * Marks the cache entry corresponding to the given URL as recently used and
+   * returns <code>true</code> if it exists.
    */
   public static boolean checkCacheFile(final URL url, final boolean isDecoration) throws IOException {
-    final File file = getCacheFile(url, isDecoration);
-    synchronized (getLock(file)) {
-      if (file.exists()) {
-        file.setLastModified(System.currentTimeMillis());
-        return true;
-      }
-      return false;
+    final TinyLFUCache memory = memoryStore;
+    if (memory != null) {
+      return memory.get(getPersistentKey(url, isDecoration)) != null;
     }
+    return StoreHolder.store.touch(getPersistentKey(url, isDecoration));
   }
 
   public void run() {
@@ -219,9 +218,18 @@ public final class CacheManager implements Runnable {
     } catch (final InterruptedException ie) {
       // ignore
     }
+    if (memoryStore != null) {
+      // There is nothing on disk to look after.
+      return;
+    }
+    try {
+      deleteLegacyCache();
+    } catch (final Exception err) {
+      logger.log(Level.WARNING, "run(): Unable to delete legacy cache.", err);
+    }
     for (;;) {
       try {
-        this.sweepCache();
+        sweepCache();
         Thread.sleep(AFTER_SWEEP_SLEEP);
       } catch (final Exception err) {
         logger.log(Level.SEVERE, "run()", err);
@@ -238,69 +246,32 @@ public final class CacheManager implements Runnable {
     return MAX_CACHE_SIZE;
   }
 
-  private void sweepCache() throws Exception {
-    final CacheStoreInfo sinfo = this.getCacheStoreInfo();
-    if (logger.isLoggable(Level.INFO)) {
-      logger.info("sweepCache(): Cache size is " + sinfo.getLength() + " with a max of " + getMaxCacheSize()
-          + ". The number of cache files is " + sinfo.getFileInfos().length + ".");
-    }
-    long oversize = sinfo.getLength() - getMaxCacheSize();
-    if (oversize > 0) {
-      final CacheFileInfo[] finfos = sinfo.getFileInfos();
-      // Sort in ascending order of modification
-      Arrays.sort(finfos);
-      final long okToDeleteBeforeThis = System.currentTimeMillis() - DELETE_TOLERANCE;
-      for (final CacheFileInfo finfo : finfos) {
-        try {
-          Thread.yield();
-          synchronized (getLock(finfo.getFile())) {
-            final long lastModified = finfo.getLastModified();
-            if (lastModified < okToDeleteBeforeThis) {
-              Thread.sleep(1);
-              final long time1 = System.currentTimeMillis();
-              finfo.delete();
-              final long time2 = System.currentTimeMillis();
-              if (logger.isLoggable(Level.INFO)) {
-                logger.info("sweepCache(): Removed " + finfo + " in " + (time2 - time1) + " ms.");
-              }
-              oversize -= finfo.getInitialLength();
-              if (oversize <= 0) {
-                break;
-              }
-            }
-          }
-        } catch (final Exception thrown) {
-          logger.log(Level.WARNING, "sweepCache()", thrown);
+  private static void sweepCache() {
+    StoreHolder.store.sweep();
+  }
+
+  /**
+   * Deletes the one-file-per-URL cache directories of earlier versions.
+   */
+  private static void deleteLegacyCache() {
+    final File[] files = StorageManager.getInstance().getCacheRoot().listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        if (file.isDirectory() && !SEGMENTS_DIR.equals(file.getName())) {
+          deleteRecursively(file);
         }
       }
     }
   }
 
-  private CacheStoreInfo getCacheStoreInfo() throws IOException {
-    final CacheStoreInfo csinfo = new CacheStoreInfo();
-    final File cacheRoot = StorageManager.getInstance().getCacheRoot();
-    populateCacheStoreInfo(csinfo, cacheRoot);
-    return csinfo;
-  }
-
-  private void populateCacheStoreInfo(final CacheStoreInfo csinfo, final File directory) {
-    final File[] files = directory.listFiles();
-    if (files == null) {
-      // TODO: For large directories, java.nio.file.Files.newDirectoryStream() is supposedly faster.
-      logger.severe("populateCacheStoreInfo(): Unexpected: '" + directory + "' is not a directory.");
-      return;
-    }
-    if (files.length == 0) {
-      directory.delete();
-    }
-    for (final File file : files) {
-      Thread.yield();
-      if (file.isDirectory()) {
-        this.populateCacheStoreInfo(csinfo, file);
-      } else {
-        csinfo.addCacheFile(file);
+  private static void deleteRecursively(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        Thread.yield();
+        deleteRecursively(child);
       }
     }
+    file.delete();
   }
-
 }
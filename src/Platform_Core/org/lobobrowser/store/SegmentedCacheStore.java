@@ -0,0 +1,764 @@
+package org.lobobrowser.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache content, stored in a few append-only segment files.
+ * <p>
+ * Every put or remove appends a record to the active segment. An in-memory
+ * index maps a hash of the key to the location of its latest record, so that
+ * lookups never touch the file system. The index is rebuilt at startup by
+ * reading the record headers.
+ * <p>
+ * Space is reclaimed by {@link #sweep()}, which drops the least recently used
+ * entries from the index, records their hashes in an eviction record, and
+ * then copies the remaining live records out of mostly dead segments. The
+ * cache directory is never scanned.
+ */
+final class SegmentedCacheStore {
+  private static final Logger logger = Logger.getLogger(SegmentedCacheStore.class.getName());
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final int RECORD_MAGIC = 0x67436331;
+  private static final byte TYPE_PUT = 0;
+  private static final byte TYPE_REMOVE = 1;
+  // Has no key; the content is the hashes of the keys that were evicted. A
+  // hash of zero is never a key's, and fills space whose write failed.
+  private static final byte TYPE_EVICT = 2;
+
+  // magic, type, key length, content length
+  private static final int HEADER_LENGTH = 4 + 1 + 4 + 4;
+
+  // Sweeping evicts entries until the live size is below this fraction of the maximum.
+  private static final double EVICT_TO_FRACTION = 0.75;
+
+  // Sealed segments with less live data than this fraction get compacted.
+  private static final double COMPACT_BELOW_FRACTION = 0.5;
+
+  private final File directory;
+  private final long maxSize;
+  private final int maxSegmentSize;
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private final Index index = new Index(1024);
+  private Segment activeSegment;
+  private long totalSize = 0;
+  private long liveSize = 0;
+  private long accessClock = 0;
+
+  SegmentedCacheStore(final File directory, final long maxSize, final int maxSegmentSize) throws IOException {
+    this.directory = directory;
+    this.maxSize = maxSize;
+    this.maxSegmentSize = maxSegmentSize;
+    if (!directory.exists()) {
+      directory.mkdirs();
+    }
+    this.load();
+  }
+
+  static String getKey(final String urlText, final boolean isDecoration) {
+    return isDecoration ? "decor:" + urlText : urlText;
+  }
+
+  void put(final String key, final byte[] content) throws IOException {
+    this.put(key, new ByteBuffer[] { ByteBuffer.wrap(content) });
+  }
+
+  /**
+   * Stores the content given in parts, which are written with a single gather
+   * write without being copied together first.
+   */
+  synchronized void put(final String key, final ByteBuffer[] content) throws IOException {
+    final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int recordLength = HEADER_LENGTH + keyBytes.length;
+    for (final ByteBuffer part : content) {
+      recordLength += part.remaining();
+    }
+    final Segment segment = this.append(TYPE_PUT, keyBytes, content);
+    final long hash = hash(key);
+    this.release(this.index.find(hash));
+    this.index.put(hash, segment.id, (int) (segment.size - recordLength), recordLength, ++this.accessClock);
+    segment.liveBytes += recordLength;
+    this.liveSize += recordLength;
+  }
+
+  byte[] get(final String key) throws IOException {
+    final long hash = hash(key);
+    final Segment segment;
+    final int offset;
+    synchronized (this) {
+      final int slot = this.index.find(hash);
+      if (slot == -1) {
+        return null;
+      }
+      segment = this.segments.get(this.index.segmentIds[slot]);
+      offset = this.index.offsets[slot];
+      this.index.accessTimes[slot] = ++this.accessClock;
+    }
+    try {
+      return readContent(segment, offset, key.getBytes(StandardCharsets.UTF_8));
+    } catch (final IOException ioe) {
+      // The segment may have been compacted away after the lookup.
+      logger.log(Level.INFO, "get(): Unable to read cache record for " + key, ioe);
+      return null;
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if there is an entry for the key, marking it as
+   * recently used.
+   */
+  synchronized boolean touch(final String key) {
+    final int slot = this.index.find(hash(key));
+    if (slot == -1) {
+      return false;
+    }
+    this.index.accessTimes[slot] = ++this.accessClock;
+    return true;
+  }
+
+  synchronized boolean remove(final String key) throws IOException {
+    final long hash = hash(key);
+    final int slot = this.index.find(hash);
+    if (slot == -1) {
+      return false;
+    }
+    this.release(slot);
+    this.index.remove(hash);
+    // A tombstone, so that the entry does not come back when the index is rebuilt.
+    this.append(TYPE_REMOVE, key.getBytes(StandardCharsets.UTF_8), ByteBuffer.allocate(0));
+    return true;
+  }
+
+  /**
+   * Evicts least recently used entries if the store is over its maximum size,
+   * and compacts segments that are mostly dead.
+   */
+  void sweep() {
+    final long[] evicted;
+    synchronized (this) {
+      if (logger.isLoggable(Level.INFO)) {
+        logger.info("sweep(): Cache size is " + this.totalSize + " (" + this.liveSize + " live) with a max of " + this.maxSize
+            + ". The number of entries is " + this.index.size + " in " + this.segments.size() + " segments.");
+      }
+      evicted = this.totalSize > this.maxSize ? this.evict((long) (this.maxSize * EVICT_TO_FRACTION)) : null;
+    }
+    if ((evicted != null) && (evicted.length > 0)) {
+      try {
+        this.writeEvictions(evicted);
+      } catch (final IOException ioe) {
+        // The entries come back after a restart, and get evicted again.
+        logger.log(Level.WARNING, "sweep(): Unable to record evictions", ioe);
+      }
+    }
+    for (final Segment segment : this.getCompactionCandidates()) {
+      try {
+        this.compact(segment);
+      } catch (final IOException ioe) {
+        logger.log(Level.WARNING, "sweep(): Unable to compact " + segment.file, ioe);
+      }
+    }
+  }
+
+  private synchronized List<Segment> getCompactionCandidates() {
+    final List<Segment> candidates = new ArrayList<>();
+    for (final Segment segment : this.segments.values()) {
+      if ((segment != this.activeSegment) && (segment.pendingWrites == 0)
+          && (segment.liveBytes < (segment.size * COMPACT_BELOW_FRACTION))) {
+        candidates.add(segment);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Drops least recently used entries from the index, and returns the hashes
+   * of their keys, which still need to be recorded with
+   * {@link #writeEvictions(long[])}. Must be called while holding the lock.
+   */
+  private long[] evict(final long targetLiveSize) {
+    final Index idx = this.index;
+    final Integer[] byAccessTime = new Integer[idx.size];
+    int n = 0;
+    for (int i = 0; i < idx.hashes.length; i++) {
+      if (idx.hashes[i] != 0) {
+        byAccessTime[n++] = i;
+      }
+    }
+    Arrays.sort(byAccessTime, 0, n, Comparator.comparingLong(slot -> idx.accessTimes[slot]));
+    // Collect hashes first, since removal moves entries around.
+    final long[] victims = new long[n];
+    long toFree = this.liveSize - targetLiveSize;
+    int numVictims = 0;
+    for (int i = 0; (i < n) && (toFree > 0); i++) {
+      final int slot = byAccessTime[i];
+      victims[numVictims++] = idx.hashes[slot];
+      toFree -= idx.lengths[slot];
+    }
+    for (int i = 0; i < numVictims; i++) {
+      this.release(idx.find(victims[i]));
+      idx.remove(victims[i]);
+    }
+    if (logger.isLoggable(Level.INFO)) {
+      logger.info("evict(): Evicted " + numVictims + " entries. Live size is now " + this.liveSize + ".");
+    }
+    return Arrays.copyOf(victims, numVictims);
+  }
+
+  /**
+   * Appends an eviction record, so that evicted entries do not come back when
+   * the index is rebuilt. Space is reserved while holding the lock, but the
+   * record is written without it, so lookups and puts do not wait for it.
+   */
+  private void writeEvictions(final long[] hashes) throws IOException {
+    final ByteBuffer content = ByteBuffer.allocate(hashes.length * 8);
+    final ByteBuffer[] buffers;
+    final int recordLength;
+    final Segment segment;
+    final long position;
+    synchronized (this) {
+      for (final long hash : hashes) {
+        // Entries put again since they were evicted are left alone.
+        if (this.index.find(hash) == -1) {
+          content.putLong(hash);
+        }
+      }
+      content.flip();
+      if (!content.hasRemaining()) {
+        return;
+      }
+      buffers = new ByteBuffer[] { header(TYPE_EVICT, 0, content.remaining()), content };
+      recordLength = HEADER_LENGTH + content.remaining();
+      segment = this.getSegmentForAppend(recordLength);
+      position = segment.size;
+      segment.size += recordLength;
+      segment.pendingWrites++;
+      this.totalSize += recordLength;
+    }
+    try {
+      segment.write(buffers, position);
+    } catch (final IOException ioe) {
+      // Leave a record without hashes in the reserved space, so that the
+      // records after it can still be read.
+      try {
+        segment.write(new ByteBuffer[] { header(TYPE_EVICT, 0, recordLength - HEADER_LENGTH),
+            ByteBuffer.allocate(recordLength - HEADER_LENGTH) }, position);
+      } catch (final IOException ioe2) {
+        // Skipped as damaged when the segment is loaded.
+      }
+      throw ioe;
+    } finally {
+      synchronized (this) {
+        segment.pendingWrites--;
+      }
+    }
+  }
+
+  private void compact(final Segment segment) throws IOException {
+    final long time1 = System.currentTimeMillis();
+    final boolean isOldest;
+    synchronized (this) {
+      isOldest = this.segments.firstKey() == segment.id;
+    }
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    long position = 0;
+    while ((position + HEADER_LENGTH) <= segment.size) {
+      if (readHeader(segment, position, header) == -1) {
+        position = findRecord(segment, position + 1);
+        if (position == -1) {
+          break;
+        }
+        continue;
+      }
+      header.getInt();
+      final byte type = header.get();
+      final int keyLength = header.getInt();
+      final int contentLength = header.getInt();
+      final int recordLength = HEADER_LENGTH + keyLength + contentLength;
+      final ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+      segment.readFully(keyBuffer, position + HEADER_LENGTH);
+      final long hash = hash(new String(keyBuffer.array(), StandardCharsets.UTF_8));
+      synchronized (this) {
+        final int slot = this.index.find(hash);
+        if (type == TYPE_PUT) {
+          if ((slot != -1) && (this.index.segmentIds[slot] == segment.id) && (this.index.offsets[slot] == position)) {
+            final ByteBuffer content = ByteBuffer.allocate(contentLength);
+            segment.readFully(content, position + HEADER_LENGTH + keyLength);
+            content.flip();
+            final long accessTime = this.index.accessTimes[slot];
+            this.release(slot);
+            final Segment target = this.append(TYPE_PUT, keyBuffer.array(), content);
+            this.index.put(hash, target.id, (int) (target.size - recordLength), recordLength, accessTime);
+            target.liveBytes += recordLength;
+            this.liveSize += recordLength;
+          }
+        } else if ((type == TYPE_REMOVE) && (slot == -1) && !isOldest) {
+          // Older segments may still hold the entry this tombstone removed.
+          this.append(TYPE_REMOVE, keyBuffer.array(), ByteBuffer.allocate(0));
+        } else if ((type == TYPE_EVICT) && !isOldest) {
+          final ByteBuffer evicted = ByteBuffer.allocate(contentLength);
+          segment.readFully(evicted, position + HEADER_LENGTH);
+          evicted.flip();
+          // Entries that have been put again since must not be evicted by
+          // the copy, which comes after them.
+          final ByteBuffer stillEvicted = ByteBuffer.allocate(contentLength);
+          while (evicted.hasRemaining()) {
+            final long evictedHash = evicted.getLong();
+            if ((evictedHash != 0) && (this.index.find(evictedHash) == -1)) {
+              stillEvicted.putLong(evictedHash);
+            }
+          }
+          stillEvicted.flip();
+          if (stillEvicted.hasRemaining()) {
+            this.append(TYPE_EVICT, new byte[0], stillEvicted);
+          }
+        }
+      }
+      position += recordLength;
+    }
+    synchronized (this) {
+      this.segments.remove(segment.id);
+      this.totalSize -= segment.size;
+      segment.delete();
+    }
+    if (logger.isLoggable(Level.INFO)) {
+      logger.info("compact(): Removed " + segment.file + " in " + (System.currentTimeMillis() - time1) + " ms.");
+    }
+  }
+
+  // Must be called while holding the lock.
+  private Segment append(final byte type, final byte[] keyBytes, final ByteBuffer... content) throws IOException {
+    int contentLength = 0;
+    for (final ByteBuffer part : content) {
+      contentLength += part.remaining();
+    }
+    final int recordLength = HEADER_LENGTH + keyBytes.length + contentLength;
+    final Segment segment = this.getSegmentForAppend(recordLength);
+    final ByteBuffer[] buffers = new ByteBuffer[2 + content.length];
+    buffers[0] = header(type, keyBytes.length, contentLength);
+    buffers[1] = ByteBuffer.wrap(keyBytes);
+    System.arraycopy(content, 0, buffers, 2, content.length);
+    segment.append(buffers, recordLength);
+    this.totalSize += recordLength;
+    return segment;
+  }
+
+  // Must be called while holding the lock.
+  private Segment getSegmentForAppend(final int recordLength) throws IOException {
+    Segment segment = this.activeSegment;
+    if ((segment == null) || ((segment.size > 0) && ((segment.size + recordLength) > this.maxSegmentSize))) {
+      final int newId = this.segments.isEmpty() ? 1 : this.segments.lastKey() + 1;
+      if (this.activeSegment != null) {
+        this.activeSegment.sealed = true;
+      }
+      segment = new Segment(newId, new File(this.directory, segmentFileName(newId)));
+      this.segments.put(newId, segment);
+      this.activeSegment = segment;
+    }
+    return segment;
+  }
+
+  private static ByteBuffer header(final byte type, final int keyLength, final int contentLength) {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header.putInt(RECORD_MAGIC).put(type).putInt(keyLength).putInt(contentLength);
+    header.flip();
+    return header;
+  }
+
+  // Must be called while holding the lock.
+  private void release(final int slot) {
+    if (slot != -1) {
+      final int length = this.index.lengths[slot];
+      final Segment segment = this.segments.get(this.index.segmentIds[slot]);
+      if (segment != null) {
+        segment.liveBytes -= length;
+      }
+      this.liveSize -= length;
+    }
+  }
+
+  private static byte[] readContent(final Segment segment, final int offset, final byte[] keyBytes) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + keyBytes.length);
+    segment.readFully(header, offset);
+    header.flip();
+    if ((header.getInt() != RECORD_MAGIC) || (header.get() != TYPE_PUT) || (header.getInt() != keyBytes.length)) {
+      return null;
+    }
+    final int contentLength = header.getInt();
+    for (final byte b : keyBytes) {
+      if (header.get() != b) {
+        // Hash collision.
+        return null;
+      }
+    }
+    final byte[] content = new byte[contentLength];
+    segment.readFully(ByteBuffer.wrap(content), offset + HEADER_LENGTH + keyBytes.length);
+    return content;
+  }
+
+  private void load() throws IOException {
+    final String[] names = this.directory.list();
+    if (names != null) {
+      for (final String name : names) {
+        if (name.endsWith(SEGMENT_SUFFIX)) {
+          try {
+            final int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            this.segments.put(id, new Segment(id, new File(this.directory, name)));
+          } catch (final NumberFormatException nfe) {
+            logger.warning("load(): Ignoring unexpected file " + name);
+          }
+        }
+      }
+    }
+    for (final Segment segment : this.segments.values()) {
+      this.loadSegment(segment);
+      this.totalSize += segment.size;
+      segment.sealed = true;
+    }
+    if (!this.segments.isEmpty()) {
+      this.activeSegment = this.segments.lastEntry().getValue();
+      this.activeSegment.sealed = false;
+    }
+  }
+
+  private void loadSegment(final Segment segment) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    long position = 0;
+    while ((position + HEADER_LENGTH) <= segment.size) {
+      final long recordLength = readHeader(segment, position, header);
+      if (recordLength == -1) {
+        // A record whose space was reserved but never completely written. The
+        // records after it are still good.
+        final long next = findRecord(segment, position + 1);
+        if (next == -1) {
+          break;
+        }
+        logger.warning("loadSegment(): Skipping " + (next - position) + " damaged bytes at " + position + " in " + segment.file + ".");
+        position = next;
+        continue;
+      }
+      header.getInt();
+      final byte type = header.get();
+      final int keyLength = header.getInt();
+      final int contentLength = header.getInt();
+      if (type == TYPE_EVICT) {
+        final ByteBuffer evicted = ByteBuffer.allocate(contentLength);
+        segment.readFully(evicted, position + HEADER_LENGTH);
+        evicted.flip();
+        while (evicted.remaining() >= 8) {
+          final long hash = evicted.getLong();
+          if (hash != 0) {
+            this.release(this.index.find(hash));
+            this.index.remove(hash);
+          }
+        }
+        position += recordLength;
+        continue;
+      }
+      final ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+      segment.readFully(keyBuffer, position + HEADER_LENGTH);
+      final long hash = hash(new String(keyBuffer.array(), StandardCharsets.UTF_8));
+      this.release(this.index.find(hash));
+      if (type == TYPE_PUT) {
+        this.index.put(hash, segment.id, (int) position, (int) recordLength, ++this.accessClock);
+        segment.liveBytes += recordLength;
+        this.liveSize += recordLength;
+      } else {
+        this.index.remove(hash);
+      }
+      position += recordLength;
+    }
+    if (position < segment.size) {
+      // Probably a write that was cut short.
+      logger.warning("loadSegment(): Truncating " + segment.file + " from " + segment.size + " to " + position + " bytes.");
+      segment.truncate(position);
+    }
+  }
+
+  /**
+   * Reads the header of the record at the given position, and returns the
+   * length of the record, or -1 if there is no valid record there. The header
+   * buffer is left positioned at the start of the header.
+   */
+  private static long readHeader(final Segment segment, final long position, final ByteBuffer header) throws IOException {
+    header.clear();
+    segment.readFully(header, position);
+    header.flip();
+    final int magic = header.getInt();
+    final byte type = header.get();
+    final int keyLength = header.getInt();
+    final int contentLength = header.getInt();
+    header.rewind();
+    final long recordLength = (long) HEADER_LENGTH + keyLength + contentLength;
+    if ((magic != RECORD_MAGIC) || (type < TYPE_PUT) || (type > TYPE_EVICT) || (keyLength < 0) || (contentLength < 0)
+        || ((position + recordLength) > segment.size)) {
+      return -1;
+    }
+    return recordLength;
+  }
+
+  /**
+   * Finds the first valid record at or after the given position, or returns
+   * -1 if there is none.
+   */
+  private static long findRecord(final Segment segment, final long from) throws IOException {
+    final ByteBuffer block = ByteBuffer.allocate(8192);
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    long blockStart = from;
+    while ((blockStart + HEADER_LENGTH) <= segment.size) {
+      block.clear();
+      block.limit((int) Math.min(block.capacity(), segment.size - blockStart));
+      segment.readFully(block, blockStart);
+      block.flip();
+      for (int i = 0; (i + 4) <= block.limit(); i++) {
+        if ((block.getInt(i) == RECORD_MAGIC) && ((blockStart + i + HEADER_LENGTH) <= segment.size)
+            && (readHeader(segment, blockStart + i, header) != -1)) {
+          return blockStart + i;
+        }
+      }
+      // The last bytes of the block may start a magic number.
+      blockStart += block.limit() - 3;
+    }
+    return -1;
+  }
+
+  private static String segmentFileName(final int id) {
+    return String.format("%08d", id) + SEGMENT_SUFFIX;
+  }
+
+  /**
+   * 64 bit FNV-1a hash. Zero is reserved for empty index slots.
+   */
+  private static long hash(final String key) {
+    long h = 0xcbf29ce484222325L;
+    final int length = key.length();
+    for (int i = 0; i < length; i++) {
+      h ^= key.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h == 0 ? 1 : h;
+  }
+
+  private static final class Segment {
+    private final int id;
+    private final File file;
+    private final FileChannel channel;
+    private long size;
+    private long liveBytes = 0;
+    private MappedByteBuffer mapped;
+
+    // Records whose space is reserved but that are still being written.
+    private int pendingWrites = 0;
+
+    // Sealed segments are no longer appended to, and are read through a mapping.
+    private volatile boolean sealed = false;
+
+    Segment(final int id, final File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      @SuppressWarnings("resource")
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      this.channel = raf.getChannel();
+      this.size = this.channel.size();
+    }
+
+    // Called only for the active segment, while holding the store lock.
+    void append(final ByteBuffer[] buffers, final int length) throws IOException {
+      this.channel.position(this.size);
+      long remaining = length;
+      while (remaining > 0) {
+        remaining -= this.channel.write(buffers);
+      }
+      this.size += length;
+    }
+
+    // Writes a record into space reserved before, without the store lock.
+    void write(final ByteBuffer[] buffers, final long position) throws IOException {
+      long pos = position;
+      for (final ByteBuffer buffer : buffers) {
+        while (buffer.hasRemaining()) {
+          pos += this.channel.write(buffer, pos);
+        }
+      }
+    }
+
+    void readFully(final ByteBuffer dst, final long position) throws IOException {
+      final MappedByteBuffer mb = this.sealed ? this.getMapped(position + dst.remaining()) : null;
+      if (mb != null) {
+        final ByteBuffer src = mb.duplicate();
+        src.position((int) position);
+        src.limit((int) position + dst.remaining());
+        dst.put(src);
+      } else {
+        long pos = position;
+        while (dst.hasRemaining()) {
+          final int n = this.channel.read(dst, pos);
+          if (n == -1) {
+            throw new IOException("Unexpected end of " + this.file);
+          }
+          pos += n;
+        }
+      }
+    }
+
+    /**
+     * Returns <code>null</code> if the requested range can not be mapped.
+     */
+    private synchronized MappedByteBuffer getMapped(final long end) throws IOException {
+      MappedByteBuffer mb = this.mapped;
+      if ((mb == null) || (mb.capacity() < end)) {
+        final long fileSize = this.channel.size();
+        if ((end > fileSize) || (fileSize > Integer.MAX_VALUE)) {
+          return null;
+        }
+        mb = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        this.mapped = mb;
+      }
+      return mb;
+    }
+
+    synchronized void truncate(final long newSize) throws IOException {
+      this.channel.truncate(newSize);
+      this.size = newSize;
+      this.mapped = null;
+    }
+
+    synchronized void delete() {
+      this.mapped = null;
+      try {
+        this.channel.close();
+      } catch (final IOException ioe) {
+        logger.log(Level.WARNING, "delete(): Unable to close " + this.file, ioe);
+      }
+      if (!this.file.delete()) {
+        // Can happen on some platforms while the file is still mapped.
+        this.file.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * Open addressing hash table from key hash to record location, stored in
+   * parallel primitive arrays.
+   */
+  private static final class Index {
+    private long[] hashes;
+    private int[] segmentIds;
+    private int[] offsets;
+    private int[] lengths;
+    private long[] accessTimes;
+    private int size = 0;
+
+    Index(final int initialCapacity) {
+      this.allocate(Integer.highestOneBit(Math.max(initialCapacity, 16) - 1) << 1);
+    }
+
+    private void allocate(final int capacity) {
+      this.hashes = new long[capacity];
+      this.segmentIds = new int[capacity];
+      this.offsets = new int[capacity];
+      this.lengths = new int[capacity];
+      this.accessTimes = new long[capacity];
+    }
+
+    private int slotOf(final long hash) {
+      return (int) (hash ^ (hash >>> 32)) & (this.hashes.length - 1);
+    }
+
+    int find(final long hash) {
+      final int mask = this.hashes.length - 1;
+      for (int i = this.slotOf(hash);; i = (i + 1) & mask) {
+        final long h = this.hashes[i];
+        if (h == hash) {
+          return i;
+        } else if (h == 0) {
+          return -1;
+        }
+      }
+    }
+
+    void put(final long hash, final int segmentId, final int offset, final int length, final long accessTime) {
+      final int mask = this.hashes.length - 1;
+      int i = this.slotOf(hash);
+      while ((this.hashes[i] != 0) && (this.hashes[i] != hash)) {
+        i = (i + 1) & mask;
+      }
+      if (this.hashes[i] == 0) {
+        this.hashes[i] = hash;
+        this.size++;
+      }
+      this.segmentIds[i] = segmentId;
+      this.offsets[i] = offset;
+      this.lengths[i] = length;
+      this.accessTimes[i] = accessTime;
+      if ((this.size * 4) > (this.hashes.length * 3)) {
+        this.rehash(this.hashes.length * 2);
+      }
+    }
+
+    void remove(final long hash) {
+      int i = this.find(hash);
+      if (i == -1) {
+        return;
+      }
+      this.size--;
+      // Shift following entries back, so that probing does not need tombstones.
+      final int mask = this.hashes.length - 1;
+      for (int j = (i + 1) & mask; this.hashes[j] != 0; j = (j + 1) & mask) {
+        final int home = this.slotOf(this.hashes[j]);
+        if (((j - home) & mask) >= ((j - i) & mask)) {
+          this.move(j, i);
+          i = j;
+        }
+      }
+      this.hashes[i] = 0;
+    }
+
+    private void move(final int from, final int to) {
+      this.hashes[to] = this.hashes[from];
+      this.segmentIds[to] = this.segmentIds[from];
+      this.offsets[to] = this.offsets[from];
+      this.lengths[to] = this.lengths[from];
+      this.accessTimes[to] = this.accessTimes[from];
+    }
+
+    private void rehash(final int newCapacity) {
+      final long[] oldHashes = this.hashes;
+      final int[] oldSegmentIds = this.segmentIds;
+      final int[] oldOffsets = this.offsets;
+      final int[] oldLengths = this.lengths;
+      final long[] oldAccessTimes = this.accessTimes;
+      this.allocate(newCapacity);
+      this.size = 0;
+      for (int i = 0; i < oldHashes.length; i++) {
+        if (oldHashes[i] != 0) {
+          this.put(oldHashes[i], oldSegmentIds[i], oldOffsets[i], oldLengths[i], oldAccessTimes[i]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("SegmentedCacheStore[");
+    synchronized (this) {
+      for (final Map.Entry<Integer, Segment> entry : this.segments.entrySet()) {
+        final Segment s = entry.getValue();
+        sb.append(s.file.getName()).append('=').append(s.liveBytes).append('/').append(s.size).append(' ');
+      }
+    }
+    return sb.append(']').toString();
+  }
+}
@@ -61,7 +61,6 @@ public class StorageManager implements Runnable {
   // Note that the installer makes assumptions about these names.
   private static final String HOST_STORE_DIR = "HostStore";
   private static final String CACHE_DIR = "cache";
-  private static final String CONTENT_DIR = "content";
   private static final String SETTINGS_DIR = "settings";
   private static final StorageManager instance = new StorageManager();
   private final File storeDirectory;
@@ -147,21 +146,6 @@ public class StorageManager implements Runnable {
 
   private static final String NO_HOST = "$NO_HOST$";
 
-  public File getCacheHostDirectory(String hostName) throws IOException {
-    CacheManager.getInstance();
-    final File cacheDir = this.getCacheRoot();
-    if ((hostName == null) || "".equals(hostName)) {
-      hostName = NO_HOST;
-    }
-    return new File(cacheDir, normalizedFileName(hostName));
-  }
-
-  public File getContentCacheFile(final String hostName, final String fileName) throws IOException {
-    final File domainDir = this.getCacheHostDirectory(hostName);
-    final File xamjDir = new File(domainDir, CONTENT_DIR);
-    return new File(xamjDir, fileName);
-  }
-
   public File getCacheRoot() {
     return this.cacheRootDirectory;
   }
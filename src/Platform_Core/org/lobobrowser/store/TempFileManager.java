@@ -33,7 +33,7 @@ import java.util.jar.JarFile;
 
 import org.lobobrowser.security.LocalSecurityPolicy;
 
-// TODO: This doesn't seem to be used anymore. Remove?
+// Used to hand out JAR files for content held in the cache store.
 class TempFileManager {
   private static TempFileManager instance;
   private static final String GENERAL_PREFIX = "gngr-";
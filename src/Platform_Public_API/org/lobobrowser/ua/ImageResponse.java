@@ -21,28 +21,79 @@
 package org.lobobrowser.ua;
 
 import java.awt.Image;
+import java.awt.image.ImageObserver;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
 public final class ImageResponse {
-  public static enum State {loading, loaded, error}
+  /**
+   * The state of an image. A <code>partial</code> image is still being
+   * decoded as it arrives, and has only some of its pixels so far.
+   */
+  public static enum State {loading, partial, loaded, error}
 
   public final State state;
   public final @Nullable Image img;
 
+  // The size given by the image file, if the image was decoded at a lower
+  // resolution to save memory. Otherwise -1.
+  private final int intrinsicWidth;
+  private final int intrinsicHeight;
+
   public ImageResponse() {
-    this.state = State.loading;
-    this.img = null;
+    this(State.loading, null);
   }
 
   public ImageResponse(final State state, final @Nullable Image img) {
+    this(state, img, -1, -1);
+  }
+
+  /**
+   * Creates a response for an image that was decoded at a lower resolution
+   * than its file has, which is the given intrinsic size.
+   */
+  public ImageResponse(final State state, final @Nullable Image img, final int intrinsicWidth, final int intrinsicHeight) {
     this.state = state;
     this.img = img;
+    this.intrinsicWidth = intrinsicWidth;
+    this.intrinsicHeight = intrinsicHeight;
+  }
+
+  /**
+   * Tells whether the image was decoded at a lower resolution than its file
+   * has, to save memory.
+   */
+  public boolean isSubsampled() {
+    return intrinsicWidth >= 0;
+  }
+
+  /**
+   * Gets the width the image should be laid out with, which can be larger than
+   * the width of the decoded image. Returns -1 if it is not known yet.
+   */
+  public int getWidth(final ImageObserver observer) {
+    if (intrinsicWidth >= 0) {
+      return intrinsicWidth;
+    }
+    final Image imgLocal = img;
+    return imgLocal == null ? -1 : imgLocal.getWidth(observer);
+  }
+
+  /**
+   * Gets the height the image should be laid out with, which can be larger
+   * than the height of the decoded image. Returns -1 if it is not known yet.
+   */
+  public int getHeight(final ImageObserver observer) {
+    if (intrinsicHeight >= 0) {
+      return intrinsicHeight;
+    }
+    final Image imgLocal = img;
+    return imgLocal == null ? -1 : imgLocal.getHeight(observer);
   }
 
   public boolean isDecoded() {
-    if (state == State.loaded) {
+    if ((state == State.loaded) || (state == State.partial)) {
       assert(img != null);
       @NonNull Image imgLocal = img;
       return imgLocal.getWidth(null) >= 0 && imgLocal.getHeight(null) >= 0;
@@ -57,7 +108,7 @@ public final class ImageResponse {
       @NonNull Image imgLocal = img;
       return imgLocal.getWidth(null) >= 0 && imgLocal.getHeight(null) >= 0;
     } else {
-      return state != State.loading;
+      return (state != State.loading) && (state != State.partial);
     }
   }
 
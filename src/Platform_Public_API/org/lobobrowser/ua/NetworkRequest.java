@@ -23,9 +23,14 @@
  */
 package org.lobobrowser.ua;
 
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.lobobrowser.ua.UserAgentContext.Request;
@@ -96,11 +101,39 @@ public interface NetworkRequest {
    */
   public @NonNull ImageResponse getResponseImage();
 
+  /**
+   * Gets the request response as an AWT image without waiting for it to be
+   * decoded. The consumer may be called from another thread, once the image
+   * is ready.
+   */
+  public void getResponseImage(Consumer<@NonNull ImageResponse> consumer);
+
+  /**
+   * Asks for the response image to be decoded while it arrives, if it is large
+   * enough for that to be worthwhile. The consumer is then called from a
+   * decoder thread with the partial image and the area of it that was updated.
+   * This should be called before {@link #send(String, Request)}. The complete
+   * image is still obtained with {@link #getResponseImage(Consumer)}.
+   */
+  public default void setPartialImageConsumer(final BiConsumer<@NonNull ImageResponse, Rectangle> consumer) {
+    // Partial images are optional.
+  }
+
   /**
    * Gets the request response bytes.
    */
   public byte[] getResponseBytes();
 
+  /**
+   * Gets a stream over the response bytes, or <code>null</code> if there is no
+   * response. Implementations may read the body in place rather than copy it,
+   * so the stream should be closed when done.
+   */
+  public default InputStream getResponseStream() {
+    final byte[] bytes = this.getResponseBytes();
+    return bytes == null ? null : new ByteArrayInputStream(bytes);
+  }
+
   /**
    * Gets the status of the response. Note that this can be 0 for file requests
    * in addition to 200 for successful HTTP requests.
@@ -227,4 +260,25 @@ public interface NetworkRequest {
   public boolean isAsnyc();
 
   public void addRequestedHeader(String header, String value);
+
+  /**
+   * Moves an asynchronous request that is still waiting to be sent ahead of
+   * the other requests for the same kind of resource, because the resource is
+   * now in view. For example, an image that has scrolled into view is fetched
+   * before the other images.
+   */
+  public default void prioritize() {
+    // nop
+  }
+
+  /**
+   * Marks the request as a guess at a resource that a document is going to
+   * ask for, such as one found by scanning ahead of the parser. If the response
+   * can't be cached, it is held for a while so that the document's own request
+   * for the resource gets it without fetching it again. To be called before
+   * {@link #send(String, Request)}.
+   */
+  public default void setSpeculative() {
+    // nop
+  }
 }
@@ -0,0 +1,315 @@
+package org.lobobrowser.primary.clientlets.html;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Determines the charset of a document from its first bytes, before it is
+ * decoded, as in the HTML specification's encoding sniffing: a byte order
+ * mark, or else a <code>meta</code> element that declares a charset near the
+ * beginning of the document. The document can then be parsed once, in the
+ * right charset.
+ */
+final class CharsetSniffer {
+  /** The number of bytes that are looked at. */
+  static final int PRESCAN_LENGTH = 1024;
+
+  private final byte[] bytes;
+  private final int length;
+  private int position = 0;
+
+  // The last attribute read by getAttribute().
+  private String attributeName;
+  private String attributeValue;
+
+  private CharsetSniffer(final byte[] bytes, final int length) {
+    this.bytes = bytes;
+    this.length = length;
+  }
+
+  /**
+   * Reads up to {@link #PRESCAN_LENGTH} bytes, fewer only at the end of the
+   * stream, and returns how many were read.
+   */
+  static int readHead(final InputStream in, final byte[] buffer) throws IOException {
+    int total = 0;
+    while (total < buffer.length) {
+      final int n = in.read(buffer, total, buffer.length - total);
+      if (n == -1) {
+        break;
+      }
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+   * Gets the charset given by a byte order mark, or <code>null</code> if there
+   * is none.
+   */
+  static String getBomCharset(final byte[] b, final int length) {
+    if ((length >= 3) && ((b[0] & 0xff) == 0xef) && ((b[1] & 0xff) == 0xbb) && ((b[2] & 0xff) == 0xbf)) {
+      return "UTF-8";
+    } else if ((length >= 2) && ((b[0] & 0xff) == 0xfe) && ((b[1] & 0xff) == 0xff)) {
+      return "UTF-16BE";
+    } else if ((length >= 2) && ((b[0] & 0xff) == 0xff) && ((b[1] & 0xff) == 0xfe)) {
+      return "UTF-16LE";
+    } else {
+      return null;
+    }
+  }
+
+  /** Gets the length of the byte order mark of a charset from getBomCharset(). */
+  static int getBomLength(final String bomCharset) {
+    return "UTF-8".equals(bomCharset) ? 3 : 2;
+  }
+
+  /**
+   * Looks for a <code>meta</code> element that declares a supported charset,
+   * and returns the charset's name, or <code>null</code> if none is found.
+   */
+  static String prescan(final byte[] bytes, final int length) {
+    return new CharsetSniffer(bytes, length).prescan();
+  }
+
+  private String prescan() {
+    while (this.position < this.length) {
+      if (this.startsWith("<!--")) {
+        // Skip to the end of the comment; "<!-->" ends it too.
+        this.position += 2;
+        while ((this.position < this.length) && !this.startsWith("-->")) {
+          this.position++;
+        }
+        this.position += 2;
+      } else if (this.startsWithIgnoreCase("<meta") && this.isSpaceOrSlash(this.position + 5)) {
+        this.position += 6;
+        final String charset = this.readMeta();
+        if (charset != null) {
+          return charset;
+        }
+      } else if ((this.at(this.position) == '<') && (isLetter(this.at(this.position + 1))
+          || ((this.at(this.position + 1) == '/') && isLetter(this.at(this.position + 2))))) {
+        while ((this.position < this.length) && !isSpace(this.at(this.position)) && (this.at(this.position) != '>')) {
+          this.position++;
+        }
+        while (this.getAttribute()) {
+          // Attributes of other elements are skipped.
+        }
+      } else if (this.startsWith("<!") || this.startsWith("</") || this.startsWith("<?")) {
+        while ((this.position < this.length) && (this.at(this.position) != '>')) {
+          this.position++;
+        }
+      }
+      this.position++;
+    }
+    return null;
+  }
+
+  /** Reads the attributes of a meta element and gets the charset it declares. */
+  private String readMeta() {
+    final Set<String> attributeNames = new HashSet<>();
+    boolean gotPragma = false;
+    // Null until charset or content is seen.
+    Boolean needPragma = null;
+    String charset = null;
+    while (this.getAttribute()) {
+      final String name = this.attributeName;
+      if (!attributeNames.add(name)) {
+        continue;
+      }
+      if ("http-equiv".equals(name)) {
+        if ("content-type".equals(this.attributeValue)) {
+          gotPragma = true;
+        }
+      } else if ("content".equals(name)) {
+        if (charset == null) {
+          final String contentCharset = extractCharset(this.attributeValue);
+          if (contentCharset != null) {
+            charset = contentCharset;
+            needPragma = Boolean.TRUE;
+          }
+        }
+      } else if ("charset".equals(name)) {
+        charset = this.attributeValue;
+        needPragma = Boolean.FALSE;
+      }
+    }
+    if ((needPragma == null) || (needPragma.booleanValue() && !gotPragma) || (charset == null)) {
+      return null;
+    }
+    return toSupportedCharset(charset.trim());
+  }
+
+  private static String toSupportedCharset(final String label) {
+    if (label.startsWith("utf-16")) {
+      // A document that can declare its charset in ASCII isn't UTF-16.
+      return "UTF-8";
+    } else if ("x-user-defined".equals(label)) {
+      return "windows-1252";
+    }
+    try {
+      return Charset.isSupported(label) ? Charset.forName(label).name() : null;
+    } catch (final IllegalCharsetNameException icne) {
+      return null;
+    }
+  }
+
+  /**
+   * Gets the charset from a content attribute such as
+   * <code>text/html; charset=utf-8</code>, or <code>null</code> if there is
+   * none. The value is already lower case.
+   */
+  static String extractCharset(final String content) {
+    final int length = content.length();
+    int i = 0;
+    for (;;) {
+      final int found = content.indexOf("charset", i);
+      if (found == -1) {
+        return null;
+      }
+      i = found + 7;
+      while ((i < length) && isSpace(content.charAt(i))) {
+        i++;
+      }
+      if ((i < length) && (content.charAt(i) == '=')) {
+        break;
+      }
+    }
+    i++;
+    while ((i < length) && isSpace(content.charAt(i))) {
+      i++;
+    }
+    if (i == length) {
+      return null;
+    }
+    final char quote = content.charAt(i);
+    if ((quote == '"') || (quote == '\'')) {
+      final int end = content.indexOf(quote, i + 1);
+      return end == -1 ? null : content.substring(i + 1, end);
+    }
+    int end = i;
+    while ((end < length) && !isSpace(content.charAt(end)) && (content.charAt(end) != ';')) {
+      end++;
+    }
+    return content.substring(i, end);
+  }
+
+  /**
+   * Reads an attribute into attributeName and attributeValue, lower case.
+   * Returns <code>false</code> at the end of the tag.
+   */
+  private boolean getAttribute() {
+    while ((this.position < this.length) && (isSpace(this.at(this.position)) || (this.at(this.position) == '/'))) {
+      this.position++;
+    }
+    if ((this.position >= this.length) || (this.at(this.position) == '>')) {
+      return false;
+    }
+    final StringBuilder name = new StringBuilder();
+    final StringBuilder value = new StringBuilder();
+    this.attributeName = null;
+    boolean hasValue = false;
+    for (;;) {
+      if (this.position >= this.length) {
+        return false;
+      }
+      final int ch = this.at(this.position);
+      if ((ch == '=') && (name.length() > 0)) {
+        this.position++;
+        hasValue = true;
+        break;
+      } else if (isSpace(ch)) {
+        while ((this.position < this.length) && isSpace(this.at(this.position))) {
+          this.position++;
+        }
+        if (this.at(this.position) == '=') {
+          this.position++;
+          hasValue = true;
+        }
+        break;
+      } else if ((ch == '/') || (ch == '>')) {
+        break;
+      } else {
+        name.append(toLowerCase(ch));
+        this.position++;
+      }
+    }
+    if (hasValue) {
+      while ((this.position < this.length) && isSpace(this.at(this.position))) {
+        this.position++;
+      }
+      if (this.position >= this.length) {
+        return false;
+      }
+      final int first = this.at(this.position);
+      if ((first == '"') || (first == '\'')) {
+        this.position++;
+        for (;;) {
+          if (this.position >= this.length) {
+            return false;
+          }
+          final int ch = this.at(this.position++);
+          if (ch == first) {
+            break;
+          }
+          value.append(toLowerCase(ch));
+        }
+      } else {
+        while ((this.position < this.length) && !isSpace(this.at(this.position)) && (this.at(this.position) != '>')) {
+          value.append(toLowerCase(this.at(this.position++)));
+        }
+        if (this.position >= this.length) {
+          return false;
+        }
+      }
+    }
+    this.attributeName = name.toString();
+    this.attributeValue = value.toString();
+    return true;
+  }
+
+  private int at(final int index) {
+    return index < this.length ? this.bytes[index] & 0xff : -1;
+  }
+
+  private boolean startsWith(final String s) {
+    final int n = s.length();
+    for (int i = 0; i < n; i++) {
+      if (this.at(this.position + i) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean startsWithIgnoreCase(final String s) {
+    final int n = s.length();
+    for (int i = 0; i < n; i++) {
+      if (toLowerCase(this.at(this.position + i)) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isSpaceOrSlash(final int index) {
+    final int ch = this.at(index);
+    return isSpace(ch) || (ch == '/');
+  }
+
+  private static boolean isSpace(final int ch) {
+    return (ch == ' ') || (ch == '\t') || (ch == '\n') || (ch == '\f') || (ch == '\r');
+  }
+
+  private static boolean isLetter(final int ch) {
+    return ((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z'));
+  }
+
+  private static char toLowerCase(final int ch) {
+    return ((ch >= 'A') && (ch <= 'Z')) ? (char) (ch + ('a' - 'A')) : (char) ch;
+  }
+}
@@ -26,13 +26,9 @@ package org.lobobrowser.primary.clientlets.html;
 import java.awt.event.ActionEvent;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
@@ -46,9 +42,11 @@ import org.lobobrowser.clientlet.ClientletContext;
 import org.lobobrowser.clientlet.ClientletException;
 import org.lobobrowser.clientlet.ClientletResponse;
 import org.lobobrowser.html.HtmlRendererContext;
+import org.lobobrowser.html.domimpl.DocumentNotificationAdapter;
 import org.lobobrowser.html.domimpl.DocumentNotificationListener;
 import org.lobobrowser.html.domimpl.HTMLDocumentImpl;
 import org.lobobrowser.html.domimpl.NodeImpl;
+import org.lobobrowser.html.domimpl.RenderingPolicy;
 import org.lobobrowser.html.gui.HtmlPanel;
 import org.lobobrowser.html.parser.DocumentBuilderImpl;
 import org.lobobrowser.html.parser.InputSourceImpl;
@@ -57,7 +55,6 @@ import org.lobobrowser.ua.RequestType;
 import org.lobobrowser.util.Strings;
 import org.lobobrowser.util.Urls;
 import org.lobobrowser.util.io.RecordedInputStream;
-import org.w3c.dom.Element;
 import org.w3c.dom.html.HTMLElement;
 
 /**
@@ -67,8 +64,7 @@ public final class HtmlClientlet implements Clientlet {
   private static final Logger logger = Logger.getLogger(HtmlClientlet.class.getName());
   private static final Set<String> NON_VISIBLE_ELEMENTS = new HashSet<>();
 
-  // Maximum buffer size required to determine if a reload due
-  // to Http-Equiv is necessary.
+  // Maximum size of the recording kept for the source view.
   private static final int MAX_IS_BUFFER_SIZE = 1024 * 100;
 
   public HtmlClientlet() {
@@ -81,17 +77,11 @@ public final class HtmlClientlet implements Clientlet {
    * @see org.xamjwg.clientlet.Clientlet#parse(org.xamjwg.dom.XDocument)
    */
   public void process(final ClientletContext cc) throws ClientletException {
-    this.processImpl(cc, null, null);
-  }
-
-  private void processImpl(final ClientletContext cc, final Map<String, String> httpEquivData, RecordedInputStream rin)
-      throws ClientletException {
-    // This method may be executed twice, depending on http-equiv meta elements.
+    PreloadScanner scanner = null;
     try {
       final ClientletResponse response = cc.getResponse();
-      final boolean charsetProvided = response.isCharsetProvided();
       final String contentLanguage = response.getHeader("Content-Language");
-      Set<Locale> locales = contentLanguage == null ? null : HtmlClientlet.extractLocales(contentLanguage);
+      final Set<Locale> locales = contentLanguage == null ? null : HtmlClientlet.extractLocales(contentLanguage);
       RefreshInfo refresh = null;
       final Iterator<String> hi = response.getHeaderNames();
       // TODO: What is the behavior if you have
@@ -105,42 +95,33 @@ public final class HtmlClientlet implements Clientlet {
           }
         }
       }
-      String httpEquivCharset = null;
-      if (httpEquivData != null) {
-        final Iterator<Map.Entry<String, String>> i = httpEquivData.entrySet().iterator();
-        while (i.hasNext()) {
-          final Map.Entry<String, String> entry = i.next();
-          final String httpEquiv = entry.getKey();
-          final String content = entry.getValue();
-          if (content != null) {
-            if ("content-type".equalsIgnoreCase(httpEquiv)) {
-              httpEquivCharset = HtmlClientlet.extractCharset(response.getResponseURL(), content);
-            } else if ("refresh".equalsIgnoreCase(httpEquiv)) {
-              refresh = HtmlClientlet.extractRefresh(content);
-            } else if ("content-language".equalsIgnoreCase(httpEquiv)) {
-              locales = HtmlClientlet.extractLocales(content);
-            }
-          }
-        }
-      }
       final HtmlRendererContextImpl rcontext = HtmlRendererContextImpl.getHtmlRendererContext(cc.getNavigatorFrame());
       final DocumentBuilderImpl builder = new DocumentBuilderImpl(rcontext.getUserAgentContext(), rcontext);
-      if (rin == null) {
-        final InputStream in = response.getInputStream();
-        rin = in instanceof RecordedInputStream ? (RecordedInputStream) in : new RecordedInputStream(in, MAX_IS_BUFFER_SIZE);
-        rin.mark(Short.MAX_VALUE);
-      } else {
-        rin.reset();
-      }
       final URL responseURL = response.getResponseURL();
       final String uri = responseURL.toExternalForm();
+      final InputStream in = response.getInputStream();
+      final RecordedInputStream rin = in instanceof RecordedInputStream ? (RecordedInputStream) in : new RecordedInputStream(in,
+          MAX_IS_BUFFER_SIZE);
+      // The content keeps the recording for its source view, after the
+      // response itself has been released.
+      rin.retain();
+      rin.mark(Short.MAX_VALUE);
+      // The charset is settled from the first bytes, before decoding, so that
+      // the document is parsed only once.
+      final byte[] head = new byte[CharsetSniffer.PRESCAN_LENGTH];
+      final int headLength = CharsetSniffer.readHead(rin, head);
+      rin.reset();
+      final String bomCharset = CharsetSniffer.getBomCharset(head, headLength);
       String charset;
-      if (!charsetProvided) {
-        charset = httpEquivCharset;
-      } else {
+      if (bomCharset != null) {
+        charset = bomCharset;
+        rin.skip(CharsetSniffer.getBomLength(bomCharset));
+      } else if (response.isCharsetProvided()) {
         // See bug # 2051468. A charset provided
         // in headers takes precendence.
         charset = response.getCharset();
+      } else {
+        charset = CharsetSniffer.prescan(head, headLength);
       }
       if (charset == null) {
         // charset = "ISO-8859-1";
@@ -149,7 +130,12 @@ public final class HtmlClientlet implements Clientlet {
       if (logger.isLoggable(Level.INFO)) {
         logger.info("process(): charset=" + charset + " for URI=[" + uri + "]");
       }
-      final InputSourceImpl is = new InputSourceImpl(rin, uri, charset);
+      // Start fetching subresources before the parser gets to them.
+      scanner = PreloadScanner.start(rin, responseURL, charset, rcontext.getUserAgentContext(), rcontext.isImageLoadingEnabled());
+      // The scanner reads the response ahead of the parser, which then reads
+      // what the scanner has buffered.
+      final InputStream documentIn = scanner == null ? rin : scanner.getInputStream();
+      final InputSourceImpl is = new InputSourceImpl(documentIn, uri, charset);
       final HTMLDocumentImpl document = (HTMLDocumentImpl) builder.createDocument(is, response.getContentType());
       document.setLocales(locales);
       final String referrer = cc.getRequest().getReferrer();
@@ -157,22 +143,23 @@ public final class HtmlClientlet implements Clientlet {
       final HtmlPanel panel = rcontext.getHtmlPanel();
       // Create a listener that will switch to rendering when appropriate.
       final HtmlContent content = new HtmlContent(document, panel, rin, charset);
-      final LocalDocumentNotificationListener listener = new LocalDocumentNotificationListener(document, panel, rcontext, cc, content,
-          httpEquivData == null);
+      final LocalDocumentNotificationListener listener = new LocalDocumentNotificationListener(document, panel, rcontext, cc, content);
       document.addDocumentNotificationListener(listener);
+      // The rendering listener goes away once rendering starts, so META
+      // http-equiv elements are watched for by one that stays until the end.
+      final HttpEquivListener httpEquivListener = new HttpEquivListener(document, charset);
+      document.addDocumentNotificationListener(httpEquivListener);
       // Set resulting content before parsing
       // to enable incremental rendering.
       // The load() call starts parsing.
       try {
         document.load(false);
-      } catch (final HttpEquivRetryException retry) {
-        if (logger.isLoggable(Level.INFO)) {
-          logger.info("processImpl(): Resetting due to META http-equiv: " + uri);
-        }
-        // This is a recursive call, but it doesn't go further
-        // than one level deep.
-        this.processImpl(cc, retry.getHttpEquivData(), rin);
-        return;
+      } finally {
+        document.removeDocumentNotificationListener(httpEquivListener);
+      }
+      final RefreshInfo metaRefresh = httpEquivListener.getRefresh();
+      if (metaRefresh != null) {
+        refresh = metaRefresh;
       }
       // We're done parsing, but let's make sure
       // the listener actually renderered the document.
@@ -215,6 +202,10 @@ public final class HtmlClientlet implements Clientlet {
       }
     } catch (final Exception err) {
       throw new ClientletException(err);
+    } finally {
+      if (scanner != null) {
+        scanner.close();
+      }
     }
   }
 
@@ -286,32 +277,81 @@ public final class HtmlClientlet implements Clientlet {
     return new RefreshInfo(delay, urlText);
   }
 
+  /**
+   * Applies META http-equiv elements to the document while it is parsed.
+   */
+  private static class HttpEquivListener extends DocumentNotificationAdapter {
+    private final HTMLDocumentImpl document;
+    private final String charset;
+    private RefreshInfo refresh;
+
+    public HttpEquivListener(final HTMLDocumentImpl doc, final String charset) {
+      this.document = doc;
+      this.charset = charset;
+    }
+
+    private void applyHttpEquiv(final String httpEquiv, final String content) {
+      if ("refresh".equalsIgnoreCase(httpEquiv)) {
+        this.refresh = HtmlClientlet.extractRefresh(content);
+      } else if ("content-language".equalsIgnoreCase(httpEquiv)) {
+        this.document.setLocales(HtmlClientlet.extractLocales(content));
+      } else if ("content-type".equalsIgnoreCase(httpEquiv)) {
+        final String metaCharset = HtmlClientlet.extractCharset(this.document.getDocumentURL(), content);
+        if ((metaCharset != null) && !metaCharset.equalsIgnoreCase(this.charset) && logger.isLoggable(Level.INFO)) {
+          logger.info("applyHttpEquiv(): Ignoring META charset " + metaCharset + " found after the document was decoded as "
+              + this.charset + ".");
+        }
+      }
+    }
+
+    /** Gets the refresh given by a META http-equiv element, if any. */
+    public RefreshInfo getRefresh() {
+      return this.refresh;
+    }
+
+    @Override
+    public void nodeLoaded(final NodeImpl node) {
+      // We can expect this to occur only in the parser thread.
+      if (node instanceof HTMLElement) {
+        final HTMLElement element = (HTMLElement) node;
+        if ("meta".equalsIgnoreCase(element.getTagName())) {
+          final String httpEquiv = element.getAttribute("http-equiv");
+          final String content = element.getAttribute("content");
+          if ((httpEquiv != null) && (content != null)) {
+            this.applyHttpEquiv(httpEquiv, content);
+          }
+        }
+      }
+    }
+  }
+
   private static class LocalDocumentNotificationListener implements DocumentNotificationListener {
-    private static final int MAX_WAIT = 7000;
     private final HTMLDocumentImpl document;
     private final HtmlPanel htmlPanel;
     private final long startTimestamp;
     private final HtmlRendererContext rcontext;
     private final ClientletContext ccontext;
     private final HtmlContent content;
-    private final boolean detectHttpEquiv;
-    private boolean hasVisibleElements = false;
+    private volatile boolean hasVisibleElements = false;
     private boolean hasSwitchedToRendering = false;
-    private Collection<HTMLElement> httpEquivElements;
 
     public LocalDocumentNotificationListener(final HTMLDocumentImpl doc, final HtmlPanel panel, final HtmlRendererContext rcontext,
         final ClientletContext cc,
-        final HtmlContent content, final boolean detectHttpEquiv) {
+        final HtmlContent content) {
       this.document = doc;
       this.startTimestamp = System.currentTimeMillis();
       this.htmlPanel = panel;
       this.rcontext = rcontext;
       this.ccontext = cc;
       this.content = content;
-      this.detectHttpEquiv = detectHttpEquiv;
     }
 
     public void allInvalidated() {
+      // This is how the document tells that it can be laid out, in which
+      // case its first paint should not wait for the parser.
+      if (this.hasVisibleElements && !this.document.layoutBlocked.get()) {
+        this.ensureSwitchedToRendering();
+      }
     }
 
     public void externalScriptLoading(final NodeImpl node) {
@@ -327,45 +367,15 @@ public final class HtmlClientlet implements Clientlet {
     public void lookInvalidated(final NodeImpl node) {
     }
 
-    private void addHttpEquivElement(final HTMLElement element) {
-      Collection<HTMLElement> httpEquivElements = this.httpEquivElements;
-      if (httpEquivElements == null) {
-        httpEquivElements = new LinkedList<>();
-        this.httpEquivElements = httpEquivElements;
-      }
-      httpEquivElements.add(element);
-    }
-
     public void nodeLoaded(final NodeImpl node) {
       // We can expect this to occur only in the parser thread.
-      if (this.detectHttpEquiv) {
-        if (node instanceof HTMLElement) {
-          final HTMLElement element = (HTMLElement) node;
-          final String tagName = element.getTagName();
-          if ("meta".equalsIgnoreCase(tagName)) {
-            final String httpEquiv = element.getAttribute("http-equiv");
-            if (httpEquiv != null) {
-              this.addHttpEquivElement(element);
-            }
-          }
-          if ("head".equalsIgnoreCase(tagName) || "script".equalsIgnoreCase(tagName) || "html".equalsIgnoreCase(tagName)) {
-            // Note: SCRIPT is checked as an optimization. We do not want
-            // scripts to be processed twice. HTML is checked because
-            // sometimes sites don't put http-equiv in HEAD, e.g.
-            // http://baidu.com.
-            final Map<String, String> httpEquiv = this.getHttpEquivData();
-            if ((httpEquiv != null) && (httpEquiv.size() > 0)) {
-              throw new HttpEquivRetryException(httpEquiv);
-            }
-          }
-        }
-      }
       if (!this.hasVisibleElements) {
         if (LocalDocumentNotificationListener.mayBeVisibleElement(node)) {
           this.hasVisibleElements = true;
         }
       }
-      if (this.hasVisibleElements && ((System.currentTimeMillis() - this.startTimestamp) > MAX_WAIT)) {
+      final int budget = RenderingPolicy.getFirstPaintBudget();
+      if (this.hasVisibleElements && (budget >= 0) && ((System.currentTimeMillis() - this.startTimestamp) > budget)) {
         this.ensureSwitchedToRendering();
       }
     }
@@ -407,22 +417,6 @@ public final class HtmlClientlet implements Clientlet {
         ccontext.setResultingContent(content);
       });
     }
-
-    private Map<String, String> getHttpEquivData() {
-      final Collection<HTMLElement> httpEquivElements = this.httpEquivElements;
-      if (httpEquivElements == null) {
-        return null;
-      }
-      final Map<String, String> httpEquivData = new HashMap<>(0);
-      for (final Element element : httpEquivElements) {
-        final String httpEquiv = element.getAttribute("http-equiv");
-        if (httpEquiv != null) {
-          final String content = element.getAttribute("content");
-          httpEquivData.put(httpEquiv, content);
-        }
-      }
-      return httpEquivData;
-    }
   }
 
   private static class RefreshInfo {
@@ -435,18 +429,4 @@ public final class HtmlClientlet implements Clientlet {
       this.destinationUrl = destinationUrl;
     }
   }
-
-  private static class HttpEquivRetryException extends RuntimeException {
-    private static final long serialVersionUID = 3943944816518046414L;
-    private final Map<String, String> httpEquivData;
-
-    public HttpEquivRetryException(final Map<String, String> httpEquiv) {
-      super();
-      this.httpEquivData = httpEquiv;
-    }
-
-    public Map<String, String> getHttpEquivData() {
-      return httpEquivData;
-    }
-  }
 }
@@ -0,0 +1,506 @@
+package org.lobobrowser.primary.clientlets.html;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.lobobrowser.html.domimpl.HTMLImageElementImpl;
+import org.lobobrowser.html.domimpl.LazyLoadPolicy;
+import org.lobobrowser.ua.NetworkRequest;
+import org.lobobrowser.ua.UserAgentContext;
+import org.lobobrowser.ua.UserAgentContext.Request;
+import org.lobobrowser.ua.UserAgentContext.RequestKind;
+
+/**
+ * Reads a document ahead of the parser and starts fetching the style sheets,
+ * scripts and images it refers to. The parser reads the document through
+ * {@link #getInputStream()}. When it gets to an element, the element's request
+ * joins the fetch that is already in flight, or finds the resource in the
+ * cache.
+ * <p>
+ * Only what the parser has not read yet is kept, and the scanner waits when
+ * it gets too far ahead of the parser.
+ * <p>
+ * The scanner works on the raw bytes, so it is only used for charsets where
+ * markup is plain ASCII.
+ */
+final class PreloadScanner {
+  private static final Logger logger = Logger.getLogger(PreloadScanner.class.getName());
+  private static final int READ_BUFFER_SIZE = 8192;
+  private static final int MAX_TAG_LENGTH = 4096;
+  private static final int MAX_PRELOADS = 256;
+  private static final int MAX_READ_AHEAD = 256 * 1024;
+
+  private static final int STATE_DATA = 0;
+  private static final int STATE_TAG_OPEN = 1;
+  private static final int STATE_TAG = 2;
+  private static final int STATE_COMMENT = 3;
+  private static final int STATE_RAW_TEXT = 4;
+
+  private final InputStream source;
+  private final InputStream documentIn = new ContentInputStream();
+  private final Charset charset;
+  private final UserAgentContext uaContext;
+  private final boolean preloadImages;
+  private final Set<String> preloadedURLs = new HashSet<>();
+  private final Thread thread;
+
+  // Guarded by this. Holds what has been read but not yet passed to the parser.
+  private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+  private int pendingBytes = 0;
+  private boolean finished = false;
+  private boolean closed = false;
+  private IOException failure;
+
+  // Only used by the scanning thread.
+  private URL baseURL;
+  private boolean baseFound = false;
+  private boolean scanning = true;
+  private int state = STATE_DATA;
+  private final byte[] tagBuffer = new byte[MAX_TAG_LENGTH];
+  private int tagLength = 0;
+  private byte quote = 0;
+  private int dashCount = 0;
+  private byte[] rawTextEnd;
+  private int rawTextMatched = 0;
+
+  private PreloadScanner(final InputStream source, final URL documentURL, final Charset charset, final UserAgentContext uaContext,
+      final boolean preloadImages) {
+    this.source = source;
+    this.baseURL = documentURL;
+    this.charset = charset;
+    this.uaContext = uaContext;
+    this.preloadImages = preloadImages;
+    this.thread = new Thread(this::run, "PreloadScanner");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Starts reading the given document on a background thread. Returns
+   * <code>null</code> if the document can't be scanned.
+   */
+  static PreloadScanner start(final InputStream source, final URL documentURL, final String charsetName,
+      final UserAgentContext uaContext, final boolean preloadImages) {
+    final String protocol = documentURL.getProtocol();
+    if (!("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol))) {
+      return null;
+    }
+    final Charset charset;
+    try {
+      charset = Charset.forName(charsetName);
+    } catch (final IllegalArgumentException iae) {
+      return null;
+    }
+    if (!"<a=\"'>".equals(new String(new byte[] { '<', 'a', '=', '"', '\'', '>' }, charset))) {
+      // Markup isn't ASCII in this charset.
+      return null;
+    }
+    final PreloadScanner scanner = new PreloadScanner(source, documentURL, charset, uaContext, preloadImages);
+    scanner.thread.start();
+    return scanner;
+  }
+
+  /**
+   * Gets the stream the parser reads the document from. There is only one
+   * such stream, and what has been read from it is not kept.
+   */
+  InputStream getInputStream() {
+    return this.documentIn;
+  }
+
+  /**
+   * Stops reading the document, without waiting for the scanning thread. The
+   * content not read yet is dropped. If the document was not read to the end,
+   * the scanning thread closes the source stream once its current read
+   * returns, so the rest of the document is abandoned.
+   */
+  void close() {
+    synchronized (this) {
+      this.closed = true;
+      this.pending.clear();
+      this.pendingBytes = 0;
+      this.notifyAll();
+    }
+  }
+
+  private void run() {
+    boolean completed = false;
+    boolean stopped = false;
+    try {
+      while (true) {
+        // Each read gets a buffer of its own, since it is queued for the parser.
+        final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        final int numRead = this.source.read(buffer);
+        if (numRead == -1) {
+          break;
+        }
+        if (this.scanning) {
+          try {
+            this.scan(buffer, numRead);
+          } catch (final RuntimeException re) {
+            logger.log(Level.WARNING, "run(): Preload scanning stopped.", re);
+            this.scanning = false;
+          }
+        }
+        synchronized (this) {
+          while ((this.pendingBytes >= MAX_READ_AHEAD) && !this.closed) {
+            this.wait();
+          }
+          if (this.closed) {
+            stopped = true;
+            break;
+          }
+          this.pending.add(ByteBuffer.wrap(buffer, 0, numRead));
+          this.pendingBytes += numRead;
+          this.notifyAll();
+        }
+      }
+      completed = !stopped;
+    } catch (final IOException ioe) {
+      synchronized (this) {
+        this.failure = ioe;
+      }
+    } catch (final InterruptedException ie) {
+      stopped = true;
+    } finally {
+      synchronized (this) {
+        if (!completed && (this.failure == null)) {
+          // Don't let the parser mistake this for the end of the document.
+          this.failure = new IOException("Reading stopped unexpectedly.");
+        }
+        this.finished = true;
+        this.notifyAll();
+      }
+    }
+    if (stopped) {
+      try {
+        this.source.close();
+      } catch (final IOException ioe) {
+        logger.log(Level.FINE, "run(): Unable to close source.", ioe);
+      }
+    }
+  }
+
+  private void scan(final byte[] buffer, final int length) {
+    for (int i = 0; i < length; i++) {
+      final byte b = buffer[i];
+      switch (this.state) {
+      case STATE_DATA:
+        if (b == '<') {
+          this.state = STATE_TAG_OPEN;
+        }
+        break;
+      case STATE_TAG_OPEN:
+        if (isLetter(b) || (b == '/') || (b == '!')) {
+          this.tagLength = 0;
+          this.quote = 0;
+          this.appendTag(b);
+          this.state = STATE_TAG;
+        } else if (b != '<') {
+          this.state = STATE_DATA;
+        }
+        break;
+      case STATE_TAG:
+        if (this.quote != 0) {
+          if (b == this.quote) {
+            this.quote = 0;
+          }
+          this.appendTag(b);
+        } else if (b == '>') {
+          this.state = STATE_DATA;
+          this.tagEnded();
+        } else {
+          if ((b == '"') || (b == '\'')) {
+            this.quote = b;
+          }
+          this.appendTag(b);
+          if ((this.tagLength == 3) && (this.tagBuffer[0] == '!') && (this.tagBuffer[1] == '-') && (this.tagBuffer[2] == '-')) {
+            this.dashCount = 0;
+            this.state = STATE_COMMENT;
+          }
+        }
+        break;
+      case STATE_COMMENT:
+        if (b == '-') {
+          this.dashCount++;
+        } else {
+          if ((b == '>') && (this.dashCount >= 2)) {
+            this.state = STATE_DATA;
+          }
+          this.dashCount = 0;
+        }
+        break;
+      case STATE_RAW_TEXT:
+        final byte[] end = this.rawTextEnd;
+        if (toLowerCase(b) == end[this.rawTextMatched]) {
+          this.rawTextMatched++;
+          if (this.rawTextMatched == end.length) {
+            this.state = STATE_DATA;
+          }
+        } else {
+          this.rawTextMatched = b == '<' ? 1 : 0;
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected state: " + this.state);
+      }
+    }
+  }
+
+  private void appendTag(final byte b) {
+    if (this.tagLength == MAX_TAG_LENGTH) {
+      // Not something worth looking at.
+      this.state = STATE_DATA;
+    } else {
+      this.tagBuffer[this.tagLength++] = b;
+    }
+  }
+
+  private static boolean isLetter(final byte b) {
+    return ((b >= 'a') && (b <= 'z')) || ((b >= 'A') && (b <= 'Z'));
+  }
+
+  private static byte toLowerCase(final byte b) {
+    return (b >= 'A') && (b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+  }
+
+  private void tagEnded() {
+    final String tag = new String(this.tagBuffer, 0, this.tagLength, this.charset);
+    int nameEnd = 0;
+    while ((nameEnd < tag.length()) && !isTagNameEnd(tag.charAt(nameEnd))) {
+      nameEnd++;
+    }
+    final String tagName = tag.substring(0, nameEnd).toLowerCase();
+    switch (tagName) {
+    case "script":
+      this.preloadScript(parseAttributes(tag, nameEnd));
+      this.skipRawText("</script");
+      break;
+    case "style":
+    case "textarea":
+    case "title":
+      this.skipRawText("</" + tagName);
+      break;
+    case "noscript":
+      if (this.uaContext.isScriptingEnabled()) {
+        this.skipRawText("</noscript");
+      }
+      break;
+    case "link":
+      this.preloadStyleSheet(parseAttributes(tag, nameEnd));
+      break;
+    case "img":
+      if (this.preloadImages) {
+        final Map<String, String> attributes = parseAttributes(tag, nameEnd);
+        if (LazyLoadPolicy.isLazy(attributes.get("loading"))) {
+          // Fetched only once it comes near the viewport.
+          break;
+        }
+        final String src = attributes.get("src");
+        this.preload(src != null ? src : HTMLImageElementImpl.getDefaultSrcsetCandidate(attributes.get("srcset")), RequestKind.Image);
+      }
+      break;
+    case "base":
+      if (!this.baseFound) {
+        final String href = parseAttributes(tag, nameEnd).get("href");
+        if (href != null) {
+          this.baseFound = true;
+          try {
+            this.baseURL = new URL(this.baseURL, href.trim());
+          } catch (final MalformedURLException mfe) {
+            // Keep the document URL.
+          }
+        }
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  private static boolean isTagNameEnd(final char c) {
+    return Character.isWhitespace(c) || (c == '/');
+  }
+
+  private void skipRawText(final String endTag) {
+    this.rawTextEnd = endTag.getBytes(this.charset);
+    this.rawTextMatched = 0;
+    this.state = STATE_RAW_TEXT;
+  }
+
+  private void preloadScript(final Map<String, String> attributes) {
+    if (!this.uaContext.isScriptingEnabled()) {
+      return;
+    }
+    final String type = attributes.get("type");
+    if ((type != null) && (type.trim().length() != 0)) {
+      final String typeTL = type.toLowerCase();
+      if (!(typeTL.contains("javascript") || typeTL.contains("ecmascript"))) {
+        return;
+      }
+    }
+    this.preload(attributes.get("src"), RequestKind.JavaScript);
+  }
+
+  private void preloadStyleSheet(final Map<String, String> attributes) {
+    final String rel = attributes.get("rel");
+    if (rel == null) {
+      return;
+    }
+    boolean isStyleSheet = false;
+    for (final String token : rel.toLowerCase().split("\\s+")) {
+      if ("alternate".equals(token)) {
+        return;
+      } else if ("stylesheet".equals(token)) {
+        isStyleSheet = true;
+      }
+    }
+    if (isStyleSheet) {
+      this.preload(attributes.get("href"), RequestKind.CSS);
+    }
+  }
+
+  private void preload(final String relativeURL, final RequestKind kind) {
+    if ((relativeURL == null) || (this.preloadedURLs.size() >= MAX_PRELOADS)) {
+      return;
+    }
+    final String trimmed = relativeURL.trim();
+    if (trimmed.length() == 0) {
+      return;
+    }
+    try {
+      final URL url = new URL(this.baseURL, trimmed.replace("&amp;", "&"));
+      final String protocol = url.getProtocol();
+      if (!("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol))) {
+        return;
+      }
+      if (this.preloadedURLs.add(url.toExternalForm())) {
+        if (logger.isLoggable(Level.INFO)) {
+          logger.info("preload(): Preloading " + kind + " " + url);
+        }
+        final NetworkRequest request = this.uaContext.createHttpRequest();
+        request.open("GET", url, true);
+        // The parser's request for the resource takes the response, even if
+        // it can't be cached.
+        request.setSpeculative();
+        // The request is checked against the frame's permissions.
+        request.send(null, new Request(url, kind));
+      }
+    } catch (final IOException ioe) {
+      logger.log(Level.WARNING, "preload(): Unable to preload " + trimmed, ioe);
+    }
+  }
+
+  /**
+   * Gets the attributes of a tag, with lower case names. When an attribute is
+   * repeated, the first one is kept, as the parser does.
+   */
+  private static Map<String, String> parseAttributes(final String tag, final int start) {
+    final Map<String, String> attributes = new HashMap<>();
+    final int length = tag.length();
+    int i = start;
+    while (i < length) {
+      while ((i < length) && (Character.isWhitespace(tag.charAt(i)) || (tag.charAt(i) == '/'))) {
+        i++;
+      }
+      final int nameStart = i;
+      while ((i < length) && !Character.isWhitespace(tag.charAt(i)) && (tag.charAt(i) != '=') && (tag.charAt(i) != '/')) {
+        i++;
+      }
+      if (i == nameStart) {
+        i++;
+        continue;
+      }
+      final String name = tag.substring(nameStart, i).toLowerCase();
+      while ((i < length) && Character.isWhitespace(tag.charAt(i))) {
+        i++;
+      }
+      String value = "";
+      if ((i < length) && (tag.charAt(i) == '=')) {
+        i++;
+        while ((i < length) && Character.isWhitespace(tag.charAt(i))) {
+          i++;
+        }
+        if (i < length) {
+          final char c = tag.charAt(i);
+          if ((c == '"') || (c == '\'')) {
+            final int valueEnd = tag.indexOf(c, i + 1);
+            final int end = valueEnd == -1 ? length : valueEnd;
+            value = tag.substring(i + 1, end);
+            i = end + 1;
+          } else {
+            final int valueStart = i;
+            while ((i < length) && !Character.isWhitespace(tag.charAt(i))) {
+              i++;
+            }
+            value = tag.substring(valueStart, i);
+          }
+        }
+      }
+      attributes.putIfAbsent(name, value);
+    }
+    return attributes;
+  }
+
+  private final class ContentInputStream extends InputStream {
+    @Override
+    public int read() throws IOException {
+      final byte[] single = new byte[1];
+      final int numRead = this.read(single, 0, 1);
+      return numRead == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      synchronized (PreloadScanner.this) {
+        while (pending.isEmpty() && !finished && !closed) {
+          try {
+            PreloadScanner.this.wait();
+          } catch (final InterruptedException ie) {
+            throw new InterruptedIOException();
+          }
+        }
+        if (closed) {
+          throw new IOException("Stream closed.");
+        }
+        final ByteBuffer next = pending.peek();
+        if (next == null) {
+          if (failure != null) {
+            throw failure;
+          }
+          return -1;
+        }
+        final int numRead = Math.min(length, next.remaining());
+        next.get(buffer, offset, numRead);
+        if (!next.hasRemaining()) {
+          pending.poll();
+        }
+        pendingBytes -= numRead;
+        // The scanner may be waiting for the parser to catch up.
+        PreloadScanner.this.notifyAll();
+        return numRead;
+      }
+    }
+
+    @Override
+    public int available() {
+      synchronized (PreloadScanner.this) {
+        return closed ? 0 : pendingBytes;
+      }
+    }
+  }
+}
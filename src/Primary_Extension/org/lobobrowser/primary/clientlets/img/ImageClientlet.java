@@ -22,6 +22,7 @@
 package org.lobobrowser.primary.clientlets.img;
 
 import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.Image;
 import java.awt.Toolkit;
 import java.io.IOException;
@@ -67,26 +68,33 @@ public final class ImageClientlet implements Clientlet {
     if (logger.isLoggable(Level.INFO)) {
       logger.info("process(): Loaded " + imageBytes.length + " bytes.");
     }
-    final Image image = Toolkit.getDefaultToolkit().createImage(imageBytes);
+    // Images that ImageIO can decode are decoded only at the resolution shown.
+    final Dimension size = ImageScrollable.getDecodableSize(imageBytes);
+    final ImageScrollable is;
+    if (size == null) {
+      final Image image = Toolkit.getDefaultToolkit().createImage(imageBytes);
+      is = new ImageScrollable(image);
+    } else {
+      is = new ImageScrollable(imageBytes, size.width, size.height);
+    }
 
     final HtmlRendererContextImpl rcontext = HtmlRendererContextImpl.getHtmlRendererContext(context.getNavigatorFrame());
     // final HTMLDocumentImpl document = new HTMLDocumentImpl(rcontext.getUserAgentContext(), context.getRequest().getRequestURL().toString());
     rcontext.getHtmlPanel().setDocument(new SimpleDocument(mimeType), rcontext);
-    context.setResultingContent(new ImageContent(image, mimeType, rcontext));
+    context.setResultingContent(new ImageContent(is, mimeType, rcontext));
     // Window.getWindow(rcontext).setDocument(new ImageDocument(mimeType));
   }
 
   private static final class ImageContent implements ComponentContent {
-    private final Image image;
+    private final ImageScrollable imageScrollable;
     private final String mimeType;
     private final JScrollPane scrollPane;
     private HtmlRendererContext context;
 
-    public ImageContent(final Image image, final String mimeType, final HtmlRendererContext context) {
-      final ImageScrollable is = new ImageScrollable(image);
+    public ImageContent(final ImageScrollable is, final String mimeType, final HtmlRendererContext context) {
       final JScrollPane sp = new JScrollPane(is);
       this.scrollPane = sp;
-      this.image = image;
+      this.imageScrollable = is;
       this.mimeType = mimeType;
       this.context = context;
     }
@@ -113,11 +121,11 @@ public final class ImageClientlet implements Clientlet {
     }
 
     public Object getContentObject() {
-      return this.image;
+      return this.imageScrollable.getImage();
     }
 
     public String getDescription() {
-      return this.image.toString();
+      return String.valueOf(this.imageScrollable.getImage());
     }
 
     public String getMimeType() {
@@ -133,7 +141,7 @@ public final class ImageClientlet implements Clientlet {
     }
 
     public void removeNotify() {
-      this.image.flush();
+      this.imageScrollable.dispose();
     }
 
     public void setProperty(final String name, final Object value) {
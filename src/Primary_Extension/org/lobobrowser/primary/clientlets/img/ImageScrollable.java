@@ -21,38 +21,279 @@
 
 package org.lobobrowser.primary.clientlets.img;
 
+import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Insets;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.swing.JComponent;
 import javax.swing.Scrollable;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+import org.lobobrowser.util.SimpleThreadPool;
+import org.lobobrowser.util.SimpleThreadPoolTask;
 
 public class ImageScrollable extends JComponent implements Scrollable {
   private static final long serialVersionUID = 5025159268512978417L;
-  private final Image image;
+  private static final Logger logger = Logger.getLogger(ImageScrollable.class.getName());
+  // A single thread, so that resizing a window doesn't start several full decodes at once.
+  private static final SimpleThreadPool decoderPool = new SimpleThreadPool("ImageViewerDecoderPool", 0, 1, 60 * 1000);
+  private volatile Image image;
   private int imageWidth = -1;
   private int imageHeight = -1;
 
+  /**
+   * The encoded image, when it is decoded here rather than by the toolkit. It
+   * is then decoded only at the resolution the window can show, unless it is
+   * zoomed to its actual size.
+   */
+  private final byte[] imageBytes;
+  private boolean fitToWindow = true;
+  private int subsampling = 0;
+  // The decode asked for last, if it hasn't finished yet. Only used in the GUI thread.
+  private DecodeTask pendingDecode;
+
   public ImageScrollable(final Image img) {
     super();
     this.image = img;
+    this.imageBytes = null;
     final int w = img.getWidth(this);
     final int h = img.getHeight(this);
     this.imageWidth = w;
     this.imageHeight = h;
   }
 
+  /**
+   * Creates a scrollable for an image that ImageIO can decode, of which the
+   * size is given by {@link #getDecodableSize(byte[])}. The image is shrunk to
+   * fit the window, and a click toggles between that and its actual size.
+   */
+  public ImageScrollable(final byte[] imageBytes, final int width, final int height) {
+    super();
+    this.imageBytes = imageBytes;
+    this.imageWidth = width;
+    this.imageHeight = height;
+    this.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(final MouseEvent e) {
+        toggleFitToWindow();
+      }
+    });
+    this.updateCursor();
+  }
+
+  /**
+   * Gets the size of an image that can be decoded with subsampling, or
+   * <code>null</code> if it is left to the toolkit, as are animated GIFs.
+   */
+  public static Dimension getDecodableSize(final byte[] imageBytes) {
+    try (
+        final ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(imageBytes))) {
+      final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (readers.hasNext()) {
+        final ImageReader reader = readers.next();
+        try {
+          if ("gif".equalsIgnoreCase(reader.getFormatName())) {
+            return null;
+          }
+          reader.setInput(in, true, true);
+          return new Dimension(reader.getWidth(0), reader.getHeight(0));
+        } finally {
+          reader.dispose();
+        }
+      }
+    } catch (final IOException | RuntimeException e) {
+      logger.log(Level.FINE, "getDecodableSize(): Unable to read image size.", e);
+    }
+    return null;
+  }
+
+  public Image getImage() {
+    return this.image;
+  }
+
+  /** Releases the decoded image. */
+  public void dispose() {
+    final Image img = this.image;
+    if (img != null) {
+      img.flush();
+    }
+    if (this.imageBytes != null) {
+      this.cancelPendingDecode();
+      this.image = null;
+      this.subsampling = 0;
+    }
+  }
+
+  private boolean isFitToWindow() {
+    return (this.imageBytes != null) && this.fitToWindow;
+  }
+
+  private void toggleFitToWindow() {
+    this.fitToWindow = !this.fitToWindow;
+    this.updateCursor();
+    this.updateDecoding();
+    this.revalidate();
+    this.repaint();
+  }
+
+  private void updateCursor() {
+    this.setCursor(Cursor.getPredefinedCursor(this.canZoom() ? Cursor.HAND_CURSOR : Cursor.DEFAULT_CURSOR));
+  }
+
+  private boolean canZoom() {
+    return !this.fitToWindow || (this.imageWidth > this.getWidth()) || (this.imageHeight > this.getHeight());
+  }
+
+  @Override
+  public void setBounds(final int x, final int y, final int width, final int height) {
+    super.setBounds(x, y, width, height);
+    if (this.imageBytes != null) {
+      this.updateCursor();
+      this.updateDecoding();
+    }
+  }
+
+  /**
+   * Decodes the image again, in the background, if the resolution it is shown
+   * at calls for a different subsampling than the one it was decoded with. A
+   * decode that is no longer wanted is dropped, or aborted if it has started.
+   */
+  private void updateDecoding() {
+    final Insets insets = this.getInsets();
+    final int availWidth = this.getWidth() - insets.left - insets.right;
+    final int availHeight = this.getHeight() - insets.top - insets.bottom;
+    if ((this.imageBytes == null) || (availWidth <= 0) || (availHeight <= 0)) {
+      return;
+    }
+    final int newSubsampling = this.isFitToWindow() ? Math.max(1, Math.min(this.imageWidth / availWidth, this.imageHeight / availHeight)) : 1;
+    final DecodeTask pending = this.pendingDecode;
+    if (pending != null ? newSubsampling == pending.subsampling : newSubsampling == this.subsampling) {
+      return;
+    }
+    this.cancelPendingDecode();
+    if (newSubsampling == this.subsampling) {
+      return;
+    }
+    final DecodeTask task = new DecodeTask(newSubsampling);
+    this.pendingDecode = task;
+    decoderPool.schedule(task);
+  }
+
+  private void cancelPendingDecode() {
+    final DecodeTask pending = this.pendingDecode;
+    if (pending != null) {
+      this.pendingDecode = null;
+      decoderPool.cancel(pending);
+    }
+  }
+
+  private void decoded(final DecodeTask task, final BufferedImage decoded, final int newSubsampling) {
+    if (task != this.pendingDecode) {
+      // A different resolution was asked for in the meantime.
+      return;
+    }
+    this.pendingDecode = null;
+    if (decoded != null) {
+      final Image oldImage = this.image;
+      this.image = decoded;
+      this.subsampling = newSubsampling;
+      if (oldImage != null) {
+        oldImage.flush();
+      }
+      this.repaint();
+    }
+  }
+
+  private final class DecodeTask implements SimpleThreadPoolTask {
+    private final int subsampling;
+    // Guarded by this.
+    private boolean cancelled = false;
+    private ImageReader reader;
+
+    DecodeTask(final int subsampling) {
+      this.subsampling = subsampling;
+    }
+
+    public void run() {
+      final BufferedImage decoded = this.decode();
+      SwingUtilities.invokeLater(() -> decoded(this, decoded, this.subsampling));
+    }
+
+    private BufferedImage decode() {
+      try (
+          final ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(imageBytes))) {
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (readers.hasNext()) {
+          final ImageReader reader = readers.next();
+          try {
+            synchronized (this) {
+              if (this.cancelled) {
+                return null;
+              }
+              this.reader = reader;
+            }
+            reader.setInput(in, true, true);
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(this.subsampling, this.subsampling, 0, 0);
+            final BufferedImage decoded = reader.read(0, param);
+            synchronized (this) {
+              // An aborted read returns what it has decoded so far.
+              return this.cancelled ? null : decoded;
+            }
+          } finally {
+            synchronized (this) {
+              this.reader = null;
+            }
+            reader.dispose();
+          }
+        }
+      } catch (final IOException | RuntimeException | OutOfMemoryError e) {
+        logger.log(Level.WARNING, "decode(): Unable to decode image.", e);
+      }
+      return null;
+    }
+
+    public synchronized void cancel() {
+      this.cancelled = true;
+      if (this.reader != null) {
+        this.reader.abort();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "DecodeTask[subsampling=" + this.subsampling + "]";
+    }
+  }
+
   @Override
   public boolean imageUpdate(final Image img, final int infoflags, final int x, final int y, final int w, final int h) {
     if (((infoflags & ImageObserver.ALLBITS) != 0) || ((infoflags & ImageObserver.FRAMEBITS) != 0)) {
-      this.imageWidth = img.getWidth(this);
-      this.imageHeight = img.getHeight(this);
-      this.revalidate();
+      if (this.imageBytes == null) {
+        this.imageWidth = img.getWidth(this);
+        this.imageHeight = img.getHeight(this);
+        this.revalidate();
+      }
       this.repaint();
     }
     return true;
@@ -61,8 +302,32 @@ public class ImageScrollable extends JComponent implements Scrollable {
   @Override
   public void paintComponent(final Graphics g) {
     super.paintComponent(g);
+    final Image img = this.image;
+    if (img == null) {
+      return;
+    }
     final Insets insets = this.getInsets();
-    g.drawImage(this.image, insets.left, insets.top, this);
+    if (this.imageBytes == null) {
+      g.drawImage(img, insets.left, insets.top, this);
+      return;
+    }
+    int width = this.imageWidth;
+    int height = this.imageHeight;
+    if (this.isFitToWindow()) {
+      final int availWidth = this.getWidth() - insets.left - insets.right;
+      final int availHeight = this.getHeight() - insets.top - insets.bottom;
+      if ((((long) width) * availHeight) > (((long) height) * availWidth)) {
+        if (width > availWidth) {
+          height = (int) ((((long) height) * availWidth) / width);
+          width = availWidth;
+        }
+      } else if (height > availHeight) {
+        width = (int) ((((long) width) * availHeight) / height);
+        height = availHeight;
+      }
+    }
+    ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(img, insets.left, insets.top, width, height, this);
   }
 
   @Override
@@ -89,10 +354,10 @@ public class ImageScrollable extends JComponent implements Scrollable {
   }
 
   public boolean getScrollableTracksViewportWidth() {
-    return false;
+    return this.isFitToWindow();
   }
 
   public boolean getScrollableTracksViewportHeight() {
-    return false;
+    return this.isFitToWindow();
   }
 }
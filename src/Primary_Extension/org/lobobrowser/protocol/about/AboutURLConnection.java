@@ -32,6 +32,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
 import java.util.TreeSet;
 
@@ -41,6 +42,10 @@ import org.lobobrowser.primary.ext.BookmarksHistory;
 import org.lobobrowser.primary.ext.HistoryEntry;
 import org.lobobrowser.primary.settings.SearchEngine;
 import org.lobobrowser.primary.settings.ToolsSettings;
+import org.lobobrowser.request.RequestEngine;
+import org.lobobrowser.request.RequestScheduler.QueueStats;
+import org.lobobrowser.request.RequestTiming;
+import org.lobobrowser.request.RequestTiming.Phase;
 import org.lobobrowser.util.Strings;
 import org.lobobrowser.util.Timing;
 
@@ -110,6 +115,8 @@ public class AboutURLConnection extends URLConnection {
       }
     } else if ("java-properties".equals(path)) {
       return getSystemProperties();
+    } else if ("network".equals(path)) {
+      return getNetworkTimings();
     } else if ("welcome".equals(path)) {
       return getWelcomeMessage();
     } else if ("confirmSearch".equals(path)) {
@@ -131,6 +138,7 @@ public class AboutURLConnection extends URLConnection {
           "<li><a href='about:bookmarks'>about:bookmarks</a></li>" +
           "<li><a href='about:bookmark-search?term'>about:bookmark-search?term</a></li>" +
           "<li><a href='about:java-properties'>about:java-properties</a></li>" +
+          "<li><a href='about:network'>about:network</a></li>" +
           "</ul>";
     }
   }
@@ -239,6 +247,106 @@ public class AboutURLConnection extends URLConnection {
     return swriter.toString();
   }
 
+  // Segments of the waterfall bar, in the order they happen. The connect
+  // segment ends where TLS starts, if there is TLS.
+  private static final Phase[][] WATERFALL_SEGMENTS = {
+      { Phase.QUEUED, Phase.DEQUEUED },
+      { Phase.CACHE_LOOKUP_START, Phase.CACHE_LOOKUP_END },
+      { Phase.DNS_START, Phase.DNS_END },
+      { Phase.CONNECT_START, Phase.CONNECT_END },
+      { Phase.TLS_START, Phase.TLS_END },
+      { Phase.REQUEST_SENT, Phase.FIRST_BYTE },
+      { Phase.FIRST_BYTE, Phase.LAST_BYTE } };
+  private static final String[] WATERFALL_LABELS = { "Queued", "Cache lookup", "DNS", "Connect", "TLS", "Waiting", "Download" };
+  private static final String[] WATERFALL_COLORS = { "#ccc", "#cc9", "#9c9", "#f90", "#c6f", "#9cf", "#36c" };
+
+  private static String getNetworkTimings() {
+    final List<RequestTiming> timings = RequestEngine.getInstance().getRecentTimings();
+    final StringWriter swriter = new StringWriter();
+    final PrintWriter writer = new PrintWriter(swriter);
+    writer.println("<html>");
+    writer.println("<head><title>Network</title></head>");
+    writer.println("<body>");
+    writeQueueStats(writer);
+    writer.println("<h3>Recent requests</h3>");
+    if (timings.size() == 0) {
+      writer.println("No requests have been made yet.");
+    } else {
+      // Timings are in the order requests finished, not started.
+      long firstStart = Long.MAX_VALUE;
+      for (final RequestTiming timing : timings) {
+        firstStart = Math.min(firstStart, timing.getStartTime());
+      }
+      long lastEnd = firstStart + 1;
+      for (final RequestTiming timing : timings) {
+        lastEnd = Math.max(lastEnd, timing.getStartTime() + (timing.getNanos(Phase.DONE) / 1000000));
+      }
+      final double scale = 100.0 / (lastEnd - firstStart);
+      writer.print("<p>");
+      for (int i = 0; i < WATERFALL_LABELS.length; i++) {
+        writer.print("<span style='background:" + WATERFALL_COLORS[i] + "'>&nbsp;&nbsp;&nbsp;</span> " + WATERFALL_LABELS[i] + "&nbsp;&nbsp;");
+      }
+      writer.println("</p>");
+      writer.println("<table style='font-size:80%;width:100%'>");
+      writer.println("<tr><th>URL</th><th>Kind</th><th>Status</th><th>Start (ms)</th><th>Total (ms)</th><th style='width:40%'>Waterfall</th></tr>");
+      for (final RequestTiming timing : timings) {
+        writeTimingRow(writer, timing, timing.getStartTime() - firstStart, scale);
+      }
+      writer.println("</table>");
+    }
+    writer.println("</body>");
+    writer.println("</html>");
+    writer.flush();
+    return swriter.toString();
+  }
+
+  private static void writeQueueStats(final PrintWriter writer) {
+    writer.println("<h3>Request queues</h3>");
+    writer.println("<table style='font-size:80%'>");
+    writer.println("<tr><th>Priority</th><th>Waiting</th><th>Dispatched</th><th>Average wait (ms)</th><th>Longest wait (ms)</th></tr>");
+    for (final QueueStats stats : RequestEngine.getInstance().getQueueStats()) {
+      writer.println("<tr><td>" + stats.priority + "</td><td>" + stats.queued + "</td><td>" + stats.dispatched + "</td><td>"
+          + stats.getAverageWaitMillis() + "</td><td>" + stats.maxWaitMillis + "</td></tr>");
+    }
+    writer.println("</table>");
+  }
+
+  private static void writeTimingRow(final PrintWriter writer, final RequestTiming timing, final long startOffset, final double scale) {
+    final String urlText = timing.getURL().toExternalForm();
+    final String status = (timing.getResponseCode() == -1 ? "-" : String.valueOf(timing.getResponseCode()))
+        + (timing.isFromCache() ? " (cache)" : "") + (timing.isConnectionReused() ? " (reused)" : "");
+    writer.println("<tr>");
+    writer.println("<td title='" + Strings.strictHtmlEncode(urlText, true) + "'>" + timing.getMethod() + " "
+        + Strings.strictHtmlEncode(Strings.truncate(urlText, 80), false) + "</td>");
+    writer.println("<td>" + timing.getKind().map(k -> k.toString()).orElse("") + "</td>");
+    writer.println("<td>" + status + "</td>");
+    writer.println("<td>" + startOffset + "</td>");
+    writer.println("<td>" + Math.round(timing.getMillisBetween(Phase.QUEUED, Phase.DONE)) + "</td>");
+    writer.print("<td><div style='white-space:nowrap;margin-left:" + String.format("%.2f", startOffset * scale) + "%'>");
+    long cursor = 0;
+    for (int i = 0; i < WATERFALL_SEGMENTS.length; i++) {
+      final long from = timing.getNanos(WATERFALL_SEGMENTS[i][0]);
+      long to = timing.getNanos(WATERFALL_SEGMENTS[i][1]);
+      if ((WATERFALL_SEGMENTS[i][0] == Phase.CONNECT_START) && (timing.getNanos(Phase.TLS_START) != -1)) {
+        to = timing.getNanos(Phase.TLS_START);
+      }
+      if ((from != -1) && (to > from) && (from >= cursor)) {
+        writeWaterfallSpan(writer, null, "transparent", from - cursor, scale);
+        writeWaterfallSpan(writer, WATERFALL_LABELS[i], WATERFALL_COLORS[i], to - from, scale);
+        cursor = to;
+      }
+    }
+    writer.println("</div></td>");
+    writer.println("</tr>");
+  }
+
+  private static void writeWaterfallSpan(final PrintWriter writer, final String label, final String color, final long nanos,
+      final double scale) {
+    final double millis = nanos / 1e6;
+    writer.print("<span" + (label == null ? "" : " title='" + label + ": " + String.format("%.1f", millis) + " ms'")
+        + " style='display:inline-block;height:1em;background:" + color + ";width:" + String.format("%.2f", millis * scale) + "%'></span>");
+  }
+
   private static String getBookmarks() {
     final BookmarksHistory history = BookmarksHistory.getInstance();
     return getBookmarks(history.getAllEntries());